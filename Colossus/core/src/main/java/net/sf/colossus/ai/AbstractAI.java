@@ -11,11 +11,14 @@ import java.util.List;
 import java.util.Map;
 import java.util.Random;
 import java.util.Set;
+import java.util.Timer;
 import java.util.logging.Logger;
 
 import net.sf.colossus.ai.helper.BattleEvalConstants;
+import net.sf.colossus.ai.helper.BattleOdds;
 import net.sf.colossus.ai.helper.CritterMove;
 import net.sf.colossus.ai.helper.LegionMove;
+import net.sf.colossus.client.BattleClientSide;
 import net.sf.colossus.client.Client;
 import net.sf.colossus.client.LegionClientSide;
 import net.sf.colossus.common.Constants;
@@ -76,6 +79,13 @@ public abstract class AbstractAI implements AI
 
     /** Our random source. */
     final protected Random random = new DevRandom();
+
+    /**
+     * The battle snapshot the current thread evaluates moves on, if any.
+     * Unset (null) means the real battle of the client.
+     * See getBattleCS() and setBattleSnapshot().
+     */
+    private final ThreadLocal<BattleClientSide> battleSnapshot = new ThreadLocal<BattleClientSide>();
     /**
      * For the Oracle Hint stuff, the play style we use.
      *
@@ -231,9 +241,10 @@ public abstract class AbstractAI implements AI
     final public Map<BattleHex, Integer> findStrikeMap()
     {
         Map<BattleHex, Integer> map = new HashMap<BattleHex, Integer>();
-        for (BattleCritter critter : client.getActiveBattleUnits())
+        BattleClientSide battle = getBattleCS();
+        for (BattleCritter critter : battle.getActiveBattleUnits())
         {
-            Set<BattleHex> targets = client.findStrikes(critter.getTag());
+            Set<BattleHex> targets = battle.findTargets(critter, true);
             for (BattleHex targetHex : targets)
             {
                 Integer old = map.get(targetHex);
@@ -474,7 +485,7 @@ public abstract class AbstractAI implements AI
     final protected boolean hasOpponentNativeCreature(HazardTerrain terrain)
     {
         boolean honc = false;
-        for (BattleCritter critter : client.getInactiveBattleUnits())
+        for (BattleCritter critter : getBattleCS().getInactiveBattleUnits())
         {
             if (critter.getType().isNativeIn(terrain))
             {
@@ -490,7 +501,7 @@ public abstract class AbstractAI implements AI
     final protected int rangeToClosestOpponent(final BattleHex hex)
     {
         int range = Constants.BIGNUM;
-        for (BattleCritter critter : client.getInactiveBattleUnits())
+        for (BattleCritter critter : getBattleCS().getInactiveBattleUnits())
         {
             BattleHex hex2 = critter.getCurrentHex();
             int r = Battle.getRange(hex, hex2, false);
@@ -579,7 +590,7 @@ public abstract class AbstractAI implements AI
                 duplicateHexChecker.add(cm.getEndingHex());
             }
 
-            LegionMove lm = makeLegionMove(indexes, critterMoves);
+            LegionMove lm = makeLegionMove(indexes.clone(), critterMoves);
             // Put offboard moves last, so they'll be skipped if the AI
             // runs out of time.
             if (offboard)
@@ -633,18 +644,59 @@ public abstract class AbstractAI implements AI
      *  a list of indexes, one per MoveList.
      *  This return a LegionMove, made of one CritterMove per
      *  MoveList. The CritterMove is selected by the index.
+     *  The LegionMove keeps indexes and refers to critterMoves, so
+     *  neither must be modified afterwards.
      */
     final public static LegionMove makeLegionMove(int[] indexes,
         List<List<CritterMove>> critterMoves)
     {
-        LegionMove lm = new LegionMove();
-        for (int i = 0; i < indexes.length; i++)
-        {
-            List<CritterMove> moveList = critterMoves.get(i);
-            CritterMove cm = moveList.get(indexes[i]);
-            lm.add(cm);
-        }
-        return lm;
+        return new LegionMove(critterMoves, indexes);
+    }
+
+    /** Evaluate the LegionMove, and set its value. Asks only getBattleCS()
+     *  about the battle, so that it can run on a snapshot of it. */
+    protected abstract int evaluateLegionBattleMove(LegionMove lm);
+
+    /** Whether the timer of setupTimer() has run out */
+    protected abstract boolean isTimeUp();
+
+    /** Start the timer for the time limit of a search */
+    abstract Timer setupTimer();
+
+    /** Like findBestLegionMove, but evaluates the moves in several threads,
+     *  each on a snapshot of the battle. */
+    protected LegionMove findBestLegionMoveInParallel(
+        Collection<LegionMove> legionMoves, int minIterations)
+    {
+        LegionMoveSearch search = new LegionMoveSearch(getBattleCS(),
+            new LegionMoveSearch.Evaluator()
+            {
+                public int evaluateLegionBattleMove(LegionMove lm)
+                {
+                    return AbstractAI.this.evaluateLegionBattleMove(lm);
+                }
+
+                public boolean isTimeUp()
+                {
+                    return AbstractAI.this.isTimeUp();
+                }
+
+                public void setBattleSnapshot(BattleClientSide snapshot)
+                {
+                    AbstractAI.this.setBattleSnapshot(snapshot);
+                }
+            }, minIterations);
+
+        Timer findBestLegionMoveTimer = setupTimer();
+        LegionMove best = search.findBest(legionMoves);
+        findBestLegionMoveTimer.cancel();
+
+        LOGGER.finer("Best legion move of " + search.getCount()
+            + " checked in parallel (turn " + client.getBattleTurnNumber()
+            + "): "
+            + ((best == null) ? "none " : best.getStringWithEvaluation())
+            + " (" + search.getBestScore() + ")");
+        return best;
     }
 
     /** Modify allCritterMoves in place, and return true if it changed. */
@@ -809,15 +861,68 @@ public abstract class AbstractAI implements AI
         LOGGER.finer("A battle is finished.");
     }
 
-    // TODO get directly, not via Client
+    /**
+     * The battle the evaluation functions should look at: the snapshot
+     * the current thread is working on, or the client's real battle if
+     * there is none.
+     * All code that evaluates battle moves must ask this one instead of
+     * the client, otherwise it would not be safe to run several
+     * evaluations in parallel.
+     */
+    public BattleClientSide getBattleCS()
+    {
+        BattleClientSide snapshot = battleSnapshot.get();
+        if (snapshot != null)
+        {
+            return snapshot;
+        }
+        return client.getBattleCS();
+    }
+
+    /**
+     * Make the current thread use the given battle snapshot (or, when
+     * null, the real battle again) in all evaluation functions.
+     *
+     * @param snapshot A snapshot created via
+     *   BattleClientSide(BattleClientSide) which is not used by any
+     *   other thread, or null
+     */
+    protected void setBattleSnapshot(BattleClientSide snapshot)
+    {
+        if (snapshot == null)
+        {
+            battleSnapshot.remove();
+        }
+        else
+        {
+            battleSnapshot.set(snapshot);
+        }
+    }
+
+    /**
+     * Return the critter in the battle we currently evaluate which
+     * corresponds to the given one. CritterMoves always refer to the
+     * critters of the real battle, and when working on a snapshot
+     * we must move the snapshot's copy of it instead.
+     */
+    protected BattleCritter getEvaluationCritter(BattleCritter critter)
+    {
+        BattleClientSide snapshot = battleSnapshot.get();
+        if (snapshot == null)
+        {
+            return critter;
+        }
+        return snapshot.getBattleUnit(critter.getTag());
+    }
+
     protected BattleUnit getBattleUnit(BattleHex hex)
     {
-        return client.getBattleCS().getBattleUnit(hex);
+        return getBattleCS().getBattleUnit(hex);
     }
 
     public BattleStrike getBattleStrike()
     {
-        return client.getGame().getBattleStrike();
+        return getBattleCS().getBattleStrike();
     }
 
     final public int countCreatureAccrossAllLegionFromPlayer(Creature creature)
@@ -973,6 +1078,184 @@ public abstract class AbstractAI implements AI
 
     }
 
+    /**
+     * The creatures of a legion as PowerSkill values in the given terrain.
+     */
+    public List<PowerSkill> getCombatList(Legion legion,
+        MasterBoardTerrain terrain, boolean defender)
+    {
+        return getCombatList(legion.getCreatureTypes(), legion.getPlayer()
+            .getTitanPower(), terrain, defender);
+    }
+
+    /**
+     * The creatures as PowerSkill values in the given terrain.
+     *
+     * @param titanPower The power of the Titan, if there is one
+     */
+    public List<PowerSkill> getCombatList(List<CreatureType> creatures,
+        int titanPower, MasterBoardTerrain terrain, boolean defender)
+    {
+        List<PowerSkill> powerskills = new ArrayList<PowerSkill>();
+        for (CreatureType creature : creatures)
+        {
+            if (creature.getName().startsWith(Constants.titan))
+            {
+                // Assume that Titans
+                // take only a minimal part in the combat.
+                // Here we have to include them in the list
+                // of creatures so that the AI knows to jump
+                // titan singletons
+                PowerSkill ps = new PowerSkill("Titan", Math.max(
+                    titanPower - 5, 1), creature.getSkill());
+                powerskills.add(ps);
+            }
+            else
+            {
+                PowerSkill ps = getNativeValue(creature, terrain, defender);
+                powerskills.add(ps);
+            }
+        }
+        return powerskills;
+    }
+
+    /**
+     * The odds of a battle in the given hex, see {@link BattleOdds}.
+     *
+     * @param attackers The attacking creatures
+     * @param attackerPlayer The owner of the attacking creatures
+     * @param defender The defending legion
+     * @param angel The angel the attacker can summon, or null
+     */
+    protected BattleOdds getBattleOdds(List<CreatureType> attackers,
+        Player attackerPlayer, Legion defender, MasterHex hex,
+        CreatureType angel)
+    {
+        return getBattleOdds(attackers, attackerPlayer, defender, hex, angel,
+            1.0);
+    }
+
+    /**
+     * The odds of a battle in the given hex, with the hit points of the
+     * defending creatures scaled by defenderFactor, for advantages or
+     * disadvantages of the terrain the PowerSkill values don't cover.
+     */
+    protected BattleOdds getBattleOdds(List<CreatureType> attackers,
+        Player attackerPlayer, Legion defender, MasterHex hex,
+        CreatureType angel, double defenderFactor)
+    {
+        MasterBoardTerrain terrain = hex.getTerrain();
+        List<PowerSkill> defenders = getCombatList(defender, terrain, true);
+        if (defenderFactor != 1.0)
+        {
+            List<PowerSkill> scaled = new ArrayList<PowerSkill>();
+            for (PowerSkill ps : defenders)
+            {
+                scaled.add(new PowerSkill(ps.getName(), (int)Math.max(1,
+                    Math.round(ps.getHP() * defenderFactor)), ps
+                    .getPowerAttack(), ps.getPowerDefend(), ps
+                    .getSkillAttack(), ps.getSkillDefend()));
+            }
+            defenders = scaled;
+        }
+        return BattleOdds.get(getCombatList(attackers, attackerPlayer
+            .getTitanPower(), terrain, false), defenders, angel == null ? null
+            : getNativeValue(angel, terrain, false));
+    }
+
+    /** Results of classifyBattle(), best for the attacker first */
+    protected static final int WIN_WITH_MINIMAL_LOSSES = 0;
+    protected static final int WIN_WITH_HEAVY_LOSSES = 1;
+    protected static final int DRAW = 2;
+    protected static final int LOSE_BUT_INFLICT_HEAVY_LOSSES = 3;
+    protected static final int LOSE = 4;
+
+    /* can be overloaded by subclass -> not final */
+    // TODO turn into some more Javaish code, particularly in terms of naming conventions,
+    // ideally this should be all encapsulated in a configuration object
+    /** Minimal probability to win for WIN_WITH_MINIMAL_LOSSES */
+    double ODDS_WIN_MINIMAL_LOSS()
+    {
+        return 0.95;
+    }
+
+    /** Minimal probability to win for WIN_WITH_HEAVY_LOSSES */
+    double ODDS_WIN_HEAVY_LOSS()
+    {
+        return 0.70;
+    }
+
+    /** Minimal probability to win for DRAW */
+    double ODDS_DRAW()
+    {
+        return 0.15;
+    }
+
+    /** Minimal expected fraction of the defender killed for
+     *  LOSE_BUT_INFLICT_HEAVY_LOSSES */
+    double ODDS_LOSE_HEAVY_LOSS()
+    {
+        return 0.30;
+    }
+
+    /** Maximal expected fraction of the attacker killed for
+     *  WIN_WITH_MINIMAL_LOSSES */
+    private static final double MINIMAL_LOSSES = 0.45;
+
+    /**
+     * Classify the expected outcome of a battle by the odds of the
+     * attacking creatures against the defender.
+     *
+     * @param attackers The attacking creatures, as they will be in the
+     *   battle (e.g. after a split or a recruit)
+     * @param attacker The legion they are in
+     * @return One of WIN_WITH_MINIMAL_LOSSES, WIN_WITH_HEAVY_LOSSES, DRAW,
+     *   LOSE_BUT_INFLICT_HEAVY_LOSSES and LOSE
+     */
+    protected int classifyBattle(List<CreatureType> attackers,
+        Legion attacker, Legion defender, MasterHex hex)
+    {
+        // The defender's advantage in the tower is in the skill bonuses
+        // of getCombatList() already (walls); the Abyss is not.
+        double defenderFactor = 1.0;
+        if (hex.getTerrain().getDisplayName().equals("Abyss")) // The Abyss, in variants
+        {
+            // defender in the abyss!  Kill!
+            defenderFactor = 0.8;
+        }
+
+        BattleOdds odds = getBattleOdds(attackers, attacker.getPlayer(),
+            defender, hex, null, defenderFactor);
+
+        LOGGER.finer("Evaluating battle for attacker " + attacker.getMarkerId()
+            + ", defender " + defender.getMarkerId() + " in hex "
+            + hex.getDescription() + ": " + odds);
+
+        if (odds.getAttackerWins() >= ODDS_WIN_MINIMAL_LOSS()
+            && odds.getAttackerDeadValue() <= MINIMAL_LOSSES
+                * odds.getAttackerValue())
+        {
+            return WIN_WITH_MINIMAL_LOSSES;
+        }
+        else if (odds.getAttackerWins() >= ODDS_WIN_HEAVY_LOSS())
+        {
+            return WIN_WITH_HEAVY_LOSSES;
+        }
+        else if (odds.getAttackerWins() >= ODDS_DRAW())
+        {
+            return DRAW;
+        }
+        else if (odds.getDefenderDeadValue() >= ODDS_LOSE_HEAVY_LOSS()
+            * odds.getDefenderValue())
+        {
+            return LOSE_BUT_INFLICT_HEAVY_LOSSES;
+        }
+        else
+        {
+            return LOSE;
+        }
+    }
+
     public int getTitanInvincibleThreshold()
     {
         // By default 3 Colossi
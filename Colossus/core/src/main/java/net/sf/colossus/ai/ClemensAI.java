@@ -13,6 +13,7 @@ import java.util.Map.Entry;
 import java.util.Set;
 import java.util.Timer;
 import java.util.TimerTask;
+import java.util.logging.Level;
 import java.util.logging.Logger;
 
 import net.sf.colossus.ai.helper.CritterMove;
@@ -66,7 +67,7 @@ public class ClemensAI extends AbstractAI
         .getName());
 
     protected int timeLimit = Constants.DEFAULT_AI_TIME_LIMIT; // in s
-    boolean timeIsUp;
+    volatile boolean timeIsUp;
     private int splitsDone = 0;
     private int splitsAcked = 0;
     private List<String> remainingMarkers = null;
@@ -1699,35 +1700,6 @@ public class ClemensAI extends AbstractAI
         }
     }
 
-    private static final int WIN_WITH_MINIMAL_LOSSES = 0;
-    private static final int WIN_WITH_HEAVY_LOSSES = 1;
-    private static final int DRAW = 2;
-    private static final int LOSE_BUT_INFLICT_HEAVY_LOSSES = 3;
-    private static final int LOSE = 4;
-
-    /* can be overloaded by subclass -> not final */
-    // TODO turn into some more Javaish code, particularly in terms of naming conventions,
-    // ideally this should be all encapsulated in a configuration object
-    double RATIO_WIN_MINIMAL_LOSS()
-    {
-        return 1.30;
-    }
-
-    double RATIO_WIN_HEAVY_LOSS()
-    {
-        return 1.15;
-    }
-
-    double RATIO_DRAW()
-    {
-        return 0.85;
-    }
-
-    double RATIO_LOSE_HEAVY_LOSS()
-    {
-        return 0.70;
-    }
-
     private int estimateBattleResults(Legion attacker, Legion defender,
         MasterHex hex)
     {
@@ -1745,73 +1717,26 @@ public class ClemensAI extends AbstractAI
         boolean attackerSplitsBeforeBattle, Legion defender, MasterHex hex,
         CreatureType recruit)
     {
-        MasterBoardTerrain terrain = hex.getTerrain();
-        double attackerPointValue = getCombatValue(attacker, terrain, true);
-        LOGGER.finest("Evaluating attacking in hex " + hex.getDescription()
-            + ": attacker point value raw " + attackerPointValue);
-
+        List<CreatureType> attackers = new ArrayList<CreatureType>(attacker
+            .getCreatureTypes());
         if (attackerSplitsBeforeBattle)
         {
-            // remove PV of the split
+            // remove the split
             List<CreatureType> creaturesToRemove = chooseCreaturesToSplitOut(attacker);
             for (CreatureType creature : creaturesToRemove)
             {
-                attackerPointValue -= getCombatValue(creature, terrain);
+                attackers.remove(creature);
             }
         }
 
         if (recruit != null)
         {
-            // Log.debug("adding in recruited " + recruit +
-            // " when evaluating battle");
-            attackerPointValue += getCombatValue(recruit, terrain);
+            attackers.add(recruit);
         }
         // TODO: add angel call
-
-        double defenderPointValue = getCombatValue(defender, terrain, false);
         // TODO: add in enemy's most likely turn 4 recruit
 
-        if (hex.getTerrain().isTower())
-        {
-            // defender in the tower!  ouch!
-            defenderPointValue *= 1.2;
-        }
-        else if (hex.getTerrain().getDisplayName().equals("Abyss")) // The Abyss, in variants
-        {
-            // defender in the abyss!  Kill!
-            defenderPointValue *= 0.8;
-        }
-
-        // really dumb estimator
-        double ratio = attackerPointValue / defenderPointValue;
-
-        LOGGER.finer("Evaluating battle for attacker " + attacker.getMarkerId()
-            + ", defender " + defender.getMarkerId());
-        LOGGER.finest("attacker point value " + attackerPointValue);
-        LOGGER.finest("defender point value " + defenderPointValue);
-        LOGGER.finest("ratio                " + ratio);
-
-        if (ratio >= RATIO_WIN_MINIMAL_LOSS())
-        {
-            return WIN_WITH_MINIMAL_LOSSES;
-        }
-        else if (ratio >= RATIO_WIN_HEAVY_LOSS())
-        {
-            return WIN_WITH_HEAVY_LOSSES;
-        }
-        else if (ratio >= RATIO_DRAW())
-        {
-            return DRAW;
-        }
-        else if (ratio >= RATIO_LOSE_HEAVY_LOSS())
-        {
-            return LOSE_BUT_INFLICT_HEAVY_LOSSES;
-        }
-        else
-        // ratio less than 0.70
-        {
-            return LOSE;
-        }
+        return classifyBattle(attackers, attacker, defender, hex);
     }
 
     // This is a really dumb placeholder.  TODO Make it smarter.
@@ -2751,6 +2676,7 @@ public class ClemensAI extends AbstractAI
         return moveList;
     }
 
+    @Override
     Timer setupTimer()
     {
         // java.util.Timer, not Swing Timer
@@ -2766,6 +2692,12 @@ public class ClemensAI extends AbstractAI
         return timer;
     }
 
+    @Override
+    protected boolean isTimeUp()
+    {
+        return timeIsUp;
+    }
+
     protected final static int MIN_ITERATIONS = 50;
 
     /** Evaluate all legion moves in the list, and return the best one.
@@ -2778,6 +2710,11 @@ public class ClemensAI extends AbstractAI
         if (legionMoves instanceof List)
             Collections.shuffle((List<LegionMove>)legionMoves, random);
 
+        if (LegionMoveSearch.isEnabled())
+        {
+            return findBestLegionMoveInParallel(legionMoves, MIN_ITERATIONS);
+        }
+
         Timer findBestLegionMoveTimer = setupTimer();
 
         int count = 0;
@@ -2788,10 +2725,13 @@ public class ClemensAI extends AbstractAI
             {
                 bestScore = score;
                 best = lm;
-                LOGGER.finest("INTERMEDIATE Best legion move: "
-                    + lm.getStringWithEvaluation() + " (" + score + ")");
+                if (LOGGER.isLoggable(Level.FINEST))
+                {
+                    LOGGER.finest("INTERMEDIATE Best legion move: "
+                        + lm.getStringWithEvaluation() + " (" + score + ")");
+                }
             }
-            else
+            else if (LOGGER.isLoggable(Level.FINEST))
             {
                 LOGGER.finest("INTERMEDIATE      legion move: "
                     + lm.getStringWithEvaluation() + " (" + score + ")");
@@ -2876,10 +2816,11 @@ public class ClemensAI extends AbstractAI
     int addGangUpOnOpponentBonus(ValueRecorder value)
     {
         int contactBonus = 0;
-        List<BattleUnit> enemyCritters = client.getInactiveBattleUnits();
+        List<BattleUnit> enemyCritters = getBattleCS()
+            .getInactiveBattleUnits();
         for (BattleUnit critter : enemyCritters)
         {
-            int inContact = client.getBattleCS().countInContact(critter, true);
+            int inContact = getBattleCS().countInContact(critter, true);
             String msg = "Enemy " + critter.getDescription() + " attacked by "
                 + inContact + " or our critters.";
             // System.out.println(msg);
@@ -3031,7 +2972,7 @@ public class ClemensAI extends AbstractAI
         // Attacker, non-titan, needs to charge.
         // Head for enemy creatures.
         value.add(bec.ATTACKER_DISTANCE_FROM_ENEMY_PENALTY
-            * client.getBattleCS().minRangeToEnemy(critter),
+            * getBattleCS().minRangeToEnemy(critter),
             "AttackerDistanceFromEnemyPenalty");
     }
 
@@ -3332,12 +3273,13 @@ public class ClemensAI extends AbstractAI
             return value.getValue();
         }
 
-        Set<BattleHex> targetHexes = client.findStrikes(critter.getTag());
+        Set<BattleHex> targetHexes = getBattleCS().findTargets(critter,
+            true);
         int numTargets = targetHexes.size();
 
         if (numTargets >= 1)
         {
-            if (!client.isInContact(critter, true))
+            if (!getBattleCS().isInContact(critter, true))
             {
                 evaluateCritterMove_Rangestrike(critter, strikeMap, value,
                     terrain, hex, power, skill, legion, turn, targetHexes);
@@ -3372,7 +3314,7 @@ public class ClemensAI extends AbstractAI
             {
                 BattleHex neighbor = hex.getNeighbor(i);
                 if (neighbor != null
-                    && client.getGame().getBattle().isOccupied(neighbor))
+                    && getBattleCS().isOccupied(neighbor))
                 {
                     BattleCritter other = getBattleUnit(neighbor);
                     if (other.isDefender() == critter.isDefender())
@@ -3405,27 +3347,32 @@ public class ClemensAI extends AbstractAI
      * into place (according to LegionMove), or we are called from GUI to
      * evaluate actual situation on battle board.
      * @param lm
+     * @param explain Whether to store the explanations in the LegionMove
      * @return
      */
-    protected int doMoveEvaluationCalculation(LegionMove lm)
+    protected int doMoveEvaluationCalculation(LegionMove lm, boolean explain)
     {
         Map<BattleHex, Integer> strikeMap = findStrikeMap();
 
         // Find the sum of all critter evals.
         int sum = 0;
-        for (CritterMove cm : lm.getCritterMoves())
+        for (int i = 0; i < lm.size(); i++)
         {
-            ValueRecorder why = new ValueRecorder();
-            int val = evaluateCritterMove(cm.getCritter(), strikeMap, why);
-            lm.setEvaluate(cm, why.toString());
+            ValueRecorder why = new ValueRecorder(explain);
+            int val = evaluateCritterMove(getEvaluationCritter(lm
+                .getCritterMove(i).getCritter()), strikeMap, why);
+            if (explain)
+            {
+                lm.setEvaluate(i, why.toString());
+            }
             sum += val;
         }
 
         // Additionally whole position evaluation
         {
-            ValueRecorder why = new ValueRecorder();
+            ValueRecorder why = new ValueRecorder(explain);
             int val = evaluateLegionBattleMoveAsAWhole(lm, strikeMap, why);
-            if (!why.isEmpty())
+            if (explain && !why.isEmpty())
             {
                 lm.setEvaluate(why.toString());
             }
@@ -3434,22 +3381,29 @@ public class ClemensAI extends AbstractAI
         return sum;
     }
 
+    @Override
     protected int evaluateLegionBattleMove(LegionMove lm)
     {
         lm.resetEvaluate();
 
         // First we need to move all critters into position.
-        for (CritterMove cm : lm.getCritterMoves())
+        for (int i = 0; i < lm.size(); i++)
         {
-            cm.getCritter().moveToHex(cm.getEndingHex());
+            CritterMove cm = lm.getCritterMove(i);
+            getEvaluationCritter(cm.getCritter()).moveToHex(
+                cm.getEndingHex());
         }
 
-        int sum = doMoveEvaluationCalculation(lm);
+        // Explanations are only wanted in the FINEST log.
+        int sum = doMoveEvaluationCalculation(lm,
+            LOGGER.isLoggable(Level.FINEST));
 
         // Finally, move them all back.
-        for (CritterMove cm : lm.getCritterMoves())
+        for (int i = 0; i < lm.size(); i++)
         {
-            cm.getCritter().moveToHex(cm.getStartingHex());
+            CritterMove cm = lm.getCritterMove(i);
+            getEvaluationCritter(cm.getCritter()).moveToHex(
+                cm.getStartingHex());
         }
 
         lm.setValue(sum);
@@ -3459,7 +3413,7 @@ public class ClemensAI extends AbstractAI
 
     public LegionMove createLegionMove()
     {
-        LegionMove lm = new LegionMove();
+        List<CritterMove> critterMoves = new ArrayList<CritterMove>();
         for (BattleCritter critter : client.getActiveBattleUnits())
         {
             BattleHex startHex = critter.getStartingHex();
@@ -3468,10 +3422,9 @@ public class ClemensAI extends AbstractAI
             {
                 startHex = currHex;
             }
-            CritterMove cm = new CritterMove(critter, startHex, currHex);
-            lm.add(cm);
+            critterMoves.add(new CritterMove(critter, startHex, currHex));
         }
-        return lm;
+        return LegionMove.fromCritterMoves(critterMoves);
     }
 
     private void printlnEval(String text)
@@ -3493,7 +3446,7 @@ public class ClemensAI extends AbstractAI
     public void evaluateGivenLegionBattleMove(Legion activeLegion)
     {
         LegionMove lm = createLegionMove();
-        int sum = doMoveEvaluationCalculation(lm);
+        int sum = doMoveEvaluationCalculation(lm, true);
         printlnEval("");
         printlnEval(
             "LegionMove: " + lm.toStringAsIs() + " | Evaluation=" + sum);
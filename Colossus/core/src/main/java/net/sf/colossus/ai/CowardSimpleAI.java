@@ -25,29 +25,29 @@ public class CowardSimpleAI extends SimpleAI // NO_UCD
             .singletonList(IVariantHint.AIStyle.Defensive);
     }
 
-    /* up the ratios a little */
+    /* up the odds a little */
 
     @Override
-    double RATIO_WIN_MINIMAL_LOSS()
+    double ODDS_WIN_MINIMAL_LOSS()
     {
-        return 1.45;
+        return 0.98;
     }
 
     @Override
-    double RATIO_WIN_HEAVY_LOSS()
+    double ODDS_WIN_HEAVY_LOSS()
     {
-        return 1.25;
+        return 0.90;
     }
 
     @Override
-    double RATIO_DRAW()
+    double ODDS_DRAW()
     {
-        return 0.90;
+        return 0.30;
     }
 
     @Override
-    double RATIO_LOSE_HEAVY_LOSS()
+    double ODDS_LOSE_HEAVY_LOSS()
     {
-        return 0.75;
+        return 0.35;
     }
 }
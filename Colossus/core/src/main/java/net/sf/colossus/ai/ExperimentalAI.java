@@ -264,11 +264,12 @@ public class ExperimentalAI extends SimpleAI // NO_UCD
             boolean nobodyGetsHurt = true;
             int numCanBeReached = 0;
             int maxThatCanReach = 0;
-            for (BattleCritter critter : client.getActiveBattleUnits())
+            for (BattleCritter critter : getBattleCS().getActiveBattleUnits())
             {
                 int canReachMe = 0;
                 BattleHex myHex = critter.getCurrentHex();
-                for (BattleCritter foe : client.getInactiveBattleUnits())
+                for (BattleCritter foe : getBattleCS()
+                    .getInactiveBattleUnits())
                 {
                     BattleHex foeHex = foe.getCurrentHex();
                     int range = Battle.getRange(foeHex, myHex, true);
@@ -0,0 +1,296 @@
+package net.sf.colossus.ai;
+
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Logger;
+
+import net.sf.colossus.ai.helper.LegionMove;
+import net.sf.colossus.ai.helper.OnTheFlyLegionMove;
+import net.sf.colossus.client.BattleClientSide;
+import net.sf.colossus.common.Constants;
+
+
+/**
+ * Fork-join based search for the best LegionMove.
+ *
+ * The candidate moves are taken from the collection in batches, always
+ * in the calling thread (the collection might generate them lazily, like
+ * OnTheFlyLegionMove does). Each batch is split into chunks which are
+ * scored in parallel, and the chunk results are reduced to the best move.
+ * Every worker thread evaluates on a battle snapshot of its own, created
+ * when it first needs one during findBest(); the evaluation puts the
+ * critters back after each move, so the snapshot can be reused.
+ *
+ * Ties are resolved in favor of the move that comes first in the
+ * iteration order of the collection, which is what the sequential search
+ * does, too. So unless the time limit cuts the search short, the result
+ * does not depend on the number of threads or on how they were scheduled.
+ */
+class LegionMoveSearch
+{
+    private static final Logger LOGGER = Logger
+        .getLogger(LegionMoveSearch.class.getName());
+
+    /** How many moves are taken from the collection at once */
+    private static final int BATCH_SIZE = 1024;
+
+    /** Chunks up to this size are evaluated by one task, sequentially */
+    private static final int CHUNK_SIZE = 16;
+
+    /** Shared by all AIs in this JVM, created when first needed */
+    private static ForkJoinPool pool = null;
+
+    /**
+     * What the search needs from the AI that uses it.
+     */
+    interface Evaluator
+    {
+        /** Evaluate the move, in the battle AbstractAI.getBattleCS()
+         *  returns for the current thread. */
+        int evaluateLegionBattleMove(LegionMove lm);
+
+        boolean isTimeUp();
+
+        /** Make the current thread evaluate on the snapshot, or on the
+         *  real battle again if it is null, see
+         *  AbstractAI.setBattleSnapshot(). */
+        void setBattleSnapshot(BattleClientSide snapshot);
+    }
+
+    private final Evaluator evaluator;
+    private final int minIterations;
+    private final BattleClientSide battle;
+    private final ForkJoinPool forkJoinPool;
+    private final AtomicInteger count = new AtomicInteger(0);
+
+    /** The snapshot of each worker thread, during findBest() */
+    private final Map<Thread, BattleClientSide> snapshots = new ConcurrentHashMap<Thread, BattleClientSide>();
+
+    private int bestScore = Integer.MIN_VALUE;
+
+    /**
+     * @param battle The real battle, of which the snapshots are made
+     * @param evaluator Evaluation function and time limit of the AI
+     * @param minIterations How many moves to evaluate at least, even if
+     *   the time is up
+     */
+    LegionMoveSearch(BattleClientSide battle, Evaluator evaluator,
+        int minIterations)
+    {
+        this(battle, evaluator, minIterations, getPool());
+    }
+
+    /** Like the other constructor, but run in the given pool */
+    LegionMoveSearch(BattleClientSide battle, Evaluator evaluator,
+        int minIterations, ForkJoinPool forkJoinPool)
+    {
+        this.battle = battle;
+        this.evaluator = evaluator;
+        this.minIterations = minIterations;
+        this.forkJoinPool = forkJoinPool;
+    }
+
+    /** Whether the AIs should use this search instead of the sequential
+     *  one, see Constants.AI_BATTLE_THREADS */
+    static boolean isEnabled()
+    {
+        return Constants.AI_BATTLE_THREADS > 1;
+    }
+
+    private static synchronized ForkJoinPool getPool()
+    {
+        if (pool == null)
+        {
+            pool = new ForkJoinPool(Constants.AI_BATTLE_THREADS);
+            LOGGER.info("Created pool with " + Constants.AI_BATTLE_THREADS
+                + " threads for battle move evaluation.");
+        }
+        return pool;
+    }
+
+    /** Number of moves evaluated so far */
+    int getCount()
+    {
+        return count.get();
+    }
+
+    /** Score of the best move found, Integer.MIN_VALUE if none */
+    int getBestScore()
+    {
+        return bestScore;
+    }
+
+    private boolean shallStop()
+    {
+        return evaluator.isTimeUp() && count.get() >= minIterations;
+    }
+
+    /**
+     * Evaluate the moves (until time is up) and return the best one.
+     *
+     * @param legionMoves All candidate moves
+     * @return The best move, or null if there was none
+     */
+    LegionMove findBest(Collection<LegionMove> legionMoves)
+    {
+        Iterator<LegionMove> it = legionMoves.iterator();
+        Result best = null;
+        int firstIndex = 0;
+        try
+        {
+            while (!shallStop())
+            {
+                List<LegionMove> batch = takeBatch(it);
+                if (batch.isEmpty())
+                {
+                    break;
+                }
+                Result result = forkJoinPool.invoke(new EvaluateTask(batch,
+                    0, batch.size(), firstIndex));
+                best = Result.better(best, result);
+                firstIndex += batch.size();
+            }
+        }
+        finally
+        {
+            snapshots.clear();
+        }
+        if (best == null)
+        {
+            return null;
+        }
+        bestScore = best.score;
+        return best.move;
+    }
+
+    /** The snapshot of the current thread, created on first use */
+    private BattleClientSide getSnapshot()
+    {
+        // Only the thread itself puts its entry, so no race here
+        Thread thread = Thread.currentThread();
+        BattleClientSide snapshot = snapshots.get(thread);
+        if (snapshot == null)
+        {
+            snapshot = new BattleClientSide(battle);
+            snapshots.put(thread, snapshot);
+        }
+        return snapshot;
+    }
+
+    private List<LegionMove> takeBatch(Iterator<LegionMove> it)
+    {
+        List<LegionMove> batch = new ArrayList<LegionMove>(BATCH_SIZE);
+        while (batch.size() < BATCH_SIZE && it.hasNext())
+        {
+            batch.add(it.next());
+            // Evaluate this generation first, the next one is bred from it.
+            if (it instanceof OnTheFlyLegionMove.GenerationIterator
+                && ((OnTheFlyLegionMove.GenerationIterator)it)
+                    .remainingInGeneration() == 0)
+            {
+                break;
+            }
+        }
+        return batch;
+    }
+
+    /**
+     * Best move of some range of moves, plus its index in the iteration
+     * order for a stable tie-break.
+     */
+    private static class Result
+    {
+        private final LegionMove move;
+        private final int score;
+        private final int index;
+
+        Result(LegionMove move, int score, int index)
+        {
+            this.move = move;
+            this.score = score;
+            this.index = index;
+        }
+
+        static Result better(Result r1, Result r2)
+        {
+            if (r1 == null)
+            {
+                return r2;
+            }
+            if (r2 == null)
+            {
+                return r1;
+            }
+            if (r1.score != r2.score)
+            {
+                return r1.score > r2.score ? r1 : r2;
+            }
+            return r1.index <= r2.index ? r1 : r2;
+        }
+    }
+
+    @SuppressWarnings("serial")
+    private class EvaluateTask extends RecursiveTask<Result>
+    {
+        private final List<LegionMove> moves;
+        private final int from;
+        private final int to;
+        private final int firstIndex;
+
+        EvaluateTask(List<LegionMove> moves, int from, int to,
+            int firstIndex)
+        {
+            this.moves = moves;
+            this.from = from;
+            this.to = to;
+            this.firstIndex = firstIndex;
+        }
+
+        @Override
+        protected Result compute()
+        {
+            if (to - from <= CHUNK_SIZE)
+            {
+                return evaluateChunk();
+            }
+            int middle = (from + to) / 2;
+            EvaluateTask left = new EvaluateTask(moves, from, middle,
+                firstIndex);
+            EvaluateTask right = new EvaluateTask(moves, middle, to,
+                firstIndex);
+            left.fork();
+            Result rightResult = right.compute();
+            return Result.better(left.join(), rightResult);
+        }
+
+        private Result evaluateChunk()
+        {
+            Result best = null;
+            evaluator.setBattleSnapshot(getSnapshot());
+            try
+            {
+                for (int i = from; i < to && !shallStop(); i++)
+                {
+                    LegionMove lm = moves.get(i);
+                    int score = evaluator.evaluateLegionBattleMove(lm);
+                    count.incrementAndGet();
+                    best = Result.better(best, new Result(lm, score,
+                        firstIndex + i));
+                }
+            }
+            finally
+            {
+                evaluator.setBattleSnapshot(null);
+            }
+            return best;
+        }
+    }
+}
@@ -118,9 +118,8 @@ public class MilvangAI extends RationalAI // NO_UCD
 
         Combos<CreatureType> combos = new Combos<CreatureType>(critters,
             critters.size() - 2);
-        for (Iterator<List<CreatureType>> it = combos.iterator(); it.hasNext();)
+        for (List<CreatureType> keepers : combos)
         {
-            List<CreatureType> keepers = it.next();
             double critterValue = 0;
             boolean keepTitan = false;
             Map<CreatureType, Integer> critterMap = new HashMap<CreatureType, Integer>();
@@ -11,28 +11,22 @@ import java.util.logging.Level;
 import java.util.logging.Logger;
 
 import net.sf.colossus.ai.helper.LegionMove;
+import net.sf.colossus.client.BattleClientSide;
 import net.sf.colossus.client.Client;
 import net.sf.colossus.common.Constants;
 
 
 /**
- * DON'T USE THAT ONE YET.
- * This one implements a parallel findBestLegionMove. Unfortunately, SimpleAI
- * implementation of evaluateLegionBattleMove is anything but thread-safe, and
- * it goes very deep:
- * Evaluations functions mostly fall-back to asking the Client object property
- * of the current situation. So they have first to move all BattleCritter
- * (which are only a view of full BattleUnit) to the evaluated position, then
- * evaluate.
- * This version only tests the parallelism, so evaluateLegionBattleMove is
- * random.
- * We would need to
- * (1) implements Strike as BattleClientSide, a proper, per-battle extension of
- * Battle (the way it is done on with BattleServerSide)
- * (2) make sure all evaluate functions only use property of BattleClientSide,
- * even if that means changing the state of BattleClientSide.
- * (3) have a proper deep copy constructor in BattleClientSide, so we can work
- * on several variant at once.
+ * This one implements a parallel findBestLegionMove.
+ * SimpleAI's evaluateLegionBattleMove works by moving all BattleCritters
+ * to the evaluated position, and then asking the battle about the
+ * resulting situation. To do that in several threads at once, each worker
+ * thread gets its own deep copy of the BattleClientSide (a snapshot, see
+ * BattleClientSide(BattleClientSide)); all evaluation functions ask
+ * AbstractAI.getBattleCS() instead of the Client, which returns the
+ * snapshot of the current thread.
+ * The snapshots are created before the worker threads are started, i.e.
+ * in the client thread, so nothing changes the real battle meanwhile.
  * @author Romain Dolbeau
  */
 public class ParallelEvaluatorAI extends ExperimentalAI // NO_UCD
@@ -45,16 +39,10 @@ public class ParallelEvaluatorAI extends ExperimentalAI // NO_UCD
         super(client);
     }
 
-    @Override
-    protected int evaluateLegionBattleMove(LegionMove lm)
-    {
-        return random.nextInt(1000);
-    }
-
     private class findBestLegionMoveThread extends Thread
     {
 
-        private boolean timeIsUp = false;
+        private volatile boolean timeIsUp = false;
         LegionMove best = null;
 
         Timer threadedSetupTimer()
@@ -83,16 +71,32 @@ public class ParallelEvaluatorAI extends ExperimentalAI // NO_UCD
         }
 
         private final Iterator<LegionMove> iterator;
+        private final BattleClientSide snapshot;
 
-        findBestLegionMoveThread(Iterator<LegionMove> it)
+        findBestLegionMoveThread(Iterator<LegionMove> it,
+            BattleClientSide snapshot)
         {
             iterator = it;
+            this.snapshot = snapshot;
         }
 
         @Override
         public void run()
         {
-            LOGGER.finest("Running Thread number XXX");
+            setBattleSnapshot(snapshot);
+            try
+            {
+                findBest();
+            }
+            finally
+            {
+                setBattleSnapshot(null);
+            }
+        }
+
+        private void findBest()
+        {
+            LOGGER.finest("Running " + getName());
             int bestScore = Integer.MIN_VALUE;
             int count = 0;
 
@@ -114,18 +118,19 @@ public class ParallelEvaluatorAI extends ExperimentalAI // NO_UCD
                 }
                 if (lm != null)
                 {
-                    // this can't possibly work, as evaluateLegionBattleMove is
-                    // about as non-thread-safe as it is possible to be.
                     int score = evaluateLegionBattleMove(lm);
                     if (score > bestScore)
                     {
                         bestScore = score;
                         best = lm;
-                        LOGGER.finest("INTERMEDIATE Best legion move: "
-                            + lm.getStringWithEvaluation() + " (" + score
-                            + ")");
+                        if (LOGGER.isLoggable(Level.FINEST))
+                        {
+                            LOGGER.finest("INTERMEDIATE Best legion move: "
+                                + lm.getStringWithEvaluation() + " ("
+                                + score + ")");
+                        }
                     }
-                    else
+                    else if (LOGGER.isLoggable(Level.FINEST))
                     {
                         LOGGER.finest("INTERMEDIATE      legion move: "
                             + lm.getStringWithEvaluation() + " (" + score
@@ -162,7 +167,8 @@ public class ParallelEvaluatorAI extends ExperimentalAI // NO_UCD
         }
     }
 
-    private final static int NTHREADS = 2;
+    private final static int NTHREADS = Math.max(2, Runtime.getRuntime()
+        .availableProcessors());
 
     @Override
     protected LegionMove findBestLegionMove(Collection<LegionMove> legionMoves)
@@ -179,7 +185,8 @@ public class ParallelEvaluatorAI extends ExperimentalAI // NO_UCD
 
         for (int i = 0; i < NTHREADS; i++)
         {
-            threads[i] = new findBestLegionMoveThread(iterator);
+            threads[i] = new findBestLegionMoveThread(iterator,
+                new BattleClientSide(client.getBattleCS()));
             LOGGER.finest("Starting Thread number " + i);
             threads[i].start();
         }
@@ -10,16 +10,15 @@ import java.util.Hashtable;
 import java.util.Iterator;
 import java.util.LinkedList;
 import java.util.List;
-import java.util.ListIterator;
 import java.util.Map;
 import java.util.Set;
 import java.util.Timer;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
+import net.sf.colossus.ai.helper.BattleOdds;
 import net.sf.colossus.client.Client;
 import net.sf.colossus.client.LegionClientSide;
-import net.sf.colossus.common.Constants;
 import net.sf.colossus.game.Creature;
 import net.sf.colossus.game.Legion;
 import net.sf.colossus.game.Player;
@@ -28,7 +27,6 @@ import net.sf.colossus.util.MultiSet;
 import net.sf.colossus.variant.CreatureType;
 import net.sf.colossus.variant.MasterBoardTerrain;
 import net.sf.colossus.variant.MasterHex;
-import net.sf.colossus.variant.PowerSkill;
 import net.sf.colossus.xmlparser.TerrainRecruitLoader;
 
 
@@ -1961,204 +1959,20 @@ public class RationalAI extends SimpleAI
             // assume no risk that AIs will attack each other
             return new BattleResults(0, 0, 0);
         }
-        MasterBoardTerrain terrain = hex.getTerrain();
+        BattleOdds odds = getBattleOdds(attacker.getCreatureTypes(), attacker
+            .getPlayer(), defender, hex, callable);
+        List<String> log = new ArrayList<String>(3);
+        log.add("Attacker " + attacker.getCreatureTypes());
+        log.add("Defender " + defender.getCreatureTypes());
+        log.add(odds.toString());
 
-        // Get list of PowerSkill creatures
-        List<PowerSkill> attackerCreatures = getCombatList(attacker, terrain,
-            false);
-        List<PowerSkill> defenderCreatures = getCombatList(defender, terrain,
-            true);
-        ListIterator<PowerSkill> a;
-
-        // simulate combat
-        int attackerKilled = 0;
-        int defenderKilled = 0;
-        int defenderMuster = 0;
-        int round;
-        List<String> log = new ArrayList<String>(14);
-
-        round_loop: for (round = 2; round <= 7; round++)
-        {
-            // note start on turn 2, because often there will be no contact in turn 1
-            log.add("Round " + round + " attacker" + attackerCreatures);
-            log.add("Round " + round + " defender" + defenderCreatures);
-
-            /*
-             // DO NOT ADD ANGEL!
-             // If attacker cannot win without angel then this
-             // will often leave a weak group with an angel in it
-             // that is a scooby snack.  Also, this makes the AI
-             // too aggressive about attacking and too conservative
-             // about moving and mustering
-             if (I_HATE_HUMANS)
-             {
-             **/
-            // angel call
-            if (callable != null && defenderKilled > 0)
-            {
-                PowerSkill angel = getNativeValue(callable, terrain, false);
-                attackerCreatures.add(angel);
-            }
-            //}
-
-            // 4th round muster
-            if (round == 4 && defenderCreatures.size() > 1)
-            {
-                // add in enemy's most likely turn 4 recruit
-                List<CreatureType> recruits = client.findEligibleRecruits(
-                    defender, hex);
-
-                if (!recruits.isEmpty())
-                {
-                    CreatureType bestRecruit = recruits
-                        .get(recruits.size() - 1);
-
-                    defenderMuster = getHintedRecruitmentValue(bestRecruit,
-                        defender, hintSectionUsed);
-                    defenderCreatures.add(getNativeValue(bestRecruit, terrain,
-                        true));
-                }
-            }
-
-            for (int move = 0; move < 2; move++)
-            {
-                if (attackerCreatures.size() == 0)
-                {
-                    break round_loop;
-                }
-
-                if (defenderCreatures.size() == 0)
-                {
-                    break round_loop;
-                }
-
-                for (int phase = 0; phase < 2; phase++)
-                {
-                    // mutual attacks
-                    a = attackerCreatures.listIterator();
-                    ListIterator<PowerSkill> d = defenderCreatures
-                        .listIterator();
-                    double rollover_power = 0;
-                    int attack_skill = 3;
-                    for (int attacks = 0; attacks < Math.max(
-                        attackerCreatures.size(), defenderCreatures.size()); attacks++)
-                    {
-                        // if we have reached the end of the attackers,
-                        // roll-over
-                        if (!a.hasNext())
-                        {
-                            if (phase == 0)
-                            { // done attacker strikes
-                                break;
-                            }
-                            a = attackerCreatures.listIterator();
-                        }
-
-                        if (!d.hasNext())
-                        {
-                            if (phase == 1)
-                            { // done defender strikes
-                                break;
-                            }
-                            d = defenderCreatures.listIterator();
-                        }
-
-                        int defend_skill;
-                        int attack_power;
-                        PowerSkill psa;
-                        PowerSkill psd;
-
-                        if (phase == 0)
-                        {
-                            psa = a.next();
-                            psd = d.next();
-                        }
-                        else
-                        {
-                            psa = d.next();
-                            psd = a.next();
-                        }
-
-                        double current_carry = 0;
-
-                        defend_skill = psd.getSkillDefend();
-
-                        if (rollover_power > 0)
-                        {
-                            rollover_power = Math.max(
-                                rollover_power - psd.getPowerDefend(), 0);
-                            // N.B. use old attack skill & new defend skill
-                            current_carry = rollover_power
-                                * Math.min(attack_skill - defend_skill + 3, 6)
-                                / 6.0;
-                        }
-                        attack_skill = psa.getSkillAttack();
-
-                        // when computing attacking power, subtract any
-                        // dice lost due to native defence
-                        attack_power = psa.getPowerAttack()
-                            - psd.getPowerDefend();
-
-                        double attack_prob = Math.min(
-                            Math.max(attack_skill - defend_skill + 3, 1), 6) / 6.0;
-                        double expected_damage = attack_prob * attack_power
-                            + current_carry;
-
-                        psd.addDamage(expected_damage);
-
-                        if (psd.getHP() < 0)
-                        {
-                            // damage exceeded that needed to kill
-                            rollover_power = -1.0 * psd.getHP();
-                            rollover_power /= attack_prob; // remaining power
-                            psd.setHP(0.0);
-                        }
-                        else
-                        {
-                            rollover_power = 0;
-                        }
-
-                        // update defender in list
-                        if (phase == 0)
-                        {
-                            d.set(psd);
-                        }
-                        else
-                        {
-                            a.set(psd);
-                        }
-
-                    }
-                }
+        double attackerKilled = odds.getAttackerDeadValue();
+        double defenderKilled = odds.getDefenderDeadValue();
 
-                // remove dead bodies
-                a = attackerCreatures.listIterator();
-                while (a.hasNext())
-                {
-                    PowerSkill psa = a.next();
-                    if (psa.getHP() <= 0.2) // we remove both dead and likely dead critters
-                    {
-                        attackerKilled += psa.getPointValue();
-                        a.remove();
-                    }
-                }
-
-                a = defenderCreatures.listIterator();
-                while (a.hasNext())
-                {
-                    PowerSkill psa = a.next();
-                    if (psa.getHP() <= 0)
-                    {
-                        defenderKilled += psa.getPointValue();
-                        a.remove();
-                    }
-                }
-            }
-        }
-
-        // add in attackers final recruit
+        // add in attackers final recruit, if enough of it survives
         double attackerMuster = 0;
-        if (attackerCreatures.size() > 2)
+        double attackerRecruits = odds.getAttackerSurvivorsAtLeast(3);
+        if (attackerRecruits > 0)
         {
             // add in attacker's most likely recruit
             List<CreatureType> recruits = client.findEligibleRecruits(
@@ -2167,14 +1981,17 @@ public class RationalAI extends SimpleAI
             if (!recruits.isEmpty())
             {
                 CreatureType bestRecruit = recruits.get(recruits.size() - 1);
-                attackerMuster = (bestRecruit).getPointValue();
+                attackerMuster = attackerRecruits
+                    * bestRecruit.getPointValue();
             }
         }
 
-        // add in defender's final recruit, if the combat lasted < 4 rounds
-        if (round < 4 && defenderCreatures.size() > 1)
+        // add in defender's most likely turn 4 recruit, if enough of it
+        // survives
+        double defenderMuster = 0;
+        double defenderRecruits = odds.getDefenderSurvivorsAtLeast(2);
+        if (defenderRecruits > 0)
         {
-            // add in enemy's most likely turn 4 recruit
             List<CreatureType> recruits = client.findEligibleRecruits(
                 defender, hex);
 
@@ -2182,8 +1999,9 @@ public class RationalAI extends SimpleAI
             {
                 CreatureType bestRecruit = recruits.get(recruits.size() - 1);
 
-                defenderMuster = getHintedRecruitmentValue(bestRecruit,
-                    defender, hintSectionUsed);
+                defenderMuster = defenderRecruits
+                    * getHintedRecruitmentValue(bestRecruit, defender,
+                        hintSectionUsed);
             }
         }
 
@@ -2198,24 +2016,16 @@ public class RationalAI extends SimpleAI
 
         double expectedValue;
 
-        expectedValue = defenderKilled / (double)numOtherPlayers
-            - attackerKilled + attackerMuster - defenderMuster
-            / (double)numOtherPlayers;
-
-        if (attackerCreatures.size() > 1)
-        {
-            double pointsValue = defenderKilled * KILLPOINTS;
-            expectedValue += pointsValue;
-        }
+        expectedValue = defenderKilled / numOtherPlayers - attackerKilled
+            + attackerMuster - defenderMuster / numOtherPlayers;
 
-        if (defenderCreatures.size() > 1)
-        {
-            double pointsValue = defenderKilled * KILLPOINTS;
-            expectedValue -= pointsValue / numOtherPlayers;
-        }
+        double pointsValue = defenderKilled * KILLPOINTS;
+        expectedValue += odds.getAttackerSurvivorsAtLeast(2) * pointsValue;
+        expectedValue -= odds.getDefenderSurvivorsAtLeast(2) * pointsValue
+            / numOtherPlayers;
 
-        return new BattleResults(expectedValue, attackerKilled, defenderKilled
-            - defenderMuster, log);
+        return new BattleResults(expectedValue, (int)Math.round(attackerKilled),
+            (int)Math.round(defenderKilled - defenderMuster), log);
     }
 
     @Override
@@ -2392,35 +2202,4 @@ public class RationalAI extends SimpleAI
         }
         return false;
     }
-
-    public List<PowerSkill> getCombatList(Legion legion,
-        MasterBoardTerrain terrain, boolean defender)
-    {
-        List<PowerSkill> powerskills = new ArrayList<PowerSkill>();
-        for (CreatureType creature : legion.getCreatureTypes())
-        {
-            if (creature.getName().startsWith(Constants.titan))
-            {
-                PowerSkill ps;
-                int titanPower = legion.getPlayer().getTitanPower();
-
-                // Assume that Titans
-                // take only a minimal part in the combat.
-                // Here we have to include them in the list
-                // of creatures so that the AI knows to jump
-                // titan singletons
-                ps = new PowerSkill("Titan", Math.max(titanPower - 5, 1),
-                    creature.getSkill());
-                powerskills.add(ps);
-
-            }
-            else
-            {
-                PowerSkill ps = getNativeValue(creature, terrain, defender);
-                powerskills.add(ps);
-            }
-        }
-
-        return powerskills;
-    }
 }
@@ -13,6 +13,7 @@ import java.util.Map.Entry;
 import java.util.Set;
 import java.util.Timer;
 import java.util.TimerTask;
+import java.util.logging.Level;
 import java.util.logging.Logger;
 
 import net.sf.colossus.ai.helper.CritterMove;
@@ -61,7 +62,7 @@ public class SimpleAI extends AbstractAI
         .getName());
 
     protected int timeLimit = Constants.DEFAULT_AI_TIME_LIMIT; // in s
-    boolean timeIsUp;
+    volatile boolean timeIsUp;
     private int splitsDone = 0;
     private int splitsAcked = 0;
     private List<String> remainingMarkers = null;
@@ -1388,35 +1389,6 @@ public class SimpleAI extends AbstractAI
         return value.getValue();
     }
 
-    private static final int WIN_WITH_MINIMAL_LOSSES = 0;
-    private static final int WIN_WITH_HEAVY_LOSSES = 1;
-    private static final int DRAW = 2;
-    private static final int LOSE_BUT_INFLICT_HEAVY_LOSSES = 3;
-    private static final int LOSE = 4;
-
-    /* can be overloaded by subclass -> not final */
-    // TODO turn into some more Javaish code, particularly in terms of naming conventions,
-    // ideally this should be all encapsulated in a configuration object
-    double RATIO_WIN_MINIMAL_LOSS()
-    {
-        return 1.30;
-    }
-
-    double RATIO_WIN_HEAVY_LOSS()
-    {
-        return 1.15;
-    }
-
-    double RATIO_DRAW()
-    {
-        return 0.85;
-    }
-
-    double RATIO_LOSE_HEAVY_LOSS()
-    {
-        return 0.70;
-    }
-
     private int estimateBattleResults(Legion attacker, Legion defender,
         MasterHex hex)
     {
@@ -1434,65 +1406,26 @@ public class SimpleAI extends AbstractAI
         boolean attackerSplitsBeforeBattle, Legion defender, MasterHex hex,
         CreatureType recruit)
     {
-        MasterBoardTerrain terrain = hex.getTerrain();
-        double attackerPointValue = getCombatValue(attacker, terrain);
-
+        List<CreatureType> attackers = new ArrayList<CreatureType>(attacker
+            .getCreatureTypes());
         if (attackerSplitsBeforeBattle)
         {
-            // remove PV of the split
+            // remove the split
             List<CreatureType> creaturesToRemove = chooseCreaturesToSplitOut(attacker);
             for (CreatureType creature : creaturesToRemove)
             {
-                attackerPointValue -= getCombatValue(creature, terrain);
+                attackers.remove(creature);
             }
         }
 
         if (recruit != null)
         {
-            // Log.debug("adding in recruited " + recruit +
-            // " when evaluating battle");
-            attackerPointValue += getCombatValue(recruit, terrain);
+            attackers.add(recruit);
         }
         // TODO: add angel call
-
-        double defenderPointValue = getCombatValue(defender, terrain);
         // TODO: add in enemy's most likely turn 4 recruit
 
-        if (hex.getTerrain().isTower())
-        {
-            // defender in the tower!  ouch!
-            defenderPointValue *= 1.2;
-        }
-        else if (hex.getTerrain().getDisplayName().equals("Abyss")) // The Abyss, in variants
-        {
-            // defender in the abyss!  Kill!
-            defenderPointValue *= 0.8;
-        }
-
-        // really dumb estimator
-        double ratio = attackerPointValue / defenderPointValue;
-
-        if (ratio >= RATIO_WIN_MINIMAL_LOSS())
-        {
-            return WIN_WITH_MINIMAL_LOSSES;
-        }
-        else if (ratio >= RATIO_WIN_HEAVY_LOSS())
-        {
-            return WIN_WITH_HEAVY_LOSSES;
-        }
-        else if (ratio >= RATIO_DRAW())
-        {
-            return DRAW;
-        }
-        else if (ratio >= RATIO_LOSE_HEAVY_LOSS())
-        {
-            return LOSE_BUT_INFLICT_HEAVY_LOSSES;
-        }
-        else
-        // ratio less than 0.70
-        {
-            return LOSE;
-        }
+        return classifyBattle(attackers, attacker, defender, hex);
     }
 
     // This is a really dumb placeholder.  TODO Make it smarter.
@@ -2371,6 +2304,7 @@ public class SimpleAI extends AbstractAI
         return moveList;
     }
 
+    @Override
     Timer setupTimer()
     {
         // java.util.Timer, not Swing Timer
@@ -2386,6 +2320,12 @@ public class SimpleAI extends AbstractAI
         return timer;
     }
 
+    @Override
+    protected boolean isTimeUp()
+    {
+        return timeIsUp;
+    }
+
     protected final static int MIN_ITERATIONS = 50;
 
     /** Evaluate all legion moves in the list, and return the best one.
@@ -2398,6 +2338,11 @@ public class SimpleAI extends AbstractAI
         if (legionMoves instanceof List)
             Collections.shuffle((List<LegionMove>)legionMoves, random);
 
+        if (LegionMoveSearch.isEnabled())
+        {
+            return findBestLegionMoveInParallel(legionMoves, MIN_ITERATIONS);
+        }
+
         Timer findBestLegionMoveTimer = setupTimer();
 
         int count = 0;
@@ -2408,10 +2353,13 @@ public class SimpleAI extends AbstractAI
             {
                 bestScore = score;
                 best = lm;
-                LOGGER.finest("INTERMEDIATE Best legion move: "
-                    + lm.getStringWithEvaluation() + " (" + score + ")");
+                if (LOGGER.isLoggable(Level.FINEST))
+                {
+                    LOGGER.finest("INTERMEDIATE Best legion move: "
+                        + lm.getStringWithEvaluation() + " (" + score + ")");
+                }
             }
-            else
+            else if (LOGGER.isLoggable(Level.FINEST))
             {
                 LOGGER.finest("INTERMEDIATE      legion move: "
                     + lm.getStringWithEvaluation() + " (" + score + ")");
@@ -2602,7 +2550,7 @@ public class SimpleAI extends AbstractAI
         // Attacker, non-titan, needs to charge.
         // Head for enemy creatures.
         value.add(bec.ATTACKER_DISTANCE_FROM_ENEMY_PENALTY
-            * client.getBattleCS().minRangeToEnemy(critter),
+            * getBattleCS().minRangeToEnemy(critter),
             "AttackerDistanceFromEnemyPenalty");
     }
 
@@ -2888,12 +2836,13 @@ public class SimpleAI extends AbstractAI
             return value.getValue();
         }
 
-        Set<BattleHex> targetHexes = client.findStrikes(critter.getTag());
+        Set<BattleHex> targetHexes = getBattleCS().findTargets(critter,
+            true);
         int numTargets = targetHexes.size();
 
         if (numTargets >= 1)
         {
-            if (!client.isInContact(critter, true))
+            if (!getBattleCS().isInContact(critter, true))
             {
                 evaluateCritterMove_Rangestrike(critter, strikeMap, value,
                     terrain, hex, power, skill, legion, turn, targetHexes);
@@ -2928,7 +2877,7 @@ public class SimpleAI extends AbstractAI
             {
                 BattleHex neighbor = hex.getNeighbor(i);
                 if (neighbor != null
-                    && client.getGame().getBattle().isOccupied(neighbor))
+                    && getBattleCS().isOccupied(neighbor))
                 {
                     BattleCritter other = getBattleUnit(neighbor);
                     if (other.isDefender() == critter.isDefender())
@@ -2956,40 +2905,55 @@ public class SimpleAI extends AbstractAI
         return value.getValue();
     }
 
+    @Override
     protected int evaluateLegionBattleMove(LegionMove lm)
     {
         lm.resetEvaluate();
+        // Explanations are only wanted in the FINEST log, so don't build
+        // them for each of the thousands of moves otherwise.
+        boolean explain = LOGGER.isLoggable(Level.FINEST);
 
         // First we need to move all critters into position.
-        for (CritterMove cm : lm.getCritterMoves())
+        for (int i = 0; i < lm.size(); i++)
         {
-            cm.getCritter().moveToHex(cm.getEndingHex());
+            CritterMove cm = lm.getCritterMove(i);
+            getEvaluationCritter(cm.getCritter()).moveToHex(
+                cm.getEndingHex());
         }
 
         Map<BattleHex, Integer> strikeMap = findStrikeMap();
 
         // Then find the sum of all critter evals.
         int sum = 0;
-        for (CritterMove cm : lm.getCritterMoves())
+        for (int i = 0; i < lm.size(); i++)
         {
-            ValueRecorder why = new ValueRecorder();
-            int val = evaluateCritterMove(cm.getCritter(), strikeMap, why);
-            lm.setEvaluate(cm, why.toString());
+            ValueRecorder why = new ValueRecorder(explain);
+            int val = evaluateCritterMove(getEvaluationCritter(lm
+                .getCritterMove(i).getCritter()), strikeMap, why);
+            if (explain)
+            {
+                lm.setEvaluate(i, why.toString());
+            }
             sum += val;
         }
 
         // whole position evaluation
         {
-            ValueRecorder why = new ValueRecorder();
+            ValueRecorder why = new ValueRecorder(explain);
             int val = evaluateLegionBattleMoveAsAWhole(lm, strikeMap, why);
-            lm.setEvaluate(why.toString());
+            if (explain)
+            {
+                lm.setEvaluate(why.toString());
+            }
             sum += val;
         }
 
         // Then move them all back.
-        for (CritterMove cm : lm.getCritterMoves())
+        for (int i = 0; i < lm.size(); i++)
         {
-            cm.getCritter().moveToHex(cm.getStartingHex());
+            CritterMove cm = lm.getCritterMove(i);
+            getEvaluationCritter(cm.getCritter()).moveToHex(
+                cm.getStartingHex());
         }
 
         lm.setValue(sum);
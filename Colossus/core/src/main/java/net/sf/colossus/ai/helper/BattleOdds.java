@@ -0,0 +1,654 @@
+package net.sf.colossus.ai.helper;
+
+
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.logging.Logger;
+
+import net.sf.colossus.util.Probs;
+import net.sf.colossus.variant.PowerSkill;
+
+
+/**
+ * The odds of a battle between two legions, for the AIs to decide whether
+ * to attack, flee or concede.
+ *
+ * The battle is modeled in a simplified way: there is no contact in the
+ * first battle turn, from then on every creature strikes once per player
+ * turn (defender first, the other side striking back), all creatures of
+ * a side strike at the weakest enemy creature still alive, and hits that
+ * exceed what is needed to kill it carry over to the next one. Within
+ * that model the probabilities of all outcomes are computed exactly, from
+ * the hit distributions of Probs, by tracking the distribution of the
+ * total damage each side has taken.
+ *
+ * The creatures are given as PowerSkill values that already include the
+ * bonuses of the terrain, see AbstractAI.getCombatList(). Results are
+ * cached (least recently used ones are dropped first), since the AIs ask
+ * for the same pairings again and again while searching for moves, and
+ * also from turn to turn. The cache is shared by all AIs in this JVM.
+ */
+public final class BattleOdds
+{
+    private static final Logger LOGGER = Logger.getLogger(BattleOdds.class
+        .getName());
+
+    /** Maximum number of results kept in the cache */
+    private static final int CACHE_SIZE = 4096;
+
+    /** States less likely than this are dropped */
+    private static final double EPSILON = 1e-9;
+
+    /** The battle turns in which there is contact */
+    private static final int FIRST_TURN = 2;
+    private static final int LAST_TURN = 7;
+
+    private static final Map<Key, BattleOdds> cache = new LinkedHashMap<Key, BattleOdds>(
+        CACHE_SIZE, 0.75f, true)
+    {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Key, BattleOdds> eldest)
+        {
+            return size() > CACHE_SIZE;
+        }
+    };
+
+    private static int hits = 0;
+    private static int misses = 0;
+
+    private final double attackerWins;
+    private final double defenderWins;
+    private final double attackerDeadValue;
+    private final double defenderDeadValue;
+    private final double attackerValue;
+    private final double defenderValue;
+    private final double[] attackerSurvivors;
+    private final double[] defenderSurvivors;
+
+    private BattleOdds(double attackerWins, double defenderWins,
+        double attackerDeadValue, double defenderDeadValue,
+        double attackerValue, double defenderValue,
+        double[] attackerSurvivors, double[] defenderSurvivors)
+    {
+        this.attackerWins = attackerWins;
+        this.defenderWins = defenderWins;
+        this.attackerDeadValue = attackerDeadValue;
+        this.defenderDeadValue = defenderDeadValue;
+        this.attackerValue = attackerValue;
+        this.defenderValue = defenderValue;
+        this.attackerSurvivors = attackerSurvivors;
+        this.defenderSurvivors = defenderSurvivors;
+    }
+
+    /**
+     * Get the odds of a battle.
+     *
+     * @param attackers The attacking creatures, in the terrain of the battle
+     * @param defenders The defending creatures, in the terrain of the battle
+     * @param angel The creature the attacker can summon after the first
+     *   kill, or null
+     * @return The odds, from the cache if they were computed before
+     */
+    public static BattleOdds get(List<PowerSkill> attackers,
+        List<PowerSkill> defenders, PowerSkill angel)
+    {
+        Key key = new Key(attackers, defenders, angel);
+        synchronized (cache)
+        {
+            BattleOdds odds = cache.get(key);
+            if (odds != null)
+            {
+                hits++;
+                return odds;
+            }
+            misses++;
+        }
+        // Computed outside the lock; if two threads happen to do the same
+        // at the same time, both get the same result anyway.
+        BattleOdds odds = new Battle(key).compute();
+        synchronized (cache)
+        {
+            cache.put(key, odds);
+            if (misses % 1000 == 0)
+            {
+                LOGGER.finest("Battle odds cache: " + hits + " hits, "
+                    + misses + " misses");
+            }
+        }
+        return odds;
+    }
+
+    /** Probability that the attacker eliminates the defender */
+    public double getAttackerWins()
+    {
+        return attackerWins;
+    }
+
+    /** Probability that the defender eliminates the attacker */
+    public double getDefenderWins()
+    {
+        return defenderWins;
+    }
+
+    /** Probability that both survive the last turn, in which case the
+     *  attacker loses on time */
+    public double getTimeLoss()
+    {
+        return Math.max(0.0, 1.0 - attackerWins - defenderWins);
+    }
+
+    /**
+     * Expected value of the attacking creatures killed in combat (not
+     * counting a time loss), with the value of a creature as in
+     * PowerSkill.getPointValue(); includes the summoned angel.
+     */
+    public double getAttackerDeadValue()
+    {
+        return attackerDeadValue;
+    }
+
+    /** Expected value of the defending creatures killed */
+    public double getDefenderDeadValue()
+    {
+        return defenderDeadValue;
+    }
+
+    /** Value of all attacking creatures, without the angel */
+    public double getAttackerValue()
+    {
+        return attackerValue;
+    }
+
+    /** Value of all defending creatures */
+    public double getDefenderValue()
+    {
+        return defenderValue;
+    }
+
+    /**
+     * @return The probability that exactly n attacking creatures survive
+     *   the battle (ignoring a time loss), counting the summoned angel
+     */
+    public double getAttackerSurvivors(int n)
+    {
+        return n < attackerSurvivors.length ? attackerSurvivors[n] : 0.0;
+    }
+
+    /** @return The probability that exactly n defending creatures survive */
+    public double getDefenderSurvivors(int n)
+    {
+        return n < defenderSurvivors.length ? defenderSurvivors[n] : 0.0;
+    }
+
+    /** @return The probability that at least n attacking creatures
+     *  survive the battle (ignoring a time loss) */
+    public double getAttackerSurvivorsAtLeast(int n)
+    {
+        return sumFrom(attackerSurvivors, n);
+    }
+
+    /** @return The probability that at least n defending creatures
+     *  survive */
+    public double getDefenderSurvivorsAtLeast(int n)
+    {
+        return sumFrom(defenderSurvivors, n);
+    }
+
+    private static double sumFrom(double[] distribution, int n)
+    {
+        double sum = 0.0;
+        for (int i = Math.max(n, 0); i < distribution.length; i++)
+        {
+            sum += distribution[i];
+        }
+        return sum;
+    }
+
+    public double getExpectedAttackerSurvivors()
+    {
+        return expectation(attackerSurvivors);
+    }
+
+    public double getExpectedDefenderSurvivors()
+    {
+        return expectation(defenderSurvivors);
+    }
+
+    private static double expectation(double[] distribution)
+    {
+        double sum = 0.0;
+        for (int n = 1; n < distribution.length; n++)
+        {
+            sum += n * distribution[n];
+        }
+        return sum;
+    }
+
+    @Override
+    public String toString()
+    {
+        return String.format("attacker wins %.3f, defender wins %.3f, "
+            + "time loss %.3f, attacker dead %.1f of %.1f, "
+            + "defender dead %.1f of %.1f", Double.valueOf(attackerWins),
+            Double.valueOf(defenderWins), Double.valueOf(getTimeLoss()),
+            Double.valueOf(attackerDeadValue), Double.valueOf(attackerValue),
+            Double.valueOf(defenderDeadValue), Double.valueOf(defenderValue));
+    }
+
+    /**
+     * One creature as far as the battle model is concerned.
+     */
+    private static class Fighter implements Comparable<Fighter>
+    {
+        final int hp;
+        final int powerAttack;
+        final int powerDefend;
+        final int skillAttack;
+        final int skillDefend;
+        final double value;
+
+        Fighter(PowerSkill ps)
+        {
+            hp = Math.max(1, (int)Math.round(ps.getHP()));
+            powerAttack = ps.getPowerAttack();
+            powerDefend = ps.getPowerDefend();
+            skillAttack = ps.getSkillAttack();
+            skillDefend = ps.getSkillDefend();
+            value = ps.getPointValue();
+        }
+
+        /** Number of dice against target */
+        int dice(Fighter target)
+        {
+            return Math.max(0, powerAttack - target.powerDefend);
+        }
+
+        int strikeNumber(Fighter target)
+        {
+            return Math.min(Math.max(4 - skillAttack + target.skillDefend,
+                1), 6);
+        }
+
+        /** The weakest first */
+        public int compareTo(Fighter other)
+        {
+            int diff = Double.compare(value, other.value);
+            if (diff != 0)
+            {
+                return diff;
+            }
+            diff = hp - other.hp;
+            if (diff != 0)
+            {
+                return diff;
+            }
+            diff = powerAttack - other.powerAttack;
+            if (diff != 0)
+            {
+                return diff;
+            }
+            diff = powerDefend - other.powerDefend;
+            if (diff != 0)
+            {
+                return diff;
+            }
+            diff = skillAttack - other.skillAttack;
+            if (diff != 0)
+            {
+                return diff;
+            }
+            return skillDefend - other.skillDefend;
+        }
+
+        @Override
+        public boolean equals(Object obj)
+        {
+            return obj instanceof Fighter && compareTo((Fighter)obj) == 0;
+        }
+
+        @Override
+        public int hashCode()
+        {
+            int hash = (hp * 31 + powerAttack) * 31 + powerDefend;
+            return (hash * 31 + skillAttack) * 31 + skillDefend;
+        }
+    }
+
+    /**
+     * The cache key: both sides as sorted arrays of fighters (which is
+     * also the order in which they die), and the angel.
+     */
+    private static class Key
+    {
+        final Fighter[] attackers;
+        final Fighter[] defenders;
+        final Fighter angel;
+
+        Key(List<PowerSkill> attackers, List<PowerSkill> defenders,
+            PowerSkill angel)
+        {
+            this.attackers = toFighters(attackers);
+            this.defenders = toFighters(defenders);
+            this.angel = angel == null ? null : new Fighter(angel);
+        }
+
+        private static Fighter[] toFighters(List<PowerSkill> list)
+        {
+            Fighter[] fighters = new Fighter[list.size()];
+            for (int i = 0; i < fighters.length; i++)
+            {
+                fighters[i] = new Fighter(list.get(i));
+            }
+            Arrays.sort(fighters);
+            return fighters;
+        }
+
+        @Override
+        public int hashCode()
+        {
+            return (Arrays.hashCode(attackers) * 31 + Arrays
+                .hashCode(defenders))
+                * 31 + (angel == null ? 0 : angel.hashCode());
+        }
+
+        @Override
+        public boolean equals(Object obj)
+        {
+            if (!(obj instanceof Key))
+            {
+                return false;
+            }
+            Key other = (Key)obj;
+            return Arrays.equals(attackers, other.attackers)
+                && Arrays.equals(defenders, other.defenders)
+                && (angel == null ? other.angel == null : angel
+                    .equals(other.angel));
+        }
+    }
+
+    /**
+     * One side of the battle. Its state is the total damage taken; the
+     * creatures die in the order of the array.
+     */
+    private static class Side
+    {
+        final Fighter[] fighters;
+        /** damageToKill[i] is the damage at which fighters[i] is dead */
+        final int[] damageToKill;
+        /** Total hit points without the angel */
+        final int baseHp;
+        /** Total hit points with the angel */
+        final int maxHp;
+        /** Number of fighters without the angel */
+        final int baseCount;
+        /** deadAt[d] is the number of fighters dead at damage d */
+        private final int[] deadAt;
+
+        Side(Fighter[] base, Fighter angel)
+        {
+            baseCount = base.length;
+            if (angel == null)
+            {
+                fighters = base;
+            }
+            else
+            {
+                fighters = Arrays.copyOf(base, base.length + 1);
+                fighters[base.length] = angel;
+            }
+            damageToKill = new int[fighters.length];
+            int sum = 0;
+            for (int i = 0; i < fighters.length; i++)
+            {
+                sum += fighters[i].hp;
+                damageToKill[i] = sum;
+            }
+            maxHp = sum;
+            baseHp = angel == null ? sum : sum - angel.hp;
+            deadAt = new int[maxHp + 1];
+            int n = 0;
+            for (int damage = 0; damage <= maxHp; damage++)
+            {
+                while (n < fighters.length && damageToKill[n] <= damage)
+                {
+                    n++;
+                }
+                deadAt[damage] = n;
+            }
+        }
+
+        /** Number of fighters dead at this damage */
+        int dead(int damage)
+        {
+            return deadAt[damage];
+        }
+
+        /** Damage at which the side is eliminated */
+        int capacity(boolean withAngel)
+        {
+            return withAngel ? maxHp : baseHp;
+        }
+
+        /** Sum of the values of the first n fighters */
+        double deadValue(int n)
+        {
+            double sum = 0.0;
+            for (int i = 0; i < n; i++)
+            {
+                sum += fighters[i].value;
+            }
+            return sum;
+        }
+    }
+
+    /**
+     * The computation for one key.
+     */
+    private static class Battle
+    {
+        private final Side attacker;
+        private final Side defender;
+        private final boolean hasAngel;
+
+        /** Hit distributions, by [number dead on striking side][angel
+         *  present ? 1 : 0][number dead on struck side] */
+        private final double[][][][] attackerHits;
+        private final double[][][][] defenderHits;
+
+        /** Probability of each state: [attacker damage][defender damage] */
+        private double[][] state;
+
+        Battle(Key key)
+        {
+            attacker = new Side(key.attackers, key.angel);
+            defender = new Side(key.defenders, null);
+            hasAngel = key.angel != null;
+            attackerHits = new double[attacker.fighters.length + 1][2][defender.fighters.length + 1][];
+            defenderHits = new double[defender.fighters.length + 1][2][attacker.fighters.length + 1][];
+            state = new double[attacker.maxHp + 1][defender.maxHp + 1];
+        }
+
+        /** Whether the angel has joined the attacker, at this damage of the
+         *  defender */
+        private boolean angelPresent(int defenderDamage)
+        {
+            return hasAngel && defender.dead(defenderDamage) > 0;
+        }
+
+        private boolean isOver(int da, int dd)
+        {
+            return dd >= defender.capacity(false)
+                || da >= attacker.capacity(angelPresent(dd));
+        }
+
+        BattleOdds compute()
+        {
+            if (attacker.baseCount == 0 || defender.baseCount == 0)
+            {
+                return summarize();
+            }
+            state[0][0] = 1.0;
+            for (int turn = FIRST_TURN; turn <= LAST_TURN; turn++)
+            {
+                // defender's player turn, then the attacker's
+                strike(false);
+                strike(true);
+                strike(true);
+                strike(false);
+            }
+            return summarize();
+        }
+
+        /** One strike phase of all creatures of one side */
+        private void strike(boolean attackerStrikes)
+        {
+            int aSize = state.length;
+            int dSize = state[0].length;
+            double[][] next = new double[aSize][dSize];
+            for (int da = 0; da < aSize; da++)
+            {
+                for (int dd = 0; dd < dSize; dd++)
+                {
+                    double p = state[da][dd];
+                    if (p < EPSILON)
+                    {
+                        continue;
+                    }
+                    if (isOver(da, dd))
+                    {
+                        next[da][dd] += p;
+                        continue;
+                    }
+                    boolean angel = angelPresent(dd);
+                    int aDead = attacker.dead(da);
+                    int dDead = defender.dead(dd);
+                    if (attackerStrikes)
+                    {
+                        double[] dist = getHits(true, aDead, angel, dDead);
+                        int cap = defender.capacity(false);
+                        for (int h = 0; h < dist.length; h++)
+                        {
+                            next[da][Math.min(dd + h, cap)] += p * dist[h];
+                        }
+                    }
+                    else
+                    {
+                        double[] dist = getHits(false, dDead, angel, aDead);
+                        int cap = attacker.capacity(angel);
+                        for (int h = 0; h < dist.length; h++)
+                        {
+                            next[Math.min(da + h, cap)][dd] += p * dist[h];
+                        }
+                    }
+                }
+            }
+            state = next;
+        }
+
+        /**
+         * The distribution of the number of hits.
+         *
+         * @param attackerStrikes Which side strikes
+         * @param strikerDead Number of dead fighters of the striking side
+         * @param angel Whether the attacker's angel has joined
+         * @param targetDead Number of dead fighters of the other side
+         */
+        private double[] getHits(boolean attackerStrikes, int strikerDead,
+            boolean angel, int targetDead)
+        {
+            double[][][][] table = attackerStrikes ? attackerHits
+                : defenderHits;
+            int a = angel ? 1 : 0;
+            double[] dist = table[strikerDead][a][targetDead];
+            if (dist == null)
+            {
+                Side striking = attackerStrikes ? attacker : defender;
+                Side struck = attackerStrikes ? defender : attacker;
+                dist = new double[] { 1.0 };
+                Fighter target = struck.fighters[Math.min(targetDead,
+                    struck.fighters.length - 1)];
+                for (int i = strikerDead; i < striking.fighters.length; i++)
+                {
+                    if (i >= striking.baseCount && !angel)
+                    {
+                        break;
+                    }
+                    Fighter f = striking.fighters[i];
+                    dist = convolve(dist, f.dice(target), f
+                        .strikeNumber(target));
+                }
+                table[strikerDead][a][targetDead] = dist;
+            }
+            return dist;
+        }
+
+        private static double[] convolve(double[] dist, int dice,
+            int strikeNumber)
+        {
+            double[] hits = Probs.getHitDistribution(dice, strikeNumber);
+            double[] result = new double[dist.length + dice];
+            for (int h = 0; h <= dice; h++)
+            {
+                double p = hits[h];
+                for (int i = 0; i < dist.length; i++)
+                {
+                    result[i + h] += dist[i] * p;
+                }
+            }
+            return result;
+        }
+
+        private BattleOdds summarize()
+        {
+            double attackerWins = 0.0;
+            double defenderWins = 0.0;
+            double attackerDeadValue = 0.0;
+            double defenderDeadValue = 0.0;
+            double[] attackerSurvivors = new double[attacker.fighters.length + 1];
+            double[] defenderSurvivors = new double[defender.fighters.length + 1];
+            if (attacker.baseCount == 0 || defender.baseCount == 0)
+            {
+                attackerWins = defender.baseCount == 0 ? 1.0 : 0.0;
+                defenderWins = 1.0 - attackerWins;
+                attackerSurvivors[attacker.baseCount] = 1.0;
+                defenderSurvivors[defender.baseCount] = 1.0;
+            }
+            for (int da = 0; da < state.length; da++)
+            {
+                for (int dd = 0; dd < state[da].length; dd++)
+                {
+                    double p = state[da][dd];
+                    if (p == 0.0)
+                    {
+                        continue;
+                    }
+                    int aDead = attacker.dead(da);
+                    int dDead = defender.dead(dd);
+                    boolean angel = angelPresent(dd);
+                    int aCount = angel ? attacker.fighters.length
+                        : attacker.baseCount;
+                    if (dd >= defender.capacity(false))
+                    {
+                        attackerWins += p;
+                    }
+                    else if (da >= attacker.capacity(angel))
+                    {
+                        defenderWins += p;
+                    }
+                    attackerSurvivors[Math.max(0, aCount - aDead)] += p;
+                    defenderSurvivors[defender.fighters.length - dDead] += p;
+                    attackerDeadValue += p
+                        * attacker.deadValue(Math.min(aDead, aCount));
+                    defenderDeadValue += p * defender.deadValue(dDead);
+                }
+            }
+            return new BattleOdds(attackerWins, defenderWins,
+                attackerDeadValue, defenderDeadValue, attacker
+                    .deadValue(attacker.baseCount), defender
+                    .deadValue(defender.baseCount), attackerSurvivors,
+                defenderSurvivors);
+        }
+    }
+}
@@ -1,35 +1,100 @@
 package net.sf.colossus.ai.helper;
 
 
+import java.util.AbstractList;
 import java.util.ArrayList;
-import java.util.Collections;
-import java.util.HashMap;
+import java.util.Arrays;
 import java.util.List;
-import java.util.Map;
 
 import net.sf.colossus.util.Glob;
+import net.sf.colossus.variant.Hex;
 
 
-/** LegionMove has a List of one CritterMove per mobile critter
- *  in the legion.
+/** LegionMove has one CritterMove per mobile critter in the legion.
+ *
+ * The AIs create (and throw away) huge numbers of LegionMoves while
+ * searching for the best one, so a LegionMove does not have a list of
+ * its own: it has just an index per critter into the (shared) lists of
+ * possible moves for each critter, from which they all are generated.
+ * The explanation texts of the evaluation are only stored if the AI
+ * asks for them (usually only when logging at level FINEST).
+ *
  * Originally in SimpleAI, which at the time had the following authors.
  * @author Bruce Sherrod, David Ripton, Romain Dolbeau
 */
 public class LegionMove implements Comparable<LegionMove>
 {
-    private final List<CritterMove> critterMoves = new ArrayList<CritterMove>();
-    private Map<CritterMove, String> evaluation = null;
+    /** For each critter, the list of its possible moves; shared by all
+     *  LegionMoves created from it. */
+    private final List<List<CritterMove>> allCritterMoves;
+    /** For each critter, which of its possible moves this one uses. */
+    private final int[] indexes;
+    private String[] evaluation = null;
     private String lmeval = null;
     private int value;
 
-    public void add(CritterMove cm)
+    /**
+     * @param allCritterMoves For each critter, the list of its possible
+     *   moves. Must not be changed any more as long as LegionMoves created
+     *   from it are in use.
+     * @param indexes For each critter, the index of the move to use. The
+     *   LegionMove takes ownership of the array, caller must not change it.
+     */
+    public LegionMove(List<List<CritterMove>> allCritterMoves, int[] indexes)
+    {
+        this.allCritterMoves = allCritterMoves;
+        this.indexes = indexes;
+    }
+
+    /**
+     * Create a LegionMove consisting of exactly the given CritterMoves,
+     * e.g. to evaluate the current situation on the battle board.
+     */
+    public static LegionMove fromCritterMoves(List<CritterMove> critterMoves)
     {
-        critterMoves.add(cm);
+        List<List<CritterMove>> allCritterMoves = new ArrayList<List<CritterMove>>(
+            critterMoves.size());
+        for (CritterMove cm : critterMoves)
+        {
+            List<CritterMove> onlyThisOne = new ArrayList<CritterMove>(1);
+            onlyThisOne.add(cm);
+            allCritterMoves.add(onlyThisOne);
+        }
+        return new LegionMove(allCritterMoves, new int[critterMoves.size()]);
     }
 
+    /** Number of CritterMoves (i.e. critters) in this LegionMove */
+    public int size()
+    {
+        return indexes.length;
+    }
+
+    /** The CritterMove for the i-th critter */
+    public CritterMove getCritterMove(int i)
+    {
+        return allCritterMoves.get(i).get(indexes[i]);
+    }
+
+    /**
+     * @return A read-only view of the CritterMoves. Loops in the hot
+     *   paths of the AI should rather use size() and getCritterMove(int).
+     */
     public List<CritterMove> getCritterMoves()
     {
-        return Collections.unmodifiableList(critterMoves);
+        return new AbstractList<CritterMove>()
+        {
+            @Override
+            public CritterMove get(int i)
+            {
+                return getCritterMove(i);
+            }
+
+            @Override
+            public int size()
+            {
+                return indexes.length;
+            }
+        };
     }
 
     public void resetEvaluate()
@@ -50,20 +115,21 @@ public class LegionMove implements Comparable<LegionMove>
     }
 
     /**
-     * Set a value and "why"-String for one particular critter
-     * @param cm
+     * Set the "why"-String for the i-th critter
+     * @param i
      * @param val
      */
-    public void setEvaluate(CritterMove cm, String val)
+    public void setEvaluate(int i, String val)
     {
         if (evaluation == null)
-            evaluation = new HashMap<CritterMove, String>();
-        evaluation.put(cm, val);
+        {
+            evaluation = new String[indexes.length];
+        }
+        evaluation[i] = val;
     }
 
     /**
-     * Set the value and "why"-String for this LegionMove as a whole
-     * @param cm
+     * Set the "why"-String for this LegionMove as a whole
      * @param val
      */
     public void setEvaluate(String val)
@@ -75,9 +141,9 @@ public class LegionMove implements Comparable<LegionMove>
     public String toString()
     {
         List<String> cmStrings = new ArrayList<String>();
-        for (CritterMove cm : critterMoves)
+        for (int i = 0; i < indexes.length; i++)
         {
-            cmStrings.add(cm.toString());
+            cmStrings.add(getCritterMove(i).toString());
         }
         return Glob.glob(", ", cmStrings);
     }
@@ -85,9 +151,9 @@ public class LegionMove implements Comparable<LegionMove>
     public String toStringAsIs()
     {
         List<String> cmStrings = new ArrayList<String>();
-        for (CritterMove cm : critterMoves)
+        for (int i = 0; i < indexes.length; i++)
         {
-            cmStrings.add(cm.toStringAsIs());
+            cmStrings.add(getCritterMove(i).toStringAsIs());
         }
         return Glob.glob(", ", cmStrings);
     }
@@ -95,18 +161,15 @@ public class LegionMove implements Comparable<LegionMove>
     public String getStringWithEvaluation()
     {
         List<String> cmStrings = new ArrayList<String>();
-        for (CritterMove cm : critterMoves)
+        for (int i = 0; i < indexes.length; i++)
         {
-            StringBuffer buf = new StringBuffer();
-            buf.append(cm.toString());
-            if (evaluation != null)
+            StringBuilder buf = new StringBuilder();
+            buf.append(getCritterMove(i).toString());
+            if (evaluation != null && evaluation[i] != null)
             {
-                if (evaluation.containsKey(cm))
-                {
-                    buf.append(" [");
-                    buf.append(evaluation.get(cm));
-                    buf.append("]");
-                }
+                buf.append(" [");
+                buf.append(evaluation[i]);
+                buf.append("]");
             }
             cmStrings.add(buf.toString());
         }
@@ -115,6 +178,10 @@ public class LegionMove implements Comparable<LegionMove>
         return Glob.glob(", \n", cmStrings);
     }
 
+    /**
+     * Two LegionMoves are equal if they move the same critters (tags)
+     * from the same to the same hexes, in the same order.
+     */
     @Override
     public boolean equals(Object ob)
     {
@@ -123,7 +190,46 @@ public class LegionMove implements Comparable<LegionMove>
             return false;
         }
         LegionMove lm = (LegionMove)ob;
-        return toString().equals(lm.toString());
+        if (lm.allCritterMoves == allCritterMoves)
+        {
+            return Arrays.equals(indexes, lm.indexes);
+        }
+        if (lm.indexes.length != indexes.length)
+        {
+            return false;
+        }
+        for (int i = 0; i < indexes.length; i++)
+        {
+            CritterMove cm1 = getCritterMove(i);
+            CritterMove cm2 = lm.getCritterMove(i);
+            if (cm1.getTag() != cm2.getTag()
+                || !sameHex(cm1.getStartingHex(), cm2.getStartingHex())
+                || !sameHex(cm1.getEndingHex(), cm2.getEndingHex()))
+            {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static boolean sameHex(Object hex1, Object hex2)
+    {
+        return hex1 == null ? hex2 == null : hex1.equals(hex2);
+    }
+
+    @Override
+    public int hashCode()
+    {
+        int hash = 1;
+        for (int i = 0; i < indexes.length; i++)
+        {
+            CritterMove cm = getCritterMove(i);
+            hash = 31 * hash + cm.getTag();
+            hash = 31 * hash
+                + (cm.getEndingHex() == null ? 0 : cm.getEndingHex()
+                    .hashCode());
+        }
+        return hash;
     }
 
     public int compareTo(LegionMove m)
@@ -136,12 +242,62 @@ public class LegionMove implements Comparable<LegionMove>
         if (this.getValue() > m.getValue())
             return 1;
 
-        return this.toString().compareTo(m.toString());
+        if (m.allCritterMoves == allCritterMoves)
+        {
+            return compareIndexes(indexes, m.indexes);
+        }
+        if (indexes.length != m.indexes.length)
+        {
+            return indexes.length < m.indexes.length ? -1 : 1;
+        }
+        for (int i = 0; i < indexes.length; i++)
+        {
+            CritterMove cm1 = getCritterMove(i);
+            CritterMove cm2 = m.getCritterMove(i);
+            int result = Integer.compare(cm1.getTag(), cm2.getTag());
+            if (result == 0)
+            {
+                result = compareHexes(cm1.getStartingHex(),
+                    cm2.getStartingHex());
+            }
+            if (result == 0)
+            {
+                result = compareHexes(cm1.getEndingHex(), cm2.getEndingHex());
+            }
+            if (result != 0)
+            {
+                return result;
+            }
+        }
+        return 0;
     }
 
-    @Override
-    public int hashCode()
+    /** Lexicographic order of the move indexes of the same critters */
+    private static int compareIndexes(int[] indexes1, int[] indexes2)
+    {
+        int length = Math.min(indexes1.length, indexes2.length);
+        for (int i = 0; i < length; i++)
+        {
+            if (indexes1[i] != indexes2[i])
+            {
+                return indexes1[i] < indexes2[i] ? -1 : 1;
+            }
+        }
+        return Integer.compare(indexes1.length, indexes2.length);
+    }
+
+    /** Order by the coordinates, like Hex.equals(); no hex comes first */
+    private static int compareHexes(Hex hex1, Hex hex2)
     {
-        return toString().hashCode();
+        if (hex1 == null || hex2 == null)
+        {
+            return hex1 == hex2 ? 0 : (hex1 == null ? -1 : 1);
+        }
+        int result = Integer.compare(hex1.getXCoord(), hex2.getXCoord());
+        if (result == 0)
+        {
+            result = Integer.compare(hex1.getYCoord(), hex2.getYCoord());
+        }
+        return result;
     }
-}
\ No newline at end of file
+}
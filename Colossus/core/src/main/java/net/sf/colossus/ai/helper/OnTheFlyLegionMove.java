@@ -2,16 +2,15 @@ package net.sf.colossus.ai.helper;
 
 
 import java.util.ArrayList;
+import java.util.BitSet;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.Comparator;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Random;
-import java.util.Set;
 import java.util.SortedMap;
 import java.util.TreeMap;
-import java.util.TreeSet;
 import java.util.logging.Logger;
 
 import net.sf.colossus.ai.AbstractAI;
@@ -105,7 +104,24 @@ public class OnTheFlyLegionMove implements Collection<LegionMove>
         return allCritterMoves.size();
     }
 
-    class OnTheFlyLegionMoveIterator implements Iterator<LegionMove>
+    /**
+     * The iterator returned by OnTheFlyLegionMove. The moves are generated
+     * in generations: each new generation is bred from the values of the
+     * moves returned so far, so those must have been evaluated before
+     * hasNext() is called after the last move of a generation.
+     * Moves within one generation can be evaluated in any order, or in
+     * parallel.
+     */
+    public interface GenerationIterator extends Iterator<LegionMove>
+    {
+        /**
+         * @return How many moves can still be taken from the current
+         *   generation without the need to evaluate the earlier ones first
+         */
+        int remainingInGeneration();
+    }
+
+    class OnTheFlyLegionMoveIterator implements GenerationIterator
     {
 
         String intArrayToString(int[] t)
@@ -251,16 +267,16 @@ public class OnTheFlyLegionMove implements Collection<LegionMove>
          * first index is which position in the source int[] is checked.
          * second index is which position in the destination source int[] is checked.
          * third index is value in the source int[].
-         * The Set is all the incompatible values in the dest int[].
+         * The BitSet has all the incompatible values in the dest int[]
+         * set, so checking a combination does not box any Integers.
          */
-        private final Set<Integer>[][][] incomps;
+        private final BitSet[][][] incomps;
 
-        @SuppressWarnings("unchecked")
         OnTheFlyLegionMoveIterator(OnTheFlyLegionMove d)
         {
             daddy = d;
             dim = daddy.getDim();
-            incomps = new Set[dim][dim][30];//never more than 30 hexes ???
+            incomps = new BitSet[dim][dim][];
             buildIncompMap();
             firstfill();
         }
@@ -276,10 +292,11 @@ public class OnTheFlyLegionMove implements Collection<LegionMove>
                     if (i != j)
                     {
                         List<CritterMove> lj = daddy.allCritterMoves.get(j);
+                        incomps[i][j] = new BitSet[li.size()];
                         for (int k = 0; k < li.size(); k++)
                         {
                             BattleHex a = li.get(k).getEndingHex();
-                            Set<Integer> s = new TreeSet<Integer>();
+                            BitSet s = new BitSet(lj.size());
                             incomps[i][j][k] = s;
 
                             if (!a.isEntrance())
@@ -289,7 +306,7 @@ public class OnTheFlyLegionMove implements Collection<LegionMove>
                                     BattleHex b = lj.get(l).getEndingHex();
                                     if (a.equals(b))
                                     {
-                                        s.add(l);
+                                        s.set(l);
                                     }
                                 }
                             }
@@ -368,8 +385,7 @@ public class OnTheFlyLegionMove implements Collection<LegionMove>
             {
                 for (int j = dim - 1; j > i; j--)
                 {
-                    Set<Integer> inc = incomps[i][j][indexes[i]];
-                    if (inc.contains(indexes[j]))
+                    if (incomps[i][j][indexes[i]].get(indexes[j]))
                     {
                         return i;
                     }
@@ -385,8 +401,7 @@ public class OnTheFlyLegionMove implements Collection<LegionMove>
             {
                 for (int k = 0; k < i && !isBad; k++)
                 {
-                    Set<Integer> inc = incomps[i][k][indexes[i]];
-                    if (inc.contains(indexes[k]))
+                    if (incomps[i][k][indexes[i]].get(indexes[k]))
                     {
                         isBad = true;
                     }
@@ -753,6 +768,11 @@ public class OnTheFlyLegionMove implements Collection<LegionMove>
             return count;
         }
 
+        public int remainingInGeneration()
+        {
+            return beingdone.size();
+        }
+
         public LegionMove next()
         {
             if (beingdone.isEmpty())
@@ -146,7 +146,7 @@ public class BasicObjectiveHelper extends AbstractObjectiveHelper
             if (lcritter.isTitan())
             {
                 lListObjectives.add(new DestroyCreatureTacticalObjective(
-                    oec.DESTROY_TITAN_PRIORITY, client, client.getDefender(),
+                    oec.DESTROY_TITAN_PRIORITY, ai, client.getDefender(),
                     lcritter, 1));
             }
             else
@@ -169,14 +169,14 @@ public class BasicObjectiveHelper extends AbstractObjectiveHelper
             if (lcritter.isTitan())
             {
                 lListObjectives.add(new PreserveCreatureTacticalObjective(
-                    oec.ATTACKER_PRESERVE_TITAN_PRIORITY, client, client
+                    oec.ATTACKER_PRESERVE_TITAN_PRIORITY, ai, client
                         .getAttacker(), lcritter));
             }
         }
         if (toKill != null)
         {
             lListObjectives.add(new DestroyCreatureTacticalObjective(
-                oec.DESTROY_IMPORTANT_CRITTER_PRIORITY, client, client
+                oec.DESTROY_IMPORTANT_CRITTER_PRIORITY, ai, client
                     .getDefender(), toKill, 1));
         }
         for (TacticalObjective to : lListObjectives)
@@ -195,7 +195,7 @@ public class BasicObjectiveHelper extends AbstractObjectiveHelper
             if (lcritter.isTitan())
             {
                 lListObjectives.add(new DestroyCreatureTacticalObjective(
-                    oec.DESTROY_TITAN_PRIORITY, client, client.getAttacker(),
+                    oec.DESTROY_TITAN_PRIORITY, ai, client.getAttacker(),
                     lcritter, 1));
             }
         }
@@ -204,7 +204,7 @@ public class BasicObjectiveHelper extends AbstractObjectiveHelper
             if (lcritter.isTitan())
             {
                 lListObjectives.add(new PreserveCreatureTacticalObjective(
-                    oec.DEFENDER_PRESERVE_TITAN_PRIORITY, client, client
+                    oec.DEFENDER_PRESERVE_TITAN_PRIORITY, ai, client
                         .getDefender(), lcritter));
             }
         }
@@ -212,7 +212,7 @@ public class BasicObjectiveHelper extends AbstractObjectiveHelper
         if (toKill != null)
         {
             lListObjectives.add(new DestroyCreatureTacticalObjective(
-                oec.DESTROY_IMPORTANT_CRITTER_PRIORITY, client, client
+                oec.DESTROY_IMPORTANT_CRITTER_PRIORITY, ai, client
                     .getAttacker(), toKill.creature, Math.min(
                     toKill.stackNumber, toKill.numberNeededHere)));
         }
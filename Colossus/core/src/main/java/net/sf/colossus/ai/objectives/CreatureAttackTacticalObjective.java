@@ -68,7 +68,8 @@ class CreatureAttackTacticalObjective extends AbstractTacticalObjective
         final int turn = client.getBattleTurnNumber();
         int which = 0;
         Map<BattleHex, Integer> strikeMap = ai.findStrikeMap();
-        for (BattleCritter critter : client.getActiveBattleUnits())
+        for (BattleCritter critter : ai.getBattleCS()
+            .getActiveBattleUnits())
         {
             if (critter.getCurrentHex().isEntrance())
             {
@@ -78,8 +79,8 @@ class CreatureAttackTacticalObjective extends AbstractTacticalObjective
             {
                 final int skill = critter.getSkill();
                 final int power = critter.getPower();
-                Set<BattleHex> targetHexes = client.findStrikes(critter
-                    .getTag());
+                Set<BattleHex> targetHexes = ai.getBattleCS().findTargets(
+                    critter, true);
                 String desc = creature.getName() + " #" + which;
                 which++;
                 int numTargets = targetHexes.size();
@@ -87,7 +88,7 @@ class CreatureAttackTacticalObjective extends AbstractTacticalObjective
                 {
                     continue;
                 }
-                if (client.isInContact(critter, true))
+                if (ai.getBattleCS().isInContact(critter, true))
                 {
                     value.add(bec.ATTACKER_ADJACENT_TO_ENEMY, desc
                         + ": AttackerAdjacentToEnemy");
@@ -98,7 +99,7 @@ class CreatureAttackTacticalObjective extends AbstractTacticalObjective
 
                     for (BattleHex targetHex : targetHexes)
                     {
-                        BattleCritter target = client.getBattleCS()
+                        BattleCritter target = ai.getBattleCS()
                             .getBattleUnit(targetHex);
 
                         // Reward being next to enemy titans.  (Banzai!)
@@ -244,7 +245,7 @@ class CreatureAttackTacticalObjective extends AbstractTacticalObjective
                     boolean penalty = true;
                     for (BattleHex targetHex : targetHexes)
                     {
-                        BattleCritter target = client.getBattleCS()
+                        BattleCritter target = ai.getBattleCS()
                             .getBattleUnit(targetHex);
                         if (target.isTitan())
                         {
@@ -3,7 +3,7 @@ package net.sf.colossus.ai.objectives;
 
 import java.util.logging.Logger;
 
-import net.sf.colossus.client.Client;
+import net.sf.colossus.ai.AbstractAI;
 import net.sf.colossus.game.Battle;
 import net.sf.colossus.game.BattleCritter;
 import net.sf.colossus.game.Creature;
@@ -30,18 +30,18 @@ class DestroyCreatureTacticalObjective extends AbstractTacticalObjective
         .getLogger(DestroyCreatureTacticalObjective.class.getName());
     private final Creature critter;
     private final Legion killlegion;
-    private final Client client;
+    private final AbstractAI ai;
     private final int count;
     private final int number;
 
-    DestroyCreatureTacticalObjective(float priority, Client client,
+    DestroyCreatureTacticalObjective(float priority, AbstractAI ai,
         Legion killlegion, Creature critter, int number)
     {
         super(priority);
         this.number = number;
         this.critter = critter;
         this.killlegion = killlegion;
-        this.client = client;
+        this.ai = ai;
         count = killlegion.numCreature(critter.getType());
         if (count < number)
         {
@@ -67,12 +67,14 @@ class DestroyCreatureTacticalObjective extends AbstractTacticalObjective
         {
             return value;
         }
-        for (BattleCritter dCritter : client.getInactiveBattleUnits())
+        for (BattleCritter dCritter : ai.getBattleCS()
+            .getInactiveBattleUnits())
         {
             if (dCritter.getType().equals(critter.getType()))
             {
                 ValueRecorder lvalue = new ValueRecorder(getDescription());
-                for (BattleCritter aCritter : client.getActiveBattleUnits())
+                for (BattleCritter aCritter : ai.getBattleCS()
+                    .getActiveBattleUnits())
                 {
                     int range = Battle.getRange(dCritter.getCurrentHex(),
                         aCritter.getCurrentHex(), false);
@@ -3,7 +3,7 @@ package net.sf.colossus.ai.objectives;
 
 import java.util.logging.Logger;
 
-import net.sf.colossus.client.Client;
+import net.sf.colossus.ai.AbstractAI;
 import net.sf.colossus.game.Battle;
 import net.sf.colossus.game.BattleCritter;
 import net.sf.colossus.game.Creature;
@@ -31,16 +31,16 @@ class PreserveCreatureTacticalObjective extends AbstractTacticalObjective
         .getLogger(PreserveCreatureTacticalObjective.class.getName());
     private final Creature critter;
     private final Legion liveLegion;
-    private final Client client;
+    private final AbstractAI ai;
     private final int count;
 
-    PreserveCreatureTacticalObjective(float priority, Client client,
+    PreserveCreatureTacticalObjective(float priority, AbstractAI ai,
         Legion liveLegion, Creature critter)
     {
         super(priority);
         this.critter = critter;
         this.liveLegion = liveLegion;
-        this.client = client;
+        this.ai = ai;
         count = liveLegion.numCreature(critter.getType());
         if (count <= 0)
         {
@@ -65,12 +65,14 @@ class PreserveCreatureTacticalObjective extends AbstractTacticalObjective
         {
             return value;
         }
-        for (BattleCritter dCritter : client.getActiveBattleUnits())
+        for (BattleCritter dCritter : ai.getBattleCS()
+            .getActiveBattleUnits())
         {
             if (dCritter.getType().equals(critter.getType()))
             {
                 ValueRecorder lvalue = new ValueRecorder(getDescription());
-                for (BattleCritter aCritter : client.getInactiveBattleUnits())
+                for (BattleCritter aCritter : ai.getBattleCS()
+                    .getInactiveBattleUnits())
                 {
                     int range = Battle.getRange(dCritter.getCurrentHex(),
                         aCritter.getCurrentHex(), false);
@@ -13,6 +13,7 @@ import net.sf.colossus.common.Constants;
 import net.sf.colossus.game.Battle;
 import net.sf.colossus.game.BattleCritter;
 import net.sf.colossus.game.BattlePhase;
+import net.sf.colossus.game.BattleStrike;
 import net.sf.colossus.game.BattleUnit;
 import net.sf.colossus.game.Game;
 import net.sf.colossus.game.Legion;
@@ -54,16 +55,60 @@ public class BattleClientSide extends Battle
 
     private final List<BattleUnit> battleUnits = new ArrayList<BattleUnit>();
 
+    /** Only set for snapshots, the real one uses the game's BattleStrike */
+    private final BattleStrike battleStrike;
+
     public BattleClientSide(Game game, Legion attacker, Legion defender,
         MasterHex location)
     {
         super(game, attacker, defender, location);
+        this.battleStrike = null;
 
         LOGGER.info("Battle client side instantiated for "
             + attacker.getMarkerId() + " attacking " + defender.getMarkerId()
             + " in land " + location.getTerrain().getDisplayName());
     }
 
+    /**
+     * Deep copy constructor: creates a snapshot of the given battle, with
+     * an own copy of every BattleUnit, so that the AI can move critters
+     * around in the snapshot without touching the real battle (or the
+     * GUI chits listening to the real units).
+     *
+     * Game, legions and players are shared with the original; the
+     * snapshot must not be used to change any of those.
+     * Each thread that evaluates moves needs a snapshot of its own.
+     *
+     * @param other The battle to copy
+     */
+    public BattleClientSide(BattleClientSide other)
+    {
+        super(other.game, other.attacker, other.defender, other
+            .getLocation());
+        this.battleTurnNumber = other.battleTurnNumber;
+        this.battlePhase = other.battlePhase;
+        this.battleActivePlayer = other.battleActivePlayer;
+        for (BattleUnit battleUnit : other.battleUnits)
+        {
+            battleUnits.add(new BattleUnit(battleUnit));
+        }
+        this.battleStrike = new BattleStrike(game, this);
+    }
+
+    /**
+     * The BattleStrike to use for calculations about this battle:
+     * for a snapshot one that works on the snapshot, otherwise the
+     * one of the game.
+     */
+    public BattleStrike getBattleStrike()
+    {
+        if (battleStrike != null)
+        {
+            return battleStrike;
+        }
+        return game.getBattleStrike();
+    }
+
     public void init(int battleTurnNumber, Player battleActivePlayer,
         BattlePhase battlePhase)
     {
@@ -288,7 +333,7 @@ public class BattleClientSide extends Battle
     }
 
     /** Get the BattleUnit with this tag. */
-    BattleUnit getBattleUnit(int tag)
+    public BattleUnit getBattleUnit(int tag)
     {
         for (BattleUnit battleUnit : battleUnits)
         {
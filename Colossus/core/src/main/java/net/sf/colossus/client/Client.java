@@ -1,6 +1,7 @@
 package net.sf.colossus.client;
 
 
+import java.io.File;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.HashSet;
@@ -46,6 +47,7 @@ import net.sf.colossus.util.Glob;
 import net.sf.colossus.util.InstanceTracker;
 import net.sf.colossus.util.ResourceLoader;
 import net.sf.colossus.util.Split;
+import net.sf.colossus.util.StaticResourceLoader;
 import net.sf.colossus.util.ViableEntityManager;
 import net.sf.colossus.variant.BattleHex;
 import net.sf.colossus.variant.CreatureType;
@@ -283,15 +285,17 @@ public final class Client implements IClient, IOracle, IVariant,
          */
         ResourceLoader loader;
         boolean remote;
-        Variant variant;
 
         if (theServer == null)
         {
+            StaticResourceLoader.setPersistentFileCache(new File(
+                Constants.FILE_CACHE_DIR_NAME));
             loader = new ResourceLoader(host, port + 1);
             remote = true;
         }
         else
         {
+            StaticResourceLoader.setPersistentFileCache(null);
             loader = new ResourceLoader(null, 0);
             remote = false;
         }
@@ -299,6 +303,46 @@ public final class Client implements IClient, IOracle, IVariant,
         IServerConnection conn = SocketClientThread.createConnection(host,
             port, playerName, remote, spectator);
 
+        return createClient(playerName, playerType, whatNextMgr, theServer,
+            byWebClient, noOptionsFile, createGUI, spectator, loader, conn);
+    }
+
+    /**
+     * Create a Client object for a player of a game running in the same
+     * JVM; it is connected to the server via an in-process channel
+     * instead of a socket.
+     *
+     * @param playerName Name of the player (might still be one of the
+     *                   <byXXX> templates
+     * @param playerType Type of player, e.g. Human or some concrete AI type
+     *                   (but not "AnyAI"), including the package name.
+     * @param whatNextMgr The main controller over which to handle what to do
+     *                    next when this game is over and exiting
+     * @param theServer The Server object
+     * @param noOptionsFile E.g. AIs should not read/save any options file
+     * @param createGUI Whether to create a GUI
+     * @param spectator true to join as spectator, false as real player
+     */
+    public static synchronized Client createLocalClient(String playerName,
+        String playerType, WhatNextManager whatNextMgr, Server theServer,
+        boolean noOptionsFile, boolean createGUI, boolean spectator)
+        throws ConnectionInitException
+    {
+        ResourceLoader loader = new ResourceLoader(null, 0);
+        IServerConnection conn = SocketClientThread.createInProcessConnection(
+            theServer, playerName, spectator);
+
+        return createClient(playerName, playerType, whatNextMgr, theServer,
+            false, noOptionsFile, createGUI, spectator, loader, conn);
+    }
+
+    private static Client createClient(String playerName, String playerType,
+        WhatNextManager whatNextMgr, Server theServer, boolean byWebClient,
+        boolean noOptionsFile, boolean createGUI, boolean spectator,
+        ResourceLoader loader, IServerConnection conn)
+    {
+        Variant variant;
+
         // TODO For now, loading the variant is needed only if remote client.
         // ( => theServer is null; theServer != null is the server object in
         // same JVM).
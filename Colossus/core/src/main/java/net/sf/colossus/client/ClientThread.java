@@ -11,7 +11,9 @@ import java.util.concurrent.LinkedBlockingQueue;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
+import net.sf.colossus.common.CommandStatistics;
 import net.sf.colossus.common.Constants;
+import net.sf.colossus.common.Histogram;
 import net.sf.colossus.game.BattlePhase;
 import net.sf.colossus.game.EntrySide;
 import net.sf.colossus.game.Legion;
@@ -19,6 +21,7 @@ import net.sf.colossus.game.Player;
 import net.sf.colossus.game.PlayerColor;
 import net.sf.colossus.util.Glob;
 import net.sf.colossus.util.Split;
+import net.sf.colossus.util.TermList;
 import net.sf.colossus.variant.BattleHex;
 import net.sf.colossus.variant.CreatureType;
 import net.sf.colossus.variant.MasterHex;
@@ -63,6 +66,12 @@ public class ClientThread extends Thread implements EventExecutor
     // of all threads need then to get a lock on the logger too often?)
     private final boolean LOG_PROCESSING_TIMES = false;
 
+    /** The commands processed; logged when run() ends */
+    private final CommandStatistics commandStatistics;
+
+    /** How long the events waited in the queue, in ms */
+    private final Histogram queueWait = new Histogram("ms");
+
     // this is enqueued to get the thread out of the "take()"-waiting
     private final static ServerEvent END_EVENT = new ClientThread.ServerEvent(
         0L, "END", new ArrayList<String>());
@@ -71,6 +80,8 @@ public class ClientThread extends Thread implements EventExecutor
     {
         this.client = client;
         this.threadNr = nextThreadNumber();
+        this.commandStatistics = new CommandStatistics("client thread "
+            + threadNr);
 
         queue = new LinkedBlockingQueue<ServerEvent>();
     }
@@ -236,8 +247,13 @@ public class ClientThread extends Thread implements EventExecutor
                     continue;
                 }
                 event.executionStarts(ClientThread.getNow());
+                queueWait.record(event.getExecutionStarted()
+                    - event.getEnqueued());
                 retriggeredEventOngoing = event.isRetriggered;
+                long start = System.nanoTime();
                 callMethod(event);
+                commandStatistics.record(event.getMethod(), System.nanoTime()
+                    - start);
                 retriggeredEventOngoing = false;
                 event.executionCompleted(ClientThread.getNow());
             }
@@ -259,6 +275,8 @@ public class ClientThread extends Thread implements EventExecutor
             }
 
         }
+        LOGGER.fine(commandStatistics.getSummary());
+        LOGGER.fine("Events waited in queue: " + queueWait);
         LOGGER.finest("ClientThread run() ending.");
     }
 
@@ -322,633 +340,720 @@ public class ClientThread extends Thread implements EventExecutor
 
         showDebugOutputMaybe(method, args);
 
-        if (method.equals(Constants.tellMovementRoll))
+        switch (method)
         {
-            int roll = Integer.parseInt(args.remove(0));
-            String reason = "";
-            if (args.size() > 0)
+            case Constants.tellMovementRoll:
             {
-                reason = args.remove(0);
-            }
-            LOGGER.finest("tellMovementRoll, roll=" + roll + ", reason='"
-                + reason + ".");
-            client.tellMovementRoll(roll, reason);
-
-        }
-        else if (method.equals(Constants.syncOption))
-        {
-            String optname = args.remove(0);
-            String value = args.remove(0);
-            client.syncOption(optname, value);
-        }
-        else if (method.equals(Constants.updatePlayerInfo))
-        {
-            List<String> infoStrings = Split.split(Glob.sep, args.remove(0));
-            client.updatePlayerInfo(infoStrings);
-        }
-        else if (method.equals(Constants.updateChangedValues))
-        {
-            String valuesString = args.remove(0);
-            String reason = args.remove(0);
-            client.updateChangedPlayerValues(valuesString, reason);
-        }
-        else if (method.equals(Constants.setColor))
-        {
-            String colorName = args.remove(0);
-            client.setColor(PlayerColor.getByName(colorName));
-        }
-        else if (method.equals(Constants.updateCreatureCount))
-        {
-            String creatureName = args.remove(0);
-            int count = Integer.parseInt(args.remove(0));
-            int deadCount = Integer.parseInt(args.remove(0));
-            client.updateCreatureCount(resolveCreatureType(creatureName),
-                count, deadCount);
-        }
-        else if (method.equals(Constants.removeLegion))
-        {
-            String id = args.remove(0);
-            client.removeLegion(resolveLegion(id));
-        }
-        else if (method.equals(Constants.setLegionStatus))
-        {
-            String markerId = args.remove(0);
-            boolean moved = Boolean.valueOf(args.remove(0)).booleanValue();
-            boolean teleported = Boolean.valueOf(args.remove(0))
-                .booleanValue();
-            int entrySideId = Integer.parseInt(args.remove(0));
-            String lastRecruit = args.remove(0);
-            client.setLegionStatus(resolveLegion(markerId), moved, teleported,
-                EntrySide.values()[entrySideId],
-                resolveCreatureType(lastRecruit));
-        }
-        else if (method.equals(Constants.addCreature))
-        {
-            String markerId = args.remove(0);
-            String name = args.remove(0);
-            String reason = args.isEmpty() ? "<Unknown>" : args.remove(0);
-            client.addCreature(resolveLegion(markerId),
-                resolveCreatureType(name), reason);
-        }
-        else if (method.equals(Constants.removeCreature))
-        {
-            String markerId = args.remove(0);
-            String name = args.remove(0);
-            String reason = args.isEmpty() ? "<Unknown>" : args.remove(0);
-            client.removeCreature(resolveLegion(markerId),
-                resolveCreatureType(name), reason);
-        }
-        else if (method.equals(Constants.revealCreatures))
-        {
-            String markerId = args.remove(0);
-            String namesString = args.remove(0);
-            List<String> names = Split.split(Glob.sep, namesString);
+                int roll = Integer.parseInt(args.remove(0));
+                String reason = "";
+                if (args.size() > 0)
+                {
+                    reason = args.remove(0);
+                }
+                LOGGER.finest("tellMovementRoll, roll=" + roll + ", reason='"
+                    + reason + ".");
+                client.tellMovementRoll(roll, reason);
 
-            // safeguard against getting empty string list from server
-            // TODO: should split be fixed instead??
-            if (namesString.equals("") && names.size() > 0
-                && names.get(0).equals(""))
+                break;
+            }
+            case Constants.syncOption:
             {
-                names.remove(0);
+                String optname = args.remove(0);
+                String value = args.remove(0);
+                client.syncOption(optname, value);
+                break;
             }
-            String reason = args.isEmpty() ? "<Unknown>" : args.remove(0);
-            Player player = client.getGameClientSide().getPlayerByMarkerId(
-                markerId);
-            Legion legion;
-            if (player.hasLegion(markerId))
+            case Constants.updatePlayerInfo:
             {
-                legion = player.getLegionByMarkerId(markerId);
+                List<String> infoStrings = Split.split(Glob.sep,
+                    args.remove(0));
+                client.updatePlayerInfo(infoStrings);
+                break;
             }
-            else
+            case Constants.updateChangedValues:
             {
-                // this can happen on game startup since there is no explicit
-                // event creating the first legions
-                // TODO try to make this less implicit
-                assert client.getTurnNumber() == -1 : "Implicit legion creation should happen only "
-                    + "before the first round";
-                legion = new LegionClientSide(player, markerId,
-                    player.getStartingTower());
-                player.addLegion(legion);
+                String valuesString = args.remove(0);
+                String reason = args.remove(0);
+                client.updateChangedPlayerValues(valuesString, reason);
+                break;
             }
-            List<CreatureType> creatures = new ArrayList<CreatureType>();
-            for (String name : names)
+            case Constants.setColor:
             {
-                creatures.add(resolveCreatureType(name));
+                String colorName = args.remove(0);
+                client.setColor(PlayerColor.getByName(colorName));
+                break;
             }
-            client.revealCreatures(legion, creatures, reason);
-        }
-        else if (method.equals(Constants.revealEngagedCreatures))
-        {
-            String markerId = args.remove(0);
-            boolean isAttacker = Boolean.valueOf(args.remove(0))
-                .booleanValue();
-            String names = args.remove(0);
-            String reason = args.isEmpty() ? "<Unknown>" : args.remove(0);
-            client.revealEngagedCreatures(resolveLegion(markerId),
-                resolveCreatureTypes(names), isAttacker, reason);
-        }
-        else if (method.equals(Constants.removeDeadBattleChits))
-        {
-            client.removeDeadBattleChits();
-        }
-        else if (method.equals(Constants.placeNewChit))
-        {
-            clearEngagementStartupOngoing();
-            String imageName = args.remove(0);
-            boolean inverted = Boolean.valueOf(args.remove(0)).booleanValue();
-            int tag = Integer.parseInt(args.remove(0));
-            String hexLabel = args.remove(0);
-            BattleHex hex = resolveBattleHex(hexLabel);
-            client.placeNewChit(imageName, inverted, tag, hex);
-        }
-        else if (method.equals(Constants.replayOngoing))
-        {
-            boolean val = Boolean.valueOf(args.remove(0)).booleanValue();
-            // older servers may not send this...
-            // TODO obsolete... nowadays they do, and there are other,
-            // incompatiblities added since then...
-            String turnArgMaybe = args.isEmpty() ? "0" : args.remove(0);
-            int maxTurn = Integer.parseInt(turnArgMaybe);
-            client.tellReplay(val, maxTurn);
-
-        }
-        else if (method.equals(Constants.redoOngoing))
-        {
-            boolean val = Boolean.valueOf(args.remove(0)).booleanValue();
-            client.tellRedo(val);
-        }
-        else if (method.equals(Constants.initBoard))
-        {
-            client.initBoard();
-            client.setEventExecutor(this);
-        }
-        else if (method.equals(Constants.setPlayerName))
-        {
-            String playerName = args.remove(0);
-            client.setPlayerName(playerName);
-        }
-        else if (method.equals(Constants.createSummonAngel))
-        {
-            rememberEvent(event);
-            String markerId = args.remove(0);
-            client.createSummonAngel(resolveLegion(markerId));
-        }
-        else if (method.equals(Constants.askAcquireAngel))
-        {
-            rememberEvent(event);
-            String markerId = args.remove(0);
-            List<CreatureType> recruits = resolveCreatureTypes(args.remove(0));
-            client.askAcquireAngel(resolveLegion(markerId), recruits);
-        }
-        else if (method.equals(Constants.askChooseStrikePenalty))
-        {
-            rememberEvent(event);
-            List<String> choices = Split.split(Glob.sep, args.remove(0));
-            client.askChooseStrikePenalty(choices);
-        }
-        else if (method.equals(Constants.tellGameOver))
-        {
-            String message = args.remove(0);
-            boolean disposeFollows = false;
-            if (!args.isEmpty())
+            case Constants.updateCreatureCount:
+            {
+                String creatureName = args.remove(0);
+                int count = Integer.parseInt(args.remove(0));
+                int deadCount = Integer.parseInt(args.remove(0));
+                client.updateCreatureCount(resolveCreatureType(creatureName),
+                    count, deadCount);
+                break;
+            }
+            case Constants.removeLegion:
+            {
+                String id = args.remove(0);
+                client.removeLegion(resolveLegion(id));
+                break;
+            }
+            case Constants.setLegionStatus:
             {
-                disposeFollows = Boolean.valueOf(args.remove(0))
+                String markerId = args.remove(0);
+                boolean moved = Boolean.valueOf(args.remove(0)).booleanValue();
+                boolean teleported = Boolean.valueOf(args.remove(0))
                     .booleanValue();
+                int entrySideId = Integer.parseInt(args.remove(0));
+                String lastRecruit = args.remove(0);
+                client.setLegionStatus(resolveLegion(markerId), moved,
+                    teleported, EntrySide.values()[entrySideId],
+                    resolveCreatureType(lastRecruit));
+                break;
             }
-            boolean suspended = false;
-            if (!args.isEmpty())
+            case Constants.addCreature:
             {
-                suspended = Boolean.valueOf(args.remove(0)).booleanValue();
+                String markerId = args.remove(0);
+                String name = args.remove(0);
+                String reason = args.isEmpty() ? "<Unknown>" : args.remove(0);
+                client.addCreature(resolveLegion(markerId),
+                    resolveCreatureType(name), reason);
+                break;
             }
-
-            client.tellGameOver(message, disposeFollows, suspended);
-        }
-        else if (method.equals(Constants.tellPlayerElim))
-        {
-            String playerName = args.remove(0);
-            String slayerName = args.remove(0);
-            // TODO use the "noone" player instead of null if no slayer?
-            client.tellPlayerElim(
-                client.getPlayerByName(playerName),
-                slayerName.equals("null") ? null : (client.getGameClientSide()
-                    .getPlayerByName(slayerName)));
-        }
-        else if (method.equals(Constants.askConcede))
-        {
-            rememberEvent(event);
-            String allyMarkerId = args.remove(0);
-            String enemyMarkerId = args.remove(0);
-            client.askConcede(resolveLegion(allyMarkerId),
-                resolveLegion(enemyMarkerId));
-        }
-        else if (method.equals(Constants.askFlee))
-        {
-            rememberEvent(event);
-            String allyMarkerId = args.remove(0);
-            String enemyMarkerId = args.remove(0);
-            client.askFlee(resolveLegion(allyMarkerId),
-                resolveLegion(enemyMarkerId));
-        }
-        else if (method.equals(Constants.askNegotiate))
-        {
-            rememberEvent(event);
-            String attackerId = args.remove(0);
-            String defenderId = args.remove(0);
-            client.askNegotiate(resolveLegion(attackerId),
-                resolveLegion(defenderId));
-        }
-        else if (method.equals(Constants.tellProposal))
-        {
-            String proposalString = args.remove(0);
-            client.tellProposal(proposalString);
-        }
-        else if (method.equals(Constants.tellSlowResults))
-        {
-            int targetTag = Integer.parseInt(args.remove(0));
-            int slowValue = Integer.parseInt(args.remove(0));
-            client.tellSlowResults(targetTag, slowValue);
-        }
-        else if (method.equals(Constants.tellStrikeResults))
-        {
-            int strikerTag = Integer.parseInt(args.remove(0));
-            int targetTag = Integer.parseInt(args.remove(0));
-            int strikeNumber = Integer.parseInt(args.remove(0));
-            List<String> rolls = Split.split(Glob.sep, args.remove(0));
-            int damage = Integer.parseInt(args.remove(0));
-            boolean killed = Boolean.valueOf(args.remove(0)).booleanValue();
-            boolean wasCarry = Boolean.valueOf(args.remove(0)).booleanValue();
-            int carryDamageLeft = Integer.parseInt(args.remove(0));
-
-            Set<String> carryTargetDescriptions = new HashSet<String>();
-            if (!args.isEmpty())
-            {
-                String buf = args.remove(0);
-                if (buf != null && buf.length() > 0)
+            case Constants.removeCreature:
+            {
+                String markerId = args.remove(0);
+                String name = args.remove(0);
+                String reason = args.isEmpty() ? "<Unknown>" : args.remove(0);
+                client.removeCreature(resolveLegion(markerId),
+                    resolveCreatureType(name), reason);
+                break;
+            }
+            case Constants.revealCreatures:
+            {
+                String markerId = args.remove(0);
+                String namesString = args.remove(0);
+                List<String> names = Split.split(Glob.sep, namesString);
+
+                // safeguard against getting empty string list from server
+                // TODO: should split be fixed instead??
+                if (namesString.equals("") && names.size() > 0
+                    && names.get(0).equals(""))
+                {
+                    names.remove(0);
+                }
+                String reason = args.isEmpty() ? "<Unknown>" : args.remove(0);
+                Player player = client.getGameClientSide().getPlayerByMarkerId(
+                    markerId);
+                Legion legion;
+                if (player.hasLegion(markerId))
                 {
-                    List<String> ctdList = Split.split(Glob.sep, buf);
-                    carryTargetDescriptions.addAll(ctdList);
+                    legion = player.getLegionByMarkerId(markerId);
                 }
+                else
+                {
+                    // this can happen on game startup since there is no
+                    // explicit
+                    // event creating the first legions
+                    // TODO try to make this less implicit
+                    assert client.getTurnNumber() == -1
+                        : "Implicit legion creation should happen only "
+                        + "before the first round";
+                    legion = new LegionClientSide(player, markerId,
+                        player.getStartingTower());
+                    player.addLegion(legion);
+                }
+                List<CreatureType> creatures = new ArrayList<CreatureType>();
+                for (String name : names)
+                {
+                    creatures.add(resolveCreatureType(name));
+                }
+                client.revealCreatures(legion, creatures, reason);
+                break;
             }
+            case Constants.revealEngagedCreatures:
+            {
+                String markerId = args.remove(0);
+                boolean isAttacker = Boolean.valueOf(args.remove(0))
+                    .booleanValue();
+                String names = args.remove(0);
+                String reason = args.isEmpty() ? "<Unknown>" : args.remove(0);
+                client.revealEngagedCreatures(resolveLegion(markerId),
+                    resolveCreatureTypes(names), isAttacker, reason);
+                break;
+            }
+            case Constants.removeDeadBattleChits:
+            {
+                client.removeDeadBattleChits();
+                break;
+            }
+            case Constants.placeNewChit:
+            {
+                clearEngagementStartupOngoing();
+                String imageName = args.remove(0);
+                boolean inverted = Boolean.valueOf(args.remove(0))
+                    .booleanValue();
+                int tag = Integer.parseInt(args.remove(0));
+                String hexLabel = args.remove(0);
+                BattleHex hex = resolveBattleHex(hexLabel);
+                client.placeNewChit(imageName, inverted, tag, hex);
+                break;
+            }
+            case Constants.replayOngoing:
+            {
+                boolean val = Boolean.valueOf(args.remove(0)).booleanValue();
+                // older servers may not send this...
+                // TODO obsolete... nowadays they do, and there are other,
+                // incompatiblities added since then...
+                String turnArgMaybe = args.isEmpty() ? "0" : args.remove(0);
+                int maxTurn = Integer.parseInt(turnArgMaybe);
+                client.tellReplay(val, maxTurn);
+
+                break;
+            }
+            case Constants.redoOngoing:
+            {
+                boolean val = Boolean.valueOf(args.remove(0)).booleanValue();
+                client.tellRedo(val);
+                break;
+            }
+            case Constants.initBoard:
+            {
+                client.initBoard();
+                client.setEventExecutor(this);
+                break;
+            }
+            case Constants.setPlayerName:
+            {
+                String playerName = args.remove(0);
+                client.setPlayerName(playerName);
+                break;
+            }
+            case Constants.createSummonAngel:
+            {
+                rememberEvent(event);
+                String markerId = args.remove(0);
+                client.createSummonAngel(resolveLegion(markerId));
+                break;
+            }
+            case Constants.askAcquireAngel:
+            {
+                rememberEvent(event);
+                String markerId = args.remove(0);
+                List<CreatureType> recruits = resolveCreatureTypes(args
+                    .remove(0));
+                client.askAcquireAngel(resolveLegion(markerId), recruits);
+                break;
+            }
+            case Constants.askChooseStrikePenalty:
+            {
+                rememberEvent(event);
+                List<String> choices = Split.split(Glob.sep, args.remove(0));
+                client.askChooseStrikePenalty(choices);
+                break;
+            }
+            case Constants.tellGameOver:
+            {
+                String message = args.remove(0);
+                boolean disposeFollows = false;
+                if (!args.isEmpty())
+                {
+                    disposeFollows = Boolean.valueOf(args.remove(0))
+                        .booleanValue();
+                }
+                boolean suspended = false;
+                if (!args.isEmpty())
+                {
+                    suspended = Boolean.valueOf(args.remove(0)).booleanValue();
+                }
 
-            client.tellStrikeResults(strikerTag, targetTag, strikeNumber,
-                rolls, damage, killed, wasCarry, carryDamageLeft,
-                carryTargetDescriptions);
-        }
-        else if (method.equals(Constants.initBattle))
-        {
-            String masterHexLabel = args.remove(0);
-            int battleTurnNumber = Integer.parseInt(args.remove(0));
-            String battleActivePlayerName = args.remove(0);
-            BattlePhase battlePhase = BattlePhase.values()[Integer
-                .parseInt(args.remove(0))];
-            String attackerMarkerId = args.remove(0);
-            String defenderMarkerId = args.remove(0);
-            client.initBattle(resolveHex(masterHexLabel), battleTurnNumber,
-                client.getPlayerByName(battleActivePlayerName), battlePhase,
-                resolveLegion(attackerMarkerId),
-                resolveLegion(defenderMarkerId));
-        }
-        else if (method.equals(Constants.cleanupBattle))
-        {
-            client.cleanupBattle();
-        }
-        else if (method.equals(Constants.nextEngagement))
-        {
-            rememberEvent(event);
-            client.nextEngagement();
-        }
-        else if (method.equals(Constants.doReinforce))
-        {
-            rememberEvent(event);
-            String markerId = args.remove(0);
-            client.doReinforce(resolveLegion(markerId));
-        }
-        else if (method.equals(Constants.didRecruit))
-        {
-            String markerId = args.remove(0);
-            String recruitName = args.remove(0);
-            String recruiterName = args.remove(0);
-            int numRecruiters = Integer.parseInt(args.remove(0));
-            client.didRecruit(resolveLegion(markerId),
-                resolveCreatureType(recruitName),
-                resolveCreatureType(recruiterName), numRecruiters);
-        }
-        else if (method.equals(Constants.undidRecruit))
-        {
-            String markerId = args.remove(0);
-            String recruitName = args.remove(0);
-            client.undidRecruit(resolveLegion(markerId),
-                resolveCreatureType(recruitName));
-        }
-        else if (method.equals(Constants.setupTurnState))
-        {
-            rememberEvent(event);
-            String activePlayerName = args.remove(0);
-            int turnNumber = Integer.parseInt(args.remove(0));
-            client.setupTurnState(client.getPlayerByName(activePlayerName),
-                turnNumber);
-        }
-        else if (method.equals(Constants.setupSplit))
-        {
-            String activePlayerName = args.remove(0);
-            int turnNumber = Integer.parseInt(args.remove(0));
-            client.setupSplit(client.getPlayerByName(activePlayerName),
-                turnNumber);
-        }
-        else if (method.equals(Constants.setupMove))
-        {
-            client.setupMove();
-        }
-        else if (method.equals(Constants.setupFight))
-        {
-            client.setupFight();
-        }
-        else if (method.equals(Constants.setupMuster))
-        {
-            client.setupMuster();
-        }
-        else if (method.equals(Constants.kickPhase))
-        {
-            client.kickPhase();
-        }
+                client.tellGameOver(message, disposeFollows, suspended);
+                break;
+            }
+            case Constants.tellPlayerElim:
+            {
+                String playerName = args.remove(0);
+                String slayerName = args.remove(0);
+                // TODO use the "noone" player instead of null if no slayer?
+                client.tellPlayerElim(
+                    client.getPlayerByName(playerName),
+                    slayerName.equals("null") ? null : (client
+                        .getGameClientSide().getPlayerByName(slayerName)));
+                break;
+            }
+            case Constants.askConcede:
+            {
+                rememberEvent(event);
+                String allyMarkerId = args.remove(0);
+                String enemyMarkerId = args.remove(0);
+                client.askConcede(resolveLegion(allyMarkerId),
+                    resolveLegion(enemyMarkerId));
+                break;
+            }
+            case Constants.askFlee:
+            {
+                rememberEvent(event);
+                String allyMarkerId = args.remove(0);
+                String enemyMarkerId = args.remove(0);
+                client.askFlee(resolveLegion(allyMarkerId),
+                    resolveLegion(enemyMarkerId));
+                break;
+            }
+            case Constants.askNegotiate:
+            {
+                rememberEvent(event);
+                String attackerId = args.remove(0);
+                String defenderId = args.remove(0);
+                client.askNegotiate(resolveLegion(attackerId),
+                    resolveLegion(defenderId));
+                break;
+            }
+            case Constants.tellProposal:
+            {
+                String proposalString = args.remove(0);
+                client.tellProposal(proposalString);
+                break;
+            }
+            case Constants.tellSlowResults:
+            {
+                int targetTag = Integer.parseInt(args.remove(0));
+                int slowValue = Integer.parseInt(args.remove(0));
+                client.tellSlowResults(targetTag, slowValue);
+                break;
+            }
+            case Constants.tellStrikeResults:
+            {
+                int strikerTag = Integer.parseInt(args.remove(0));
+                int targetTag = Integer.parseInt(args.remove(0));
+                int strikeNumber = Integer.parseInt(args.remove(0));
+                List<String> rolls = Split.split(Glob.sep, args.remove(0));
+                int damage = Integer.parseInt(args.remove(0));
+                boolean killed = Boolean.valueOf(args.remove(0)).booleanValue();
+                boolean wasCarry = Boolean.valueOf(args.remove(0))
+                    .booleanValue();
+                int carryDamageLeft = Integer.parseInt(args.remove(0));
 
-        else if (method.equals(Constants.setupBattleSummon))
-        {
-            rememberEvent(event);
-            Player battleActivePlayer = client.getPlayerByName(args.remove(0));
-            int battleTurnNumber = Integer.parseInt(args.remove(0));
-            if (battleActivePlayer.equals(client.getOwningPlayer()))
+                Set<String> carryTargetDescriptions = new HashSet<String>();
+                if (!args.isEmpty())
+                {
+                    String buf = args.remove(0);
+                    if (buf != null && buf.length() > 0)
+                    {
+                        List<String> ctdList = Split.split(Glob.sep, buf);
+                        carryTargetDescriptions.addAll(ctdList);
+                    }
+                }
+
+                client.tellStrikeResults(strikerTag, targetTag, strikeNumber,
+                    rolls, damage, killed, wasCarry, carryDamageLeft,
+                    carryTargetDescriptions);
+                break;
+            }
+            case Constants.initBattle:
+            {
+                String masterHexLabel = args.remove(0);
+                int battleTurnNumber = Integer.parseInt(args.remove(0));
+                String battleActivePlayerName = args.remove(0);
+                BattlePhase battlePhase = BattlePhase.values()[Integer
+                    .parseInt(args.remove(0))];
+                String attackerMarkerId = args.remove(0);
+                String defenderMarkerId = args.remove(0);
+                client.initBattle(resolveHex(masterHexLabel), battleTurnNumber,
+                    client.getPlayerByName(battleActivePlayerName), battlePhase,
+                    resolveLegion(attackerMarkerId),
+                    resolveLegion(defenderMarkerId));
+                break;
+            }
+            case Constants.cleanupBattle:
+            {
+                client.cleanupBattle();
+                break;
+            }
+            case Constants.nextEngagement:
             {
                 rememberEvent(event);
+                client.nextEngagement();
+                break;
             }
-            client.setupBattleSummon(battleActivePlayer, battleTurnNumber);
-        }
-        else if (method.equals(Constants.setupBattleRecruit))
-        {
-            Player battleActivePlayer = client.getPlayerByName(args.remove(0));
-            int battleTurnNumber = Integer.parseInt(args.remove(0));
-            if (battleActivePlayer.equals(client.getOwningPlayer()))
+            case Constants.doReinforce:
             {
                 rememberEvent(event);
+                String markerId = args.remove(0);
+                client.doReinforce(resolveLegion(markerId));
+                break;
             }
-            client.setupBattleRecruit(battleActivePlayer, battleTurnNumber);
-        }
-        else if (method.equals(Constants.setupBattleMove))
-        {
-            Player battleActivePlayer = client.getPlayerByName(args.remove(0));
-            int battleTurnNumber = Integer.parseInt(args.remove(0));
-            client.setupBattleMove(battleActivePlayer, battleTurnNumber);
-        }
-        else if (method.equals(Constants.setupBattleFight))
-        {
-            BattlePhase battlePhase = BattlePhase.values()[Integer
-                .parseInt(args.remove(0))];
-            Player battleActivePlayer = client.getPlayerByName(args.remove(0));
-            if (battleActivePlayer.equals(client.getOwningPlayer()))
+            case Constants.didRecruit:
+            {
+                String markerId = args.remove(0);
+                String recruitName = args.remove(0);
+                String recruiterName = args.remove(0);
+                int numRecruiters = Integer.parseInt(args.remove(0));
+                client.didRecruit(resolveLegion(markerId),
+                    resolveCreatureType(recruitName),
+                    resolveCreatureType(recruiterName), numRecruiters);
+                break;
+            }
+            case Constants.undidRecruit:
+            {
+                String markerId = args.remove(0);
+                String recruitName = args.remove(0);
+                client.undidRecruit(resolveLegion(markerId),
+                    resolveCreatureType(recruitName));
+                break;
+            }
+            case Constants.setupTurnState:
             {
                 rememberEvent(event);
+                String activePlayerName = args.remove(0);
+                int turnNumber = Integer.parseInt(args.remove(0));
+                client.setupTurnState(client.getPlayerByName(activePlayerName),
+                    turnNumber);
+                break;
             }
-            client.setupBattleFight(battlePhase, battleActivePlayer);
-        }
-        else if (method.equals(Constants.tellLegionLocation))
-        {
-            String markerId = args.remove(0);
-            String hexLabel = args.remove(0);
-            client.tellLegionLocation(resolveLegion(markerId),
-                resolveHex(hexLabel));
-        }
-        else if (method.equals(Constants.tellBattleMove))
-        {
-            int tag = Integer.parseInt(args.remove(0));
-            String startingHexLabel = args.remove(0);
-            String endingHexLabel = args.remove(0);
-            boolean undo = Boolean.valueOf(args.remove(0)).booleanValue();
-            BattleHex startingHex = resolveBattleHex(startingHexLabel);
-            BattleHex endingHex = resolveBattleHex(endingHexLabel);
-            client.tellBattleMove(tag, startingHex, endingHex, undo);
-        }
-        else if (method.equals(Constants.didMove))
-        {
-            String markerId = args.remove(0);
-            String startingHexLabel = args.remove(0);
-            String currentHexLabel = args.remove(0);
-            String entrySideLabel = args.remove(0);
-            boolean teleport = Boolean.valueOf(args.remove(0)).booleanValue();
-            // servers from older versions might not send this arg
-            String teleportingLord = null;
-            if (!args.isEmpty())
-            {
-                teleportingLord = args.remove(0);
-                if (teleportingLord.equals("null"))
+            case Constants.setupSplit:
+            {
+                String activePlayerName = args.remove(0);
+                int turnNumber = Integer.parseInt(args.remove(0));
+                client.setupSplit(client.getPlayerByName(activePlayerName),
+                    turnNumber);
+                break;
+            }
+            case Constants.setupMove:
+            {
+                client.setupMove();
+                break;
+            }
+            case Constants.setupFight:
+            {
+                client.setupFight();
+                break;
+            }
+            case Constants.setupMuster:
+            {
+                client.setupMuster();
+                break;
+            }
+            case Constants.kickPhase:
+            {
+                client.kickPhase();
+                break;
+            }
+
+            case Constants.setupBattleSummon:
+            {
+                rememberEvent(event);
+                Player battleActivePlayer = client.getPlayerByName(args
+                    .remove(0));
+                int battleTurnNumber = Integer.parseInt(args.remove(0));
+                if (battleActivePlayer.equals(client.getOwningPlayer()))
                 {
-                    teleportingLord = null;
+                    rememberEvent(event);
                 }
+                client.setupBattleSummon(battleActivePlayer, battleTurnNumber);
+                break;
             }
-            boolean splitLegionHasForcedMove = false;
-            // servers from older versions might not send this arg
-            if (!args.isEmpty())
+            case Constants.setupBattleRecruit:
             {
-                splitLegionHasForcedMove = Boolean.valueOf(args.remove(0))
-                    .booleanValue();
+                Player battleActivePlayer = client.getPlayerByName(args
+                    .remove(0));
+                int battleTurnNumber = Integer.parseInt(args.remove(0));
+                if (battleActivePlayer.equals(client.getOwningPlayer()))
+                {
+                    rememberEvent(event);
+                }
+                client.setupBattleRecruit(battleActivePlayer, battleTurnNumber);
+                break;
+            }
+            case Constants.setupBattleMove:
+            {
+                Player battleActivePlayer = client.getPlayerByName(args
+                    .remove(0));
+                int battleTurnNumber = Integer.parseInt(args.remove(0));
+                client.setupBattleMove(battleActivePlayer, battleTurnNumber);
+                break;
+            }
+            case Constants.setupBattleFight:
+            {
+                BattlePhase battlePhase = BattlePhase.values()[Integer
+                    .parseInt(args.remove(0))];
+                Player battleActivePlayer = client.getPlayerByName(args
+                    .remove(0));
+                if (battleActivePlayer.equals(client.getOwningPlayer()))
+                {
+                    rememberEvent(event);
+                }
+                client.setupBattleFight(battlePhase, battleActivePlayer);
+                break;
+            }
+            case Constants.tellLegionLocation:
+            {
+                String markerId = args.remove(0);
+                String hexLabel = args.remove(0);
+                client.tellLegionLocation(resolveLegion(markerId),
+                    resolveHex(hexLabel));
+                break;
+            }
+            case Constants.tellBattleMove:
+            {
+                int tag = Integer.parseInt(args.remove(0));
+                String startingHexLabel = args.remove(0);
+                String endingHexLabel = args.remove(0);
+                boolean undo = Boolean.valueOf(args.remove(0)).booleanValue();
+                BattleHex startingHex = resolveBattleHex(startingHexLabel);
+                BattleHex endingHex = resolveBattleHex(endingHexLabel);
+                client.tellBattleMove(tag, startingHex, endingHex, undo);
+                break;
             }
-            client
-                .didMove(resolveLegion(markerId),
+            case Constants.didMove:
+            {
+                String markerId = args.remove(0);
+                String startingHexLabel = args.remove(0);
+                String currentHexLabel = args.remove(0);
+                String entrySideLabel = args.remove(0);
+                boolean teleport = Boolean.valueOf(args.remove(0))
+                    .booleanValue();
+                // servers from older versions might not send this arg
+                String teleportingLord = null;
+                if (!args.isEmpty())
+                {
+                    teleportingLord = args.remove(0);
+                    if (teleportingLord.equals("null"))
+                    {
+                        teleportingLord = null;
+                    }
+                }
+                boolean splitLegionHasForcedMove = false;
+                // servers from older versions might not send this arg
+                if (!args.isEmpty())
+                {
+                    splitLegionHasForcedMove = Boolean.valueOf(args.remove(0))
+                        .booleanValue();
+                }
+                client.didMove(resolveLegion(markerId),
                     resolveHex(startingHexLabel), resolveHex(currentHexLabel),
                     EntrySide.fromLabel(entrySideLabel), teleport,
                     resolveCreatureType(teleportingLord),
                     splitLegionHasForcedMove);
-        }
-        else if (method.equals(Constants.undidMove))
-        {
-            String markerId = args.remove(0);
-            String formerHexLabel = args.remove(0);
-            String currentHexLabel = args.remove(0);
-            boolean splitLegionHasForcedMove = false;
-            // servers from older versions might not send this arg
-            if (!args.isEmpty())
-            {
-                splitLegionHasForcedMove = Boolean.valueOf(args.remove(0))
-                    .booleanValue();
+                break;
             }
-            client.undidMove(resolveLegion(markerId),
-                resolveHex(formerHexLabel), resolveHex(currentHexLabel),
-                splitLegionHasForcedMove);
-        }
-        else if (method.equals(Constants.didSummon))
-        {
-            String summonerId = args.remove(0);
-            String donorId = args.remove(0);
-            String summon = args.remove(0);
-            client.didSummon(resolveLegion(summonerId),
-                resolveLegion(donorId), resolveCreatureType(summon));
-        }
-        else if (method.equals(Constants.undidSplit))
-        {
-            String splitoffId = args.remove(0);
-            String survivorId = args.remove(0);
-            int turn = Integer.parseInt(args.remove(0));
-            client.undidSplit(resolveLegion(splitoffId),
-                resolveLegion(survivorId), turn);
-        }
-        else if (method.equals(Constants.didSplit))
-        {
-            String hexLabel = args.remove(0);
-            String parentId = args.remove(0);
-            String childId = args.remove(0);
-            int childHeight = Integer.parseInt(args.remove(0));
-            List<CreatureType> splitoffs = resolveCreatureTypes(args.remove(0));
-            int turn = Integer.parseInt(args.remove(0));
-            // create client-side copy of new legion
-            MasterHex hex = resolveHex(hexLabel);
-            Legion parentLegion = resolveLegion(parentId);
-            Player player = parentLegion.getPlayer();
-            Legion newLegion = new LegionClientSide(player, childId, hex);
-            player.addLegion(newLegion);
-            client.didSplit(hex, parentLegion, newLegion, childHeight,
-                splitoffs, turn);
-        }
-        else if (method.equals(Constants.askPickColor))
-        {
-            rememberEvent(event);
-            List<String> clList = Split.split(Glob.sep, args.remove(0));
-            List<PlayerColor> colorsLeft = new ArrayList<PlayerColor>();
-            for (String colorName : clList)
+            case Constants.undidMove:
             {
-                colorsLeft.add(PlayerColor.getByName(colorName));
+                String markerId = args.remove(0);
+                String formerHexLabel = args.remove(0);
+                String currentHexLabel = args.remove(0);
+                boolean splitLegionHasForcedMove = false;
+                // servers from older versions might not send this arg
+                if (!args.isEmpty())
+                {
+                    splitLegionHasForcedMove = Boolean.valueOf(args.remove(0))
+                        .booleanValue();
+                }
+                client.undidMove(resolveLegion(markerId),
+                    resolveHex(formerHexLabel), resolveHex(currentHexLabel),
+                    splitLegionHasForcedMove);
+                break;
             }
-            client.askPickColor(colorsLeft);
-        }
-        else if (method.equals(Constants.askPickFirstMarker))
-        {
-            rememberEvent(event);
-            client.askPickFirstMarker();
-        }
-        else if (method.equals(Constants.log))
-        {
-            if (!args.isEmpty())
+            case Constants.didSummon:
             {
-                String message = args.remove(0);
-                client.log(message);
+                String summonerId = args.remove(0);
+                String donorId = args.remove(0);
+                String summon = args.remove(0);
+                client.didSummon(resolveLegion(summonerId),
+                    resolveLegion(donorId), resolveCreatureType(summon));
+                break;
             }
-        }
-        else if (method.equals(Constants.nak))
-        {
-            String reason = args.remove(0);
-            String message = args.remove(0);
-            // NOTE: nak for SignOn is already handled in SCT at the moment...
-            client.nak(reason, message);
+            case Constants.undidSplit:
+            {
+                String splitoffId = args.remove(0);
+                String survivorId = args.remove(0);
+                int turn = Integer.parseInt(args.remove(0));
+                client.undidSplit(resolveLegion(splitoffId),
+                    resolveLegion(survivorId), turn);
+                break;
+            }
+            case Constants.didSplit:
+            {
+                String hexLabel = args.remove(0);
+                String parentId = args.remove(0);
+                String childId = args.remove(0);
+                int childHeight = Integer.parseInt(args.remove(0));
+                List<CreatureType> splitoffs = resolveCreatureTypes(args
+                    .remove(0));
+                int turn = Integer.parseInt(args.remove(0));
+                // create client-side copy of new legion
+                MasterHex hex = resolveHex(hexLabel);
+                Legion parentLegion = resolveLegion(parentId);
+                Player player = parentLegion.getPlayer();
+                Legion newLegion = new LegionClientSide(player, childId, hex);
+                player.addLegion(newLegion);
+                client.didSplit(hex, parentLegion, newLegion, childHeight,
+                    splitoffs, turn);
+                break;
+            }
+            case Constants.askPickColor:
+            {
+                rememberEvent(event);
+                List<String> clList = Split.split(Glob.sep, args.remove(0));
+                List<PlayerColor> colorsLeft = new ArrayList<PlayerColor>();
+                for (String colorName : clList)
+                {
+                    colorsLeft.add(PlayerColor.getByName(colorName));
+                }
+                client.askPickColor(colorsLeft);
+                break;
+            }
+            case Constants.askPickFirstMarker:
+            {
+                rememberEvent(event);
+                client.askPickFirstMarker();
+                break;
+            }
+            case Constants.log:
+            {
+                if (!args.isEmpty())
+                {
+                    String message = args.remove(0);
+                    client.log(message);
+                }
+                break;
+            }
+            case Constants.nak:
+            {
+                String reason = args.remove(0);
+                String message = args.remove(0);
+                // NOTE: nak for SignOn is already handled in SCT at the
+                // moment...
+                client.nak(reason, message);
 
-        }
-        else if (method.equals(Constants.boardActive))
-        {
-            boolean val = Boolean.valueOf(args.remove(0)).booleanValue();
-            client.setBoardActive(val);
-        }
-        else if (method.equals(Constants.tellEngagement))
-        {
-            client.tellEngagement(resolveHex(args.remove(0)),
-                client.getLegion(args.remove(0)),
-                client.getLegion(args.remove(0)));
-        }
-        else if (method.equals(Constants.tellEngagementResults))
-        {
-            String winnerId = args.remove(0);
-            String resMethod = args.remove(0);
-            int points = Integer.parseInt(args.remove(0));
-            int turns = Integer.parseInt(args.remove(0));
-            Legion legion;
-            if (winnerId.equals("null"))
+                break;
+            }
+            case Constants.boardActive:
             {
-                legion = null;
+                boolean val = Boolean.valueOf(args.remove(0)).booleanValue();
+                client.setBoardActive(val);
+                break;
             }
-            else
+            case Constants.tellEngagement:
             {
-                legion = resolveLegion(winnerId);
+                client.tellEngagement(resolveHex(args.remove(0)),
+                    client.getLegion(args.remove(0)),
+                    client.getLegion(args.remove(0)));
+                break;
+            }
+            case Constants.tellEngagementResults:
+            {
+                String winnerId = args.remove(0);
+                String resMethod = args.remove(0);
+                int points = Integer.parseInt(args.remove(0));
+                int turns = Integer.parseInt(args.remove(0));
+                Legion legion;
+                if (winnerId.equals("null"))
+                {
+                    legion = null;
+                }
+                else
+                {
+                    legion = resolveLegion(winnerId);
+                }
+                client.tellEngagementResults(legion, resMethod, points, turns);
+                break;
             }
-            client.tellEngagementResults(legion, resMethod, points, turns);
-        }
 
-        else if (method.equals(Constants.tellWhatsHappening))
-        {
-            String message = args.remove(0);
-            client.tellWhatsHappening(message);
-        }
+            case Constants.tellWhatsHappening:
+            {
+                String message = args.remove(0);
+                client.tellWhatsHappening(message);
+                break;
+            }
 
-        // a popup message
-        else if (method.equals(Constants.messageFromServer))
-        {
-            String message = args.remove(0);
-            client.messageFromServer(message);
-        }
+            // a popup message
+            case Constants.messageFromServer:
+            {
+                String message = args.remove(0);
+                client.messageFromServer(message);
+                break;
+            }
 
-        // just written to log (which might become visible by itself if needed)
-        else if (method.equals(Constants.appendToConnectionLog))
-        {
-            String message = args.remove(0);
-            client.appendToConnectionLog(message);
-        }
+            // just written to log (which might become visible by itself if
+            // needed)
+            case Constants.appendToConnectionLog:
+            {
+                String message = args.remove(0);
+                client.appendToConnectionLog(message);
+                break;
+            }
 
-        else if (method.equals(Constants.syncCompleted))
-        {
-            int syncRequestNr = Integer.parseInt(args.remove(0));
-            client.tellSyncCompleted(syncRequestNr);
-        }
+            case Constants.syncCompleted:
+            {
+                int syncRequestNr = Integer.parseInt(args.remove(0));
+                client.tellSyncCompleted(syncRequestNr);
+                break;
+            }
 
-        else if (method.equals(Constants.requestExtraRollApproval))
-        {
-            String requestorName = args.remove(0);
-            int requestId = Integer.parseInt(args.remove(0));
-            client.requestExtraRollApproval(requestorName, requestId);
-        }
+            case Constants.requestExtraRollApproval:
+            {
+                String requestorName = args.remove(0);
+                int requestId = Integer.parseInt(args.remove(0));
+                client.requestExtraRollApproval(requestorName, requestId);
+                break;
+            }
 
-        else if (method.equals(Constants.askSuspendConfirmation))
-        {
-            String requestorName = args.remove(0);
-            int timeout = Integer.parseInt(args.remove(0));
-            client.askSuspendConfirmation(requestorName, timeout);
-        }
+            case Constants.askSuspendConfirmation:
+            {
+                String requestorName = args.remove(0);
+                int timeout = Integer.parseInt(args.remove(0));
+                client.askSuspendConfirmation(requestorName, timeout);
+                break;
+            }
 
-        else if (method.equals(Constants.askConfirmCatchUp))
-        {
-            client.confirmWhenCaughtUp();
-        }
+            case Constants.askConfirmCatchUp:
+            {
+                client.confirmWhenCaughtUp();
+                break;
+            }
 
-        else if (method.equals(Constants.serverConnectionOK))
-        {
-            LOGGER.info("Received server connection OK message from server "
-                + "for player " + getNameMaybe());
-            client.serverConfirmsConnection();
-        }
+            case Constants.serverConnectionOK:
+            {
+                LOGGER.info("Received server connection OK message from server "
+                    + "for player " + getNameMaybe());
+                client.serverConfirmsConnection();
+                break;
+            }
 
-        else if (method.equals(Constants.relayedPeerRequest))
-        {
-            String requestingClientName = args.remove(0);
-            client.relayedPeerRequest(requestingClientName);
-        }
+            case Constants.relayedPeerRequest:
+            {
+                String requestingClientName = args.remove(0);
+                client.relayedPeerRequest(requestingClientName);
+                break;
+            }
 
-        else if (method.equals(Constants.relayBackReceivedMsg))
-        {
-            String respondingClientName = args.remove(0);
-            int queueLen = Integer.parseInt(args.remove(0));
-            LOGGER.info("In client " + getNameMaybe()
-                + ", got back 'Received' message from client "
-                + respondingClientName);
-            client.peerRequestReceivedBy(respondingClientName, queueLen);
-        }
+            case Constants.relayBackReceivedMsg:
+            {
+                String respondingClientName = args.remove(0);
+                int queueLen = Integer.parseInt(args.remove(0));
+                LOGGER.info("In client " + getNameMaybe()
+                    + ", got back 'Received' message from client "
+                    + respondingClientName);
+                client.peerRequestReceivedBy(respondingClientName, queueLen);
+                break;
+            }
 
-        else if (method.equals(Constants.relayBackProcessedMsg))
-        {
-            String respondingClientName = args.remove(0);
-            LOGGER.info("In client " + getNameMaybe()
-                + ", got back 'Processed' message from client "
-                + respondingClientName);
-            client.peerRequestProcessedBy(respondingClientName);
-        }
+            case Constants.relayBackProcessedMsg:
+            {
+                String respondingClientName = args.remove(0);
+                LOGGER.info("In client " + getNameMaybe()
+                    + ", got back 'Processed' message from client "
+                    + respondingClientName);
+                client.peerRequestProcessedBy(respondingClientName);
+                break;
+            }
 
-        else
-        {
-            LOGGER.log(Level.SEVERE, "Bogus packet (Client, method: '"
-                + method + "', args: " + args + ")");
+            default:
+            {
+                LOGGER.log(Level.SEVERE, "Bogus packet (Client, method: '"
+                    + method + "', args: " + args + ")");
+                break;
+            }
         }
         LOGGER.finest("Client '" + getNameMaybe()
             + "' finished method processing");
@@ -1128,7 +1233,7 @@ public class ClientThread extends Thread implements EventExecutor
         private long executionCompleted;
 
         private final String method;
-        private final List<String> args;
+        private final TermList args;
 
         private boolean isRetriggered = false;
 
@@ -1137,7 +1242,7 @@ public class ClientThread extends Thread implements EventExecutor
             this.received = received;
             this.enqueued = ClientThread.getNow();
             this.method = method;
-            this.args = new ArrayList<String>(args);
+            this.args = TermList.copyOf(args);
         }
 
         public String getMethod()
@@ -1155,17 +1260,20 @@ public class ClientThread extends Thread implements EventExecutor
             return isRetriggered;
         }
 
-        /* Returns now a LinkedList, instead of the original list
-         * which was an ArrayList.
-         * We return a copy, so that processing the args does not
+        /* We return a copy, so that processing the args does not
          * leave an empty arg list, in case we need to retrigger it
          * (too long inactivity).
-         * LinkedList suits actually better for processing, since
-         * the argument deserialisation use remove(0).
+         * The copy shares the terms; the argument deserialisation with
+         * remove(0) just moves its start.
          */
         public List<String> getArgs()
         {
-            return new LinkedList<String>(args);
+            return args.copy();
+        }
+
+        public long getEnqueued()
+        {
+            return this.enqueued;
         }
 
         public void executionStarts(long when)
@@ -7,17 +7,19 @@ import net.sf.colossus.variant.CreatureType;
 /**
  *  Basic information about one creature, for split prediction.
  *
+ *  Immutable, so the same object can be in the lists of several nodes.
+ *
  *  @author David Ripton
  */
-class CreatureInfo implements Cloneable
+class CreatureInfo
 {
     private final CreatureType type;
 
     // Are we sure this creature is in this legion?
-    private boolean certain;
+    private final boolean certain;
 
     // Was the creature here when this legion was split off?
-    private boolean atSplit;
+    private final boolean atSplit;
 
     CreatureInfo(CreatureType type, boolean certain, boolean atSplit)
     {
@@ -38,30 +40,21 @@ class CreatureInfo implements Cloneable
         }
     }
 
-    void setCertain(boolean certain)
-    {
-        this.certain = certain;
-    }
-
     boolean isCertain()
     {
         return certain;
     }
 
-    void setAtSplit(boolean atSplit)
-    {
-        this.atSplit = atSplit;
-    }
-
     boolean isAtSplit()
     {
         return atSplit;
     }
 
-    @Override
-    public CreatureInfo clone()
+    /** Whether other has the same type, certainty and atSplit flag. */
+    boolean isSameAs(CreatureInfo other)
     {
-        return new CreatureInfo(type, certain, atSplit);
+        return type.equals(other.type) && certain == other.certain
+            && atSplit == other.atSplit;
     }
 
     /**
@@ -2,6 +2,8 @@ package net.sf.colossus.client;
 
 
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Iterator;
 import java.util.List;
 import java.util.ListIterator;
 import java.util.logging.Level;
@@ -20,6 +22,17 @@ class CreatureInfoList extends ArrayList<CreatureInfo>
     private static final Logger LOGGER = Logger
         .getLogger(CreatureInfoList.class.getName());
 
+    CreatureInfoList()
+    {
+        super();
+    }
+
+    /** Shallow copy; CreatureInfo is immutable, so that is enough. */
+    CreatureInfoList(Collection<CreatureInfo> infos)
+    {
+        super(infos);
+    }
+
     void removeLastUncertainCreature()
     {
         ListIterator<CreatureInfo> lit = this.listIterator(this.size());
@@ -55,15 +68,34 @@ class CreatureInfoList extends ArrayList<CreatureInfo>
         return list;
     }
 
-    /** Deep copy */
-    @Override
-    public CreatureInfoList clone()
+    /**
+     * Return true if other contains the same creatures as this list, with
+     * the same certainty and atSplit flags, in whatever order.
+     */
+    boolean isSameAs(List<CreatureInfo> other)
     {
-        CreatureInfoList dupe = new CreatureInfoList();
+        if (size() != other.size())
+        {
+            return false;
+        }
+        List<CreatureInfo> rest = new ArrayList<CreatureInfo>(other);
         for (CreatureInfo ci : this)
         {
-            dupe.add(ci.clone());
+            boolean found = false;
+            Iterator<CreatureInfo> it = rest.iterator();
+            while (!found && it.hasNext())
+            {
+                if (ci.isSameAs(it.next()))
+                {
+                    it.remove();
+                    found = true;
+                }
+            }
+            if (!found)
+            {
+                return false;
+            }
         }
-        return dupe;
+        return true;
     }
 }
@@ -209,6 +209,7 @@ public final class LegionClientSide extends Legion implements IOracleLegion
     {
         getNode().split(childHeight, child, turn);
         myNode = myNode.getChild1();
+        getPlayer().getPredictSplits().pruneResolvedNodes(turn);
     }
 
     void merge(Legion splitoff)
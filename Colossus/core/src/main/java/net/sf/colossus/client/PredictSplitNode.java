@@ -19,6 +19,12 @@ import net.sf.colossus.variant.Variant;
 /**
  *  Predicts splits for one enemy player, and adjusts predictions as
  *  creatures are revealed.
+ *
+ *  The list of creatures of a node is never modified once it is set;
+ *  every change replaces it by a new (sorted) list. So getCreatures() can
+ *  hand it out without copying, also to other threads than the one that
+ *  processes the messages from the server.
+ *
  *  @author David Ripton
  *  @author Kim Milvang-Jensen
  *
@@ -29,12 +35,14 @@ public class PredictSplitNode implements Comparable<PredictSplitNode>
 {
     private final String markerId; // Not unique!
     private final int turnCreated;
-    private CreatureInfoList creatures = new CreatureInfoList();
+    // Sorted by CreatureInfoComparator, replaced on each change.
+    private volatile CreatureInfoList creatures;
 
     // only if atSplit
     private final CreatureInfoList removed = new CreatureInfoList();
 
-    private final PredictSplitNode parent;
+    // null for the roots (see PredictSplits)
+    private volatile PredictSplitNode parent;
     // Size of child2 at the time this node was split.
     private int childSize2;
     private PredictSplitNode child1; // child that keeps the marker
@@ -49,7 +57,7 @@ public class PredictSplitNode implements Comparable<PredictSplitNode>
     {
         this.markerId = markerId;
         this.turnCreated = turnCreated;
-        this.creatures = cil.clone();
+        setCreatures(new CreatureInfoList(cil));
         this.parent = parent;
         this.variant = variant;
         this.titan = variant.getCreatureByName("Titan");
@@ -89,6 +97,15 @@ public class PredictSplitNode implements Comparable<PredictSplitNode>
         return parent;
     }
 
+    /**
+     * Forget the parent, so that it can be garbage collected; only for
+     * nodes that do not need it any more, see PredictSplits.
+     */
+    void detachFromParent()
+    {
+        parent = null;
+    }
+
     public int getTurnCreated()
     {
         return turnCreated;
@@ -109,35 +126,23 @@ public class PredictSplitNode implements Comparable<PredictSplitNode>
         return sb.toString();
     }
 
-    /** Return list of CreatureInfo */
+    /**
+     * Return list of CreatureInfo, sorted by CreatureInfoComparator.
+     *
+     * This is not a copy; callers must not modify it.
+     */
     CreatureInfoList getCreatures()
     {
-        boolean success = true;
-        CreatureInfoList copy;
-        try
-        {
-            copy = creatures.clone();
-            Collections.sort(copy, cic);
-        }
-        catch (Exception e)
-        {
-            System.err.println("Exception " + e.toString()
-                + " during getCreatures(); trying again");
-            success = false;
-            copy = creatures.clone();
-            Collections.sort(copy, cic);
-            success = true;
-            System.err.println("getCreatures() succeeded on 2nd time.");
-        }
-        if (!success)
-        {
-            System.err.println("getCreatures() failed also on 2nd time.");
-        }
-        return copy;
+        return creatures;
     }
 
+    /**
+     * Replace the creatures by the given list, which must not be modified
+     * any more afterwards.
+     */
     void setCreatures(CreatureInfoList creatures)
     {
+        Collections.sort(creatures, cic);
         this.creatures = creatures;
     }
 
@@ -338,10 +343,12 @@ public class PredictSplitNode implements Comparable<PredictSplitNode>
 
         if (!certainInfoGained.isEmpty())
         {
+            CreatureInfoList newCreatures = new CreatureInfoList(creatures);
             for (CreatureType type : certainInfoGained)
             {
-                this.creatures.add(new CreatureInfo(type, true, true));
+                newCreatures.add(new CreatureInfo(type, true, true));
             }
+            setCreatures(newCreatures);
 
             // TODO : added null guard, because during loading a game it went
             // up and up many times (7+) until it hit null.
@@ -540,9 +547,8 @@ public class PredictSplitNode implements Comparable<PredictSplitNode>
             numUnknownsToSplit);
 
         Set<List<CreatureType>> possibleSplitsSet = new HashSet<List<CreatureType>>();
-        for (Iterator<List<CreatureType>> it = combos.iterator(); it.hasNext();)
+        for (List<CreatureType> combo : combos)
         {
-            List<CreatureType> combo = it.next();
             List<CreatureType> pos = new ArrayList<CreatureType>();
             pos.addAll(knownSplit);
             pos.addAll(combo);
@@ -653,27 +659,17 @@ public class PredictSplitNode implements Comparable<PredictSplitNode>
         for (CreatureInfo ci : creatures)
         {
             CreatureType type = ci.getType();
-            CreatureInfo newinfo = new CreatureInfo(ci.getType(), false, true);
-            if (splitoffs.contains(type))
+            if (splitoffs.remove(type))
             {
-                splitList.add(newinfo);
-                splitoffs.remove(type);
                 // If in knownSplit, set certain
-                if (knownSplit.contains(type))
-                {
-                    knownSplit.remove(type);
-                    newinfo.setCertain(true);
-                }
+                boolean certain = knownSplit.remove(type);
+                splitList.add(new CreatureInfo(type, certain, true));
             }
             else
             {
-                keepList.add(newinfo);
                 // If in knownKeep, set certain
-                if (knownKeep.contains(type))
-                {
-                    knownKeep.remove(type);
-                    newinfo.setCertain(true);
-                }
+                boolean certain = knownKeep.remove(type);
+                keepList.add(new CreatureInfo(type, certain, true));
             }
         }
     }
@@ -754,12 +750,17 @@ public class PredictSplitNode implements Comparable<PredictSplitNode>
      */
     void updateInitialSplitInfo(CreatureInfoList newList)
     {
-        // TODO Check if any new information was gained and stop if not.
         newList.addAll(getAfterSplitCreatures());
         for (CreatureInfo ci : getRemovedCreatures())
         {
             newList.remove(ci);
         }
+        if (newList.isSameAs(creatures))
+        {
+            // No new information, so the prediction for the children
+            // would not change either.
+            return;
+        }
         setCreatures(newList);
 
         // update children if we have any
@@ -827,7 +828,7 @@ public class PredictSplitNode implements Comparable<PredictSplitNode>
             {
                 // third is carries the original marker and nodeA is then
                 // the splitoff from the origNode, just add creatures from nodeB
-                nodeA.creatures.addAll(nodeB.creatures);
+                nodeA.addCreatures(nodeB.creatures);
                 origNode.childSize2 = nodeA.getHeight();
                 origNode.child1 = thirdLegion;
             }
@@ -839,12 +840,12 @@ public class PredictSplitNode implements Comparable<PredictSplitNode>
                 origNode.childSize2 = thirdLegion.getHeight();
                 if (origNode.getMarkerId().equals(nodeA.getMarkerId()))
                 {
-                    nodeA.creatures.addAll(nodeB.creatures);
+                    nodeA.addCreatures(nodeB.creatures);
                     origNode.child1 = nodeA;
                 }
                 else
                 {
-                    nodeB.creatures.addAll(nodeA.creatures);
+                    nodeB.addCreatures(nodeA.creatures);
                     origNode.child1 = nodeB;
                 }
             }
@@ -854,8 +855,16 @@ public class PredictSplitNode implements Comparable<PredictSplitNode>
     void addCreature(CreatureType type)
     {
         assert getHeight() < 7 || child1 == null : "Tried adding to 7-high legion";
-        CreatureInfo ci = new CreatureInfo(type, true, false);
-        creatures.add(ci);
+        CreatureInfoList newCreatures = new CreatureInfoList(creatures);
+        newCreatures.add(new CreatureInfo(type, true, false));
+        setCreatures(newCreatures);
+    }
+
+    private void addCreatures(List<CreatureInfo> infos)
+    {
+        CreatureInfoList newCreatures = new CreatureInfoList(creatures);
+        newCreatures.addAll(infos);
+        setCreatures(newCreatures);
     }
 
     void removeCreature(CreatureType type)
@@ -866,7 +875,8 @@ public class PredictSplitNode implements Comparable<PredictSplitNode>
         revealCreatures(cnl);
 
         // Find the creature to remove
-        Iterator<CreatureInfo> it = creatures.iterator();
+        CreatureInfoList newCreatures = new CreatureInfoList(creatures);
+        Iterator<CreatureInfo> it = newCreatures.iterator();
         // We have already checked height>0, so taking next is ok.
         CreatureInfo ci = it.next();
         while (!(ci.isCertain() && ci.getType().equals(type)))
@@ -882,6 +892,7 @@ public class PredictSplitNode implements Comparable<PredictSplitNode>
             removed.add(ci);
         }
         it.remove();
+        setCreatures(newCreatures);
     }
 
     void removeCreatures(List<CreatureType> creatureTypes)
@@ -4,8 +4,9 @@ package net.sf.colossus.client;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.Comparator;
+import java.util.HashMap;
 import java.util.List;
-import java.util.TreeSet;
+import java.util.Map;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -17,6 +18,12 @@ import net.sf.colossus.variant.Variant;
  *  Predicts splits for one enemy player, and adjusts predictions as
  *  creatures are revealed.
  *
+ *  The tree starts with the player's initial legion as root. To keep it
+ *  from growing for the whole game, pruneResolvedNodes() drops the nodes
+ *  from which nothing can be learned any more: if both children of a
+ *  root are all certain, no reveal can change the prediction of the root
+ *  or the children, so the children become roots of their own.
+ *
  *  @author David Ripton
  *  See docs/SplitPrediction.txt
  */
@@ -26,7 +33,8 @@ public final class PredictSplits
     private static final Logger LOGGER = Logger.getLogger(PredictSplits.class
         .getName());
 
-    private final PredictSplitNode root; // All contents of root must be known.
+    // All contents of the roots must be known. Replaced, never modified.
+    private volatile List<PredictSplitNode> roots;
     private final NodeTurnComparator nodeTurnComparator = new NodeTurnComparator();
 
     PredictSplits(String rootId, List<CreatureType> creatureTypes,
@@ -39,13 +47,31 @@ public final class PredictSplits
             CreatureInfo ci = new CreatureInfo(type, true, true);
             infoList.add(ci);
         }
-        root = new PredictSplitNode(rootId, 0, infoList, null, variant);
+        roots = Collections.singletonList(new PredictSplitNode(rootId, 0,
+            infoList, null, variant));
     }
 
     /** Return all non-empty childless nodes in subtree starting from node. */
     List<PredictSplitNode> getLeaves(PredictSplitNode node)
+    {
+        return removeOlderDuplicates(collectLeaves(node,
+            new ArrayList<PredictSplitNode>()));
+    }
+
+    /** Return all non-empty childless nodes of the whole tree. */
+    List<PredictSplitNode> getLeaves()
     {
         List<PredictSplitNode> leaves = new ArrayList<PredictSplitNode>();
+        for (PredictSplitNode root : roots)
+        {
+            collectLeaves(root, leaves);
+        }
+        return removeOlderDuplicates(leaves);
+    }
+
+    private List<PredictSplitNode> collectLeaves(PredictSplitNode node,
+        List<PredictSplitNode> leaves)
+    {
         if (node.getChild1() == null)
         {
             if (!node.getCreatures().isEmpty())
@@ -55,45 +81,41 @@ public final class PredictSplits
         }
         else
         {
-            leaves.addAll(getLeaves(node.getChild1()));
-            leaves.addAll(getLeaves(node.getChild2()));
+            collectLeaves(node.getChild1(), leaves);
+            collectLeaves(node.getChild2(), leaves);
         }
+        return leaves;
+    }
 
-        TreeSet<Integer> prunes = new TreeSet<Integer>(
-            new ReverseIntegerComparator());
-
-        // If duplicate markerIds, prune the older node.
-        for (int i = 0; i < leaves.size(); i++)
+    /** If duplicate markerIds, remove the older node. */
+    private List<PredictSplitNode> removeOlderDuplicates(
+        List<PredictSplitNode> leaves)
+    {
+        Map<String, PredictSplitNode> newest = new HashMap<String, PredictSplitNode>();
+        for (PredictSplitNode leaf : leaves)
         {
-            for (int j = 0; j < leaves.size(); j++)
+            PredictSplitNode other = newest.get(leaf.getMarkerId());
+            assert other == null
+                || other.getTurnCreated() != leaf.getTurnCreated() : "Leaf nodes have to have different markerId or turn";
+            if (other == null
+                || other.getTurnCreated() < leaf.getTurnCreated())
             {
-                if (i != j)
-                {
-                    PredictSplitNode leaf1 = leaves.get(i);
-                    PredictSplitNode leaf2 = leaves.get(j);
-                    if (leaf1.getMarkerId().equals(leaf2.getMarkerId()))
-                    {
-                        assert leaf1.getTurnCreated() != leaf2
-                            .getTurnCreated() : "Leaf nodes have to have different markerId or turn";
-                        if (leaf1.getTurnCreated() < leaf2.getTurnCreated())
-                        {
-                            prunes.add(Integer.valueOf(i));
-                        }
-                        else
-                        {
-                            prunes.add(Integer.valueOf(j));
-                        }
-                    }
-                }
+                newest.put(leaf.getMarkerId(), leaf);
             }
         }
-        // Remove in reverse order to keep indexes consistent.
-        for (Integer in : prunes)
+        if (newest.size() == leaves.size())
         {
-            leaves.remove(in.intValue());
+            return leaves;
         }
-
-        return leaves;
+        List<PredictSplitNode> result = new ArrayList<PredictSplitNode>();
+        for (PredictSplitNode leaf : leaves)
+        {
+            if (newest.get(leaf.getMarkerId()) == leaf)
+            {
+                result.add(leaf);
+            }
+        }
+        return result;
     }
 
     /** Return all non-empty nodes in subtree starting from node. */
@@ -112,21 +134,11 @@ public final class PredictSplits
         return nodes;
     }
 
-    class ReverseIntegerComparator implements Comparator<Integer>
-    {
-        // Sort in reverse, so we don't disturb array
-        // indexes when removing.
-        public int compare(Integer in1, Integer in2)
-        {
-            return in2.compareTo(in1);
-        }
-    }
-
     /** Print all childless nodes in tree. */
     void printLeaves()
     {
         LOGGER.log(Level.FINEST, "");
-        List<PredictSplitNode> leaves = getLeaves(root);
+        List<PredictSplitNode> leaves = getLeaves();
         Collections.sort(leaves);
         for (PredictSplitNode leaf : leaves)
         {
@@ -139,7 +151,11 @@ public final class PredictSplits
     void printNodes()
     {
         LOGGER.log(Level.FINEST, "");
-        List<PredictSplitNode> nodes = getNodes(root);
+        List<PredictSplitNode> nodes = new ArrayList<PredictSplitNode>();
+        for (PredictSplitNode root : roots)
+        {
+            nodes.addAll(getNodes(root));
+        }
         Collections.sort(nodes, nodeTurnComparator);
         for (PredictSplitNode node : nodes)
         {
@@ -151,7 +167,7 @@ public final class PredictSplits
     /** Return the leaf PredictSplitNode with matching markerId. */
     PredictSplitNode getLeaf(String markerId)
     {
-        List<PredictSplitNode> leaves = getLeaves(root);
+        List<PredictSplitNode> leaves = getLeaves();
         for (PredictSplitNode leaf : leaves)
         {
             if (markerId.equals(leaf.getMarkerId()))
@@ -162,9 +178,66 @@ public final class PredictSplits
         return null;
     }
 
-    public PredictSplitNode getRoot()
+    /**
+     * Drop the nodes that are not needed any more: a root whose children
+     * both are all certain is replaced by the children, and empty roots
+     * without children (eliminated legions) are removed.
+     *
+     * Only splits from turns before the given one are pruned, since
+     * the ones of the current turn may still be undone by a merge.
+     *
+     * @param turn The current turn
+     */
+    void pruneResolvedNodes(int turn)
     {
-        return root;
+        List<PredictSplitNode> newRoots = new ArrayList<PredictSplitNode>();
+        boolean pruned = false;
+        for (PredictSplitNode root : roots)
+        {
+            pruned |= addPrunedRoots(root, turn, newRoots);
+        }
+        if (pruned)
+        {
+            roots = Collections.unmodifiableList(newRoots);
+            LOGGER.finest("Pruned split prediction tree to " + roots.size()
+                + " roots");
+        }
+    }
+
+    /**
+     * Add what is left of the root node after pruning to newRoots.
+     *
+     * @return Whether anything was pruned
+     */
+    private boolean addPrunedRoots(PredictSplitNode node, int turn,
+        List<PredictSplitNode> newRoots)
+    {
+        PredictSplitNode child1 = node.getChild1();
+        PredictSplitNode child2 = node.getChild2();
+        if (child1 == null)
+        {
+            if (node.getCreatures().isEmpty())
+            {
+                return true;
+            }
+        }
+        else if (child1.getTurnCreated() < turn && child1.allCertain()
+            && child2.allCertain())
+        {
+            child1.detachFromParent();
+            child2.detachFromParent();
+            addPrunedRoots(child1, turn, newRoots);
+            addPrunedRoots(child2, turn, newRoots);
+            return true;
+        }
+        newRoots.add(node);
+        return false;
+    }
+
+    /** The roots of the tree, see pruneResolvedNodes() */
+    public List<PredictSplitNode> getRoots()
+    {
+        return roots;
     }
 }
 
@@ -178,7 +251,17 @@ class NodeTurnComparator implements Comparator<PredictSplitNode>
         {
             return diff;
         }
-        diff = n1.getParent().toString().compareTo(n2.getParent().toString());
+        PredictSplitNode parent1 = n1.getParent();
+        PredictSplitNode parent2 = n2.getParent();
+        if (parent1 == null || parent2 == null)
+        {
+            // roots first
+            diff = (parent1 == null ? 0 : 1) - (parent2 == null ? 0 : 1);
+        }
+        else
+        {
+            diff = parent1.toString().compareTo(parent2.toString());
+        }
         if (diff != 0)
         {
             return diff;
@@ -1,23 +1,31 @@
 package net.sf.colossus.client;
 
 
-import java.io.BufferedReader;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
-import java.io.InputStreamReader;
+import java.io.InputStream;
+import java.io.OutputStream;
 import java.io.PrintWriter;
 import java.net.ConnectException;
 import java.net.Socket;
 import java.net.SocketException;
 import java.net.SocketTimeoutException;
 import java.net.UnknownHostException;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.Date;
 import java.util.List;
 import java.util.logging.Level;
 import java.util.logging.Logger;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
 
 import net.sf.colossus.client.Client.ConnectionInitException;
+import net.sf.colossus.common.CompactProtocol;
 import net.sf.colossus.common.Constants;
 import net.sf.colossus.common.Options;
 import net.sf.colossus.game.EntrySide;
@@ -26,12 +34,16 @@ import net.sf.colossus.game.PlayerColor;
 import net.sf.colossus.game.actions.Recruitment;
 import net.sf.colossus.game.actions.Summoning;
 import net.sf.colossus.server.IServer;
+import net.sf.colossus.server.InProcessChannel;
+import net.sf.colossus.server.Server;
 import net.sf.colossus.util.BuildInfo;
 import net.sf.colossus.util.ErrorUtils;
 import net.sf.colossus.util.Glob;
 import net.sf.colossus.util.InstanceTracker;
 import net.sf.colossus.util.Split;
+import net.sf.colossus.util.StaticResourceLoader;
 import net.sf.colossus.util.SystemInfo;
+import net.sf.colossus.util.TermList;
 import net.sf.colossus.variant.BattleHex;
 import net.sf.colossus.variant.CreatureType;
 import net.sf.colossus.variant.MasterHex;
@@ -40,6 +52,9 @@ import net.sf.colossus.variant.MasterHex;
 /**
  *  Thread to handle server connection on client side.
  *
+ *  Clients in the same JVM as the server do not use a socket, but an
+ *  InProcessChannel which passes the same lines through a queue.
+ *
  *  @author David Ripton
  */
 
@@ -55,9 +70,28 @@ final class SocketClientThread extends Thread implements IServer,
     // already received but not processed (= still in queue)
     private ClientThread disposedClientThread = null;
 
+    private static final int INFLATER_BUFFER_SIZE = 8192;
+
     private Socket socket;
-    private BufferedReader in;
+    private InputStream in;
+    /** Of the compressed stream, if any; only used by this thread, which
+     *  ends it in cleanupSocket() */
+    private Inflater inflater = null;
+    private OutputStream rawOut;
     private PrintWriter out;
+    /** Bytes of the text line being read */
+    private final ByteArrayOutputStream lineBytes = new ByteArrayOutputStream(
+        256);
+    /** Set when the server switched us to the compact protocol */
+    private volatile CompactProtocol compactProtocol = null;
+    private final Object writeLock = new Object();
+
+    /** Server in same JVM, or null if connected via socket */
+    private final Server localServer;
+    /** Instead of socket, in and out if connected to localServer */
+    private volatile InProcessChannel inProcessChannel;
+    /** Read timeout for inProcessChannel, 0 for none */
+    private int inProcessTimeout = 0;
     private boolean goingDown = false;
     private boolean selfInterrupted = false;
     private boolean serverReceiveTimedout = false;
@@ -124,6 +158,30 @@ final class SocketClientThread extends Thread implements IServer,
         return conn;
     }
 
+    /**
+     * Connect to the server running in the same JVM via an
+     * InProcessChannel.
+     */
+    public static SocketClientThread createInProcessConnection(
+        Server server, String initialName, boolean spectator)
+        throws ConnectionInitException
+    {
+        LOGGER.info("SCT: trying in-process connection for playerName "
+            + initialName);
+
+        SocketClientThread conn = new SocketClientThread(server, initialName,
+            spectator, -1);
+
+        String reasonFail = conn.getReasonFail();
+        if (reasonFail != null)
+        {
+            LOGGER.warning("Client startup failed: " + reasonFail);
+            throw new ConnectionInitException(reasonFail);
+        }
+
+        return conn;
+    }
+
     protected static SocketClientThread recreateConnection(
         IServerConnection prevConnection) throws ConnectionInitException
     {
@@ -141,8 +199,17 @@ final class SocketClientThread extends Thread implements IServer,
             + " at port " + port + " for playerName " + playerName
             + " witgh conectionId " + prevConnId);
 
-        SocketClientThread newConn = new SocketClientThread(host, port,
-            playerName, remote, spectator, prevConnId);
+        SocketClientThread newConn;
+        if (previousConnection.localServer != null)
+        {
+            newConn = new SocketClientThread(previousConnection.localServer,
+                playerName, spectator, prevConnId);
+        }
+        else
+        {
+            newConn = new SocketClientThread(host, port, playerName, remote,
+                spectator, prevConnId);
+        }
         String reasonFail = newConn.getReasonFail();
         if (reasonFail != null)
         {
@@ -171,11 +238,31 @@ final class SocketClientThread extends Thread implements IServer,
      */
     SocketClientThread(String host, int port, String initialName,
         boolean isRemote, boolean spectator, int prevId)
+    {
+        this(host, port, null, initialName, isRemote, spectator, prevId);
+    }
+
+    /**
+     *
+     * @param server     The server in the same JVM to connect to
+     * @param initialName
+     * @param spectator
+     * @param prevId     Id of connection to replace, or -1 if initial
+     */
+    SocketClientThread(Server server, String initialName, boolean spectator,
+        int prevId)
+    {
+        this(null, 0, server, initialName, false, spectator, prevId);
+    }
+
+    private SocketClientThread(String host, int port, Server server,
+        String initialName, boolean isRemote, boolean spectator, int prevId)
     {
         super("SCT-" + initialName);
 
         this.host = host;
         this.port = port;
+        this.localServer = server;
         // Note: for a reconnect case we are given already the "real" name,
         //       in first connect it will be replace as soon as server sends
         //       us the setName().
@@ -192,26 +279,39 @@ final class SocketClientThread extends Thread implements IServer,
 
         try
         {
-            task = "Creating Socket to connect to " + host + ":" + port;
-            LOGGER.log(Level.FINEST, "Next: " + task);
-            socket = new Socket(host, port);
+            if (localServer != null)
+            {
+                task = "Creating in-process channel";
+                LOGGER.log(Level.FINEST, "Next: " + task);
+                inProcessChannel = localServer.createInProcessChannel();
+
+                task = "Waiting for prompt";
+                LOGGER.log(Level.FINEST, "Next: " + task);
+                waitForPrompt();
+            }
+            else
+            {
+                task = "Creating Socket to connect to " + host + ":" + port;
+                LOGGER.log(Level.FINEST, "Next: " + task);
+                socket = new Socket(host, port);
 
-            int receiveBufferSize = socket.getReceiveBufferSize();
-            LOGGER.info("Client socket receive buffer size for Client "
-                + initialName + " is " + receiveBufferSize);
+                int receiveBufferSize = socket.getReceiveBufferSize();
+                LOGGER.info("Client socket receive buffer size for Client "
+                    + initialName + " is " + receiveBufferSize);
 
-            task = "Preparing BufferedReader";
-            LOGGER.log(Level.FINEST, "Next: " + task);
-            in = new BufferedReader(new InputStreamReader(
-                socket.getInputStream()));
+                task = "Preparing input stream";
+                LOGGER.log(Level.FINEST, "Next: " + task);
+                in = new BufferedInputStream(socket.getInputStream());
 
-            task = "Waiting for prompt";
-            LOGGER.log(Level.FINEST, "Next: " + task);
-            waitForPrompt();
+                task = "Waiting for prompt";
+                LOGGER.log(Level.FINEST, "Next: " + task);
+                waitForPrompt();
 
-            task = "Preparing PrintWriter";
-            LOGGER.log(Level.FINEST, "Next: " + task);
-            out = new PrintWriter(socket.getOutputStream(), true);
+                task = "Preparing PrintWriter";
+                LOGGER.log(Level.FINEST, "Next: " + task);
+                rawOut = new BufferedOutputStream(socket.getOutputStream());
+                out = new PrintWriter(rawOut, true);
+            }
 
             task = "Sending signOn message";
             LOGGER.log(Level.FINEST, "Next: " + task);
@@ -334,11 +434,150 @@ final class SocketClientThread extends Thread implements IServer,
 
     private String readOneLine() throws IOException
     {
-        String line = in.readLine();
+        String line;
+        if (inProcessChannel != null)
+        {
+            line = inProcessChannel.readLine(inProcessTimeout);
+        }
+        else
+        {
+            if (compactProtocol != null)
+            {
+                line = compactProtocol.readFrame(in);
+            }
+            else
+            {
+                line = readTextLine();
+                if (line != null
+                    && line.startsWith(Constants.compactProtocol + sep))
+                {
+                    startCompactProtocol(line);
+                    return readOneLine();
+                }
+            }
+            if (Constants.compressedStream.equals(line))
+            {
+                startCompressedStream();
+                return readOneLine();
+            }
+            if (Constants.fileServerHash.equals(line))
+            {
+                StaticResourceLoader.setFileServerUnderstandsHash();
+                return readOneLine();
+            }
+        }
         showDebugOutput(line);
         return line;
     }
 
+    /**
+     * Like BufferedReader.readLine(), but reads not a single byte beyond
+     * the line, so that the stream can switch to the compact protocol.
+     */
+    private String readTextLine() throws IOException
+    {
+        int b;
+        while ((b = in.read()) != -1 && b != '\n')
+        {
+            lineBytes.write(b);
+        }
+        if (b == -1 && lineBytes.size() == 0)
+        {
+            return null;
+        }
+        String line = new String(lineBytes.toByteArray(), Charset
+            .defaultCharset());
+        lineBytes.reset();
+        if (line.endsWith("\r"))
+        {
+            line = line.substring(0, line.length() - 1);
+        }
+        return line;
+    }
+
+    /**
+     * The server offers the compact protocol (see CompactProtocol);
+     * everything after its message comes as frames. Confirm it with a
+     * last text line, and send frames from then on, too.
+     */
+    private void startCompactProtocol(String line)
+    {
+        String dictionary = line.substring((Constants.compactProtocol + sep)
+            .length());
+        CompactProtocol protocol = new CompactProtocol(Split.split(Glob.sep,
+            dictionary));
+        synchronized (writeLock)
+        {
+            out.println(Constants.compactProtocol);
+            compactProtocol = protocol;
+        }
+        LOGGER.info("Client " + getPrintName()
+            + " switched to the compact protocol, dictionary size "
+            + protocol.getDictionary().size());
+    }
+
+    /**
+     * The server compresses everything after its compressedStream
+     * message. Bytes of that which were read into the buffer already are
+     * kept, since the old stream is wrapped.
+     */
+    private void startCompressedStream()
+    {
+        inflater = new Inflater();
+        in = new BufferedInputStream(new InflaterInputStream(in, inflater,
+            INFLATER_BUFFER_SIZE));
+        LOGGER.info("Client " + getPrintName()
+            + " reads a compressed stream from now on");
+    }
+
+    private void writeOneLine(String line)
+    {
+        if (inProcessChannel != null)
+        {
+            inProcessChannel.writeLine(line);
+            return;
+        }
+        synchronized (writeLock)
+        {
+            if (compactProtocol == null)
+            {
+                out.println(line);
+                return;
+            }
+            ByteBuffer frame = compactProtocol.encode(line);
+            try
+            {
+                rawOut.write(frame.array(), frame.arrayOffset()
+                    + frame.position(), frame.remaining());
+                rawOut.flush();
+            }
+            catch (IOException e)
+            {
+                // Like the PrintWriter does; the reader will notice
+                LOGGER.fine("IOException '" + e.getMessage()
+                    + "' while writing to server");
+            }
+        }
+    }
+
+    private boolean isConnected()
+    {
+        return socket != null
+            || (inProcessChannel != null && inProcessChannel.isOpen());
+    }
+
+    private void setReadTimeout(int timeout) throws SocketException
+    {
+        if (inProcessChannel != null)
+        {
+            inProcessTimeout = timeout;
+        }
+        else
+        {
+            socket.setSoTimeout(timeout);
+        }
+    }
+
     private boolean msg_tracking()
     {
         return _MSG_TRACKING;
@@ -424,7 +663,7 @@ final class SocketClientThread extends Thread implements IServer,
         // Directly after connect we should get some first message
         // rather quickly... if not, probably Server has already enough
         // clients and we would hang in the queue...
-        socket.setSoTimeout(5000);
+        setReadTimeout(5000);
         initialLine = readOneLine();
         if (initialLine.startsWith("SignOn:"))
         {
@@ -434,7 +673,7 @@ final class SocketClientThread extends Thread implements IServer,
         // ... but after we got first data, during game it might take
         // unpredictable time before next thing comes, so reset it to 0
         //  ( = wait forever).
-        socket.setSoTimeout(0);
+        setReadTimeout(0);
 
         return;
     }
@@ -798,6 +1037,10 @@ final class SocketClientThread extends Thread implements IServer,
 
     private void cleanupSocket()
     {
+        if (inProcessChannel != null)
+        {
+            inProcessChannel.close();
+        }
         try
         {
             if (socket != null && !socket.isClosed())
@@ -824,11 +1067,23 @@ final class SocketClientThread extends Thread implements IServer,
         {
             socket = null;
         }
+        // Closing the stream would not end an Inflater given to it, and
+        // until then it keeps its native memory.
+        if (inflater != null)
+        {
+            inflater.end();
+            inflater = null;
+        }
     }
 
     @Override
     public void interrupt()
     {
+        // Closed first, so that the interrupted read sees end of stream
+        if (inProcessChannel != null)
+        {
+            inProcessChannel.close();
+        }
         super.interrupt();
         try
         {
@@ -910,144 +1165,156 @@ final class SocketClientThread extends Thread implements IServer,
     {
         if (!goingDown)
         {
-            List<String> li = Split.split(sep, s);
-            String method = li.remove(0);
-            callMethod(method, li);
+            String[] terms = Split.splitToArray(sep, s);
+            callMethod(terms[0], new TermList(terms, 1));
         }
     }
 
     private void callMethod(String method, List<String> args)
     {
-        if (method.equals(Constants.pingRequest))
+        switch (method)
         {
-            long requestReceived = new Date().getTime();
-            int requestNr = -1;
-            long requestSent = -1L;
-
-            if (args.size() >= 2)
+            case Constants.pingRequest:
             {
-                requestNr = Integer.parseInt(args.remove(0));
-                requestSent = Long.parseLong(args.remove(0));
-            }
-            LOGGER.fine("SCT " + getName() + " received ping request #"
-                + requestNr + " from server");
+                long requestReceived = new Date().getTime();
+                int requestNr = -1;
+                long requestSent = -1L;
 
-            replyToPing(requestNr, requestSent, requestReceived);
-            /*
-            if (getName().equals("SCT-clemens"))
-            {
-                if (requestNr >= 3 && requestNr < 6)
+                if (args.size() >= 2)
+                {
+                    requestNr = Integer.parseInt(args.remove(0));
+                    requestSent = Long.parseLong(args.remove(0));
+                }
+                LOGGER.fine("SCT " + getName() + " received ping request #"
+                    + requestNr + " from server");
+
+                replyToPing(requestNr, requestSent, requestReceived);
+                /*
+                if (getName().equals("SCT-clemens"))
                 {
-                    System.out.println("Purposefully not sending ping reply for request #"
-                        + requestNr);
+                    if (requestNr >= 3 && requestNr < 6)
+                    {
+                        System.out.println("Purposefully not sending ping reply for request #"
+                            + requestNr);
+                    }
+                    else
+                    {
+                        replyToPing(requestNr, requestSent, requestReceived);
+                    }
                 }
                 else
                 {
                     replyToPing(requestNr, requestSent, requestReceived);
                 }
+                */
+
+                if (clientThread != null
+                    && clientThread.isEngagementStartupOngoing())
+                {
+                    String itemsText = "";
+                    int len = clientThread.getQueueLen();
+                    if (len > 0)
+                    {
+                        itemsText = "; items: "
+                            + clientThread.getQueueContentSummary();
+                    }
+                    logMsgToServer("I", "PingRequest #" + requestNr
+                        + ": ClientThread (" + playerName + ") queue length is "
+                        + len + itemsText);
+                }
+                break;
             }
-            else
+            case Constants.commitPoint:
             {
-                replyToPing(requestNr, requestSent, requestReceived);
-            }
-            */
+                int commitPointNr = Integer.parseInt(args.remove(0));
+                int messageNr = Integer.parseInt(args.remove(0));
 
-            if (clientThread != null
-                && clientThread.isEngagementStartupOngoing())
-            {
-                String itemsText = "";
-                int len = clientThread.getQueueLen();
-                if (len > 0)
+                if (ownMessageCounter == -1)
                 {
-                    itemsText = "; items: "
-                        + clientThread.getQueueContentSummary();
+                    LOGGER.fine("SCT " + getName()
+                        + ": initializing own counter in commit point #"
+                        + commitPointNr);
+                    ownMessageCounter = messageNr;
                 }
-                logMsgToServer("I", "PingRequest #" + requestNr
-                    + ": ClientThread (" + playerName + ") queue length is "
-                    + len + itemsText);
+                if (messageNr == ownMessageCounter)
+                {
+                    LOGGER.finest(getPrintName() + ": received commit point "
+                        + commitPointNr + " msg Nr " + messageNr
+                        + " own counter " + ownMessageCounter);
+                }
+                else
+                {
+                    LOGGER.warning(getPrintName() + ": received commit point "
+                        + commitPointNr + " msg Nr " + messageNr
+                        + ", but own counter is " + ownMessageCounter
+                        + " -adjusting.");
+                    ownMessageCounter = messageNr;
+                }
+                if (abandoned)
+                {
+                    LOGGER.warning(getPrintName() + " already "
+                        + "abandoned; suppressing confirmCommitPoint for CP# "
+                        + commitPointNr);
+                }
+                else
+                {
+                    sendToServer(Constants.confirmCommitPoint + sep
+                        + commitPointNr);
+                }
+                break;
             }
-        }
-        else if (method.equals(Constants.commitPoint))
-        {
-            int commitPointNr = Integer.parseInt(args.remove(0));
-            int messageNr = Integer.parseInt(args.remove(0));
-
-            if (ownMessageCounter == -1)
+            case Constants.gameInitInfo:
             {
-                LOGGER.fine("SCT " + getName()
-                    + ": initializing own counter in commit point #"
-                    + commitPointNr);
-                ownMessageCounter = messageNr;
+                this.variantNameForInit = args.remove(0);
+                String nameList = args.remove(0);
+                this.preliminaryPlayerNames = Split.split(Glob.sep, nameList);
+                break;
             }
-            if (messageNr == ownMessageCounter)
+            case Constants.dispose:
             {
-                LOGGER.finest(getPrintName() + ": received commit point "
-                    + commitPointNr + " msg Nr " + messageNr + " own counter "
-                    + ownMessageCounter);
+                clientThread.setClosedByServer();
+                goingDown = true;
+                break;
             }
-            else
+            case Constants.relayedPeerRequest:
             {
-                LOGGER.warning(getPrintName() + ": received commit point "
-                    + commitPointNr + " msg Nr " + messageNr
-                    + ", but own counter is " + ownMessageCounter
-                    + " -adjusting.");
-                ownMessageCounter = messageNr;
+                String requestingClientName = args.get(0);
+                int queueLen = clientThread.getQueueLen();
+                peerRequestReceived(requestingClientName, queueLen);
+                // in this one, both the socket reading thread and the actual
+                // client are supposed to respond.
+                clientThread.enqueue(method, args);
+                break;
             }
-            if (abandoned)
+            case Constants.setConnectionId:
             {
-                LOGGER.warning(getPrintName() + " already "
-                    + "abandoned; suppressing confirmCommitPoint for CP# "
-                    + commitPointNr);
+                this.connectionId = Integer.parseInt(args.remove(0));
+                LOGGER.finer("Server told me my connection id " + connectionId);
+                break;
             }
-            else
+            case Constants.nak:
             {
-                sendToServer(Constants.confirmCommitPoint + sep
-                    + commitPointNr);
+                if (args.size() > 0 && args.get(0) != null
+                    && args.get(0).equals("SignOn"))
+                {
+                    String reason = args.remove(0);
+                    String message = args.remove(0);
+                    goingDown = true;
+                    String title = "Joining game (" + reason + ") failed!";
+                    ErrorUtils.showErrorDialog(null, title, message);
+                }
+                else
+                {
+                    // All other nak's are handled by clientThread/client!
+                    clientThread.enqueue(method, args);
+                }
+                break;
+            }
+            default:
+            {
+                clientThread.enqueue(method, args);
+                break;
             }
-        }
-        else if (method.equals(Constants.gameInitInfo))
-        {
-            this.variantNameForInit = args.remove(0);
-            String nameList = args.remove(0);
-            this.preliminaryPlayerNames = Split.split(Glob.sep, nameList);
-        }
-
-        else if (method.equals(Constants.dispose))
-        {
-            clientThread.setClosedByServer();
-            goingDown = true;
-        }
-
-        else if (method.equals(Constants.relayedPeerRequest))
-        {
-            String requestingClientName = args.get(0);
-            int queueLen = clientThread.getQueueLen();
-            peerRequestReceived(requestingClientName, queueLen);
-            // in this one, both the socket reading thread and the actual
-            // client are supposed to respond.
-            clientThread.enqueue(method, args);
-        }
-
-        else if (method.equals(Constants.setConnectionId))
-        {
-            this.connectionId = Integer.parseInt(args.remove(0));
-            LOGGER.finer("Server told me my connection id " + connectionId);
-        }
-
-        else if (method.equals(Constants.nak) && args.size() > 0
-            && args.get(0) != null && args.get(0).equals("SignOn"))
-        {
-            // All other nak's are handled by clientThread/client!
-            String reason = args.remove(0);
-            String message = args.remove(0);
-            goingDown = true;
-            String title = "Joining game (" + reason + ") failed!";
-            ErrorUtils.showErrorDialog(null, title, message);
-        }
-
-        else
-        {
-            clientThread.enqueue(method, args);
         }
     }
 
@@ -1066,11 +1333,11 @@ final class SocketClientThread extends Thread implements IServer,
 
     private void sendToServer(String message)
     {
-        if (socket != null)
+        if (isConnected())
         {
             LOGGER.finer("Client '" + getPrintName() + "' sends to server: "
                 + message);
-            out.println(message);
+            writeOneLine(message);
             clientThread.notifyUserIfGameIsPaused(message);
         }
         else if (message.startsWith(Constants.replyToPing))
@@ -1104,20 +1371,21 @@ final class SocketClientThread extends Thread implements IServer,
     private void signOn(String loginName, boolean isRemote, int version,
         String buildInfo, boolean spectator, int prevConnId)
     {
-        out.println(Constants.signOn + sep + loginName + sep + isRemote + sep
-            + version + sep + buildInfo + sep + spectator + sep + prevConnId);
+        writeOneLine(Constants.signOn + sep + loginName + sep + isRemote
+            + sep + version + sep + buildInfo + sep + spectator + sep
+            + prevConnId);
     }
 
     private void sendSystemInfo()
     {
-        out.println(Constants.systemInfo + sep + SystemInfo.getOsInfo() + sep
-            + SystemInfo.getFullJavaInfo());
+        writeOneLine(Constants.systemInfo + sep + SystemInfo.getOsInfo()
+            + sep + SystemInfo.getFullJavaInfo());
     }
 
     // Setup method
     private void requestGameInfo()
     {
-        out.println(Constants.requestGameInfo);
+        writeOneLine(Constants.requestGameInfo);
     }
 
     /* Server tells client changed name, Client calls us to keep in sync */
@@ -1417,13 +1685,23 @@ final class SocketClientThread extends Thread implements IServer,
     public void replyToPing(int requestNr, long requestSent,
         long requestReceived)
     {
-        out.println(Constants.replyToPing + sep + requestNr + sep
-            + requestSent + sep + requestReceived);
+        if (isConnected())
+        {
+            writeOneLine(Constants.replyToPing + sep + requestNr + sep
+                + requestSent + sep + requestReceived);
+        }
         // sendToServer(Constants.replyToPing);
     }
 
     public void enforcedConnectionException()
     {
+        if (inProcessChannel != null)
+        {
+            LOGGER.fine(getPrintName() + ": doing enforced disconnect!");
+            appendToConnectionLog("Disconnecting (closing channel)...");
+            inProcessChannel.close();
+            return;
+        }
         if (socket == null)
         {
             LOGGER.info(getPrintName()
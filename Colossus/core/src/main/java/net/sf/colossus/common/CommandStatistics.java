@@ -0,0 +1,105 @@
+package net.sf.colossus.common;
+
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+
+/**
+ * How often each protocol command was processed, and how long that took.
+ *
+ * One instance per dispatcher: the server has one for the commands from
+ * all clients (all processed by the server thread), each client one for
+ * the commands from the server. The summary is logged when they end.
+ */
+public final class CommandStatistics
+{
+    private final String owner;
+
+    private final Map<String, Entry> entries = new HashMap<String, Entry>();
+
+    public CommandStatistics(String owner)
+    {
+        this.owner = owner;
+    }
+
+    private static final class Entry
+    {
+        final String command;
+        int count = 0;
+        long totalNanos = 0;
+        long maxNanos = 0;
+
+        Entry(String command)
+        {
+            this.command = command;
+        }
+    }
+
+    /** Record one processing of the command, which took that long */
+    public synchronized void record(String command, long nanos)
+    {
+        Entry entry = entries.get(command);
+        if (entry == null)
+        {
+            entry = new Entry(command);
+            entries.put(command, entry);
+        }
+        entry.count++;
+        entry.totalNanos += nanos;
+        if (nanos > entry.maxNanos)
+        {
+            entry.maxNanos = nanos;
+        }
+    }
+
+    public synchronized int getCount(String command)
+    {
+        Entry entry = entries.get(command);
+        return entry == null ? 0 : entry.count;
+    }
+
+    public synchronized long getTotalNanos(String command)
+    {
+        Entry entry = entries.get(command);
+        return entry == null ? 0 : entry.totalNanos;
+    }
+
+    /**
+     * One line per command, those which took most time in total first:
+     * count, total, average and maximum time.
+     */
+    public synchronized String getSummary()
+    {
+        List<Entry> sorted = new ArrayList<Entry>(entries.values());
+        Collections.sort(sorted, new Comparator<Entry>()
+        {
+            public int compare(Entry e1, Entry e2)
+            {
+                return Long.valueOf(e2.totalNanos).compareTo(
+                    Long.valueOf(e1.totalNanos));
+            }
+        });
+
+        int count = 0;
+        long totalNanos = 0;
+        StringBuilder sb = new StringBuilder();
+        for (Entry entry : sorted)
+        {
+            count += entry.count;
+            totalNanos += entry.totalNanos;
+            sb.append(String.format("%n  %-28s %8d %10.1f ms %8.1f us %8.1f us",
+                entry.command, Integer.valueOf(entry.count),
+                Double.valueOf(entry.totalNanos / 1e6),
+                Double.valueOf(entry.totalNanos / 1e3 / entry.count),
+                Double.valueOf(entry.maxNanos / 1e3)));
+        }
+        return "Commands processed by " + owner + ": " + count + " in "
+            + String.format("%.1f", Double.valueOf(totalNanos / 1e6))
+            + " ms (command, count, total, average, max):" + sb.toString();
+    }
+}
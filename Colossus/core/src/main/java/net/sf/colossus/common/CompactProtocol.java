@@ -0,0 +1,385 @@
+package net.sf.colossus.common;
+
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.StreamCorruptedException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import net.sf.colossus.util.Glob;
+
+
+/**
+ * Binary framing of the protocol lines, which server and client can
+ * switch to after sign on (see ClientHandler.canHandleCompactProtocol()).
+ *
+ * Each line is sent as a frame: the length of the rest of the frame,
+ * followed by the terms of the line (the parts between the
+ * protocolTermSeparators). Each term starts with a header:
+ * <ul>
+ * <li>0: a string, as length and UTF-8 bytes</li>
+ * <li>1: an integer, zigzag encoded</li>
+ * <li>2: a list (terms separated by the Glob separator), as number of
+ *     elements followed by the elements, each of them a term again</li>
+ * <li>3 and above: the dictionary entry header - 3</li>
+ * </ul>
+ * All numbers (lengths, headers, integers) are varints, 7 bits per byte,
+ * least significant first, high bit set when more bytes follow.
+ *
+ * The dictionary holds the terms that make up most of the traffic:
+ * protocol commands, creature names, hex labels and legion markers. It is
+ * put together by the server and sent to the client in the message that
+ * starts the switch, so both sides always use the same one.
+ *
+ * Decoding gives back exactly the line that was encoded, so everything
+ * beyond the reading and writing works with lines as before.
+ *
+ * Instances are immutable and can be shared between connections.
+ */
+public final class CompactProtocol
+{
+    /** Frames longer than this are taken as a corrupted stream */
+    public static final int MAX_FRAME_SIZE = 16 * 1024 * 1024;
+
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    private static final String SEP = Constants.protocolTermSeparator;
+
+    private static final int STRING = 0;
+    private static final int INTEGER = 1;
+    private static final int LIST = 2;
+    private static final int FIRST_ID = 3;
+
+    private final List<String> dictionary;
+
+    private final Map<String, Integer> ids;
+
+    public CompactProtocol(List<String> dictionary)
+    {
+        this.dictionary = Collections.unmodifiableList(new ArrayList<String>(
+            dictionary));
+        this.ids = new HashMap<String, Integer>(dictionary.size() * 2);
+        for (int i = 0; i < dictionary.size(); i++)
+        {
+            // first one wins, like it would when decoding
+            if (!ids.containsKey(dictionary.get(i)))
+            {
+                ids.put(dictionary.get(i), Integer.valueOf(i));
+            }
+        }
+    }
+
+    public List<String> getDictionary()
+    {
+        return dictionary;
+    }
+
+    /**
+     * Encode one line as a complete frame.
+     * @return A buffer ready for reading
+     */
+    public ByteBuffer encode(String line)
+    {
+        Output body = new Output(line.length() + 8);
+        int start = 0;
+        int end;
+        while ((end = line.indexOf(SEP, start)) != -1)
+        {
+            encodeTerm(line.substring(start, end), body, true);
+            start = end + SEP.length();
+        }
+        encodeTerm(line.substring(start), body, true);
+
+        Output frame = new Output(body.length + 5);
+        frame.writeVarint(body.length);
+        frame.write(body.bytes, 0, body.length);
+        return ByteBuffer.wrap(frame.bytes, 0, frame.length);
+    }
+
+    private void encodeTerm(String term, Output out, boolean listAllowed)
+    {
+        Integer id = ids.get(term);
+        if (id != null)
+        {
+            out.writeVarint(FIRST_ID + id.intValue());
+            return;
+        }
+        if (isCanonicalInt(term))
+        {
+            int value = Integer.parseInt(term);
+            out.writeVarint(INTEGER);
+            out.writeVarint((value << 1) ^ (value >> 31));
+            return;
+        }
+        if (listAllowed && term.indexOf(Glob.sep) != -1)
+        {
+            List<String> elements = new ArrayList<String>();
+            int start = 0;
+            int end;
+            while ((end = term.indexOf(Glob.sep, start)) != -1)
+            {
+                elements.add(term.substring(start, end));
+                start = end + Glob.sep.length();
+            }
+            elements.add(term.substring(start));
+            out.writeVarint(LIST);
+            out.writeVarint(elements.size());
+            for (String element : elements)
+            {
+                encodeTerm(element, out, false);
+            }
+            return;
+        }
+        byte[] bytes = term.getBytes(UTF8);
+        out.writeVarint(STRING);
+        out.writeVarint(bytes.length);
+        out.write(bytes, 0, bytes.length);
+    }
+
+    /** Whether Integer.toString(Integer.parseInt(s)) would give s again */
+    static boolean isCanonicalInt(String s)
+    {
+        int length = s.length();
+        int start = (length > 0 && s.charAt(0) == '-') ? 1 : 0;
+        if (length == start || length - start > 10)
+        {
+            return false;
+        }
+        if (s.charAt(start) == '0' && (length - start > 1 || start == 1))
+        {
+            // leading zero, or "-0"
+            return false;
+        }
+        long value = 0;
+        for (int i = start; i < length; i++)
+        {
+            char c = s.charAt(i);
+            if (c < '0' || c > '9')
+            {
+                return false;
+            }
+            value = value * 10 + (c - '0');
+        }
+        if (start == 1)
+        {
+            value = -value;
+        }
+        return value >= Integer.MIN_VALUE && value <= Integer.MAX_VALUE;
+    }
+
+    /**
+     * Decode the next frame, if the buffer holds all of it.
+     * @return The line, or null if the frame is not complete yet; the
+     *         position of the buffer is then unchanged
+     * @throws StreamCorruptedException If the data is not a valid frame
+     */
+    public String decodeFrame(ByteBuffer buffer)
+        throws StreamCorruptedException
+    {
+        int start = buffer.position();
+        int length;
+        try
+        {
+            length = readVarint(buffer);
+        }
+        catch (BufferUnderflowException e)
+        {
+            buffer.position(start);
+            return null;
+        }
+        checkFrameLength(length);
+        if (buffer.remaining() < length)
+        {
+            buffer.position(start);
+            return null;
+        }
+        ByteBuffer body = buffer.slice();
+        body.limit(length);
+        buffer.position(buffer.position() + length);
+        return decodeBody(body);
+    }
+
+    /**
+     * Read one frame from a (blocking) stream.
+     * @return The line, or null at end of stream
+     * @throws IOException If reading fails, or the data is not a valid
+     *         frame
+     */
+    public String readFrame(InputStream in) throws IOException
+    {
+        int length = 0;
+        for (int shift = 0;; shift += 7)
+        {
+            int b = in.read();
+            if (b == -1)
+            {
+                if (shift == 0)
+                {
+                    return null;
+                }
+                throw new EOFException("End of stream within frame length");
+            }
+            if (shift > 28)
+            {
+                throw new StreamCorruptedException("Bad frame length");
+            }
+            length |= (b & 0x7F) << shift;
+            if ((b & 0x80) == 0)
+            {
+                break;
+            }
+        }
+        checkFrameLength(length);
+        byte[] bytes = new byte[length];
+        int read = 0;
+        while (read < length)
+        {
+            int count = in.read(bytes, read, length - read);
+            if (count == -1)
+            {
+                throw new EOFException("End of stream within frame");
+            }
+            read += count;
+        }
+        return decodeBody(ByteBuffer.wrap(bytes));
+    }
+
+    private static void checkFrameLength(int length)
+        throws StreamCorruptedException
+    {
+        if (length <= 0 || length > MAX_FRAME_SIZE)
+        {
+            throw new StreamCorruptedException("Bad frame length " + length);
+        }
+    }
+
+    private String decodeBody(ByteBuffer body) throws StreamCorruptedException
+    {
+        try
+        {
+            StringBuilder line = new StringBuilder(body.remaining() * 2);
+            decodeTerm(body, line, true);
+            while (body.hasRemaining())
+            {
+                line.append(SEP);
+                decodeTerm(body, line, true);
+            }
+            return line.toString();
+        }
+        catch (BufferUnderflowException e)
+        {
+            throw new StreamCorruptedException("Frame ends within a term");
+        }
+    }
+
+    private void decodeTerm(ByteBuffer body, StringBuilder line,
+        boolean listAllowed) throws StreamCorruptedException
+    {
+        int header = readVarint(body);
+        if (header == STRING)
+        {
+            int length = readVarint(body);
+            if (length < 0 || length > body.remaining())
+            {
+                throw new StreamCorruptedException("Bad string length "
+                    + length);
+            }
+            byte[] bytes = new byte[length];
+            body.get(bytes);
+            line.append(new String(bytes, UTF8));
+        }
+        else if (header == INTEGER)
+        {
+            int zigzag = readVarint(body);
+            line.append((zigzag >>> 1) ^ -(zigzag & 1));
+        }
+        else if (header == LIST && listAllowed)
+        {
+            int count = readVarint(body);
+            for (int i = 0; i < count; i++)
+            {
+                if (i > 0)
+                {
+                    line.append(Glob.sep);
+                }
+                decodeTerm(body, line, false);
+            }
+        }
+        else if (header >= FIRST_ID && header - FIRST_ID < dictionary.size())
+        {
+            line.append(dictionary.get(header - FIRST_ID));
+        }
+        else
+        {
+            throw new StreamCorruptedException("Bad term header " + header);
+        }
+    }
+
+    private static int readVarint(ByteBuffer buffer)
+        throws StreamCorruptedException
+    {
+        int value = 0;
+        for (int shift = 0;; shift += 7)
+        {
+            if (shift > 28)
+            {
+                throw new StreamCorruptedException("Varint too long");
+            }
+            byte b = buffer.get();
+            value |= (b & 0x7F) << shift;
+            if ((b & 0x80) == 0)
+            {
+                return value;
+            }
+        }
+    }
+
+    /** Growing byte array; a ByteArrayOutputStream without the locking */
+    private static final class Output
+    {
+        byte[] bytes;
+        int length = 0;
+
+        Output(int capacity)
+        {
+            bytes = new byte[capacity];
+        }
+
+        void writeVarint(int value)
+        {
+            ensure(5);
+            while ((value & ~0x7F) != 0)
+            {
+                bytes[length++] = (byte)((value & 0x7F) | 0x80);
+                value >>>= 7;
+            }
+            bytes[length++] = (byte)value;
+        }
+
+        void write(byte[] b, int offset, int count)
+        {
+            ensure(count);
+            System.arraycopy(b, offset, bytes, length, count);
+            length += count;
+        }
+
+        private void ensure(int count)
+        {
+            if (length + count > bytes.length)
+            {
+                byte[] larger = new byte[Math.max(bytes.length * 2, length
+                    + count)];
+                System.arraycopy(bytes, 0, larger, 0, length);
+                bytes = larger;
+            }
+        }
+    }
+}
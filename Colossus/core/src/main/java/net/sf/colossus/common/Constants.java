@@ -35,6 +35,13 @@ public final class Constants
         System.getProperty(INCLUDE_BATTLE_DATA_PROPNAME, "false").toString())
         .booleanValue();
 
+    // Number of threads the AIs use to evaluate battle moves in parallel;
+    // 1 means evaluate them one after another in the client thread.
+    private static final String AI_BATTLE_THREADS_PROPNAME = "net.sf.colossus.aiBattleThreads";
+    public static final int AI_BATTLE_THREADS = Integer.getInteger(
+        AI_BATTLE_THREADS_PROPNAME,
+        Runtime.getRuntime().availableProcessors()).intValue();
+
     /**
      * Default base path for save game and cf files;
      * Also used as start dir for Custom Variant loading dialog
@@ -42,6 +49,10 @@ public final class Constants
     public static final String DEFAULT_COLOSSUS_HOME = System
         .getProperty("user.home") + File.separator + ".colossus";
 
+    /** Where remote clients keep the files fetched from the file server */
+    public static final String FILE_CACHE_DIR_NAME = DEFAULT_COLOSSUS_HOME
+        + File.separator + "filecache";
+
     // Constants related to the options config files
     public static final String OPTIONS_BASE = "Colossus-";
     public static final String OPTIONS_SERVER_NAME = "server";
@@ -64,9 +75,18 @@ public final class Constants
     public static final String SAVE_DIR_NAME = DEFAULT_COLOSSUS_HOME
         + File.separator + "saves" + File.separator;
     public static final String XML_EXTENSION = ".xml";
+    // appended to XML_EXTENSION for gzip compressed savegames
+    public static final String COMPRESSED_EXTENSION = ".gz";
     public static final String XML_SNAPSHOT_START = "snap";
     // in version 14 the iscmName and file was added
     public static final String XML_SNAPSHOT_VERSION = "14";
+    // version 15: the history is in a journal file, see HistoryJournal;
+    // only used for such saves, all others are still version 14
+    public static final String XML_SNAPSHOT_JOURNAL_VERSION = "15";
+    public static final String HISTORY_JOURNAL_START = "history";
+    public static final String HISTORY_JOURNAL_EXTENSION = ".journal";
+    // next to the journal, see ReplayIndex
+    public static final String REPLAY_INDEX_EXTENSION = ".index";
 
     public static final String ISC_FILE_START = "iscm";
     public static final String ISC_FILE_EXTENTION = ".txt";
@@ -398,6 +418,15 @@ public final class Constants
     public static final String askSuspendConfirmation = "askSuspendConfirmation";
     public static final String appendToConnectionLog = "appendToConnLog";
 
+    // Both directions: switch to CompactProtocol
+    public static final String compactProtocol = "compactProtocol";
+
+    // Server to client: all after this message is compressed
+    public static final String compressedStream = "compressedStream";
+
+    // Server to client: the file server understands the hash requests
+    public static final String fileServerHash = "fileServerHash";
+
     private final static HashSet<String> skipForScratchReconnect = new HashSet<String>(
         Arrays.asList(askPickColor, tellEngagement, dispose,
             removeDeadBattleChits, placeNewChit, createSummonAngel,
@@ -424,6 +453,47 @@ public final class Constants
         return skipForScratchReconnect.contains(method);
     }
 
+    /**
+     * Messages which are dropped when the messages before a commit point
+     * are moved to the history (which is replayed to clients that join
+     * or rejoin from scratch): requests and notes which don't change the
+     * state of the client. For the messages of battles see
+     * isBattleMessage().
+     */
+    private final static HashSet<String> droppedFromHistory = new HashSet<String>(
+        Arrays.asList(updateCreatureCount, tellWhatsHappening, pingRequest,
+            askConfirmCatchUp, appendToConnectionLog, syncCompleted,
+            commitPoint, relayedPeerRequest, log, nak, setConnectionId,
+            boardActive, replayOngoing, redoOngoing, askPickColor,
+            askPickFirstMarker, askConcede, askFlee, askNegotiate,
+            tellProposal, askChooseStrikePenalty, createSummonAngel,
+            askAcquireAngel, doReinforce, requestExtraRollApproval,
+            askSuspendConfirmation, "Ack: signOn"));
+
+    public static boolean isDroppedFromHistory(String method)
+    {
+        return droppedFromHistory.contains(method);
+    }
+
+    /**
+     * Messages of a battle. They stay in the history while the battle is
+     * not over (a commit point can come during a battle, e.g. after a
+     * reconnect), and are dropped when its cleanupBattle moves into the
+     * history. The effect of removeDeadBattleChits is kept as
+     * removeCreature messages then, see
+     * ClientHandlerStub.removeDeadBattleChits(List).
+     */
+    private final static HashSet<String> battleMessages = new HashSet<String>(
+        Arrays.asList(initBattle, cleanupBattle, setupBattleSummon,
+            setupBattleRecruit, setupBattleMove, setupBattleFight,
+            tellBattleMove, tellStrikeResults, tellSlowResults, placeNewChit,
+            removeDeadBattleChits));
+
+    public static boolean isBattleMessage(String method)
+    {
+        return battleMessages.contains(method);
+    }
+
     private final static HashSet<String> skipForDebugPrn = new HashSet<String>(
         Arrays.asList(syncOption, tellLegionLocation, revealCreatures,
             tellMovementRoll, didRecruit, didSplit, didMove,
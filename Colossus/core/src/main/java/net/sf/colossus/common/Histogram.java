@@ -0,0 +1,106 @@
+package net.sf.colossus.common;
+
+
+import java.util.Arrays;
+
+
+/**
+ * Distribution of non-negative values (durations, sizes), counted in
+ * buckets by powers of two: bucket 0 holds 0, bucket i the values from
+ * 2^(i-1) to 2^i - 1. Percentiles are therefore only given as the upper
+ * bound of the bucket they fall into (at most the maximum seen).
+ *
+ * Cheap enough to record every selector loop iteration; thread safe, so
+ * that it can be read e.g. via JMX while the server thread records.
+ */
+public final class Histogram
+{
+    private static final int BUCKETS = 64;
+
+    private final String unit;
+
+    private final long[] buckets = new long[BUCKETS];
+
+    private long count = 0;
+    private long total = 0;
+    private long max = 0;
+
+    /**
+     * @param unit Of the values, only used for toString()
+     */
+    public Histogram(String unit)
+    {
+        this.unit = unit;
+    }
+
+    public synchronized void record(long value)
+    {
+        if (value < 0)
+        {
+            // e.g. wall clock adjusted in between
+            value = 0;
+        }
+        buckets[BUCKETS - Long.numberOfLeadingZeros(value)]++;
+        count++;
+        total += value;
+        if (value > max)
+        {
+            max = value;
+        }
+    }
+
+    public synchronized long getCount()
+    {
+        return count;
+    }
+
+    public synchronized long getTotal()
+    {
+        return total;
+    }
+
+    public synchronized long getMax()
+    {
+        return max;
+    }
+
+    public synchronized long getMean()
+    {
+        return count == 0 ? 0 : total / count;
+    }
+
+    /**
+     * The value below which (at least) that part of the recorded values
+     * are, rounded up to the upper bound of its bucket.
+     * @param fraction E.g. 0.99 for the 99th percentile
+     */
+    public synchronized long getPercentile(double fraction)
+    {
+        long wanted = (long)Math.ceil(count * fraction);
+        long seen = 0;
+        for (int i = 0; i < BUCKETS; i++)
+        {
+            seen += buckets[i];
+            if (seen >= wanted && seen > 0)
+            {
+                return Math.min(i == 0 ? 0 : (1L << i) - 1, max);
+            }
+        }
+        return max;
+    }
+
+    public synchronized void reset()
+    {
+        Arrays.fill(buckets, 0);
+        count = 0;
+        total = 0;
+        max = 0;
+    }
+
+    @Override
+    public synchronized String toString()
+    {
+        return count + " x mean " + getMean() + " p50 " + getPercentile(0.5)
+            + " p99 " + getPercentile(0.99) + " max " + max + " " + unit;
+    }
+}
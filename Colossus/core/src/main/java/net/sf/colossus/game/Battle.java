@@ -8,7 +8,6 @@ import java.util.logging.Logger;
 import net.sf.colossus.common.Constants;
 import net.sf.colossus.util.CompareDoubles;
 import net.sf.colossus.variant.BattleHex;
-import net.sf.colossus.variant.HazardTerrain;
 import net.sf.colossus.variant.MasterHex;
 
 
@@ -20,6 +19,12 @@ abstract public class Battle
     private static final Logger LOGGER = Logger.getLogger(Battle.class
         .getName());
 
+    /** Battle land coordinates are 0..RANGE_SIZE-1 */
+    private static final int RANGE_SIZE = 6;
+
+    /** The range between all pairs of hexes, see getRange() */
+    private static final int[][][][] RANGES = computeRanges();
+
     protected final Game game;
     protected final Legion attacker;
     protected final Legion defender;
@@ -210,47 +215,6 @@ abstract public class Battle
         }
     }
 
-    /** Return the number of intervening bramble hexes.  If LOS is along a
-     *  hexspine, go left if argument left is true, right otherwise.  If
-     *  LOS is blocked, return a large number.
-     * @deprecated another function with explicit reference to Bramble
-     * that should be fixed.
-     */
-    @Deprecated
-    private int countBrambleHexesDir(BattleHex hex1, BattleHex hex2,
-        boolean left, int previousCount)
-    {
-        int count = previousCount;
-
-        // Offboard hexes are not allowed.
-        if (hex1.isEntrance() || hex2.isEntrance())
-        {
-            return Constants.BIGNUM;
-        }
-
-        int direction = getDirection(hex1, hex2, left);
-
-        BattleHex nextHex = hex1.getNeighbor(direction);
-        if (nextHex == null)
-        {
-            return Constants.BIGNUM;
-        }
-
-        if (nextHex == hex2)
-        {
-            // Success!
-            return count;
-        }
-
-        // Add one if it's bramble.
-        if (nextHex.getTerrain().equals(HazardTerrain.BRAMBLES))
-        {
-            count++;
-        }
-
-        return countBrambleHexesDir(nextHex, hex2, left, count);
-    }
-
     /** Return the number of intervening bramble hexes.  If LOS is along a
      * hexspine and there are two choices, pick the lower one.
      * @deprecated another function with explicit reference to Bramble
@@ -264,68 +228,36 @@ abstract public class Battle
             return 0;
         }
 
-        int x1 = hex1.getXCoord();
-        double y1 = hex1.getYCoord();
-        int x2 = hex2.getXCoord();
-        double y2 = hex2.getYCoord();
-
         // Offboard hexes are not allowed.
         if (hex1.isEntrance() || hex2.isEntrance())
         {
             return Constants.BIGNUM;
         }
 
-        // Hexes with odd X coordinates are pushed down half a hex.
-        if ((x1 & 1) == 1)
+        LineOfSightTable.Sight sight = getSight(hex1, hex2);
+        if (sight.isHexspine())
         {
-            y1 += 0.5;
-        }
-        if ((x2 & 1) == 1)
-        {
-            y2 += 0.5;
-        }
-
-        double xDist = x2 - x1;
-        double yDist = y2 - y1;
-
-        if (CompareDoubles.almostEqual(yDist, 0.0)
-            || CompareDoubles.almostEqual(Math.abs(yDist),
-                1.5 * Math.abs(xDist)))
-        {
-            int strikeElevation = Math.min(hex1.getElevation(),
-                hex2.getElevation());
             // Hexspine; try unblocked side(s).
-            if (isLOSBlockedDir(hex1, hex1, hex2, true, strikeElevation,
-                false, false, false, false, false, false, 0, 0))
+            if (isLOSBlocked(sight.first))
             {
-                return countBrambleHexesDir(hex1, hex2, false, 0);
+                return sight.second.getBrambleHexes();
             }
-            else if (isLOSBlockedDir(hex1, hex1, hex2, false, strikeElevation,
-                false, false, false, false, false, false, 0, 0))
+            else if (isLOSBlocked(sight.second))
             {
-                return countBrambleHexesDir(hex1, hex2, true, 0);
+                return sight.first.getBrambleHexes();
             }
             else
             {
-                return Math.min(countBrambleHexesDir(hex1, hex2, true, 0),
-                    countBrambleHexesDir(hex1, hex2, false, 0));
+                return Math.min(sight.first.getBrambleHexes(), sight.second
+                    .getBrambleHexes());
             }
         }
         else
         {
-            return countBrambleHexesDir(hex1, hex2, toLeft(xDist, yDist), 0);
+            return sight.first.getBrambleHexes();
         }
     }
 
-    /**
-     * @deprecated This is the realm of HazardEdge, not direct use of hexside
-     */
-    @Deprecated
-    protected static boolean isObstacle(char hexside)
-    {
-        return (hexside != ' ') && (hexside != 'r');
-    }
-
     /**
      * Return the range in hexes from hex1 to hex2.  Titan ranges are
      * inclusive at both ends.
@@ -358,9 +290,24 @@ abstract public class Battle
             }
         }
         int x1 = hex1.getXCoord();
-        double y1 = hex1.getYCoord();
+        int y1 = hex1.getYCoord();
         int x2 = hex2.getXCoord();
-        double y2 = hex2.getYCoord();
+        int y2 = hex2.getYCoord();
+        if (x1 >= 0 && x1 < RANGE_SIZE && y1 >= 0 && y1 < RANGE_SIZE
+            && x2 >= 0 && x2 < RANGE_SIZE && y2 >= 0 && y2 < RANGE_SIZE)
+        {
+            return RANGES[x1][y1][x2][y2];
+        }
+        return computeRange(x1, y1, x2, y2);
+    }
+
+    /**
+     * Return the range between the hexes at the given coordinates.
+     */
+    private static int computeRange(int x1, int yCoord1, int x2, int yCoord2)
+    {
+        double y1 = yCoord1;
+        double y2 = yCoord2;
         // Hexes with odd X coordinates are pushed down half a hex.
         if ((x1 & 1) == 1)
         {
@@ -390,6 +337,25 @@ abstract public class Battle
         }
     }
 
+    private static int[][][][] computeRanges()
+    {
+        int[][][][] ranges = new int[RANGE_SIZE][RANGE_SIZE][RANGE_SIZE][RANGE_SIZE];
+        for (int x1 = 0; x1 < RANGE_SIZE; x1++)
+        {
+            for (int y1 = 0; y1 < RANGE_SIZE; y1++)
+            {
+                for (int x2 = 0; x2 < RANGE_SIZE; x2++)
+                {
+                    for (int y2 = 0; y2 < RANGE_SIZE; y2++)
+                    {
+                        ranges[x1][y1][x2][y2] = computeRange(x1, y1, x2, y2);
+                    }
+                }
+            }
+        }
+        return ranges;
+    }
+
     /**
      * Return the minimum range from any neighbor of hex1 to hex2.
      */
@@ -422,201 +388,59 @@ abstract public class Battle
         {
             return false;
         }
-        int x1 = hex1.getXCoord();
-        double y1 = hex1.getYCoord();
-        int x2 = hex2.getXCoord();
-        double y2 = hex2.getYCoord();
         // Offboard hexes are not allowed.
         if (hex1.isEntrance() || hex2.isEntrance())
         {
             return true;
         }
-        // Hexes with odd X coordinates are pushed down half a hex.
-        if ((x1 & 1) == 1)
-        {
-            y1 += 0.5;
-        }
-        if ((x2 & 1) == 1)
+        LineOfSightTable.Sight sight = getSight(hex1, hex2);
+        if (sight.isHexspine())
         {
-            y2 += 0.5;
-        }
-        double xDist = x2 - x1;
-        double yDist = y2 - y1;
-        // Creatures below the level of the strike do not block LOS.
-        int strikeElevation = Math.min(hex1.getElevation(),
-            hex2.getElevation());
-        if (CompareDoubles.almostEqual(yDist, 0.0)
-            || CompareDoubles.almostEqual(Math.abs(yDist),
-                1.5 * Math.abs(xDist)))
-        {
-            return isLOSBlockedDir(hex1, hex1, hex2, true, strikeElevation,
-                false, false, false, false, false, false, 0, 0)
-                && isLOSBlockedDir(hex1, hex1, hex2, false, strikeElevation,
-                    false, false, false, false, false, false, 0, 0);
+            return isLOSBlocked(sight.first) && isLOSBlocked(sight.second);
         }
         else
         {
-            return isLOSBlockedDir(hex1, hex1, hex2, toLeft(xDist, yDist),
-                strikeElevation, false, false, false, false, false, false, 0,
-                0);
+            return isLOSBlocked(sight.first);
         }
     }
 
     /**
-     * Check LOS, going to the left of hexspines if argument left is true, or
-     * to the right if it is false.
+     * Get the line(s) of sight between two different hexes, none of them
+     * an entrance; from the table of the battle land if possible.
      */
-    protected boolean isLOSBlockedDir(BattleHex initialHex,
-        BattleHex currentHex, BattleHex finalHex, boolean left,
-        int strikeElevation, boolean strikerAtop, boolean strikerAtopCliff,
-        boolean strikerAtopWall, boolean midObstacle, boolean midCliff,
-        boolean midChit, int totalObstacles, int totalWalls)
+    private LineOfSightTable.Sight getSight(BattleHex hex1, BattleHex hex2)
     {
-        boolean targetAtop = false;
-        boolean targetAtopCliff = false;
-        boolean targetAtopWall = false;
-        if (currentHex == finalHex)
+        if (location != null)
         {
-            return false;
-        }
-        // Offboard hexes are not allowed.
-        if (currentHex.isEntrance() || finalHex.isEntrance())
-        {
-            return true;
-        }
-        int direction = getDirection(currentHex, finalHex, left);
-        BattleHex nextHex = currentHex.getNeighbor(direction);
-        if (nextHex == null)
-        {
-            return true;
-        }
-        char hexside = currentHex.getHexsideHazard(direction).getCode();
-        char hexside2 = currentHex.getOppositeHazard(direction).getCode();
-        if (currentHex == initialHex)
-        {
-            if (isObstacle(hexside))
-            {
-                strikerAtop = true;
-                totalObstacles++;
-                if (hexside == 'c')
-                {
-                    strikerAtopCliff = true;
-                }
-                else if (hexside == 'w')
-                {
-                    strikerAtopWall = true;
-                    totalWalls++;
-                }
-            }
-            if (isObstacle(hexside2))
+            LineOfSightTable table = location.getTerrain()
+                .getLineOfSightTable();
+            LineOfSightTable.Sight sight = table.getSight(hex1, hex2);
+            if (sight != null)
             {
-                midObstacle = true;
-                totalObstacles++;
-                if (hexside2 == 'c' || hexside2 == 'd')
-                {
-                    midCliff = true;
-                }
-                else if (hexside2 == 'w')
-                {
-                    return true;
-                }
+                return sight;
             }
         }
-        else if (nextHex == finalHex)
-        {
-            if (isObstacle(hexside))
-            {
-                midObstacle = true;
-                totalObstacles++;
-                if (hexside == 'c' || hexside == 'd')
-                {
-                    midCliff = true;
-                }
-                else if (hexside == 'w')
-                {
-                    return true;
-                }
-            }
-            if (isObstacle(hexside2))
-            {
-                targetAtop = true;
-                totalObstacles++;
-                if (hexside2 == 'c')
-                {
-                    targetAtopCliff = true;
-                }
-                else if (hexside2 == 'w')
-                {
-                    totalWalls++;
-                    targetAtopWall = true;
-                }
+        return LineOfSightTable.computeSight(hex1, hex2);
+    }
 
-            }
-            if (midChit && !targetAtopCliff)
-            {
-                return true;
-            }
-            if (midCliff && (!strikerAtopCliff || !targetAtopCliff))
-            {
-                return true;
-            }
-            if (midObstacle && !strikerAtop && !targetAtop)
-            {
-                return true;
-            }
-            // If there are three slopes, striker and target must each
-            //     be atop one.
-            if (totalObstacles >= 3 && (!strikerAtop || !targetAtop)
-                && (!strikerAtopCliff && !targetAtopCliff))
-            {
-                return true;
-            }
-            if (totalWalls >= 2)
-            {
-                if (!(strikerAtopWall || targetAtopWall))
-                {
-                    return true;
-                }
-            }
-            // Success!
-            return false;
+    /**
+     * Check whether the given path of the LOS is blocked, by hazards or
+     * by the creatures currently on the board.
+     */
+    private boolean isLOSBlocked(LineOfSightTable.Path path)
+    {
+        if (path.isBlockedByTerrain())
+        {
+            return true;
         }
-        else
-        // not leaving first or entering last hex
+        for (BattleHex hex : path.getBlockingIfOccupied())
         {
-            if (midChit)
+            if (isOccupied(hex))
             {
-                // We're not in the initial or final hex, and we have already
-                // marked a mid chit, so it's not adjacent to the base of a
-                // cliff that the target is atop.
                 return true;
             }
-            if (isObstacle(hexside) || isObstacle(hexside2))
-            {
-                midObstacle = true;
-                totalObstacles++;
-                if (hexside == 'c' || hexside2 == 'c' || hexside == 'd'
-                    || hexside2 == 'd')
-                {
-                    midCliff = true;
-                }
-            }
-        }
-        if (nextHex.blocksLineOfSight())
-        {
-            return true;
         }
-        // Creatures block LOS, unless both striker and target are at higher
-        //     elevation than the creature, or unless the creature is at
-        //     the base of a cliff and the striker or target is atop it.
-        if (isOccupied(nextHex) && nextHex.getElevation() >= strikeElevation
-            && (!strikerAtopCliff || currentHex != initialHex))
-        {
-            midChit = true;
-        }
-        return isLOSBlockedDir(initialHex, nextHex, finalHex, left,
-            strikeElevation, strikerAtop, strikerAtopCliff, strikerAtopWall,
-            midObstacle, midCliff, midChit, totalObstacles, totalWalls);
+        return false;
     }
 
     /**
@@ -640,40 +464,6 @@ abstract public class Battle
         return true;
     }
 
-    private int computeSkillPenaltyRangestrikeThroughDir(BattleHex hex1,
-        BattleHex hex2, Creature c, boolean left, int previousCount)
-    {
-        int count = previousCount;
-
-        // Offboard hexes are not allowed.
-        if (hex1.isEntrance() || hex2.isEntrance())
-        {
-            return Constants.BIGNUM;
-        }
-
-        int direction = getDirection(hex1, hex2, left);
-
-        BattleHex nextHex = hex1.getNeighbor(direction);
-        if (nextHex == null)
-        {
-            return Constants.BIGNUM;
-        }
-
-        if (nextHex == hex2)
-        {
-            // Success!
-            return count;
-        }
-
-        HazardTerrain terrain = nextHex.getTerrain();
-
-        count += terrain.getSkillPenaltyRangestrikeThrough(c.getType()
-            .isNativeIn(terrain));
-
-        return computeSkillPenaltyRangestrikeThroughDir(nextHex, hex2, c,
-            left, count);
-    }
-
     /** Compute the minimum Skill penalty that the creature will endure to
      * rangestrike from hex1 to a creature in hex2 from the intervening hex.
      * @param hex1 The hex in which the rangestriker sit
@@ -689,62 +479,34 @@ abstract public class Battle
             return 0;
         }
 
-        int x1 = hex1.getXCoord();
-        double y1 = hex1.getYCoord();
-        int x2 = hex2.getXCoord();
-        double y2 = hex2.getYCoord();
-
         // Offboard hexes are not allowed.
         if (hex1.isEntrance() || hex2.isEntrance())
         {
             return Constants.BIGNUM;
         }
 
-        // Hexes with odd X coordinates are pushed down half a hex.
-        if ((x1 & 1) == 1)
-        {
-            y1 += 0.5;
-        }
-        if ((x2 & 1) == 1)
-        {
-            y2 += 0.5;
-        }
-
-        double xDist = x2 - x1;
-        double yDist = y2 - y1;
-
-        if (CompareDoubles.almostEqual(yDist, 0.0)
-            || CompareDoubles.almostEqual(Math.abs(yDist),
-                1.5 * Math.abs(xDist)))
+        LineOfSightTable.Sight sight = getSight(hex1, hex2);
+        if (sight.isHexspine())
         {
-            int strikeElevation = Math.min(hex1.getElevation(),
-                hex2.getElevation());
             // Hexspine; try unblocked side(s)
-            if (isLOSBlockedDir(hex1, hex1, hex2, true, strikeElevation,
-                false, false, false, false, false, false, 0, 0))
+            if (isLOSBlocked(sight.first))
             {
-                return computeSkillPenaltyRangestrikeThroughDir(hex1, hex2, c,
-                    false, 0);
+                return sight.second.getSkillPenaltyRangestrikeThrough(c);
             }
-            else if (isLOSBlockedDir(hex1, hex1, hex2, false, strikeElevation,
-                false, false, false, false, false, false, 0, 0))
+            else if (isLOSBlocked(sight.second))
             {
-                return computeSkillPenaltyRangestrikeThroughDir(hex1, hex2, c,
-                    true, 0);
+                return sight.first.getSkillPenaltyRangestrikeThrough(c);
             }
             else
             {
-                return Math.min(
-                    computeSkillPenaltyRangestrikeThroughDir(hex1, hex2, c,
-                        true, 0),
-                    computeSkillPenaltyRangestrikeThroughDir(hex1, hex2, c,
-                        false, 0));
+                return Math.min(sight.first
+                    .getSkillPenaltyRangestrikeThrough(c), sight.second
+                    .getSkillPenaltyRangestrikeThrough(c));
             }
         }
         else
         {
-            return computeSkillPenaltyRangestrikeThroughDir(hex1, hex2, c,
-                toLeft(xDist, yDist), 0);
+            return sight.first.getSkillPenaltyRangestrikeThrough(c);
         }
     }
 
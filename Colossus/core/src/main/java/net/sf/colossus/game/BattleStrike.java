@@ -19,9 +19,27 @@ public class BattleStrike
 
     private final Game game;
 
+    /** The battle to use instead of the game's current one; null means
+     *  "whatever game.getBattle() returns".
+     */
+    private final Battle battle;
+
     public BattleStrike(Game game)
+    {
+        this(game, null);
+    }
+
+    /**
+     * Create a BattleStrike that always works on the given battle, e.g.
+     * a snapshot copy of the real one used by an AI worker thread.
+     *
+     * @param game The game
+     * @param battle The battle to calculate strikes for
+     */
+    public BattleStrike(Game game, Battle battle)
     {
         this.game = game;
+        this.battle = battle;
         LOGGER.finest(("BattleStrike instantiated."));
     }
 
@@ -356,6 +374,10 @@ public class BattleStrike
     // Helper method
     public Battle getBattle()
     {
+        if (battle != null)
+        {
+            return battle;
+        }
         return game.getBattle();
     }
 
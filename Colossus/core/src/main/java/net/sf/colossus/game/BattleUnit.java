@@ -66,6 +66,30 @@ public final class BattleUnit implements BattleCritter
         this.legion = legion;
     }
 
+    /**
+     * Copy constructor, used to create the units of a battle snapshot
+     * (see BattleClientSide(BattleClientSide)). The copy has the same
+     * state as the original, but no listeners: changing it (e.g. moving
+     * it around during AI evaluation) never causes any GUI repaint.
+     *
+     * @param other The BattleUnit to copy
+     */
+    public BattleUnit(BattleUnit other)
+    {
+        this(other.id, other.defender, other.tag, other.currentHex,
+            other.creatureType, other.legion);
+
+        this.hits = other.hits;
+        this.poisonDamage = other.poisonDamage;
+        this.poison = other.poison;
+        this.slows = other.slows;
+        this.slowed = other.slowed;
+        this.startingHex = other.startingHex;
+        this.moved = other.moved;
+        this.struck = other.struck;
+        this.dead = other.dead;
+    }
+
     public Legion getLegion()
     {
         return legion;
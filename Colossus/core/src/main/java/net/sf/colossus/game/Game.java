@@ -10,10 +10,9 @@ import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.logging.Logger;
 
-import net.sf.colossus.util.CollectionHelper;
-import net.sf.colossus.util.Predicate;
 import net.sf.colossus.variant.CreatureType;
 import net.sf.colossus.variant.MasterBoardTerrain;
 import net.sf.colossus.variant.MasterHex;
@@ -38,7 +37,21 @@ public class Game
     /**
      * The state of the different players in the game.
      */
-    protected final List<Player> players = new ArrayList<Player>();
+    private final ModCountArrayList<Player> playerList = new ModCountArrayList<Player>();
+    protected final List<Player> players = playerList;
+
+    /**
+     * How often a legion has been moved, for getOccupancy(). Atomic,
+     * because with a plain ++ two concurrent moves could count as one,
+     * and an index missing one of them would look current.
+     */
+    private final AtomicInteger legionMoves = new AtomicInteger();
+
+    /**
+     * Which legions are in which hex; recreated by getOccupancy() when
+     * anything changed.
+     */
+    private volatile LegionOccupancy occupancy = null;
 
     /**
      * The caretaker takes care of managing the available and dead creatures.
@@ -352,58 +365,55 @@ public class Game
         return livingCount;
     }
 
-    public List<Legion> getLegionsByHex(MasterHex masterHex)
+    /** Called by Legion whenever a legion is placed into another hex. */
+    void legionMoved()
     {
-        assert masterHex != null : "No hex given to find legions on.";
+        legionMoves.incrementAndGet();
+    }
 
-        List<Legion> result = new ArrayList<Legion>();
-        for (Legion legion : getAllLegions())
+    /**
+     * Get the index which legions are in which hex, recreating it first
+     * if legions have been added, removed or moved since it was created.
+     */
+    private LegionOccupancy getOccupancy()
+    {
+        LegionOccupancy current = occupancy;
+        int moves = legionMoves.get();
+        if (current == null
+            || !current.isUpToDate(players, playerList.getModCount(), moves))
         {
-            if (masterHex.equals(legion.getCurrentHex()))
-            {
-                result.add(legion);
-            }
+            current = new LegionOccupancy(players, playerList.getModCount(),
+                moves);
+            occupancy = current;
         }
-        return result;
+        return current;
+    }
+
+    /**
+     * @return The legions in the hex, as they were at the time of the
+     *   call. The list can not be modified.
+     */
+    public List<Legion> getLegionsByHex(MasterHex masterHex)
+    {
+        assert masterHex != null : "No hex given to find legions on.";
+
+        return getOccupancy().getLegions(masterHex);
     }
 
     public int getNumEnemyLegions(MasterHex masterHex, Player player)
     {
-        int count = 0;
-        for (Legion legion : getEnemyLegions(player))
-        {
-            if (masterHex.equals(legion.getCurrentHex()))
-            {
-                count++;
-            }
-        }
-        return count;
+        return getOccupancy().count(masterHex, player, false);
     }
 
     public int getNumLegions(MasterHex masterHex)
     {
-        int count = 0;
-        for (Legion legion : getAllLegions())
-        {
-            if (masterHex.equals(legion.getCurrentHex()))
-            {
-                count++;
-            }
-        }
-        return count;
+        return getOccupancy().getLegions(masterHex).size();
     }
 
     public List<Legion> getFriendlyLegions(final MasterHex hex,
         final Player player)
     {
-        return CollectionHelper.selectAsList(player.getLegions(),
-            new Predicate<Legion>()
-            {
-                public boolean matches(Legion legion)
-                {
-                    return legion.getCurrentHex().equals(hex);
-                }
-            });
+        return getOccupancy().select(hex, player, true);
     }
 
     /** Return a list of all legions not belonging to player. */
@@ -423,21 +433,7 @@ public class Game
     public List<Legion> getEnemyLegions(final MasterHex hex,
         final Player player)
     {
-        List<Legion> result = new ArrayList<Legion>();
-        for (Player otherPlayer : players)
-        {
-            if (!otherPlayer.equals(player))
-            {
-                for (Legion legion : otherPlayer.getLegions())
-                {
-                    if (legion.getCurrentHex().equals(hex))
-                    {
-                        result.add(legion);
-                    }
-                }
-            }
-        }
-        return result;
+        return getOccupancy().select(hex, player, false);
     }
 
     // TODO decide which one of getFirstFriendlyLegion() to use;
@@ -460,12 +456,10 @@ public class Game
 
     public Legion getFirstFriendlyLegion(MasterHex masterHex, Player player)
     {
-        for (Legion legion : player.getLegions())
+        Legion legion = getOccupancy().getFirst(masterHex, player, true);
+        if (legion != null)
         {
-            if (masterHex.equals(legion.getCurrentHex()))
-            {
-                return legion;
-            }
+            return legion;
         }
 
         // only info. I *think* in recombining illegal split case
@@ -477,40 +471,18 @@ public class Game
 
     public boolean isOccupied(MasterHex masterHex)
     {
-        for (Legion legion : getAllLegions())
-        {
-            if (masterHex.equals(legion.getCurrentHex()))
-            {
-                return true;
-            }
-        }
-        return false;
+        return !getOccupancy().getLegions(masterHex).isEmpty();
     }
 
     public Legion getFirstLegion(MasterHex masterHex)
     {
-        for (Legion legion : getAllLegions())
-        {
-            if (masterHex.equals(legion.getCurrentHex()))
-            {
-                return legion;
-            }
-        }
-        return null;
+        List<Legion> legions = getOccupancy().getLegions(masterHex);
+        return legions.isEmpty() ? null : legions.get(0);
     }
 
     public int getNumFriendlyLegions(MasterHex masterHex, Player player)
     {
-        int count = 0;
-        List<? extends Legion> legions = player.getLegions();
-        for (Legion legion : legions)
-        {
-            if (masterHex.equals(legion.getCurrentHex()))
-            {
-                count++;
-            }
-        }
-        return count;
+        return getOccupancy().count(masterHex, player, true);
     }
 
     /**
@@ -529,14 +501,7 @@ public class Game
     {
         assert masterHex != null : "Hex needs to be specified";
         assert player != null : "Player needs to be specified";
-        for (Legion legion : getEnemyLegions(player))
-        {
-            if (masterHex.equals(legion.getCurrentHex()))
-            {
-                return legion;
-            }
-        }
-        return null;
+        return getOccupancy().getFirst(masterHex, player, false);
     }
 
     /**
@@ -599,7 +564,7 @@ public class Game
     public boolean containsOpposingLegions(MasterHex hex)
     {
         Player player = null;
-        for (Legion legion : getLegionsByHex(hex))
+        for (Legion legion : getOccupancy().getLegions(hex))
         {
             if (player == null)
             {
@@ -180,6 +180,7 @@ public abstract class Legion
     {
         assert newPosition != null : "Need position to move legion to";
         this.currentHex = newPosition;
+        player.getGame().legionMoved();
     }
 
     /**
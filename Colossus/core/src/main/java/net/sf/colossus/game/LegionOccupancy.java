@@ -0,0 +1,181 @@
+package net.sf.colossus.game;
+
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import net.sf.colossus.variant.MasterHex;
+
+
+/**
+ * Which legions are in which master board hex, at one point in time.
+ *
+ * Game creates a new one whenever legions were added, removed or moved
+ * since the last one was created, and only then; so that the numerous
+ * questions the movement code and the AIs ask about the legions in a hex
+ * can be answered without scanning all legions of all players.
+ *
+ * Instances are never changed after creation, so they can be shared
+ * between threads.
+ */
+class LegionOccupancy
+{
+    private final Map<MasterHex, List<Legion>> legionsByHex = new HashMap<MasterHex, List<Legion>>();
+
+    /** For each legion in legionsByHex, the player in whose list it is */
+    private final Map<MasterHex, List<Player>> ownersByHex = new HashMap<MasterHex, List<Player>>();
+
+    /** The state of the game this was created from, see isUpToDate() */
+    private final List<Player> players;
+    private final int playersModCount;
+    private final int[] legionsModCounts;
+    private final int legionMoves;
+
+    /**
+     * @param players The players of the game
+     * @param playersModCount The modCount of players
+     * @param legionMoves The number of legion moves so far
+     */
+    LegionOccupancy(List<Player> players, int playersModCount,
+        int legionMoves)
+    {
+        this.players = new ArrayList<Player>(players);
+        this.playersModCount = playersModCount;
+        this.legionMoves = legionMoves;
+        this.legionsModCounts = new int[players.size()];
+        for (int i = 0; i < players.size(); i++)
+        {
+            Player player = players.get(i);
+            legionsModCounts[i] = player.getLegionsModCount();
+            for (Legion legion : player.getLegions())
+            {
+                MasterHex hex = legion.getCurrentHex();
+                List<Legion> legions = legionsByHex.get(hex);
+                List<Player> owners = ownersByHex.get(hex);
+                if (legions == null)
+                {
+                    legions = new ArrayList<Legion>(2);
+                    legionsByHex.put(hex, legions);
+                    owners = new ArrayList<Player>(2);
+                    ownersByHex.put(hex, owners);
+                }
+                legions.add(legion);
+                owners.add(player);
+            }
+        }
+        // handed out by Game.getLegionsByHex() as they are
+        for (Map.Entry<MasterHex, List<Legion>> entry : legionsByHex
+            .entrySet())
+        {
+            entry.setValue(Collections.unmodifiableList(entry.getValue()));
+        }
+    }
+
+    /**
+     * Whether no legion has been added, removed or moved (and no player
+     * added or removed) since this was created.
+     */
+    boolean isUpToDate(List<Player> currentPlayers,
+        int currentPlayersModCount, int currentLegionMoves)
+    {
+        if (currentLegionMoves != legionMoves
+            || currentPlayersModCount != playersModCount
+            || currentPlayers.size() != players.size())
+        {
+            return false;
+        }
+        for (int i = 0; i < legionsModCounts.length; i++)
+        {
+            Player player = currentPlayers.get(i);
+            if (player != players.get(i)
+                || player.getLegionsModCount() != legionsModCounts[i])
+            {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @return The legions in the hex, in the order of players and of
+     *   their legions. Can not be modified.
+     */
+    List<Legion> getLegions(MasterHex hex)
+    {
+        List<Legion> legions = legionsByHex.get(hex);
+        if (legions == null)
+        {
+            return Collections.emptyList();
+        }
+        return legions;
+    }
+
+    /**
+     * @return For each of getLegions(hex), the player it belongs to. Must
+     *   not be modified.
+     */
+    List<Player> getOwners(MasterHex hex)
+    {
+        List<Player> owners = ownersByHex.get(hex);
+        if (owners == null)
+        {
+            return Collections.emptyList();
+        }
+        return owners;
+    }
+
+    /**
+     * @return The number of legions in the hex that belong (if friendly
+     *   is true) or do not belong (if it is false) to the player
+     */
+    int count(MasterHex hex, Player player, boolean friendly)
+    {
+        int count = 0;
+        for (Player owner : getOwners(hex))
+        {
+            if (owner.equals(player) == friendly)
+            {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * @return The first legion in the hex that belongs (if friendly is
+     *   true) or does not belong (if it is false) to the player, or null
+     */
+    Legion getFirst(MasterHex hex, Player player, boolean friendly)
+    {
+        List<Player> owners = getOwners(hex);
+        for (int i = 0; i < owners.size(); i++)
+        {
+            if (owners.get(i).equals(player) == friendly)
+            {
+                return getLegions(hex).get(i);
+            }
+        }
+        return null;
+    }
+
+    /**
+     * @return All legions in the hex that belong (if friendly is true) or
+     *   do not belong (if it is false) to the player
+     */
+    List<Legion> select(MasterHex hex, Player player, boolean friendly)
+    {
+        List<Legion> result = new ArrayList<Legion>();
+        List<Player> owners = getOwners(hex);
+        for (int i = 0; i < owners.size(); i++)
+        {
+            if (owners.get(i).equals(player) == friendly)
+            {
+                result.add(getLegions(hex).get(i));
+            }
+        }
+        return result;
+    }
+}
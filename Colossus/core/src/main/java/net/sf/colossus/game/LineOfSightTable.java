@@ -0,0 +1,412 @@
+package net.sf.colossus.game;
+
+
+import java.util.ArrayList;
+import java.util.List;
+
+import net.sf.colossus.common.Constants;
+import net.sf.colossus.util.CompareDoubles;
+import net.sf.colossus.variant.BattleHex;
+import net.sf.colossus.variant.HazardTerrain;
+
+
+/**
+ * The line of sight between all pairs of hexes of one battle land.
+ *
+ * The terrain of a battle land does not change once it is loaded, so the
+ * path a line of sight takes, whether hazards along it block it and how
+ * many bramble hexes it crosses can be computed once per pair of hexes.
+ * What remains to be checked during the battle is only whether one of
+ * the (few) hexes on the path in which a creature would block the line
+ * of sight is occupied, see Battle.isLOSBlocked().
+ *
+ * Entrances are not in the table; lines of sight from and to them are
+ * always blocked.
+ */
+public class LineOfSightTable
+{
+    private static final BattleHex[] NO_HEXES = new BattleHex[0];
+
+    /** The hexes of the battle land, by x and y coordinate */
+    private final BattleHex[][] hexes;
+
+    /** The sight from [x1][y1] to [x2][y2] */
+    private final Sight[][][][] sights;
+
+    /**
+     * @param hexes The hexes of the battle land, by x and y coordinate;
+     *   null where there is no hex. Terrain, hexsides, elevation and
+     *   neighbors must be set up already.
+     */
+    public LineOfSightTable(BattleHex[][] hexes)
+    {
+        int xSize = hexes.length;
+        int ySize = hexes[0].length;
+        this.hexes = new BattleHex[xSize][];
+        this.sights = new Sight[xSize][ySize][][];
+        for (int x1 = 0; x1 < xSize; x1++)
+        {
+            this.hexes[x1] = hexes[x1].clone();
+            for (int y1 = 0; y1 < ySize; y1++)
+            {
+                BattleHex hex1 = hexes[x1][y1];
+                if (hex1 == null)
+                {
+                    continue;
+                }
+                sights[x1][y1] = new Sight[xSize][ySize];
+                for (int x2 = 0; x2 < xSize; x2++)
+                {
+                    for (int y2 = 0; y2 < ySize; y2++)
+                    {
+                        BattleHex hex2 = hexes[x2][y2];
+                        if (hex2 != null && hex2 != hex1)
+                        {
+                            sights[x1][y1][x2][y2] = computeSight(hex1, hex2);
+                        }
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * @return The sight from hex1 to hex2, or null if that is not in this
+     *   table (the hexes are the same, entrances, or of another battle land)
+     */
+    Sight getSight(BattleHex hex1, BattleHex hex2)
+    {
+        if (!contains(hex1) || !contains(hex2))
+        {
+            return null;
+        }
+        return sights[hex1.getXCoord()][hex1.getYCoord()][hex2.getXCoord()][hex2
+            .getYCoord()];
+    }
+
+    private boolean contains(BattleHex hex)
+    {
+        int x = hex.getXCoord();
+        int y = hex.getYCoord();
+        return x >= 0 && x < hexes.length && y >= 0 && y < hexes[x].length
+            && hexes[x][y] == hex;
+    }
+
+    /**
+     * Whether a hexside (by its code) is something a line of sight has
+     * to cross, i.e. anything but nothing and river.
+     */
+    private static boolean isObstacle(char hexside)
+    {
+        return (hexside != ' ') && (hexside != 'r');
+    }
+
+    /**
+     * Compute the sight from hex1 to hex2 (which must be two different
+     * hexes, none of them an entrance) without the help of any table.
+     */
+    static Sight computeSight(BattleHex hex1, BattleHex hex2)
+    {
+        int x1 = hex1.getXCoord();
+        double y1 = hex1.getYCoord();
+        int x2 = hex2.getXCoord();
+        double y2 = hex2.getYCoord();
+        // Hexes with odd X coordinates are pushed down half a hex.
+        if ((x1 & 1) == 1)
+        {
+            y1 += 0.5;
+        }
+        if ((x2 & 1) == 1)
+        {
+            y2 += 0.5;
+        }
+        double xDist = x2 - x1;
+        double yDist = y2 - y1;
+        if (CompareDoubles.almostEqual(yDist, 0.0)
+            || CompareDoubles.almostEqual(Math.abs(yDist),
+                1.5 * Math.abs(xDist)))
+        {
+            // Hexspine; there are two paths.
+            return new Sight(computePath(hex1, hex2, true), computePath(hex1,
+                hex2, false));
+        }
+        else
+        {
+            return new Sight(computePath(hex1, hex2, Battle.toLeft(xDist,
+                yDist)), null);
+        }
+    }
+
+    /**
+     * Follow the line of sight from initialHex to finalHex, going to the
+     * left of hexspines if argument left is true, or to the right if it is
+     * false, and find out everything about it that does not depend on
+     * where the creatures are.
+     */
+    private static Path computePath(BattleHex initialHex,
+        BattleHex finalHex, boolean left)
+    {
+        // Creatures below the level of the strike do not block LOS.
+        int strikeElevation = Math.min(initialHex.getElevation(), finalHex
+            .getElevation());
+        boolean strikerAtop = false;
+        boolean strikerAtopCliff = false;
+        boolean strikerAtopWall = false;
+        boolean midObstacle = false;
+        boolean midCliff = false;
+        int totalObstacles = 0;
+        int totalWalls = 0;
+
+        boolean blocked = false;
+        List<BattleHex> through = new ArrayList<BattleHex>();
+        List<BattleHex> blockingIfOccupied = new ArrayList<BattleHex>();
+
+        BattleHex currentHex = initialHex;
+        while (currentHex != finalHex)
+        {
+            int direction = Battle.getDirection(currentHex, finalHex, left);
+            BattleHex nextHex = currentHex.getNeighbor(direction);
+            if (nextHex == null)
+            {
+                // Leaves the board.
+                return new Path(true, NO_HEXES, null);
+            }
+            char hexside = currentHex.getHexsideHazard(direction).getCode();
+            char hexside2 = currentHex.getOppositeHazard(direction)
+                .getCode();
+            if (blocked)
+            {
+                // Nothing more to find out, except the path itself.
+            }
+            else if (currentHex == initialHex)
+            {
+                if (isObstacle(hexside))
+                {
+                    strikerAtop = true;
+                    totalObstacles++;
+                    if (hexside == 'c')
+                    {
+                        strikerAtopCliff = true;
+                    }
+                    else if (hexside == 'w')
+                    {
+                        strikerAtopWall = true;
+                        totalWalls++;
+                    }
+                }
+                if (isObstacle(hexside2))
+                {
+                    midObstacle = true;
+                    totalObstacles++;
+                    if (hexside2 == 'c' || hexside2 == 'd')
+                    {
+                        midCliff = true;
+                    }
+                    else if (hexside2 == 'w')
+                    {
+                        blocked = true;
+                    }
+                }
+            }
+            else if (nextHex == finalHex)
+            {
+                boolean targetAtop = false;
+                boolean targetAtopCliff = false;
+                boolean targetAtopWall = false;
+                if (isObstacle(hexside))
+                {
+                    midObstacle = true;
+                    totalObstacles++;
+                    if (hexside == 'c' || hexside == 'd')
+                    {
+                        midCliff = true;
+                    }
+                    else if (hexside == 'w')
+                    {
+                        blocked = true;
+                    }
+                }
+                if (isObstacle(hexside2))
+                {
+                    targetAtop = true;
+                    totalObstacles++;
+                    if (hexside2 == 'c')
+                    {
+                        targetAtopCliff = true;
+                    }
+                    else if (hexside2 == 'w')
+                    {
+                        totalWalls++;
+                        targetAtopWall = true;
+                    }
+                }
+                // A creature at the base of a cliff the target is atop
+                // does not block.
+                int last = blockingIfOccupied.size() - 1;
+                if (targetAtopCliff && last >= 0
+                    && blockingIfOccupied.get(last) == currentHex)
+                {
+                    blockingIfOccupied.remove(last);
+                }
+                if (midCliff && (!strikerAtopCliff || !targetAtopCliff))
+                {
+                    blocked = true;
+                }
+                if (midObstacle && !strikerAtop && !targetAtop)
+                {
+                    blocked = true;
+                }
+                // If there are three slopes, striker and target must each
+                //     be atop one.
+                if (totalObstacles >= 3 && (!strikerAtop || !targetAtop)
+                    && (!strikerAtopCliff && !targetAtopCliff))
+                {
+                    blocked = true;
+                }
+                if (totalWalls >= 2)
+                {
+                    if (!(strikerAtopWall || targetAtopWall))
+                    {
+                        blocked = true;
+                    }
+                }
+            }
+            else
+            // not leaving first or entering last hex
+            {
+                if (isObstacle(hexside) || isObstacle(hexside2))
+                {
+                    midObstacle = true;
+                    totalObstacles++;
+                    if (hexside == 'c' || hexside2 == 'c' || hexside == 'd'
+                        || hexside2 == 'd')
+                    {
+                        midCliff = true;
+                    }
+                }
+            }
+
+            if (nextHex != finalHex || currentHex == initialHex)
+            {
+                if (nextHex.blocksLineOfSight())
+                {
+                    blocked = true;
+                }
+            }
+            if (nextHex != finalHex)
+            {
+                through.add(nextHex);
+                // Creatures block LOS, unless both striker and target are
+                //     at higher elevation than the creature, or unless the
+                //     creature is at the base of a cliff and the striker or
+                //     target is atop it.
+                if (nextHex.getElevation() >= strikeElevation
+                    && (!strikerAtopCliff || currentHex != initialHex))
+                {
+                    blockingIfOccupied.add(nextHex);
+                }
+            }
+            currentHex = nextHex;
+        }
+        return new Path(blocked, blockingIfOccupied
+            .toArray(new BattleHex[blockingIfOccupied.size()]), through
+            .toArray(new BattleHex[through.size()]));
+    }
+
+    /**
+     * The line(s) of sight from one hex to another.
+     */
+    static class Sight
+    {
+        /** The path; the left one if along a hexspine */
+        final Path first;
+        /** The right path if along a hexspine, else null */
+        final Path second;
+
+        Sight(Path first, Path second)
+        {
+            this.first = first;
+            this.second = second;
+        }
+
+        boolean isHexspine()
+        {
+            return second != null;
+        }
+    }
+
+    /**
+     * One line of sight, following a hexspine on one specific side if
+     * it has to.
+     */
+    static class Path
+    {
+        /** Whether hazards block this line of sight, creatures or not */
+        private final boolean blockedByTerrain;
+        /** The hexes in which a creature blocks this line of sight */
+        private final BattleHex[] blockingIfOccupied;
+        /** The hexes between the two ends, null if it leaves the board */
+        private final BattleHex[] through;
+        private final int brambleHexes;
+
+        Path(boolean blockedByTerrain, BattleHex[] blockingIfOccupied,
+            BattleHex[] through)
+        {
+            this.blockedByTerrain = blockedByTerrain;
+            this.blockingIfOccupied = blockingIfOccupied;
+            this.through = through;
+            int count = 0;
+            if (through == null)
+            {
+                count = Constants.BIGNUM;
+            }
+            else
+            {
+                for (BattleHex hex : through)
+                {
+                    if (hex.getTerrain().equals(HazardTerrain.BRAMBLES))
+                    {
+                        count++;
+                    }
+                }
+            }
+            this.brambleHexes = count;
+        }
+
+        boolean isBlockedByTerrain()
+        {
+            return blockedByTerrain;
+        }
+
+        BattleHex[] getBlockingIfOccupied()
+        {
+            return blockingIfOccupied;
+        }
+
+        /** Number of intervening bramble hexes, BIGNUM if the path
+         *  leaves the board */
+        int getBrambleHexes()
+        {
+            return brambleHexes;
+        }
+
+        /** The penalty to the skill of creature c for rangestriking
+         *  through the intervening hexes, BIGNUM if the path leaves the
+         *  board */
+        int getSkillPenaltyRangestrikeThrough(Creature c)
+        {
+            if (through == null)
+            {
+                return Constants.BIGNUM;
+            }
+            int count = 0;
+            for (BattleHex hex : through)
+            {
+                HazardTerrain terrain = hex.getTerrain();
+                count += terrain.getSkillPenaltyRangestrikeThrough(c
+                    .getType().isNativeIn(terrain));
+            }
+            return count;
+        }
+    }
+}
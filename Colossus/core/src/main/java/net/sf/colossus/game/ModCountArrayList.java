@@ -0,0 +1,22 @@
+package net.sf.colossus.game;
+
+
+import java.util.ArrayList;
+
+
+/**
+ * An ArrayList that tells how often it has been structurally modified,
+ * i.e. elements were added or removed, in whatever way (also through
+ * its iterators). Replacing an element with set() does not count.
+ *
+ * Used for the legions of a player, so that Game can find out cheaply
+ * whether its LegionOccupancy index is still up to date.
+ */
+@SuppressWarnings("serial")
+class ModCountArrayList<E> extends ArrayList<E>
+{
+    int getModCount()
+    {
+        return modCount;
+    }
+}
@@ -12,8 +12,6 @@ package net.sf.colossus.game;
  * @author possibly: Bruce Sherrod, Romain Dolbeau (old server.Game class)
  */
 import java.util.HashSet;
-import java.util.Iterator;
-import java.util.List;
 import java.util.Set;
 import java.util.logging.Level;
 import java.util.logging.Logger;
@@ -21,7 +19,8 @@ import java.util.logging.Logger;
 import net.sf.colossus.common.Constants;
 import net.sf.colossus.common.Options;
 import net.sf.colossus.server.LegionServerSide;
-import net.sf.colossus.util.Split;
+import net.sf.colossus.variant.MasterBoardReachability;
+import net.sf.colossus.variant.MasterBoardReachability.Destination;
 import net.sf.colossus.variant.MasterHex;
 
 
@@ -45,19 +44,7 @@ abstract public class Movement
     /** Set the entry side relative to the hex label. */
     protected static EntrySide findEntrySide(MasterHex hex, int cameFrom)
     {
-        int entrySide = -1;
-        if (cameFrom != -1)
-        {
-            if (hex.getTerrain().hasStartList())
-            {
-                entrySide = 3;
-            }
-            else
-            {
-                entrySide = (6 + cameFrom - hex.getLabelSide()) % 6;
-            }
-        }
-        return EntrySide.values()[entrySide];
+        return MasterBoardReachability.findEntrySide(hex, cameFrom);
     }
 
     protected static int findBlock(MasterHex hex)
@@ -275,19 +262,14 @@ abstract public class Movement
         }
 
         // Normal moves.
-        Set<String> tuples = findNormalMoves(currentHex, legion, movementRoll,
-            findBlock(currentHex), Constants.NOWHERE, null, false);
-        Iterator<String> it = tuples.iterator();
-        while (it.hasNext())
+        Set<Destination> destinations = findNormalMoves(currentHex, legion,
+            movementRoll, findBlock(currentHex), Constants.NOWHERE, null,
+            false);
+        for (Destination destination : destinations)
         {
-            String tuple = it.next();
-            List<String> parts = Split.split(':', tuple);
-            String hl = parts.get(0);
-
-            if (hl.equals(targetHex.getLabel()))
+            if (destination.getHex().equals(targetHex))
             {
-                String buf = parts.get(1);
-                entrySides.add(EntrySide.fromLabel(buf));
+                entrySides.add(destination.getEntrySide());
             }
         }
         return entrySides;
@@ -342,151 +324,107 @@ abstract public class Movement
         {
             return new HashSet<MasterHex>();
         }
-        Set<String> tuples = findNormalMoves(hex, legion, movementRoll,
-            findBlock(hex), Constants.NOWHERE, fromHex, ignoreFriends);
+        Set<Destination> destinations = findNormalMoves(hex, legion,
+            movementRoll, findBlock(hex), Constants.NOWHERE, fromHex,
+            ignoreFriends);
 
-        // Extract just the hexLabels from the hexLabel:entrySide tuples.
+        // Extract just the hexes from the hex and entry side pairs.
         Set<MasterHex> result = new HashSet<MasterHex>();
-        Iterator<String> it = tuples.iterator();
-        while (it.hasNext())
+        for (Destination destination : destinations)
         {
-            String tuple = it.next();
-            List<String> parts = Split.split(':', tuple);
-            String hexLabel = parts.get(0);
-            result.add(game.getVariant().getMasterBoard()
-                .getHexByLabel(hexLabel));
+            result.add(destination.getHex());
         }
         return result;
     }
 
-    /** Recursively find conventional moves from this hex.
+    /** Find conventional moves from this hex.
      *  If block >= 0, go only that way.  If block == -1, use arches and
      *  arrows.  If block == -2, use only arrows.  Do not double back in
      *  the direction you just came from.
      *
-     *  TODO get rid of this String serialization and return a proper data
-     *       structure
+     *  The possible paths only depend on the board and are taken from
+     *  its MasterBoardReachability; here only the legions on the way
+     *  are considered.
      *
-     *  @return a set of hexLabel:entrySide tuples.
+     *  @return a set of hex and entry side pairs.
      */
-    public Set<String> findNormalMoves(MasterHex hex, Legion legion, int roll,
-        int block, int cameFrom, MasterHex fromHex, boolean ignoreFriends)
+    public Set<Destination> findNormalMoves(MasterHex hex, Legion legion,
+        int roll, int block, int cameFrom, MasterHex fromHex,
+        boolean ignoreFriends)
     {
-        Set<String> result = new HashSet<String>();
-        Player player = legion.getPlayer();
+        Set<Destination> result = new HashSet<Destination>();
+        if (roll <= 0)
+        {
+            LOGGER.log(Level.SEVERE,
+                "Movement.findNormalMoves() was called with roll number "
+                    + roll + "; legion " + legion.getMarkerId() + ", hex="
+                    + hex.getLabel());
+            return result;
+        }
+        MasterBoardReachability.Step start = game.getVariant()
+            .getMasterBoard().getReachability().getPaths(hex, roll, block,
+                cameFrom);
+        findNormalMoves(start, legion, legion.getPlayer(), fromHex,
+            ignoreFriends, result);
+        return result;
+    }
+
+    /** Recursively follow the paths from this step, as far as the
+     *  legions on the board allow, and collect the destinations. */
+    private void findNormalMoves(MasterBoardReachability.Step step,
+        Legion legion, Player player, MasterHex fromHex,
+        boolean ignoreFriends, Set<Destination> result)
+    {
+        MasterHex hex = step.getHex();
+        Destination destination = step.getDestination();
 
-        // TODO is fromHex actually useful?
-        // if (game.getNumEnemyLegions(hex, player) > 0 && !hex.equals(fromHex))
-        // Server side didn't have it at all, and in client side it was not
-        // passed on to the recursive calls. So it's set in first hex anyway,
-        // but in first hex there can't be an enemy legion, or can there?
-        //
         // If there are enemy legions in this hex, mark it
         // as a legal move and stop recursing.  If there is
         // also a friendly legion there, just stop recursing.
-        // Do a check versus fromHexLabel if we are evaluating
-        // passing through this hex
+        // Do a check versus fromHex if we are evaluating
+        // passing through this hex (only for the first hex).
         if (game.getNumEnemyLegions(hex, player) > 0 && !hex.equals(fromHex))
         {
             if (game.getNumFriendlyLegions(hex, player) == 0 || ignoreFriends)
             {
-                // Set the entry side relative to the hex label.
-                if (cameFrom != -1)
+                if (destination != null)
                 {
-                    result.add(hex.getLabel() + ":"
-                        + findEntrySide(hex, cameFrom).getLabel());
+                    result.add(destination);
                 }
             }
-            return result;
+            return;
         }
 
-        if (roll == 0)
+        if (step.getRoll() == 0)
         {
-            // This is the originally server side functionality:
-            // XXX fix
             // This hex is the final destination.  Mark it as legal if
             // it is unoccupied by friendly legions.
-            List<? extends Legion> legions = player.getLegions();
-            for (Legion otherLegion : legions)
-            {
-                if (!ignoreFriends && otherLegion != legion
-                    && hex.equals(otherLegion.getCurrentHex()))
-                {
-                    return result;
-                }
-            }
-            /* The part below is how it was in MovementClientSide.
-             * When I tried to use that, the cycle/spin case with split
-             * legions produces NAKs - server thinks the player has valid
-             * conventional moves.
-             */
-            /*
-            // This hex is the final destination.  Mark it as legal if
-            // it is unoccupied by friendly legions that have already moved.
-            // Account for spin cycles.
-            List<Legion> legions = game.getFriendlyLegions(hex, player);
-            if (!legions.isEmpty() && !ignoreFriends)
+            // (MovementClientSide used to allow friendly legions that
+            // had not moved yet, but with split legions in a cycle/spin
+            // that produced NAKs.)
+            if (!ignoreFriends)
             {
-                // it's enough to check one; there can never be a moved one
-                // and a not moved one in same hex
-                if (legions.get(0).hasMoved())
+                for (Legion otherLegion : player.getLegions())
                 {
-                    return result;
+                    if (otherLegion != legion
+                        && hex.equals(otherLegion.getCurrentHex()))
+                    {
+                        return;
+                    }
                 }
             }
-            */
-            if (cameFrom != -1)
+            if (destination != null)
             {
-                result.add(hex.getLabel() + ":"
-                    + findEntrySide(hex, cameFrom).getLabel());
-                return result;
+                result.add(destination);
             }
-        }
-        else if (roll < 0)
-        {
-            LOGGER.log(
-                Level.SEVERE,
-                "Movement.findNormalMoves() was called with negative roll number "
-                    + roll + "; legion " + legion.getMarkerId()
-                    + ", fromHex = " + fromHex.getLabel() + ", hex="
-                    + hex.getLabel());
-            return result;
+            return;
         }
 
-        if (block >= 0)
-        {
-            result.addAll(findNormalMoves(hex.getNeighbor(block), legion,
-                roll - 1, Constants.ARROWS_ONLY, (block + 3) % 6, null,
-                ignoreFriends));
-        }
-        else if (block == Constants.ARCHES_AND_ARROWS)
-        {
-            for (int i = 0; i < 6; i++)
-            {
-                if (hex.getExitType(i).ordinal() >= Constants.HexsideGates.ARCH
-                    .ordinal() && i != cameFrom)
-                {
-                    result.addAll(findNormalMoves(hex.getNeighbor(i), legion,
-                        roll - 1, Constants.ARROWS_ONLY, (i + 3) % 6, null,
-                        ignoreFriends));
-                }
-            }
-        }
-        else if (block == Constants.ARROWS_ONLY)
+        for (MasterBoardReachability.Step next : step.getNext())
         {
-            for (int i = 0; i < 6; i++)
-            {
-                if (hex.getExitType(i).ordinal() >= Constants.HexsideGates.ARROW
-                    .ordinal() && i != cameFrom)
-                {
-                    result.addAll(findNormalMoves(hex.getNeighbor(i), legion,
-                        roll - 1, Constants.ARROWS_ONLY, (i + 3) % 6, null,
-                        ignoreFriends));
-                }
-            }
+            findNormalMoves(next, legion, player, null, ignoreFriends,
+                result);
         }
-
-        return result;
     }
 
     /** Verify whether this is a valid teleport move.
@@ -1,7 +1,6 @@
 package net.sf.colossus.game;
 
 
-import java.util.ArrayList;
 import java.util.Collections;
 import java.util.HashSet;
 import java.util.List;
@@ -39,7 +38,7 @@ public class Player
     /**
      * The current legions owned by this player.
      */
-    private final List<Legion> legions = new ArrayList<Legion>();
+    private final ModCountArrayList<Legion> legions = new ModCountArrayList<Legion>();
 
     /**
      * The number of the player in the game.
@@ -139,6 +138,12 @@ public class Player
         return this.legions;
     }
 
+    /** How often legions were added or removed, see LegionOccupancy */
+    int getLegionsModCount()
+    {
+        return legions.getModCount();
+    }
+
     public int getNumber()
     {
         return number;
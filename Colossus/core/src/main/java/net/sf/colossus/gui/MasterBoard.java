@@ -1002,7 +1002,9 @@ public final class MasterBoard extends JPanel
                         .getAbsolutePath();
                     String basename = chooser.getSelectedFile().getName();
                     // Add default savegame extension.
-                    if (!basename.endsWith(Constants.XML_EXTENSION))
+                    if (!basename.endsWith(Constants.XML_EXTENSION)
+                        && !basename.endsWith(Constants.XML_EXTENSION
+                            + Constants.COMPRESSED_EXTENSION))
                     {
                         basename += Constants.XML_EXTENSION;
                     }
@@ -297,11 +297,16 @@ public final class PlayerDetailsDialog extends KDialog
         result.setAlignmentX(LEFT_ALIGNMENT);
 
         PredictSplits ps = player.getPredictSplits();
-        PredictSplitNode root = ps.getRoot();
         Map<PredictSplitNode, GridBagConstraints> layouts = new HashMap<PredictSplitNode, GridBagConstraints>();
-        GridBagConstraints rootConstraints = calculateSplitNodeLayout(root, 0,
-            layouts);
-        int totalHeight = rootConstraints.gridheight;
+        // Resolved parts of the tree have been pruned, so there may be
+        // several roots; they are placed one below the other.
+        int totalHeight = 0;
+        for (PredictSplitNode root : ps.getRoots())
+        {
+            GridBagConstraints rootConstraints = calculateSplitNodeLayout(
+                root, totalHeight, layouts);
+            totalHeight += rootConstraints.gridheight;
+        }
 
         for (Map.Entry<PredictSplitNode, GridBagConstraints> entry : layouts
             .entrySet())
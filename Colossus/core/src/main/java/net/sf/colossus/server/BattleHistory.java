@@ -96,11 +96,11 @@ public class BattleHistory
      */
     Element getNewRedoLogElement()
     {
+        // copies, the save game may be written after the next commit point
         Element redoLogElement = new Element("Redo");
         for (Element el : recentEvents)
         {
-            el.detach();
-            redoLogElement.addContent(el);
+            redoLogElement.addContent((Element)el.clone());
         }
 
         return redoLogElement;
@@ -266,6 +266,10 @@ public final class BattleServerSide extends Battle
     {
         this.phase = phase;
         LOGGER.log(Level.INFO, "Battle phase advances to " + phase);
+        if (server != null)
+        {
+            server.getMetrics().enterBattlePhase(phase.toString());
+        }
         if (phase == BattlePhase.FIGHT || phase == BattlePhase.STRIKEBACK)
         {
             DebugMethods.battleLog(
@@ -682,8 +686,9 @@ public final class BattleServerSide extends Battle
         LegionServerSide attacker = getAttackingLegion();
         LegionServerSide defender = getDefendingLegion();
 
-        removeDeadCreaturesFromLegion(defender);
-        removeDeadCreaturesFromLegion(attacker);
+        List<CreatureServerSide> deadCritters = new ArrayList<CreatureServerSide>();
+        removeDeadCreaturesFromLegion(defender, deadCritters);
+        removeDeadCreaturesFromLegion(attacker, deadCritters);
 
         if (attacker.getPlayer() == null
             || attacker.getPlayer().isTitanEliminated())
@@ -695,12 +700,13 @@ public final class BattleServerSide extends Battle
         {
             defenderElim = true;
         }
-        server.allRemoveDeadBattleChits();
+        server.allRemoveDeadBattleChits(deadCritters);
         // to update number of creatures in status window:
         server.allUpdatePlayerInfo("removeDeadCreatures");
     }
 
-    private void removeDeadCreaturesFromLegion(LegionServerSide legion)
+    private void removeDeadCreaturesFromLegion(LegionServerSide legion,
+        List<CreatureServerSide> deadCritters)
     {
         if (legion == null)
         {
@@ -717,6 +723,7 @@ public final class BattleServerSide extends Battle
                 {
                     cleanupOneDeadCritter(critter);
                     it.remove();
+                    deadCritters.add(critter);
                 }
                 else
                 // critter is alive
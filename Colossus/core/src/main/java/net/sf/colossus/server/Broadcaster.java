@@ -0,0 +1,110 @@
+package net.sf.colossus.server;
+
+
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.util.List;
+
+import net.sf.colossus.client.IClient;
+import net.sf.colossus.common.CompactProtocol;
+
+
+/**
+ * Sends the same message to all clients, serializing it only once.
+ *
+ * The IClient methods inherited from ClientHandlerStub are called once on
+ * this object instead of on every client; the resulting protocol line is
+ * then handed to each client handler, which records it in its redo queue
+ * as usual, but shares the line and its encoded bytes instead of building
+ * and encoding it again for every player and spectator.
+ *
+ * Only for IClient methods whose message does not depend on the recipient
+ * and which have no side effects on the ClientHandler itself (so e.g. not
+ * the setupXxx methods, which create commit points).
+ */
+final class Broadcaster extends ClientHandlerStub
+{
+    private final List<IClient> clients;
+
+    Broadcaster(Server server, List<IClient> clients)
+    {
+        super(server, "broadcaster");
+        this.clients = clients;
+    }
+
+    @Override
+    protected void sendToClient(String message)
+    {
+        Message broadcast = new Message(message, historySubstitute);
+        for (IClient client : clients)
+        {
+            ((ClientHandlerStub)client).sendBroadcast(broadcast);
+        }
+    }
+
+    @Override
+    protected void enqueueToRedoQueue(int messageNr, String message)
+    {
+        // Each recipient records it on its own.
+    }
+
+    /**
+     * One broadcast protocol line; encoded once, by the first recipient
+     * that needs the bytes.
+     */
+    static final class Message
+    {
+        private final String message;
+
+        private final List<String> historySubstitute;
+
+        private Charset encodedCharset;
+        private ByteBuffer encoded;
+
+        private CompactProtocol framedProtocol;
+        private ByteBuffer framed;
+
+        Message(String message, List<String> historySubstitute)
+        {
+            this.message = message;
+            this.historySubstitute = historySubstitute;
+        }
+
+        String getMessage()
+        {
+            return message;
+        }
+
+        /** See ClientHandlerStub.removeDeadBattleChits(List) */
+        List<String> getHistorySubstitute()
+        {
+            return historySubstitute;
+        }
+
+        /**
+         * The line including the terminating newline, encoded with the
+         * given charset. The buffer is read only and shared; callers have
+         * to use a duplicate() of it.
+         */
+        synchronized ByteBuffer getEncoded(Charset charset)
+        {
+            if (!charset.equals(encodedCharset))
+            {
+                encoded = OutboundBuffer.encodeLine(charset, message);
+                encodedCharset = charset;
+            }
+            return encoded;
+        }
+
+        /** The line as frame of the given compact protocol; shared, too */
+        synchronized ByteBuffer getFramed(CompactProtocol protocol)
+        {
+            if (protocol != framedProtocol)
+            {
+                framed = protocol.encode(message).asReadOnlyBuffer();
+                framedProtocol = protocol;
+            }
+            return framed;
+        }
+    }
+}
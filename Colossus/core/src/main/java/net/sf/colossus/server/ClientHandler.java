@@ -2,22 +2,24 @@ package net.sf.colossus.server;
 
 
 import java.io.IOException;
+import java.io.StreamCorruptedException;
+import java.net.InetAddress;
 import java.nio.ByteBuffer;
-import java.nio.CharBuffer;
+import java.nio.channels.Channel;
 import java.nio.channels.SelectionKey;
 import java.nio.channels.SocketChannel;
 import java.nio.charset.CharacterCodingException;
 import java.nio.charset.Charset;
 import java.nio.charset.CharsetDecoder;
-import java.nio.charset.CharsetEncoder;
 import java.util.ArrayList;
 import java.util.Date;
-import java.util.LinkedList;
 import java.util.List;
 import java.util.logging.Level;
 import java.util.logging.Logger;
+import java.util.zip.Deflater;
 
 import net.sf.colossus.client.IClient;
+import net.sf.colossus.common.CompactProtocol;
 import net.sf.colossus.common.Constants;
 import net.sf.colossus.game.EntrySide;
 import net.sf.colossus.game.Legion;
@@ -26,8 +28,10 @@ import net.sf.colossus.game.PlayerColor;
 import net.sf.colossus.game.actions.Recruitment;
 import net.sf.colossus.game.actions.Summoning;
 import net.sf.colossus.util.ErrorUtils;
+import net.sf.colossus.util.Glob;
 import net.sf.colossus.util.InstanceTracker;
 import net.sf.colossus.util.Split;
+import net.sf.colossus.util.TermList;
 import net.sf.colossus.variant.BattleHex;
 import net.sf.colossus.variant.CreatureType;
 import net.sf.colossus.variant.MasterHex;
@@ -60,6 +64,8 @@ final class ClientHandler extends ClientHandlerStub implements IClient
     // server is stored in ClientHandlerStub
     private final SocketChannel socketChannel;
     private final SelectionKey selectorKey;
+    /** Instead of socketChannel and selectorKey for a client in same JVM */
+    private final InProcessChannel inProcessChannel;
     private int clientVersion = 0;
     private boolean spectator;
     private ClientHandler replacedCH = null;
@@ -73,17 +79,27 @@ final class ClientHandler extends ClientHandlerStub implements IClient
     private boolean temporarilyDisconnected = false;
     private boolean obsolete = false;
 
-    private String incompleteInput = "";
-    private String incompleteText = "";
+    private static final int INPUT_BUFFER_SIZE = 1024;
 
-    // Charset and encoder: by default according to the property,
+    /** Received bytes not processed yet (an incomplete line or frame) */
+    private ByteBuffer pendingInput = ByteBuffer.allocate(INPUT_BUFFER_SIZE);
+
+    /** Offered to the client after sign on, if it can handle it;
+     *  set before the switch message is queued, and used for all
+     *  output after it */
+    private CompactProtocol compactProtocol = null;
+
+    /** Set when the client confirmed the switch to the compact protocol,
+     *  i.e. everything it sends from then on are frames */
+    private CompactProtocol compactInput = null;
+
+    // Charset: by default according to the property,
     // fallback US-ASCII
     private static final String DEFAULT_CHAR_SET = System
         .getProperty("file.encoding");
     private final String CHARSET_NAME = DEFAULT_CHAR_SET != null ? DEFAULT_CHAR_SET
         : "US-ASCII";
     private final Charset charset = Charset.forName(CHARSET_NAME);
-    private final CharsetEncoder encoder = charset.newEncoder();
     private final CharsetDecoder decoder = charset.newDecoder();
 
     // sync-when-disconnected stuff
@@ -109,6 +125,19 @@ final class ClientHandler extends ClientHandlerStub implements IClient
 
         this.socketChannel = channel;
         this.selectorKey = selKey;
+        this.inProcessChannel = null;
+
+        String tempId = "<no name yet #" + (counter++) + ">";
+        InstanceTracker.register(this, tempId);
+    }
+
+    ClientHandler(Server server, InProcessChannel channel)
+    {
+        super(server);
+
+        this.socketChannel = null;
+        this.selectorKey = null;
+        this.inProcessChannel = channel;
 
         String tempId = "<no name yet #" + (counter++) + ">";
         InstanceTracker.register(this, tempId);
@@ -124,6 +153,18 @@ final class ClientHandler extends ClientHandlerStub implements IClient
         return socketChannel;
     }
 
+    /** Null if this is a socket connection */
+    public InProcessChannel getInProcessChannel()
+    {
+        return inProcessChannel;
+    }
+
+    /** The socket channel or the in-process channel, whichever it is */
+    public Channel getChannel()
+    {
+        return inProcessChannel != null ? inProcessChannel : socketChannel;
+    }
+
     // if "isGone" is true, connection to this client is gone
     // Server uses this to decide whether any nonAI player is
     // (even if perhaps dead) still connected (= watching).
@@ -210,90 +251,153 @@ final class ClientHandler extends ClientHandlerStub implements IClient
         }
 
         sendViaChannel(Constants.dispose);
+        logCompressionResult();
         setIsGone("Server disposes client (all clients)");
         server.queueClientHandlerForChannelChanges(this);
         server.clientWontConfirmCatchup(this,
             "Client disposed from server side.");
     }
 
-    // Called by Server's select reader
+    /**
+     * Called by Server's select reader
+     *
+     * @throws StreamCorruptedException If the compact protocol input can't
+     *   be decoded; nothing that follows can be, either
+     */
     public void processInput(ByteBuffer byteBuffer)
+        throws StreamCorruptedException
     {
-        try
+        if (pendingInput.remaining() < byteBuffer.remaining())
         {
-            CharBuffer charBuff = decoder.decode(byteBuffer);
-
-            String msg = incompleteInput + charBuff.toString();
-            incompleteInput = "";
-            incompleteText = "";
-
-            String msg1 = msg.replaceAll("\r\n|\r|\n", "\\\\n");
-            LOGGER.finest("Decoded string is >>>>>" + msg1 + "<<<<<");
-
-            int processed = 0;
+            ByteBuffer larger = ByteBuffer.allocate(pendingInput.position()
+                + byteBuffer.remaining() + INPUT_BUFFER_SIZE);
+            pendingInput.flip();
+            larger.put(pendingInput);
+            pendingInput = larger;
+        }
+        pendingInput.put(byteBuffer);
+        pendingInput.flip();
 
-            String lines[] = msg.split("\r\n|\n|\r", -1);
-            int len = lines.length;
-            for (int i = 0; i < len; i++)
+        int processed = 0;
+        try
+        {
+            while (pendingInput.hasRemaining())
             {
-                String line = lines[i];
-                if (i < len - 1)
-                {
-                    LOGGER.finest("before processing cmd '" + line + "'");
-                    List<String> li = Split.split(sep, line);
-                    String method = li.remove(0);
-                    if (signonName == null && !method.equals(Constants.signOn))
-                    {
-                        LOGGER
-                            .log(Level.SEVERE,
-                                "First packet must be signOn, but it is "
-                                    + method);
-                    }
-                    else
-                    {
-                        String logMessage = "RECEIVD "
-                            + getTruncatedPlayerName() + " <- " + line;
-                        LOGGER.finer(logMessage);
-                        doCallMethodInTryBlock(line, method, li);
-                    }
-                    LOGGER.finest("after  processing line '" + line + "'");
-                    processed++;
-                }
-                else if (i == len - 1 && line.equals(""))
+                String line = (compactInput != null ? compactInput
+                    .decodeFrame(pendingInput) : nextTextLine(pendingInput));
+                if (line == null)
                 {
-                    // Received characters ended with newline, producing one
-                    // empty string at the end. Perfect.
+                    break;
                 }
-                else
+                if (compactInput == null && compactProtocol != null
+                    && line.equals(Constants.compactProtocol))
                 {
-                    LOGGER.log(Level.FINEST,
-                        "last item incomplete, storing it: '" + line + "'");
-                    incompleteInput = line;
-                    incompleteText = " (not handled: incomplete input '"
-                        + incompleteInput + "')";
+                    // Client confirms the switch, frames from here on.
+                    compactInput = compactProtocol;
+                    LOGGER.fine("Client " + getClientName()
+                        + " switched to the compact protocol");
+                    continue;
                 }
+                processLine(line);
+                processed++;
             }
-
-            LOGGER.log(Level.FINEST, "Processed " + processed + " commands"
-                + incompleteText + ".");
         }
         catch (CharacterCodingException cce)
         {
             LOGGER.log(Level.SEVERE,
                 "CharacterCodingException while reading from channel"
                     + socketChannel, cce);
+            pendingInput.clear();
+            return;
+        }
+        catch (StreamCorruptedException sce)
+        {
+            // The framing is out of step now, there is no way to find the
+            // start of the next frame; the caller has to drop the client.
+            pendingInput.clear();
+            throw sce;
+        }
+
+        LOGGER.log(Level.FINEST, "Processed " + processed + " commands"
+            + (pendingInput.hasRemaining() ? " (" + pendingInput.remaining()
+                + " bytes of incomplete input kept)" : "") + ".");
+        if (!pendingInput.hasRemaining() && pendingInput.capacity() > 4
+            * INPUT_BUFFER_SIZE)
+        {
+            pendingInput = ByteBuffer.allocate(INPUT_BUFFER_SIZE);
+        }
+        else
+        {
+            pendingInput.compact();
+        }
+    }
+
+    /**
+     * The next line from the text input, without the line terminator;
+     * null if there is no complete line yet.
+     * Searching the newline in the bytes rather than in the decoded text
+     * keeps the rest of the input untouched for a switch to the compact
+     * protocol.
+     */
+    private String nextTextLine(ByteBuffer input)
+        throws CharacterCodingException
+    {
+        int start = input.position();
+        int limit = input.limit();
+        for (int i = start; i < limit; i++)
+        {
+            if (input.get(i) == '\n')
+            {
+                int end = (i > start && input.get(i - 1) == '\r') ? i - 1 : i;
+                ByteBuffer lineBytes = input.duplicate();
+                lineBytes.limit(end);
+                input.position(i + 1);
+                return decoder.decode(lineBytes).toString();
+            }
+        }
+        return null;
+    }
+
+    /** Process one complete line received from the client */
+    void processLine(String line)
+    {
+        LOGGER.finest("before processing cmd '" + line + "'");
+        String[] terms = Split.splitToArray(sep, line);
+        String method = terms[0];
+        if (signonName == null && !method.equals(Constants.signOn))
+        {
+            LOGGER.log(Level.SEVERE, "First packet must be signOn, but it is "
+                + method);
+        }
+        else
+        {
+            String logMessage = "RECEIVD " + getTruncatedPlayerName() + " <- "
+                + line;
+            LOGGER.finer(logMessage);
+            doCallMethodInTryBlock(line, method, new TermList(terms, 1));
         }
+        LOGGER.finest("after  processing line '" + line + "'");
     }
 
     private void sendViaChannel(String msg)
     {
-        sendViaChannelRaw(msg);
+        sendViaChannelRaw(msg, null);
     }
 
+    /**
+     * Write what is queued right away, without waiting for the end of the
+     * selector round. Also called when the selector reports that the
+     * channel got writable again.
+     */
     @Override
     protected void flushQueuedContent()
     {
-        sendViaChannelRaw(null);
+        int troubleChange;
+        synchronized (outbound)
+        {
+            troubleChange = writeOutbound();
+        }
+        handleTroubleChange(troubleChange);
     }
 
     @Override
@@ -310,7 +414,8 @@ final class ClientHandler extends ClientHandlerStub implements IClient
     }
 
     /**
-     * Remove the messages in redoQueue prior to given commit point
+     * Remove the messages in redoQueue prior to given commit point, and
+     * add what is needed of them to the history
      * @param confirmedNr Commit point from which we now know that client has
      * successfully received it
      */
@@ -330,15 +435,13 @@ final class ClientHandler extends ClientHandlerStub implements IClient
 
         if (found != -1)
         {
-            /*
-             * TODO: If we would subclass ArrayList, could use the more
-             * efficient method removeRange (it is "protected")
-             */
-            for (int i = 0; i <= found; i++)
+            List<MessageForClient> confirmed = resendQueue.subList(0,
+                found + 1);
+            for (MessageForClient mfc : confirmed)
             {
-                MessageForClient mfc = resendQueue.remove(0);
-                historyQueue.add(mfc);
+                mfc.addToHistory(historyQueue);
             }
+            confirmed.clear();
         }
     }
 
@@ -393,6 +496,112 @@ final class ClientHandler extends ClientHandlerStub implements IClient
         return clientVersion >= IServer.CLIENT_VERSION_NEW_PLAYER_INFO;
     }
 
+    /**
+     * Whether to offer the compact protocol to this client; only for
+     * socket connections, there is nothing to gain for in-process ones.
+     */
+    protected boolean canHandleCompactProtocol()
+    {
+        return clientVersion >= IServer.CLIENT_VERSION_COMPACT_PROTOCOL
+            && socketChannel != null && server.getCompactProtocol() != null;
+    }
+
+    /**
+     * Tell the client to switch to the compact protocol, and send
+     * everything after that message as frames. The client confirms with
+     * a last text line, after which it sends frames, too.
+     */
+    private void startCompactProtocol()
+    {
+        CompactProtocol protocol = server.getCompactProtocol();
+        synchronized (outbound)
+        {
+            // Not via sendToClient(): belongs to this connection only,
+            // and must not be resent after a reconnect.
+            sendViaChannel(Constants.compactProtocol + sep
+                + Glob.glob(protocol.getDictionary()));
+            compactProtocol = protocol;
+        }
+        LOGGER.info("Offered the compact protocol to client "
+            + getClientName());
+    }
+
+    /**
+     * Whether to tell the client that the file server understands the
+     * requests with StaticResourceLoader.FILESERVER_HASH_SIGNAL. Only
+     * remote clients use the file server at all.
+     */
+    protected boolean canHandleFileServerHash()
+    {
+        return clientVersion >= IServer.CLIENT_VERSION_FILE_SERVER_HASH
+            && socketChannel != null;
+    }
+
+    /**
+     * Whether to compress the stream to this client. By default only for
+     * clients on another host; the system property stream.compression
+     * ("true" or "false") overrides that.
+     */
+    protected boolean canHandleCompressedStream()
+    {
+        if (clientVersion < IServer.CLIENT_VERSION_COMPRESSED_STREAM
+            || socketChannel == null)
+        {
+            return false;
+        }
+        String property = System.getProperty("stream.compression");
+        if (property != null)
+        {
+            return Boolean.parseBoolean(property);
+        }
+        InetAddress address = socketChannel.socket().getInetAddress();
+        return address != null && !address.isLoopbackAddress();
+    }
+
+    /**
+     * Tell the client that everything after this message comes
+     * compressed (see OutboundBuffer.startCompression()).
+     */
+    private void startCompressedStream()
+    {
+        synchronized (outbound)
+        {
+            // Not via sendToClient(), like the compactProtocol message.
+            sendViaChannel(Constants.compressedStream);
+            outbound.startCompression(new Deflater(Deflater.BEST_SPEED));
+        }
+        LOGGER.info("Compressing the stream to client " + getClientName());
+    }
+
+    /**
+     * Called by the server when it closed the connection; whatever was not
+     * written yet can't be any more.
+     */
+    void connectionClosed()
+    {
+        synchronized (outbound)
+        {
+            outbound.release();
+        }
+    }
+
+    /** Log how well the compression did, if the stream is compressed */
+    private void logCompressionResult()
+    {
+        long raw;
+        long compressedSize;
+        synchronized (outbound)
+        {
+            raw = outbound.getBytesCompressed();
+            compressedSize = outbound.getCompressedSize();
+        }
+        if (raw > 0)
+        {
+            LOGGER.info("Stream to client " + getClientName() + ": " + raw
+                + " bytes compressed to " + compressedSize);
+        }
+    }
+
     public void cloneRedoQueue(ClientHandler oldCH)
     {
         // Remove the reconnect-related messages
@@ -415,7 +624,8 @@ final class ClientHandler extends ClientHandlerStub implements IClient
         if (supportsReconnect())
         {
             resendQueue.add(new MessageForClient(messageNr,
-                (isCommitPoint ? commitPointCounter : 0), message));
+                (isCommitPoint ? commitPointCounter : 0), message,
+                historySubstitute));
             messageCounter++;
         }
     }
@@ -818,7 +1028,7 @@ final class ClientHandler extends ClientHandlerStub implements IClient
             if (queueMsgNr > lastReceivedMessageNr)
             {
                 String message = mfc.getMessage();
-                sendViaChannelRaw(message);
+                sendViaChannelRaw(message, null);
                 messageCounter = queueMsgNr;
             }
         }
@@ -833,12 +1043,12 @@ final class ClientHandler extends ClientHandlerStub implements IClient
         }
     }
 
-    ByteBuffer bb;
-    String encodedMsg; // used only for logging
-    int should;
-    int writtenTotal;
+    /** Messages encoded, but not written to the channel yet */
+    private final OutboundBuffer outbound = new OutboundBuffer(charset);
 
-    int previousRetries = 0;
+    /** Whether the server will write the outbound buffer at the end of
+     *  the current round of the selector loop */
+    private boolean writeScheduled = false;
 
     private long temporarilyInTrouble = -1;
 
@@ -865,10 +1075,9 @@ final class ClientHandler extends ClientHandlerStub implements IClient
         {
             server.othersTellOneHasNetworkTrouble(this);
         }
-        selectorKey.interestOps(SelectionKey.OP_READ | SelectionKey.OP_WRITE);
     }
 
-    public void clearTemporarilyInTrouble()
+    private void clearTemporarilyInTrouble()
     {
         temporarilyInTrouble = -1;
         if (!isSpectator())
@@ -877,32 +1086,6 @@ final class ClientHandler extends ClientHandlerStub implements IClient
         }
     }
 
-    String lastEncodedMsg = "";
-
-    private void handleEncoding(String msg)
-    {
-        try
-        {
-            lastEncodedMsg = msg;
-            encodedMsg = msg;
-            String dataToSend = msg + "\n";
-            CharBuffer cb = CharBuffer.allocate(dataToSend.length());
-            cb.put(dataToSend);
-            cb.flip();
-
-            bb = encoder.encode(cb);
-            should = bb.limit();
-            writtenTotal = 0;
-        }
-        catch (CharacterCodingException e)
-        {
-            LOGGER.log(Level.WARNING, "EncondingException '" + e.getMessage()
-                + "'" + " was thrown while encoding String '" + msg + "'"
-                + " for writing it to" + " channel for player " + playerName
-                + "; details follow", e);
-        }
-    }
-
     private void debug_output(String msg)
     {
         List<String> li = Split.split(sep, msg);
@@ -924,132 +1107,133 @@ final class ClientHandler extends ClientHandlerStub implements IClient
         }
     }
 
-    /** The queue in which messages are stored, until they were really written.
-     *  Usually empty; stuff piles up only when writing to socket fails,
-     *  e.g. network or client too slow.
+    /**
+     * Queue the message for writing to the channel. Messages sent by the
+     * server thread are written all together at the end of the current
+     * round of the selector loop (see Server.writeScheduledClients());
+     * those of other threads are written right away.
      */
-    LinkedList<String> queue = new LinkedList<String>();
-
-    private void sendViaChannelRaw(String msg)
+    private void sendViaChannelRaw(String msg, Broadcaster.Message broadcast)
     {
         if (_DEBUG_OUTPUT())
         {
             debug_output(msg);
         }
 
-        // Something left undone last time. Postpone this here for a moment.
-        // Except if it is null, then caller called us dedicatedly to give
-        // us a chance to finish earlier stuff.
-        if (msg != null)
-        {
-            queue.add(msg);
-        }
-
-        if (isTemporarilyInTrouble())
+        if (inProcessChannel != null)
         {
+            // Nothing to encode, and never in trouble.
+            inProcessChannel.sendToClient(msg);
             return;
         }
 
-        if (previousRetries > 0)
-        {
-            // Try writing old stuff away.
-            attemptWritingToChannel();
-        }
-
-        // If there was no problem and/or now it went well, proceed with new
-        // stuff... if there was.
-        while (previousRetries == 0 && queue.size() > 0)
-        {
-            String queueMsg = queue.poll();
-            handleEncoding(queueMsg);
-            attemptWritingToChannel();
-        }
-
-        if (previousRetries > 0)
-        {
-            setTemporarilyInTrouble();
-        }
-        else
+        int troubleChange = NO_CHANGE;
+        synchronized (outbound)
         {
+            if (compactProtocol != null)
+            {
+                outbound.append(broadcast != null ? broadcast
+                    .getFramed(compactProtocol) : compactProtocol.encode(msg));
+            }
+            else if (broadcast != null)
+            {
+                outbound.append(broadcast.getEncoded(charset));
+            }
+            else
+            {
+                outbound.append(msg);
+            }
             if (isTemporarilyInTrouble())
             {
-                LOGGER.warning("temporaryInTrouble still true for player "
-                    + getPlayerName() + "? This should never happen.");
+                // Wait until the selector reports the channel writable.
+            }
+            else if (!server.isServerThread() || outbound.isLarge())
+            {
+                troubleChange = writeOutbound();
+            }
+            else if (!writeScheduled)
+            {
+                writeScheduled = true;
+                server.scheduleWrite(this);
             }
-            temporarilyInTrouble = -1;
         }
+        handleTroubleChange(troubleChange);
     }
 
-    private String truncateMessage(String message)
-    {
-        String printLine;
+    private static final int NO_CHANGE = 0;
+    private static final int TROUBLE_STARTED = 1;
+    private static final int TROUBLE_OVER = 2;
+    /** Writing failed and the client can't reconnect; withdraw it */
+    private static final int WRITE_FAILED = 3;
 
-        int _MAXLEN = 80;
-        int len = message.length();
-        if (len > _MAXLEN)
+    /**
+     * Write as much of the outbound buffer as the channel takes; if that
+     * is not all, register for OP_WRITE to continue when the channel is
+     * writable again.
+     * Caller holds the lock on outbound, so this must not call anything
+     * that sends to other clients; that is left to handleTroubleChange().
+     * @return Whether that got this client into trouble or out of it, or
+     *   WRITE_FAILED
+     */
+    private int writeOutbound()
+    {
+        writeScheduled = false;
+        if (socketChannel == null || !socketChannel.isOpen())
         {
-            printLine = message.substring(0, _MAXLEN) + "...";
+            outbound.clear();
+            return NO_CHANGE;
         }
-        else
+        if (outbound.isEmpty() && !isTemporarilyInTrouble())
         {
-            printLine = message;
+            return NO_CHANGE;
         }
-        return printLine;
-    }
 
-    private void attemptWritingToChannel()
-    {
-        if (isGone())
-        {
-            LOGGER.warning("isGone already true when attempting "
-                + "to do WriteToChannel " + lastEncodedMsg + " for player"
-                + getClientName());
-            LOGGER.warning("Reason: " + this.isGoneReason);
-            Thread.dumpStack();
-            return;
-        }
-        // Attempt to write away what is in buffer
         try
         {
-            int written = socketChannel.write(bb);
-            if (written > 0)
+            server.getMetrics().recordOutboundBytes(getClientName(),
+                outbound.getPendingBytes());
+            boolean complete = outbound.writeTo(socketChannel);
+            boolean wasInTrouble = isTemporarilyInTrouble();
+            if (selectorKey.isValid())
             {
-                writtenTotal += written;
+                selectorKey.interestOps(complete ? SelectionKey.OP_READ
+                    : SelectionKey.OP_READ | SelectionKey.OP_WRITE);
             }
-
-            if (writtenTotal < should)
+            if (complete && wasInTrouble)
+            {
+                LOGGER.info("Now succeeded writing to client "
+                    + getPlayerName());
+                return TROUBLE_OVER;
+            }
+            if (!complete && !wasInTrouble)
             {
-                // Not all written
-                previousRetries += 1;
                 if (spectator)
                 {
-                    LOGGER.info("trouble writing, temporarily giving up "
-                        + "writing to client " + getPlayerName());
+                    LOGGER.info("trouble writing, waiting until channel "
+                        + "gets writable for client " + getPlayerName());
                 }
                 else
                 {
-                    LOGGER.warning("trouble writing, temporarily giving up "
-                        + "writing to client " + getPlayerName());
+                    LOGGER.warning("trouble writing, waiting until channel "
+                        + "gets writable for client " + getPlayerName());
                 }
-            }
-            else
-            {
-                // OK, now all was written
-                // TODO nowadays we do only one try, can this be a boolean instead?
-                if (previousRetries > 0)
-                {
-                    LOGGER.info("Now succeeded, attempt = " + previousRetries);
-                }
-                previousRetries = 0;
+                return TROUBLE_STARTED;
             }
         }
         catch (IOException ioe)
         {
-            LOGGER.log(Level.WARNING,
-                "IOException '" + ioe.getMessage() + "'"
-                    + " was thrown while writing String '" + encodedMsg + "'"
-                    + " to channel for player " + playerName
-                    + "; details follow:", ioe);
+            outbound.clear();
+            if (isGone)
+            {
+                // e.g. the dispose message after the client went away
+                LOGGER.fine("IOException '" + ioe.getMessage()
+                    + "' while writing to channel for player " + playerName
+                    + ", who is gone already (" + isGoneReason + ")");
+                return NO_CHANGE;
+            }
+            LOGGER.log(Level.WARNING, "IOException '" + ioe.getMessage()
+                + "'" + " was thrown while writing to channel for player "
+                + playerName + "; details follow:", ioe);
 
             if (this.supportsReconnect())
             {
@@ -1057,15 +1241,51 @@ final class ClientHandler extends ClientHandlerStub implements IClient
             }
             else
             {
+                // Set here already, so that a write from another thread
+                // before handleTroubleChange() does not withdraw again.
                 setIsGone("IOException and reconnect not supported");
                 withdrawnAlready = true;
-                server.withdrawFromGame(spectator ? null : playerName);
-                server.queueClientHandlerForChannelChanges(this);
-                server.clientWontConfirmCatchup(this,
-                    "IO Exception while writing to client " + playerName);
+                return WRITE_FAILED;
             }
         }
-        Thread.yield();
+        return NO_CHANGE;
+    }
+
+    /** Tell the others, outside of the lock on the outbound buffer */
+    private void handleTroubleChange(int troubleChange)
+    {
+        if (troubleChange == TROUBLE_STARTED)
+        {
+            setTemporarilyInTrouble();
+        }
+        else if (troubleChange == TROUBLE_OVER)
+        {
+            clearTemporarilyInTrouble();
+        }
+        else if (troubleChange == WRITE_FAILED)
+        {
+            server.withdrawFromGame(spectator ? null : playerName);
+            server.queueClientHandlerForChannelChanges(this);
+            server.clientWontConfirmCatchup(this,
+                "IO Exception while writing to client " + playerName);
+        }
+    }
+
+    private String truncateMessage(String message)
+    {
+        String printLine;
+
+        int _MAXLEN = 80;
+        int len = message.length();
+        if (len > _MAXLEN)
+        {
+            printLine = message.substring(0, _MAXLEN) + "...";
+        }
+        else
+        {
+            printLine = message;
+        }
+        return printLine;
     }
 
     /**
@@ -1125,7 +1345,13 @@ final class ClientHandler extends ClientHandlerStub implements IClient
                 recentlyProcessedLines.remove(0);
             }
             recentlyProcessedLines.add(line);
-            callMethod(method, li);
+            long start = System.nanoTime();
+            // Only known commands, or any client could make the map grow
+            if (callMethod(method, li))
+            {
+                server.getCommandStatistics().record(method,
+                    System.nanoTime() - start);
+            }
         }
         catch (Exception e)
         {
@@ -1142,483 +1368,568 @@ final class ClientHandler extends ClientHandlerStub implements IClient
     }
 
     /**
-     * This is the longish if-elseif-else block which deserialized all
-     * client-to-server calls back from String to actual methodCalls.
+     * Deserializes all client-to-server calls back from String to actual
+     * methodCalls; the switch on the method name is a hash lookup, not a
+     * sequence of string comparisons.
      * @param method The method to execute
      * @param args   A list of argument Strings
+     * @return False if there is no such method
      */
-    private void callMethod(String method, List<String> args)
+    private boolean callMethod(String method, List<String> args)
     {
-        if (method.equals(Constants.signOn))
+        switch (method)
         {
-            String signonTryName = args.remove(0);
-            boolean remote = Boolean.valueOf(args.remove(0)).booleanValue();
-            this.spectator = false;
-            int connectionId = -1;
-            String buildInfo;
-            if (args.size() < 2)
+            case Constants.signOn:
             {
-                LOGGER.info("Connecting client with signonName "
-                    + signonTryName + " did not send version/build info - "
-                    + "treating that as version -1, build info NONE.");
-                clientVersion = -1;
-                buildInfo = "NONE";
+                String signonTryName = args.remove(0);
+                boolean remote = Boolean.valueOf(args.remove(0)).booleanValue();
+                this.spectator = false;
+                int connectionId = -1;
+                String buildInfo;
+                if (args.size() < 2)
+                {
+                    LOGGER.info("Connecting client with signonName "
+                        + signonTryName + " did not send version/build info - "
+                        + "treating that as version -1, build info NONE.");
+                    clientVersion = -1;
+                    buildInfo = "NONE";
+                }
+                else
+                {
+                    clientVersion = Integer.parseInt(args.remove(0));
+                    buildInfo = args.remove(0);
+                    if (args.size() > 0)
+                    {
+                        this.spectator = Boolean.valueOf(args.remove(0))
+                            .booleanValue();
+                    }
+                    if (args.size() > 0)
+                    {
+                        connectionId = Integer.parseInt(args.remove(0));
+                    }
+                    else
+                    {
+                        // old client which does not send Id
+                        connectionId = -2;
+                    }
+                }
+
+                String reasonFail;
+                if (server.getAllInitialConnectsDone()
+                    && (connectionId == -1 || connectionId == -2) && !spectator)
+                {
+                    // we exclude spectator in the if, because they are handled
+                    // in the legacy case (code works there, didn't want to
+                    // change now)
+                    LOGGER.info("Scratch reconnect (id -1) for client "
+                        + signonTryName);
+                    reasonFail = server
+                        .handleScratchReconnect(this, signonTryName, remote,
+                            clientVersion, buildInfo, spectator);
+                }
+                else
+                {
+                    LOGGER.info("Legacy case, connection for client "
+                        + signonTryName + ", gives connectionId "
+                        + connectionId);
+                    reasonFail = server.handleNewConnection(this, signonTryName,
+                        remote, clientVersion, buildInfo, spectator,
+                        connectionId);
+                }
+
+                if (reasonFail == null)
+                {
+                    sendToClient("Ack: signOn");
+                    this.signonName = signonTryName;
+                    if (canHandleFileServerHash())
+                    {
+                        // Not via sendToClient(), like compactProtocol.
+                        sendViaChannel(Constants.fileServerHash);
+                    }
+                    if (canHandleCompactProtocol())
+                    {
+                        startCompactProtocol();
+                    }
+                    if (canHandleCompressedStream())
+                    {
+                        startCompressedStream();
+                    }
+                }
+                else
+                {
+                    LOGGER.info("Rejecting client " + signonTryName);
+                    nak("SignOn", reasonFail);
+                }
+                InstanceTracker.setId(this, signonTryName);
+                break;
             }
-            else
+            case Constants.joinGame:
             {
-                clientVersion = Integer.parseInt(args.remove(0));
-                buildInfo = args.remove(0);
-                if (args.size() > 0)
+                String playerName = args.remove(0);
+                if (!playerName.equals(signonName))
                 {
-                    this.spectator = Boolean.valueOf(args.remove(0))
-                        .booleanValue();
+                    LOGGER.severe("Joining game with different name '"
+                        + playerName + "' than signonName + '" + signonName
+                        + "' is currently not supported!");
+                    return true;
                 }
-                if (args.size() > 0)
+                LOGGER.info("Received joinGame from client " + signonName);
+                setPlayerNameNoSend(signonName);
+
+                if (server.getAllInitialConnectsDone())
                 {
-                    connectionId = Integer.parseInt(args.remove(0));
+                    LOGGER.fine("All initial connects were already done, "
+                        + "so for this connection now doing a rejoinGame");
+                    server.rejoinGame();
                 }
                 else
                 {
-                    // old client which does not send Id
-                    connectionId = -2;
+                    server.joinGame(signonName);
                 }
+                break;
             }
 
-            String reasonFail;
-            if (server.getAllInitialConnectsDone()
-                && (connectionId == -1 || connectionId == -2) && !spectator)
+            case Constants.watchGame:
             {
-                // we exclude spectator in the if, because they are handled
-                // in the legacy case (code works there, didn't want to
-                // change now)
-                LOGGER.info("Scratch reconnect (id -1) for client "
-                    + signonTryName);
-                reasonFail = server
-                    .handleScratchReconnect(this, signonTryName, remote,
-                        clientVersion, buildInfo, spectator);
+                server.watchGame();
+                break;
             }
-            else
+
+            case Constants.systemInfo:
             {
-                LOGGER.info("Legacy case, connection for client "
-                    + signonTryName + ", gives connectionId " + connectionId);
-                reasonFail = server.handleNewConnection(this, signonTryName,
-                    remote, clientVersion, buildInfo, spectator, connectionId);
+                this.osInfo = (args.remove(0));
+                this.javaVersion = (args.remove(0));
+                String msg = "Connecting client with signonName "
+                    + getClientName() + " reports: java version="
+                    + javaVersion + ", OS info=" + osInfo;
+                LOGGER.info(msg);
+                break;
             }
 
-            if (reasonFail == null)
+            case Constants.requestGameInfo:
             {
-                sendToClient("Ack: signOn");
-                this.signonName = signonTryName;
+                server.replyToRequestGameInfo();
+                break;
             }
-            else
+
+            /*
+            else if (method.equals(Constants.fixName))
             {
-                LOGGER.info("Rejecting client " + signonTryName);
-                nak("SignOn", reasonFail);
+                String newName = args.remove(0);
+                // Prevent an infinite loop oscillating between two names.
+                // @TODO: is this still needed?
+                if (!newName.equals(playerName)
+                    && !newName.startsWith(Constants.byColor))
+                {
+                    setPlayerName(newName);
+                }
             }
-            InstanceTracker.setId(this, signonTryName);
-        }
-        else if (method.equals(Constants.joinGame))
-        {
-            String playerName = args.remove(0);
-            if (!playerName.equals(signonName))
+            */
+            case Constants.leaveCarryMode:
             {
-                LOGGER.severe("Joining game with different name '"
-                    + playerName + "' than signonName + '" + signonName
-                    + "' is currently not supported!");
-                return;
+                server.leaveCarryMode();
+                break;
             }
-            LOGGER.info("Received joinGame from client " + signonName);
-            setPlayerNameNoSend(signonName);
-
-            if (server.getAllInitialConnectsDone())
+            case Constants.doneWithBattleMoves:
             {
-                LOGGER.fine("All initial connects were already done, "
-                    + "so for this connection now doing a rejoinGame");
-                server.rejoinGame();
+                server.doneWithBattleMoves();
+                break;
             }
-            else
+            case Constants.doneWithStrikes:
             {
-                server.joinGame(signonName);
+                server.doneWithStrikes();
+                break;
             }
-        }
-
-        else if (method.equals(Constants.watchGame))
-        {
-            server.watchGame();
-        }
-
-        else if (method.equals(Constants.systemInfo))
-        {
-            this.osInfo = (args.remove(0));
-            this.javaVersion = (args.remove(0));
-            String msg = "Connecting client with signonName "
-                + getClientName() + " reports: java version="
-                + javaVersion + ", OS info=" + osInfo;
-            LOGGER.info(msg);
-        }
-
-        else if (method.equals(Constants.requestGameInfo))
-        {
-            server.replyToRequestGameInfo();
-        }
-
-        /*
-        else if (method.equals(Constants.fixName))
-        {
-            String newName = args.remove(0);
-            // Prevent an infinite loop oscillating between two names.
-            // @TODO: is this still needed?
-            if (!newName.equals(playerName)
-                && !newName.startsWith(Constants.byColor))
+            case Constants.acquireAngel:
             {
-                setPlayerName(newName);
+                String markerId = args.remove(0);
+                String angelType = args.remove(0);
+                server.acquireAngel(resolveLegion(markerId),
+                    resolveCreatureTypeNullOk(angelType));
+                break;
             }
-        }
-        */
-        else if (method.equals(Constants.leaveCarryMode))
-        {
-            server.leaveCarryMode();
-        }
-        else if (method.equals(Constants.doneWithBattleMoves))
-        {
-            server.doneWithBattleMoves();
-        }
-        else if (method.equals(Constants.doneWithStrikes))
-        {
-            server.doneWithStrikes();
-        }
-        else if (method.equals(Constants.acquireAngel))
-        {
-            String markerId = args.remove(0);
-            String angelType = args.remove(0);
-            server.acquireAngel(resolveLegion(markerId),
-                resolveCreatureTypeNullOk(angelType));
-        }
-        else if (method.equals(Constants.doSummon))
-        {
-            Legion legion = resolveLegion(args.remove(0));
-            if (legion == null)
+            case Constants.doSummon:
             {
-                server.doSummon(null);
-                return;
+                Legion legion = resolveLegion(args.remove(0));
+                if (legion == null)
+                {
+                    server.doSummon(null);
+                    return true;
+                }
+                Legion donor = resolveLegion(args.remove(0));
+                CreatureType creatureType = resolveCreatureType(args.remove(0));
+                server.doSummon(new Summoning(legion, donor, creatureType));
+                break;
             }
-            Legion donor = resolveLegion(args.remove(0));
-            CreatureType creatureType = resolveCreatureType(args.remove(0));
-            server.doSummon(new Summoning(legion, donor, creatureType));
-        }
-        else if (method.equals(Constants.doRecruit))
-        {
-            Legion legion = resolveLegion(args.remove(0));
-            // Refusing a reinforcement sends as "recruited" null.
-            CreatureType recruited = resolveCreatureTypeNullOk(args.remove(0));
-            CreatureType recruiter = resolveCreatureTypeNullOk(args.remove(0));
-            server.doRecruit(new Recruitment(legion, recruited, recruiter));
-        }
-        else if (method.equals(Constants.engage))
-        {
-            String hexLabel = args.remove(0);
-            server.engage(resolveMasterHex(hexLabel));
-        }
-        else if (method.equals(Constants.concede))
-        {
-            String markerId = args.remove(0);
-            server.concede(resolveLegion(markerId));
-        }
-        else if (method.equals(Constants.doNotConcede))
-        {
-            String markerId = args.remove(0);
-            server.doNotConcede(resolveLegion(markerId));
-        }
-        else if (method.equals(Constants.flee))
-        {
-            String markerId = args.remove(0);
-            server.flee(resolveLegion(markerId));
-        }
-        else if (method.equals(Constants.doNotFlee))
-        {
-            String markerId = args.remove(0);
-            server.doNotFlee(resolveLegion(markerId));
-        }
-        else if (method.equals(Constants.makeProposal))
-        {
-            String proposalString = args.remove(0);
-            server.makeProposal(proposalString);
-        }
-        else if (method.equals(Constants.fight))
-        {
-            String hexLabel = args.remove(0);
-            server.fight(resolveMasterHex(hexLabel));
-        }
-        else if (method.equals(Constants.doBattleMove))
-        {
-            int tag = Integer.parseInt(args.remove(0));
-            String hexLabel = args.remove(0);
-            BattleHex hex = resolveBattleHex(hexLabel);
-            // silently ignore delayed messages
-            if (!(hex == null && hasBattleRecentlyFinished()))
+            case Constants.doRecruit:
             {
-                server.doBattleMove(tag, hex);
+                Legion legion = resolveLegion(args.remove(0));
+                // Refusing a reinforcement sends as "recruited" null.
+                CreatureType recruited = resolveCreatureTypeNullOk(args
+                    .remove(0));
+                CreatureType recruiter = resolveCreatureTypeNullOk(args
+                    .remove(0));
+                server.doRecruit(new Recruitment(legion, recruited, recruiter));
+                break;
             }
-        }
-        else if (method.equals(Constants.strike))
-        {
-            int tag = Integer.parseInt(args.remove(0));
-            String hexLabel = args.remove(0);
-            BattleHex hex = resolveBattleHex(hexLabel);
-            // silently ignore delayed messages
-            if (!(hex == null && hasBattleRecentlyFinished()))
+            case Constants.engage:
             {
-                server.strike(tag, hex);
+                String hexLabel = args.remove(0);
+                server.engage(resolveMasterHex(hexLabel));
+                break;
             }
-        }
-        else if (method.equals(Constants.applyCarries))
-        {
-            String hexLabel = args.remove(0);
-            BattleHex hex = resolveBattleHex(hexLabel);
-            // silently ignore delayed messages
-            if (!(hex == null && hasBattleRecentlyFinished()))
+            case Constants.concede:
             {
-                server.applyCarries(hex);
+                String markerId = args.remove(0);
+                server.concede(resolveLegion(markerId));
+                break;
             }
-        }
-        else if (method.equals(Constants.undoBattleMove))
-        {
-            String hexLabel = args.remove(0);
-            BattleHex hex = resolveBattleHex(hexLabel);
-            // silently ignore delayed messages
-            if (!(hex == null && hasBattleRecentlyFinished()))
+            case Constants.doNotConcede:
             {
-                server.undoBattleMove(hex);
+                String markerId = args.remove(0);
+                server.doNotConcede(resolveLegion(markerId));
+                break;
             }
-        }
-        else if (method.equals(Constants.assignStrikePenalty))
-        {
-            String prompt = args.remove(0);
-            server.assignStrikePenalty(prompt);
-        }
-        else if (method.equals(Constants.mulligan))
-        {
-            server.mulligan();
-        }
-        else if (method.equals(Constants.requestExtraRoll))
-        {
-            server.requestExtraRoll();
-        }
-        else if (method.equals(Constants.extraRollResponse))
-        {
-            boolean approved = Boolean.valueOf(args.remove(0)).booleanValue();
-            int requestId = Integer.parseInt(args.remove(0));
-            server.extraRollResponse(approved, requestId);
-        }
-        else if (method.equals(Constants.undoSplit))
-        {
-            String splitoffId = args.remove(0);
-            server.undoSplit(resolveLegion(splitoffId));
-        }
-        else if (method.equals(Constants.undoMove))
-        {
-            String markerId = args.remove(0);
-            server.undoMove(resolveLegion(markerId));
-        }
-        else if (method.equals(Constants.undoRecruit))
-        {
-            String markerId = args.remove(0);
-            server.undoRecruit(resolveLegion(markerId));
-        }
-        else if (method.equals(Constants.doneWithSplits))
-        {
-            server.doneWithSplits();
-        }
-        else if (method.equals(Constants.doneWithMoves))
-        {
-            server.doneWithMoves();
-        }
-        else if (method.equals(Constants.doneWithEngagements))
-        {
-            server.doneWithEngagements();
-        }
-        else if (method.equals(Constants.doneWithRecruits))
-        {
-            server.doneWithRecruits();
-        }
-        else if (method.equals(Constants.withdrawFromGame))
-        {
-            LOGGER.info("Received explicit 'withdrawFromGame' request from "
-                + "Client " + getClientName()
-                + " - calling 'withdrawIfNeeded'.");
-            withdrawIfNeeded(true);
-        }
-        else if (method.equals(Constants.disconnect))
-        {
-            didExplicitDisconnect = true;
-            setIsGone("received explit 'disconnect' request from client");
-            LOGGER.info("Received explicit 'disconnect' request from Client "
-                + getClientName() + " - calling 'withdrawIfNeeded'.");
-            withdrawIfNeeded(false);
-            server.sendDisconnect();
-        }
-
-        else if (method.equals(Constants.stopGame))
-        {
-            setIsGone("received explicit 'stopGame' request from " + "client"
-                + getPlayerName());
-            server.sendDisconnect();
-            server.stopGame();
-        }
-        else if (method.equals(Constants.doSplit))
-        {
-            String parentId = args.remove(0);
-            String childId = args.remove(0);
-            String results = args.remove(0);
-            List<CreatureType> creatures = new ArrayList<CreatureType>();
-            for (String name : results.split(","))
+            case Constants.flee:
             {
-                creatures.add(resolveCreatureType(name));
+                String markerId = args.remove(0);
+                server.flee(resolveLegion(markerId));
+                break;
             }
-            server.doSplit(resolveLegion(parentId), childId, creatures);
-        }
-        else if (method.equals(Constants.doMove))
-        {
-            String markerId = args.remove(0);
-            String hexLabel = args.remove(0);
-            EntrySide entrySide = EntrySide.fromLabel(args.remove(0));
-            boolean teleport = Boolean.valueOf(args.remove(0)).booleanValue();
-            CreatureType teleportingLord = resolveCreatureTypeNullOk(args
-                .remove(0));
-            server.doMove(resolveLegion(markerId), resolveMasterHex(hexLabel),
-                entrySide, teleport, teleportingLord);
-        }
-        else if (method.equals(Constants.assignColor))
-        {
-            String color = args.remove(0);
-            server.assignColor(PlayerColor.getByName(color));
-        }
-        else if (method.equals(Constants.assignFirstMarker))
-        {
-            String markerId = args.remove(0);
-            server.assignFirstMarker(markerId);
-        }
-        else if (method.equals(Constants.newGame))
-        {
-            server.newGame();
-        }
-        else if (method.equals(Constants.loadGame))
-        {
-            String filename = args.remove(0);
-            server.loadGame(filename);
-        }
-        else if (method.equals(Constants.saveGame))
-        {
-            String filename = args.remove(0);
-            server.saveGame(filename);
-        }
-        else if (method.equals(Constants.suspendGame))
-        {
-            boolean save = true;
-            if (args.size() > 0)
+            case Constants.doNotFlee:
             {
-                save = Boolean.valueOf(args.remove(0)).booleanValue();
+                String markerId = args.remove(0);
+                server.doNotFlee(resolveLegion(markerId));
+                break;
+            }
+            case Constants.makeProposal:
+            {
+                String proposalString = args.remove(0);
+                server.makeProposal(proposalString);
+                break;
+            }
+            case Constants.fight:
+            {
+                String hexLabel = args.remove(0);
+                server.fight(resolveMasterHex(hexLabel));
+                break;
+            }
+            case Constants.doBattleMove:
+            {
+                int tag = Integer.parseInt(args.remove(0));
+                String hexLabel = args.remove(0);
+                BattleHex hex = resolveBattleHex(hexLabel);
+                // silently ignore delayed messages
+                if (!(hex == null && hasBattleRecentlyFinished()))
+                {
+                    server.doBattleMove(tag, hex);
+                }
+                break;
+            }
+            case Constants.strike:
+            {
+                int tag = Integer.parseInt(args.remove(0));
+                String hexLabel = args.remove(0);
+                BattleHex hex = resolveBattleHex(hexLabel);
+                // silently ignore delayed messages
+                if (!(hex == null && hasBattleRecentlyFinished()))
+                {
+                    server.strike(tag, hex);
+                }
+                break;
+            }
+            case Constants.applyCarries:
+            {
+                String hexLabel = args.remove(0);
+                BattleHex hex = resolveBattleHex(hexLabel);
+                // silently ignore delayed messages
+                if (!(hex == null && hasBattleRecentlyFinished()))
+                {
+                    server.applyCarries(hex);
+                }
+                break;
+            }
+            case Constants.undoBattleMove:
+            {
+                String hexLabel = args.remove(0);
+                BattleHex hex = resolveBattleHex(hexLabel);
+                // silently ignore delayed messages
+                if (!(hex == null && hasBattleRecentlyFinished()))
+                {
+                    server.undoBattleMove(hex);
+                }
+                break;
+            }
+            case Constants.assignStrikePenalty:
+            {
+                String prompt = args.remove(0);
+                server.assignStrikePenalty(prompt);
+                break;
+            }
+            case Constants.mulligan:
+            {
+                server.mulligan();
+                break;
+            }
+            case Constants.requestExtraRoll:
+            {
+                server.requestExtraRoll();
+                break;
+            }
+            case Constants.extraRollResponse:
+            {
+                boolean approved = Boolean.valueOf(args.remove(0))
+                    .booleanValue();
+                int requestId = Integer.parseInt(args.remove(0));
+                server.extraRollResponse(approved, requestId);
+                break;
+            }
+            case Constants.undoSplit:
+            {
+                String splitoffId = args.remove(0);
+                server.undoSplit(resolveLegion(splitoffId));
+                break;
+            }
+            case Constants.undoMove:
+            {
+                String markerId = args.remove(0);
+                server.undoMove(resolveLegion(markerId));
+                break;
+            }
+            case Constants.undoRecruit:
+            {
+                String markerId = args.remove(0);
+                server.undoRecruit(resolveLegion(markerId));
+                break;
+            }
+            case Constants.doneWithSplits:
+            {
+                server.doneWithSplits();
+                break;
+            }
+            case Constants.doneWithMoves:
+            {
+                server.doneWithMoves();
+                break;
+            }
+            case Constants.doneWithEngagements:
+            {
+                server.doneWithEngagements();
+                break;
+            }
+            case Constants.doneWithRecruits:
+            {
+                server.doneWithRecruits();
+                break;
+            }
+            case Constants.withdrawFromGame:
+            {
+                LOGGER.info("Received explicit 'withdrawFromGame' request from "
+                    + "Client " + getClientName()
+                    + " - calling 'withdrawIfNeeded'.");
+                withdrawIfNeeded(true);
+                break;
+            }
+            case Constants.disconnect:
+            {
+                didExplicitDisconnect = true;
+                setIsGone("received explit 'disconnect' request from client");
+                LOGGER.info(
+                    "Received explicit 'disconnect' request from Client "
+                    + getClientName() + " - calling 'withdrawIfNeeded'.");
+                withdrawIfNeeded(false);
+                server.sendDisconnect();
+                break;
             }
-            server.requestToSuspendGame(save);
-        }
 
-        else if (method.equals(Constants.suspendResponse))
-        {
-            boolean approved = Boolean.valueOf(args.remove(0)).booleanValue();
-            server.suspendResponse(approved);
-        }
+            case Constants.stopGame:
+            {
+                setIsGone("received explicit 'stopGame' request from "
+                    + "client"
+                    + getPlayerName());
+                server.sendDisconnect();
+                server.stopGame();
+                break;
+            }
+            case Constants.doSplit:
+            {
+                String parentId = args.remove(0);
+                String childId = args.remove(0);
+                String results = args.remove(0);
+                List<CreatureType> creatures = new ArrayList<CreatureType>();
+                for (String name : results.split(","))
+                {
+                    creatures.add(resolveCreatureType(name));
+                }
+                server.doSplit(resolveLegion(parentId), childId, creatures);
+                break;
+            }
+            case Constants.doMove:
+            {
+                String markerId = args.remove(0);
+                String hexLabel = args.remove(0);
+                EntrySide entrySide = EntrySide.fromLabel(args.remove(0));
+                boolean teleport = Boolean.valueOf(args.remove(0))
+                    .booleanValue();
+                CreatureType teleportingLord = resolveCreatureTypeNullOk(args
+                    .remove(0));
+                server.doMove(resolveLegion(markerId), resolveMasterHex(
+                    hexLabel),
+                    entrySide, teleport, teleportingLord);
+                break;
+            }
+            case Constants.assignColor:
+            {
+                String color = args.remove(0);
+                server.assignColor(PlayerColor.getByName(color));
+                break;
+            }
+            case Constants.assignFirstMarker:
+            {
+                String markerId = args.remove(0);
+                server.assignFirstMarker(markerId);
+                break;
+            }
+            case Constants.newGame:
+            {
+                server.newGame();
+                break;
+            }
+            case Constants.loadGame:
+            {
+                String filename = args.remove(0);
+                server.loadGame(filename);
+                break;
+            }
+            case Constants.saveGame:
+            {
+                String filename = args.remove(0);
+                server.saveGame(filename);
+                break;
+            }
+            case Constants.suspendGame:
+            {
+                boolean save = true;
+                if (args.size() > 0)
+                {
+                    save = Boolean.valueOf(args.remove(0)).booleanValue();
+                }
+                server.requestToSuspendGame(save);
+                break;
+            }
 
-        else if (method.equals(Constants.checkConnection))
-        {
-            server.checkServerConnection();
-        }
+            case Constants.suspendResponse:
+            {
+                boolean approved = Boolean.valueOf(args.remove(0))
+                    .booleanValue();
+                server.suspendResponse(approved);
+                break;
+            }
 
-        else if (method.equals(Constants.peerRequestReceived))
-        {
-            String respondingClientName = args.remove(0);
-            int queueLen = Integer.parseInt(args.remove(0));
-            server.peerRequestReceived(respondingClientName, queueLen);
-        }
+            case Constants.checkConnection:
+            {
+                server.checkServerConnection();
+                break;
+            }
 
-        else if (method.equals(Constants.peerRequestProcessed))
-        {
-            String respondingClientName = args.remove(0);
-            server.peerRequestProcessed(respondingClientName);
-        }
+            case Constants.peerRequestReceived:
+            {
+                String respondingClientName = args.remove(0);
+                int queueLen = Integer.parseInt(args.remove(0));
+                server.peerRequestReceived(respondingClientName, queueLen);
+                break;
+            }
 
-        else if (method.equals(Constants.checkAllConnections))
-        {
-            String requestingClientName = args.remove(0);
-            server.checkAllConnections(requestingClientName);
-        }
+            case Constants.peerRequestProcessed:
+            {
+                String respondingClientName = args.remove(0);
+                server.peerRequestProcessed(respondingClientName);
+                break;
+            }
 
-        else if (method.equals(Constants.requestSyncDelta))
-        {
-            int lastReceivedMsgNr = Integer.parseInt(args.remove(0));
-            int syncRequestNr = -1;
-            // clients version 3 don't send this, only from 4 on
-            if (args.size() > 0)
+            case Constants.checkAllConnections:
             {
-                syncRequestNr = Integer.parseInt(args.remove(0));
+                String requestingClientName = args.remove(0);
+                server.checkAllConnections(requestingClientName);
+                break;
             }
-            server.requestSyncDelta(lastReceivedMsgNr, syncRequestNr);
-        }
 
-        else if (method.equals(Constants.catchupConfirmation))
-        {
-            server.clientConfirmedCatchup();
-        }
+            case Constants.requestSyncDelta:
+            {
+                int lastReceivedMsgNr = Integer.parseInt(args.remove(0));
+                int syncRequestNr = -1;
+                // clients version 3 don't send this, only from 4 on
+                if (args.size() > 0)
+                {
+                    syncRequestNr = Integer.parseInt(args.remove(0));
+                }
+                server.requestSyncDelta(lastReceivedMsgNr, syncRequestNr);
+                break;
+            }
 
-        else if (method.equals(Constants.replyToPing))
-        {
-            lastPingReplyReceived = new Date().getTime();
-            long replyReceived = lastPingReplyReceived;
-            if (args.size() >= 3)
+            case Constants.catchupConfirmation:
             {
-                int requestNr = Integer.parseInt(args.remove(0));
-                long requestSent = Long.parseLong(args.remove(0));
-                long replySent = Long.parseLong(args.remove(0));
-                server.replyToPing(playerName, requestNr, requestSent,
-                    replySent, replyReceived);
+                server.clientConfirmedCatchup();
+                break;
             }
-            else
+
+            case Constants.replyToPing:
             {
-                long requestNr = getLastUsedPingRequestCounter();
-                if (requestNr > MAX_FAKE_MSG_COUNT)
+                lastPingReplyReceived = new Date().getTime();
+                long replyReceived = lastPingReplyReceived;
+                if (args.size() >= 3)
+                {
+                    int requestNr = Integer.parseInt(args.remove(0));
+                    long requestSent = Long.parseLong(args.remove(0));
+                    long replySent = Long.parseLong(args.remove(0));
+                    server.replyToPing(playerName, requestNr, requestSent,
+                        replySent, replyReceived);
+                }
+                else
                 {
-                    fakeMsgLogLevel = Level.FINE;
+                    long requestNr = getLastUsedPingRequestCounter();
+                    if (requestNr > MAX_FAKE_MSG_COUNT)
+                    {
+                        fakeMsgLogLevel = Level.FINE;
+                    }
+                    LOGGER.log(fakeMsgLogLevel, "Ping reply from " //
+                        + getClientName() + ": does not provide requestNr, " //
+                        + "faking it with lastSentNr (" + requestNr + ")");
+                    server.replyToPing(playerName, 0, 0L, 0L, replyReceived);
                 }
-                LOGGER.log(fakeMsgLogLevel, "Ping reply from " //
-                    + getClientName() + ": does not provide requestNr, " //
-                    + "faking it with lastSentNr (" + requestNr + ")");
-                server.replyToPing(playerName, 0, 0L, 0L, replyReceived);
+                break;
             }
-        }
 
-        else if (method.equals(Constants.confirmCommitPoint))
-        {
-            int cpNr = Integer.parseInt(args.remove(0));
-            confirmCommitPoint(cpNr);
-        }
+            case Constants.confirmCommitPoint:
+            {
+                int cpNr = Integer.parseInt(args.remove(0));
+                confirmCommitPoint(cpNr);
+                break;
+            }
 
-        else if (method.equals(Constants.logMsgToServer))
-        {
-            String severity = args.remove(0);
-            String message = args.remove(0);
-            server.logMsgToServer(severity, message);
-        }
+            case Constants.logMsgToServer:
+            {
+                String severity = args.remove(0);
+                String message = args.remove(0);
+                server.logMsgToServer(severity, message);
+                break;
+            }
 
-        else if (method.equals(Constants.cheatModeDestroyLegion))
-        {
-            Legion legion = resolveLegion(args.remove(0));
-            server.cheatModeDestroyLegion(legion);
-        }
+            case Constants.cheatModeDestroyLegion:
+            {
+                Legion legion = resolveLegion(args.remove(0));
+                server.cheatModeDestroyLegion(legion);
+                break;
+            }
 
-        else
-        {
-            LOGGER.log(Level.SEVERE, "Bogus packet (Server, method: '"
-                + method + "', args: " + args + ")");
+            default:
+            {
+                LOGGER.log(Level.SEVERE, "Bogus packet (Server, method: '"
+                    + method + "', args: " + args + ")");
+                return false;
+            }
         }
+        return true;
     }
 
     private BattleHex resolveBattleHex(String hexLabel)
@@ -1698,6 +2009,23 @@ final class ClientHandler extends ClientHandlerStub implements IClient
     // Wrapper for all the send-over-socket methods:
     @Override
     protected void sendToClient(String message)
+    {
+        sendToClient(message, null);
+    }
+
+    @Override
+    void sendBroadcast(Broadcaster.Message broadcast)
+    {
+        historySubstitute = broadcast.getHistorySubstitute();
+        sendToClient(broadcast.getMessage(), broadcast);
+        historySubstitute = null;
+    }
+
+    /**
+     * @param broadcast The same message, if it is sent to all clients;
+     *        its bytes are encoded only once then
+     */
+    private void sendToClient(String message, Broadcaster.Message broadcast)
     {
         enqueueToRedoQueue(messageCounter, message);
 
@@ -1734,13 +2062,13 @@ final class ClientHandler extends ClientHandlerStub implements IClient
             LOGGER.finest("Skipping sendToClient to player " + playerName
                 + " because isGone is already set.");
         }
-        else if (obsolete || socketChannel == null)
+        else if (obsolete || getChannel() == null)
         {
             // do not send any more
             if (cantSendMessageRepeated < 3)
             {
                 int flags = (obsolete ? 1 : 0)
-                    | (socketChannel == null ? 2 : 0);
+                    | (getChannel() == null ? 2 : 0);
                 LOGGER.info("Attempt to send to player " + playerName
                     + " when client connection already gone (reason: " + flags
                     + ")- message: " + message);
@@ -1764,7 +2092,7 @@ final class ClientHandler extends ClientHandlerStub implements IClient
             //prn(logMessage);
             // LOGGER.finer(logMessage);
 
-            sendViaChannel(message);
+            sendViaChannelRaw(message, broadcast);
 
             // TODO: are the null checks needed? Can that ever happen?
             // They were here as explicit if-cases, producing SEVERE log
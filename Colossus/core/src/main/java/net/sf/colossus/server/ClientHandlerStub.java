@@ -11,6 +11,7 @@ import java.util.logging.Logger;
 import net.sf.colossus.client.IClient;
 import net.sf.colossus.common.Constants;
 import net.sf.colossus.game.BattlePhase;
+import net.sf.colossus.game.Creature;
 import net.sf.colossus.game.EntrySide;
 import net.sf.colossus.game.Legion;
 import net.sf.colossus.game.Player;
@@ -49,6 +50,9 @@ public class ClientHandlerStub implements IClient
     protected int messageCounter = 0;
     protected boolean isCommitPoint = false;
 
+    /** Set while sending a message which has a history substitute */
+    protected List<String> historySubstitute = null;
+
     protected long pingRequestCounter = 0;
 
     /**
@@ -60,7 +64,8 @@ public class ClientHandlerStub implements IClient
 
     /**
      * Messages before last commitpoint. Those will be needed only if a player
-     * connects from scratch.
+     * connects from scratch. Only what has a lasting effect on the client
+     * is kept here, see MessageForClient.addToHistory().
      */
     protected final ArrayList<MessageForClient> historyQueue = new ArrayList<MessageForClient>(
         100);
@@ -162,6 +167,17 @@ public class ClientHandlerStub implements IClient
         enqueueToRedoQueue(messageCounter, message);
     }
 
+    /**
+     * Send a message which was serialized once for all clients
+     * (see Broadcaster).
+     */
+    void sendBroadcast(Broadcaster.Message broadcast)
+    {
+        historySubstitute = broadcast.getHistorySubstitute();
+        sendToClient(broadcast.getMessage());
+        historySubstitute = null;
+    }
+
     /**
      * Selector reported that client became writable again (after a prior
      * write attempt had not written all bytes). Now start/try writing the
@@ -174,24 +190,26 @@ public class ClientHandlerStub implements IClient
 
     protected void enqueueToRedoQueue(int messageNr, String message)
     {
-        resendQueue.add(new MessageForClient(messageNr, 0, message));
+        resendQueue.add(new MessageForClient(messageNr, 0, message,
+            historySubstitute));
         messageCounter++;
     }
 
     protected void commitPoint()
     {
         PrintWriter writer = server.getGame().getIscMessageFile();
-        if (writer == null)
+        for (MessageForClient mfc : resendQueue)
         {
-            return;
+            mfc.addToHistory(historyQueue);
+            if (writer != null)
+            {
+                writer.println(mfc.getMessage());
+            }
         }
-        MessageForClient mfc;
-
-        while (!resendQueue.isEmpty())
+        resendQueue.clear();
+        if (writer == null)
         {
-            mfc = resendQueue.remove(0);
-            historyQueue.add(mfc);
-            writer.println(mfc.getMessage());
+            return;
         }
         /*
         Iterator<MessageForClient> it = redoQueue.listIterator(alreadyHandled);
@@ -356,6 +374,25 @@ public class ClientHandlerStub implements IClient
         sendToClient(Constants.removeDeadBattleChits);
     }
 
+    /**
+     * removeDeadBattleChits(), remembering what it does to the legions:
+     * the battle messages are dropped from the history, so there the
+     * creatures which died are removed explicitly instead.
+     * @param deadCritters The creatures which died
+     */
+    void removeDeadBattleChits(List<? extends Creature> deadCritters)
+    {
+        List<String> removals = new ArrayList<String>(deadCritters.size());
+        for (Creature critter : deadCritters)
+        {
+            removals.add(Constants.removeCreature + sep + critter.getLegion()
+                + sep + critter.getType() + sep + Constants.reasonKilled);
+        }
+        historySubstitute = removals;
+        removeDeadBattleChits();
+        historySubstitute = null;
+    }
+
     public void placeNewChit(String imageName, boolean inverted, int tag,
         BattleHex hex)
     {
@@ -1,19 +1,26 @@
 package net.sf.colossus.server;
 
 
-import java.io.BufferedReader;
 import java.io.IOException;
-import java.io.InputStream;
-import java.io.InputStreamReader;
-import java.io.OutputStream;
 import java.net.InetAddress;
-import java.net.ServerSocket;
-import java.net.Socket;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.Charset;
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
 import net.sf.colossus.common.Constants;
+import net.sf.colossus.util.Glob;
+import net.sf.colossus.util.PersistentFileCache;
 import net.sf.colossus.util.Split;
 import net.sf.colossus.util.StaticResourceLoader;
 
@@ -21,20 +28,52 @@ import net.sf.colossus.util.StaticResourceLoader;
 /**
  * Thread handling the distribution of files to clients.
  *
+ * All connections are handled by one selector, so a slow client does not
+ * hold up the others. Two kinds of requests are understood:
+ * <ul>
+ * <li>[ignore-fail signal ~ ] filename ~ directory ~ ...: the old one; the
+ *     contents are sent and the connection is closed.</li>
+ * <li>hash signal ~ known hash ~ [ignore-fail signal ~ ] filename ~
+ *     directory ~ ...: answered with a line "length ~ hash", followed by
+ *     the contents; the connection stays open for further requests, which
+ *     may be sent without waiting for the answers. If the known hash is
+ *     the one of the current contents, the length is
+ *     StaticResourceLoader.FILESERVER_NOT_MODIFIED and nothing follows,
+ *     the client can use its own copy.</li>
+ * </ul>
+ * Clients only send the second kind when the game server told them that
+ * it is understood (Constants.fileServerHash).
+ *
+ * Each file is read (via StaticResourceLoader) and hashed only once; the
+ * contents are kept in a direct buffer from which all requests for it are
+ * served without further copying.
+ *
  * @author Romain Dolbeau
  */
-final class FileServerThread extends Thread
+class FileServerThread extends Thread
 {
     private static final Logger LOGGER = Logger
         .getLogger(FileServerThread.class.getName());
 
-    private ServerSocket fileServer;
-
     private static final String separator = StaticResourceLoader.REQUEST_TOKEN_SEPARATOR;
 
+    /** Requests are short; longer lines are taken as garbage */
+    private static final int MAX_REQUEST_LENGTH = 8 * 1024;
+
+    private static final Charset CHARSET = Charset.defaultCharset();
+
     private final Server server;
     private final int port;
-    private boolean keepGoingOn = true;
+    private volatile boolean keepGoingOn = true;
+
+    private Selector selector;
+    private ServerSocketChannel fileServer;
+
+    /** Files served so far, by the request without the signals */
+    private final Map<String, ServedFile> servedFiles = new HashMap<String, ServedFile>();
+
+    /** See StaticResourceLoader.getFileCacheGeneration() */
+    private int servedGeneration = -1;
 
     FileServerThread(Server server, int port)
     {
@@ -44,7 +83,13 @@ final class FileServerThread extends Thread
         this.port = port;
         try
         {
-            fileServer = new ServerSocket(port, Constants.MAX_MAX_PLAYERS);
+            selector = Selector.open();
+            fileServer = ServerSocketChannel.open();
+            fileServer.socket().setReuseAddress(true);
+            fileServer.socket().bind(new InetSocketAddress(port),
+                Constants.MAX_MAX_PLAYERS);
+            fileServer.configureBlocking(false);
+            fileServer.register(selector, SelectionKey.OP_ACCEPT);
         }
         catch (Exception e)
         {
@@ -56,31 +101,13 @@ final class FileServerThread extends Thread
     }
 
     /*
-     * Set the flag goingOn to false, and makes a dmumy connection to get
-     * the fileserverthread out of the accept() call.
+     * Set the flag goingOn to false, and get the fileserverthread out of
+     * the select() call.
      */
     public void stopGoingOn()
     {
         keepGoingOn = false;
-        makeDummyConnection();
-    }
-
-    private void makeDummyConnection()
-    {
-        // make a dummy connection, to get the thread out of the
-        // accept().
-
-        try
-        {
-            Socket socket = new Socket("localhost", port);
-            socket.close();
-        }
-        // UnknownHostException, IOException, IllegalBlockingModeException
-        catch (Exception e)
-        {
-            LOGGER
-                .log(Level.SEVERE, "FileServerThread: " + e, (Throwable)null);
-        }
+        selector.wakeup();
     }
 
     @Override
@@ -91,117 +118,292 @@ final class FileServerThread extends Thread
         {
             while (keepGoingOn)
             {
-                try
+                selector.select();
+                Iterator<SelectionKey> it = selector.selectedKeys()
+                    .iterator();
+                while (it.hasNext() && keepGoingOn)
                 {
-                    Socket fileClient = fileServer.accept();
-                    if (!keepGoingOn)
+                    SelectionKey key = it.next();
+                    it.remove();
+                    try
                     {
-                        break;
+                        if (key.isAcceptable())
+                        {
+                            accept();
+                        }
+                        else
+                        {
+                            ((Connection)key.attachment()).handle(key);
+                        }
                     }
-
-                    InetAddress requester = fileClient.getInetAddress();
-                    boolean knownIP = server.isKnownClient(requester);
-                    if (knownIP)
+                    catch (Exception e)
                     {
-                        InputStream is = fileClient.getInputStream();
+                        LOGGER.log(Level.WARNING,
+                            "FileServerThread : " + e.toString());
+                        key.cancel();
+                        closeQuietly(key);
+                    }
+                }
+            }
+        }
 
-                        BufferedReader in = new BufferedReader(
-                            new InputStreamReader(is));
+        // catch whatever it be, to make sure the unregister is done
+        catch (Exception e)
+        {
+            LOGGER.log(Level.WARNING, "FileServerThread : " + e
+                + " outer try/catch block");
+        }
 
-                        String request = in.readLine();
+        LOGGER.log(Level.FINEST, "FileServerThread is done");
 
-                        if (request == null)
-                        {
-                            LOGGER.log(Level.WARNING,
-                                "Could not read request, got null");
-                            fileClient.close();
-                            continue;
-                        }
+        try
+        {
+            for (SelectionKey key : selector.keys())
+            {
+                closeQuietly(key);
+            }
+            selector.close();
+            fileServer.close();
+        }
+        catch (IOException e)
+        {
+            LOGGER.log(Level.WARNING, "FileServerThread : " + e
+                + " while closing socket");
+        }
+    }
 
-                        OutputStream os = fileClient.getOutputStream();
+    private void accept() throws IOException
+    {
+        SocketChannel fileClient = fileServer.accept();
+        if (fileClient == null)
+        {
+            return;
+        }
+        InetAddress requester = fileClient.socket().getInetAddress();
+        if (!isKnownClient(requester))
+        {
+            LOGGER.log(Level.WARNING, "SOMEBODY NOT A CLIENT "
+                + "IS TRYING TO ACCESS A FILE !");
+            LOGGER.log(Level.WARNING, "Request was from " + fileClient);
+            fileClient.close();
+            return;
+        }
+        fileClient.configureBlocking(false);
+        fileClient.register(selector, SelectionKey.OP_READ, new Connection(
+            fileClient));
+    }
 
-                        LOGGER.log(Level.FINEST, "Serving request " + request
-                            + " from " + fileClient);
+    /** Only clients of the game get files */
+    boolean isKnownClient(InetAddress requester)
+    {
+        return server.isKnownClient(requester);
+    }
 
-                        boolean ignoreFail = false;
+    /** The port actually listened on; differs from port if that was 0 */
+    int getLocalPort()
+    {
+        return fileServer.socket().getLocalPort();
+    }
 
-                        List<String> li = Split.split(separator, request);
+    private static void closeQuietly(SelectionKey key)
+    {
+        try
+        {
+            key.channel().close();
+        }
+        catch (IOException e)
+        {
+            LOGGER.log(Level.FINEST, "FileServerThread : " + e
+                + " while closing channel");
+        }
+    }
 
-                        String filename = li.remove(0);
+    /**
+     * Find the contents for one request; null if there are none (then
+     * nothing is sent for old style requests and an empty file for new
+     * ones, like before).
+     */
+    private ServedFile getServedFile(List<String> li, boolean ignoreFail)
+    {
+        int generation = StaticResourceLoader.getFileCacheGeneration();
+        if (generation != servedGeneration)
+        {
+            // contents might have been changed, e.g. a new variant loaded
+            servedFiles.clear();
+            servedGeneration = generation;
+        }
 
-                        // TODO Remove this comment if nothing happened :)
-                        // 2009-03 Now clients sends it. Let's see.
+        String key = Glob.glob(separator, li);
+        ServedFile served = servedFiles.get(key);
+        if (served == null)
+        {
+            String filename = li.remove(0);
+            byte[] data = StaticResourceLoader.getBytesFromFile(filename, li,
+                true, ignoreFail);
+            if (data == null)
+            {
+                return null;
+            }
+            served = new ServedFile(data);
+            servedFiles.put(key, served);
+        }
+        return served;
+    }
 
-                        if (filename
-                            .equals(StaticResourceLoader.FILESERVER_IGNOREFAIL_SIGNAL))
-                        {
-                            ignoreFail = true;
-                            filename = li.remove(0);
-                        }
+    /** The contents of one file, and their hash */
+    private static final class ServedFile
+    {
+        private final ByteBuffer contents;
+        private final String hash;
 
-                        // TODO Currently only commented out, remove whole
-                        //      stuff below at some point.
-                        // Meanwhile, suppress the warnings at least for the
-                        // README and the markersFile...
-                        // we know that they usually print warnings for other
-                        // than "Default" directory.
-
-                        // @TODO: e.g. when the over-next public build is out
-                        // (the one right now (20.4.2007) does not contain
-                        // this yet), make the client one day submit the
-                        // ignore-fail signal, and remove this
-                        //  markersFileName/README temporary hack.
-                        /*
-                                                if (filename.startsWith(Constants.markersNameFile)
-                                                    || filename.startsWith("README"))
-                                                {
-                                                    ignoreFail = true;
-                                                }
-                        */
-                        byte[] data = StaticResourceLoader.getBytesFromFile(
-                            filename, li, true, ignoreFail);
-
-                        if (data != null)
-                        {
-                            os.write(data);
-                        }
-                        // else we just write nothing.
-                    }
-                    else
-                    {
-                        LOGGER.log(Level.WARNING, "SOMEBODY NOT A CLIENT "
-                            + "IS TRYING TO ACCESS A FILE !");
-                        LOGGER.log(Level.WARNING, "Request was from "
-                            + fileClient);
-                    }
-                    fileClient.close();
+        ServedFile(byte[] data)
+        {
+            ByteBuffer direct = ByteBuffer.allocateDirect(data.length);
+            direct.put(data);
+            direct.flip();
+            this.contents = direct.asReadOnlyBuffer();
+            this.hash = PersistentFileCache.getContentHash(data);
+        }
+    }
+
+    /** One client connection: the request bytes read, the answers queued */
+    private final class Connection
+    {
+        private final SocketChannel channel;
+
+        private final ByteBuffer input = ByteBuffer
+            .allocate(MAX_REQUEST_LENGTH);
+
+        private final ArrayDeque<ByteBuffer> output = new ArrayDeque<ByteBuffer>();
+
+        /** After an old style request; close when all is written */
+        private boolean closeWhenWritten = false;
+
+        Connection(SocketChannel channel)
+        {
+            this.channel = channel;
+        }
+
+        void handle(SelectionKey key) throws IOException
+        {
+            if (key.isReadable() && !closeWhenWritten)
+            {
+                if (channel.read(input) == -1)
+                {
+                    channel.close();
+                    return;
                 }
-                catch (Exception e)
+                processRequests();
+            }
+            if (!output.isEmpty())
+            {
+                write();
+            }
+            if (output.isEmpty() && closeWhenWritten)
+            {
+                channel.close();
+                return;
+            }
+            key.interestOps((closeWhenWritten ? 0 : SelectionKey.OP_READ)
+                | (output.isEmpty() ? 0 : SelectionKey.OP_WRITE));
+        }
+
+        private void processRequests() throws IOException
+        {
+            input.flip();
+            int start = 0;
+            for (int i = 0; i < input.limit() && !closeWhenWritten; i++)
+            {
+                if (input.get(i) == '\n')
                 {
-                    LOGGER.log(Level.WARNING,
-                        "FileServerThread : " + e.toString());
+                    int end = (i > start && input.get(i - 1) == '\r') ? i - 1
+                        : i;
+                    byte[] line = new byte[end - start];
+                    input.position(start);
+                    input.get(line);
+                    processRequest(new String(line, CHARSET));
+                    start = i + 1;
                 }
             }
+            input.position(closeWhenWritten ? input.limit() : start);
+            input.compact();
+            if (!input.hasRemaining())
+            {
+                throw new IOException("Request too long from " + channel);
+            }
+        }
+
+        private void processRequest(String request)
+        {
+            LOGGER.log(Level.FINEST, "Serving request " + request + " from "
+                + channel);
+
+            List<String> li = Split.split(separator, request);
+
+            String knownHash = null;
+            boolean withHeader = li.size() > 2
+                && li.get(0).equals(StaticResourceLoader.FILESERVER_HASH_SIGNAL);
+            if (withHeader)
+            {
+                li.remove(0);
+                knownHash = li.remove(0);
+            }
+
+            boolean ignoreFail = false;
+            if (li.get(0).equals(
+                StaticResourceLoader.FILESERVER_IGNOREFAIL_SIGNAL)
+                && li.size() > 1)
+            {
+                ignoreFail = true;
+                li.remove(0);
+            }
 
-            LOGGER.log(Level.FINEST, "FileServerThread is done");
+            ServedFile served = getServedFile(li, ignoreFail);
+            if (!withHeader)
+            {
+                if (served != null)
+                {
+                    output.add(served.contents.duplicate());
+                }
+                // else we just write nothing.
+                closeWhenWritten = true;
+                return;
+            }
 
-            try
+            int length;
+            String hash;
+            if (served == null)
+            {
+                length = 0;
+                hash = StaticResourceLoader.FILESERVER_NO_HASH;
+            }
+            else if (served.hash.equals(knownHash))
+            {
+                length = StaticResourceLoader.FILESERVER_NOT_MODIFIED;
+                hash = served.hash;
+            }
+            else
             {
-                fileServer.close();
+                length = served.contents.remaining();
+                hash = served.hash;
             }
-            catch (IOException e)
+            output.add(ByteBuffer.wrap((length + separator + hash + "\n")
+                .getBytes(CHARSET)));
+            if (length > 0)
             {
-                LOGGER.log(Level.WARNING, "FileServerThread : " + e
-                    + " while closing socket");
+                output.add(served.contents.duplicate());
             }
         }
 
-        // catch whatever it be, to make sure the unregister is done
-        catch (Exception e)
+        private void write() throws IOException
         {
-            LOGGER.log(Level.WARNING, "FileServerThread : " + e
-                + " outer try/catch block");
+            ByteBuffer[] buffers = output.toArray(new ByteBuffer[output
+                .size()]);
+            channel.write(buffers);
+            while (!output.isEmpty() && !output.peek().hasRemaining())
+            {
+                output.poll();
+            }
         }
-
     }
 }
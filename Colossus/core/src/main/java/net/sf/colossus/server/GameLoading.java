@@ -2,19 +2,20 @@ package net.sf.colossus.server;
 
 
 import java.io.File;
+import java.io.IOException;
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.Comparator;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
+import javax.xml.stream.XMLStreamException;
+
 import net.sf.colossus.common.Constants;
 import net.sf.colossus.variant.Variant;
 
 import org.jdom.Attribute;
-import org.jdom.Document;
 import org.jdom.Element;
-import org.jdom.input.SAXBuilder;
 
 
 public class GameLoading
@@ -59,15 +60,64 @@ public class GameLoading
         return loadGameFromFile(file);
     }
 
+    /**
+     * The autosave to load for that turn of a replay index, see
+     * ReplayIndex.Entries.findSave().
+     */
+    private File resolveIndexToFile(String indexName, String turnString)
+    {
+        File indexFile;
+        if (indexName.indexOf("/") >= 0 || indexName.indexOf("\\") >= 0)
+        {
+            indexFile = new File(indexName);
+        }
+        else
+        {
+            indexFile = new File(Constants.SAVE_DIR_NAME + indexName);
+        }
+
+        int turn;
+        ReplayIndex.Entries entries;
+        try
+        {
+            turn = Integer.parseInt(turnString);
+            entries = ReplayIndex.read(indexFile);
+        }
+        catch (NumberFormatException e)
+        {
+            LOGGER.log(Level.SEVERE, "Invalid turn " + turnString);
+            return null;
+        }
+        catch (IOException e)
+        {
+            LOGGER.log(Level.SEVERE, "Can't read replay index " + indexFile,
+                e);
+            return null;
+        }
+
+        File file = entries.findSave(indexFile.getAbsoluteFile()
+            .getParentFile(), turn);
+        if (file == null)
+        {
+            LOGGER.log(Level.SEVERE, "No autosave of turn " + turn
+                + " or later left from " + indexFile);
+            return null;
+        }
+        LOGGER.info("Loading " + file.getName() + " for turn " + turn);
+        return file;
+    }
+
     /**
      * For a given filename, open the file with that name from
      * save game directory.
-     * If no such file, try also whether with adding ".xml" it would
-     * become a valid/existing file.
+     * If no such file, try also whether with adding ".xml" (or ".xml.gz")
+     * it would become a valid/existing file.
      *
      * If the filename is "--latest" then load the latest savegame that
      * can be found in saveDirName.
      *
+     * If the filename is a replay index with a turn, "index#turn", then
+     * load the first autosave of that turn (see ReplayIndex).
      *
      * @param filename The name of the file to load, or "--latest" for
      *        looking for latest save game (snapshot) file.
@@ -78,6 +128,15 @@ public class GameLoading
     {
         File file = null;
 
+        int hash = filename.lastIndexOf('#');
+        if (hash > 0
+            && filename.substring(0, hash).endsWith(
+                Constants.REPLAY_INDEX_EXTENSION))
+        {
+            return resolveIndexToFile(filename.substring(0, hash), filename
+                .substring(hash + 1));
+        }
+
         if (filename.equals("--latest"))
         {
             File dir = new File(Constants.SAVE_DIR_NAME);
@@ -112,12 +171,20 @@ public class GameLoading
         {
             String tryXMLFile = file.getPath() + ".xml";
             File xmlFile = new File(tryXMLFile);
+            File compressedFile = new File(tryXMLFile
+                + Constants.COMPRESSED_EXTENSION);
             if (xmlFile.exists())
             {
                 LOGGER.warning("Given filename does not exist - loading "
                     + "instead the one with .xml appended to the name!");
                 file = xmlFile;
             }
+            else if (compressedFile.exists())
+            {
+                LOGGER.warning("Given filename does not exist - loading "
+                    + "instead the one with .xml.gz appended to the name!");
+                file = compressedFile;
+            }
             else
             {
                 LOGGER.severe("Cannot load saved game: file " + file.getPath()
@@ -143,13 +210,14 @@ public class GameLoading
         try
         {
             LOGGER.info("Loading game from " + file);
-            SAXBuilder builder = new SAXBuilder();
-            Document doc = builder.build(file);
-
-            this.root = doc.getRootElement();
+            this.root = SaveGameReader.read(file);
             Attribute ver = root.getAttribute("version");
 
-            if (!ver.getValue().equals(Constants.XML_SNAPSHOT_VERSION))
+            if (ver.getValue().equals(Constants.XML_SNAPSHOT_JOURNAL_VERSION))
+            {
+                readHistoryJournal(file);
+            }
+            else if (!ver.getValue().equals(Constants.XML_SNAPSHOT_VERSION))
             {
                 LOGGER.severe("Can't load this savegame version.");
                 // TODO not only would this fail to load quietly, it also fails
@@ -182,6 +250,26 @@ public class GameLoading
         return null;
     }
 
+    /**
+     * Replace the History element that refers to the history journal by
+     * the events read from it.
+     *
+     * @param file The save file; the journal is in the same directory
+     */
+    private void readHistoryJournal(File file) throws IOException,
+        XMLStreamException
+    {
+        Element reference = root.getChild("History");
+        String name = reference.getAttributeValue(HistoryJournal.JOURNAL_ATTR);
+        long length = Long.parseLong(reference
+            .getAttributeValue(HistoryJournal.LENGTH_ATTR));
+        File journal = new File(file.getAbsoluteFile().getParentFile(), name);
+        LOGGER.info("Reading history from journal " + journal);
+
+        Element history = HistoryJournal.readHistory(journal, length);
+        root.setContent(root.indexOf(reference), history);
+    }
+
     /**
      * Find from the list of savegame filenames the one with the highest
      * numerical value (1000000000_xxx.xml comes after 999999999_xxx.xml)
@@ -16,8 +16,6 @@ import java.util.logging.Logger;
 
 import org.jdom.Document;
 import org.jdom.Element;
-import org.jdom.output.Format;
-import org.jdom.output.XMLOutputter;
 
 import net.sf.colossus.common.Constants;
 import net.sf.colossus.common.Options;
@@ -63,7 +61,8 @@ public class GameSaving
     /**
      * List of filenames that has been created by AutoSave.
      * If option "keep max N autosave files" is set, when N+1th file was
-     * created, first from this list will be deleted and so on.
+     * written, first from this list will be deleted and so on.
+     * See autosaveWritten(); guarded by the lock on this.
      */
     private final List<String> autoGeneratedFiles = new ArrayList<String>();
 
@@ -73,6 +72,26 @@ public class GameSaving
      */
     public static String lastSaveGame;
 
+    /**
+     * Every this many autosaves (starting with the first one) contain the
+     * whole history; the others only refer to the history journal.
+     */
+    private static final int FULL_SAVE_INTERVAL = 10;
+
+    /**
+     * The history events committed so far, created with the first
+     * autosave; see HistoryJournal.
+     */
+    private HistoryJournal historyJournal = null;
+
+    /** The autosaves so far, with the journal; see ReplayIndex */
+    private ReplayIndex replayIndex = null;
+
+    private int autosaveCount = 0;
+
+    /** Writes the autosaves; started with the first one */
+    private SaveGameWriter writer = null;
+
     public GameSaving(GameServerSide game, Options options)
     {
         this.options = options;
@@ -114,6 +133,33 @@ public class GameSaving
         */
         takeSnapshotAtBeginOfPhase();
         game.getHistory().flushRecentToRoot();
+        if (historyJournal != null)
+        {
+            historyJournal.flush();
+        }
+    }
+
+    /**
+     * Wait until the pending autosaves are written, and close the history
+     * journal, if there is one.
+     */
+    void dispose()
+    {
+        if (writer != null)
+        {
+            writer.finish();
+            writer = null;
+        }
+        if (historyJournal != null)
+        {
+            historyJournal.close();
+            historyJournal = null;
+        }
+        if (replayIndex != null)
+        {
+            replayIndex.close();
+            replayIndex = null;
+        }
     }
 
     // unchecked conversions from JDOM
@@ -140,12 +186,18 @@ public class GameSaving
      * Takes the last phaseStartSnapshot plus redo-Data plus battle data plus
      * data files.
      *
+     * @param journalLength Refer to the history journal up to that length
+     *                      instead of including the whole history; -1 for
+     *                      the whole history
      * @return The "ColossusSnapshot" root element containing all information
      */
-    private Element createSavegameContent()
+    private Element createSavegameContent(long journalLength)
     {
+        boolean useJournal = journalLength >= 0;
         Element root = new Element("ColossusSnapshot");
-        root.setAttribute("version", Constants.XML_SNAPSHOT_VERSION);
+        root.setAttribute("version",
+            useJournal ? Constants.XML_SNAPSHOT_JOURNAL_VERSION
+                : Constants.XML_SNAPSHOT_VERSION);
         root.setAttribute("createdByRelease", BuildInfo.getReleaseVersion()
             + " (" + BuildInfo.getRevisionInfoString() + ")");
         root.setAttribute("iscmFileName", iscmName != null ? iscmName : "");
@@ -155,7 +207,19 @@ public class GameSaving
 
         // Everything up to last commit point:
         // System.out.println("- Adding history");
-        root.addContent(game.getHistory().getCopy());
+        if (useJournal)
+        {
+            Element history = new Element("History");
+            history.setAttribute(HistoryJournal.JOURNAL_ATTR,
+                historyJournal.getName());
+            history.setAttribute(HistoryJournal.LENGTH_ATTR, ""
+                + journalLength);
+            root.addContent(history);
+        }
+        else
+        {
+            root.addContent(game.getHistory().getCopy());
+        }
 
         // Add the events since last commit point, some of them are more
         // detailed level. Redo log might also be empty, add it anyway,
@@ -398,6 +462,10 @@ public class GameSaving
         String timeStamp = "" + date.getTime();
         String name = Constants.SAVE_DIR_NAME + Constants.XML_SNAPSHOT_START
             + timeStamp + infoPart + Constants.XML_EXTENSION;
+        if (options.getOption(Options.autosaveCompressed))
+        {
+            name += Constants.COMPRESSED_EXTENSION;
+        }
         if (firstAutosavefileTimestamp == null)
         {
             firstAutosavefileTimestamp = timeStamp;
@@ -436,26 +504,22 @@ public class GameSaving
      * 1) Creates the save game directory if it does not exist yet,
      *    including error handling.
      * 2) Generates an "automatic" file name (both for autoSave and File-Save)
-     * 3) if it is autosave and the option to keep only a limited number of
-     *    autosave files, add it to the list of autosave file names
+     *
+     * Autosave files are added to the list of them (for autosaveMaxKeep)
+     * only when they were written, see autosaveWritten().
      *
      * @param filename User specified filename, null for autosave or File-Save
      * @param autoSave Whether or not this was triggered by autosave
-     * @param keep     How many autosave files to keep, 0 for "keep all"
      * @return         The automatically generated file name
      */
     private String automaticFilenameHandling(final String filename,
-        boolean autoSave, int keep)
+        boolean autoSave)
     {
         String autosaveFilename = makeAutosaveFileName();
         if (autoSave)
         {
             // Real autosave
             LOGGER.finest("Autosaving game to " + autosaveFilename);
-            if (keep > 0)
-            {
-                autoGeneratedFiles.add(autosaveFilename);
-            }
         }
         else
         {
@@ -466,6 +530,21 @@ public class GameSaving
         return autosaveFilename;
     }
 
+    /**
+     * Flush the journal, so that a save can refer to it.
+     * @return The length of the journal on disk, or -1 if it has failed,
+     *         now or before; then the save has to contain the whole history
+     */
+    static long getJournalLength(HistoryJournal journal)
+    {
+        if (journal.hasFailed())
+        {
+            return -1;
+        }
+        long length = journal.flush();
+        return journal.hasFailed() ? -1 : length;
+    }
+
     /**
      * High-level method to save a file. Used for all three cases: Auto-save,
      * User specified file and File-Save (without specified file name).
@@ -473,19 +552,19 @@ public class GameSaving
      * @param filename user specified filename, null for auto-save or File-Save
      * @param autoSave Whether or not this is autoSave
      * @throws IOException if the saves directory (for autosave or File-Save)
-     *                     does not exist and creation fails
+     *                     does not exist and creation fails, or if writing
+     *                     fails (not for autosaves, those are written in the
+     *                     background and SaveGameWriter reports the errors)
      */
     private synchronized void saveGame(final String filename, boolean autoSave)
         throws IOException
     {
-        int keep = options.getIntOption(Options.autosaveMaxKeep);
-
         String fn = null;
         if (filename == null || filename.equals("null"))
         {
             // Might throw IOException if directory can't be created
             ensureSavesDirectory();
-            fn = automaticFilenameHandling(filename, autoSave, keep);
+            fn = automaticFilenameHandling(filename, autoSave);
             // automaticFilenameHandling did the logging already
         }
         else
@@ -496,48 +575,78 @@ public class GameSaving
 
         lastSaveGame = fn;
 
-        FileWriter fileWriter;
-        PrintWriter out;
-        try
-        {
-            fileWriter = new FileWriter(fn);
-            out = new PrintWriter(fileWriter);
-        }
-        catch (IOException e)
+        long journalLength = -1;
+        if (autoSave)
         {
-            LOGGER.log(Level.SEVERE, "Couldn't open " + fn, e);
-            return;
+            if (historyJournal == null && autosaveCount == 0)
+            {
+                startHistoryJournal();
+            }
+            if (historyJournal != null
+                && autosaveCount % FULL_SAVE_INTERVAL != 0)
+            {
+                journalLength = getJournalLength(historyJournal);
+            }
+            autosaveCount++;
         }
 
         // Not here any more. Should now be taken at begin of each phase.
         // takeSnapshotAtBeginOfPhase();
-        Element root = createSavegameContent();
+        Element root = createSavegameContent(journalLength);
         Document doc = new Document(root);
 
-        // Now write it all out to the file
-        try
+        if (autoSave && replayIndex != null && !historyJournal.hasFailed())
         {
-            XMLOutputter putter = new XMLOutputter(Format.getPrettyFormat());
-            putter.output(doc, out);
-            fileWriter.close();
-            if ((filename == null || filename.equals("null")) && keep > 0)
+            replayIndex.append(new ReplayIndex.Entry(game.getTurnNumber(),
+                game.getPhase().toString(), game.getActivePlayer().getName(),
+                historyJournal.flush(), new File(fn).getName()));
+        }
+
+        // Now write it all out to the file; autosaves in the background
+        SaveGameWriter.Job job = new SaveGameWriter.Job(doc, fn, autoSave);
+        if (autoSave)
+        {
+            if (writer == null)
             {
-                while (autoGeneratedFiles.size() > keep)
-                {
-                    String delfilename = autoGeneratedFiles.remove(0);
-                    File fileToDelete = new File(delfilename);
-                    boolean success = fileToDelete.delete();
-                    if (!success)
-                    {
-                        LOGGER.warning("Failed to delete autosave file "
-                            + delfilename + "!");
-                    }
-                }
+                writer = new SaveGameWriter(this);
+                writer.start();
             }
+            writer.enqueue(job);
+        }
+        else
+        {
+            job.write();
+        }
+    }
+
+    /**
+     * Called by the SaveGameWriter when an autosave was written; only
+     * then older ones are removed, so that a failed write does not
+     * leave fewer autosaves than autosaveMaxKeep.
+     */
+    synchronized void autosaveWritten(String filename)
+    {
+        int keep = options.getIntOption(Options.autosaveMaxKeep);
+        if (keep > 0)
+        {
+            autoGeneratedFiles.add(filename);
+            trimAutosaves(autoGeneratedFiles, keep);
         }
-        catch (IOException ex)
+    }
+
+    /**
+     * Delete the oldest of the files until only keep of them are left.
+     */
+    static void trimAutosaves(List<String> files, int keep)
+    {
+        while (files.size() > keep)
         {
-            LOGGER.log(Level.SEVERE, "Error writing XML savegame.", ex);
+            String delfilename = files.remove(0);
+            if (!new File(delfilename).delete())
+            {
+                LOGGER.warning("Failed to delete autosave file "
+                    + delfilename + "!");
+            }
         }
     }
 
@@ -561,24 +670,72 @@ public class GameSaving
         }
         catch (Exception e)
         {
-            String autosaveNowOffMmessage = "";
-            if (autoSave)
-            {
-                options.setOption(Options.autosave, false);
-                autosaveNowOffMmessage = " (autosave now disabled)";
-            }
+            handleSaveException(filename, autoSave, e);
+        }
+    }
 
-            String doWhat = autoSave ? "auto-save" : "save";
-            String toWhere = filename == null ? "<automatically generated filename>"
-                : (" file " + filename);
-            String message = "Woooah! An exception was caught while "
-                + "trying to " + doWhat + " game to " + toWhere
-                + "\nStack trace:\n" + ErrorUtils.makeStackTraceString(e)
-                + "\nSaving the game did probably not succeed"
-                + autosaveNowOffMmessage + ".\n";
-            LOGGER.warning(message);
-            ErrorUtils.showExceptionDialog(null, message,
-                "Exception caught during saving!", false);
+    /**
+     * Log the exception caught while saving, show an error dialog, and
+     * if this was triggered by autosave, disable the autosave from now on.
+     * Also used by the SaveGameWriter, for the exceptions during writing.
+     */
+    void handleSaveException(String filename, boolean autoSave, Exception e)
+    {
+        String autosaveNowOffMmessage = "";
+        if (autoSave)
+        {
+            options.setOption(Options.autosave, false);
+            autosaveNowOffMmessage = " (autosave now disabled)";
+        }
+
+        String doWhat = autoSave ? "auto-save" : "save";
+        String toWhere = filename == null ? "<automatically generated filename>"
+            : (" file " + filename);
+        String message = "Woooah! An exception was caught while "
+            + "trying to " + doWhat + " game to " + toWhere
+            + "\nStack trace:\n" + ErrorUtils.makeStackTraceString(e)
+            + "\nSaving the game did probably not succeed"
+            + autosaveNowOffMmessage + ".\n";
+        LOGGER.warning(message);
+        ErrorUtils.showExceptionDialog(null, message,
+            "Exception caught during saving!", false);
+    }
+
+    /**
+     * Create the history journal next to the autosave files, with the
+     * same timestamp as the first of them, and let the history append to
+     * it from now on.
+     */
+    private void startHistoryJournal()
+    {
+        String name = Constants.HISTORY_JOURNAL_START
+            + firstAutosavefileTimestamp + Constants.HISTORY_JOURNAL_EXTENSION;
+        try
+        {
+            historyJournal = new HistoryJournal(new File(
+                Constants.SAVE_DIR_NAME + name));
+            game.getHistory().startJournal(historyJournal);
+            LOGGER.info("Created history journal " + name);
+        }
+        catch (IOException e)
+        {
+            LOGGER.log(Level.WARNING, "Couldn't create history journal "
+                + name + ", autosaves will contain the whole history", e);
+            historyJournal = null;
+            return;
+        }
+
+        String indexName = Constants.HISTORY_JOURNAL_START
+            + firstAutosavefileTimestamp + Constants.REPLAY_INDEX_EXTENSION;
+        try
+        {
+            replayIndex = new ReplayIndex(new File(Constants.SAVE_DIR_NAME
+                + indexName));
+        }
+        catch (IOException e)
+        {
+            LOGGER.log(Level.WARNING, "Couldn't create replay index "
+                + indexName, e);
         }
     }
 
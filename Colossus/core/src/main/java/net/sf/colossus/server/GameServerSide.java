@@ -450,9 +450,8 @@ public class GameServerSide extends Game
 
         try
         {
-            Client c = Client.createClient("127.0.0.1", getPort(), playerName,
-                type, whatNextManager, server, false, dontUseOptionsFile,
-                createGUI, false);
+            Client c = Client.createLocalClient(playerName, type,
+                whatNextManager, server, dontUseOptionsFile, createGUI, false);
             storeLocalClient(playerName, c);
         }
         catch (ConnectionInitException e)
@@ -469,9 +468,9 @@ public class GameServerSide extends Game
 
         try
         {
-            Client c = Client.createClient("127.0.0.1", getPort(), playerName,
+            Client c = Client.createLocalClient(playerName,
                 Constants.aiPackage + Constants.human, whatNextManager,
-                server, false, true, false, true);
+                server, true, false, true);
             storeLocalClient(playerName, c);
         }
         catch (ConnectionInitException e)
@@ -1374,6 +1373,17 @@ public class GameServerSide extends Game
         announceGameOver(true, true);
     }
 
+    @Override
+    public void setPhase(Phase phase)
+    {
+        super.setPhase(phase);
+        if (server != null)
+        {
+            server.getMetrics().enterPhase(
+                phase == null ? null : phase.toString());
+        }
+    }
+
     @Override
     public void setGameOver(boolean gameOver, String message)
     {
@@ -1386,6 +1396,10 @@ public class GameServerSide extends Game
         {
             startingWebClient.informLocallyGameOver();
         }
+        if (gameOver && server != null)
+        {
+            server.getMetrics().enterPhase(null);
+        }
     }
 
     private String debugGameStatistics = "\n"
@@ -2324,6 +2338,7 @@ public class GameServerSide extends Game
             notifyWebServer.serverStoppedRunning();
             notifyWebServer = null;
         }
+        gameSaver.dispose();
     }
 
     private void placeInitialLegion(PlayerServerSide player, String markerId)
@@ -2435,6 +2450,10 @@ public class GameServerSide extends Game
     {
         getBattleSS().cleanRefs();
         battle = null;
+        if (server != null)
+        {
+            server.getMetrics().enterBattlePhase(null);
+        }
         server.allCleanupBattle();
         LegionServerSide battleWinner = null;
 
@@ -2,9 +2,15 @@ package net.sf.colossus.server;
 
 
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.Iterator;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -55,6 +61,12 @@ public class History
 
     private boolean isRedo = false;
 
+    /**
+     * Where the events are appended to when committed; null if there is
+     * none (no autosave).
+     */
+    private HistoryJournal journal = null;
+
     /**
      * Stores the surviving legions (this variable is not needed any more)
      *
@@ -112,6 +124,19 @@ public class History
         return (Element)root.clone();
     }
 
+    /**
+     * From now on, append the committed events to that journal, too;
+     * starting with all committed so far.
+     */
+    void startJournal(HistoryJournal journal)
+    {
+        for (Object child : root.getChildren())
+        {
+            journal.append((Element)child);
+        }
+        this.journal = journal;
+    }
+
     /**
      * Reached a commit point: append all recent events to the history,
      * clear list of recent events; caller should do this together with creating
@@ -149,6 +174,10 @@ public class History
             else
             {
                 root.addContent(el);
+                if (journal != null)
+                {
+                    journal.append(el);
+                }
             }
         }
         recentEvents.clear();
@@ -160,11 +189,11 @@ public class History
      */
     Element getNewRedoLogElement()
     {
+        // copies, the save game may be written after the next commit point
         Element redoLogElement = new Element("Redo");
         for (Element el : recentEvents)
         {
-            el.detach();
-            redoLogElement.addContent(el);
+            redoLogElement.addContent((Element)el.clone());
         }
 
         return redoLogElement;
@@ -419,6 +448,11 @@ public class History
         LOGGER.info("Completed processing redo log");
     }
 
+    /**
+     * Replay the committed events, when loading a game; only those from
+     * summarizeForReplay(), unless the system property load.fullReplay
+     * is true.
+     */
     // unchecked conversions from JDOM
     @SuppressWarnings("unchecked")
     void fireEventsFromXML(Server server)
@@ -428,6 +462,12 @@ public class History
             + " JDOM root element as backing store";
 
         List<Element> kids = root.getChildren();
+        if (!"true".equals(System.getProperty("load.fullReplay")))
+        {
+            kids = summarizeForReplay(kids, server.getGame().getPlayers());
+            LOGGER.info("Replaying " + kids.size() + " of "
+                + root.getChildren().size() + " history events");
+        }
         Iterator<Element> it = kids.iterator();
         while (it.hasNext())
         {
@@ -437,6 +477,183 @@ public class History
         this.loading = false;
     }
 
+    /**
+     * The committed events that are needed to fast-forward to the state
+     * of the save game. The game state itself comes from the snapshot
+     * anyway (see PlayerServerSide.resyncBackupData()); what the replay
+     * is needed for are the legions' contents as the clients know them,
+     * from which they build their split prediction. Left out are:
+     * - all events about legions of players who were dead before the
+     *   save; they are not sent to the clients anyway,
+     * - the movement rolls except the last one, and the edit mode
+     *   relocations; the locations are sent after the replay,
+     * - reveals which tell the same viewers nothing new about a legion
+     *   since it was last split, merged or changed.
+     *
+     * @param events All committed events, in order
+     * @param players The players as loaded from the snapshot
+     * @return Those of them to replay, in order
+     */
+    // unchecked conversions from JDOM
+    @SuppressWarnings("unchecked")
+    static List<Element> summarizeForReplay(List<Element> events,
+        Collection<? extends Player> players)
+    {
+        int lastRoll = -1;
+        for (int i = 0; i < events.size(); i++)
+        {
+            if (events.get(i).getName().equals("MovementRoll"))
+            {
+                lastRoll = i;
+            }
+        }
+
+        Map<String, Player> colorOwners = new HashMap<String, Player>();
+        Set<Player> eliminated = new HashSet<Player>();
+        for (Player player : players)
+        {
+            colorOwners.put(player.getShortColor(), player);
+            if (player.getDeadBeforeSave())
+            {
+                eliminated.add(player);
+            }
+        }
+        // The owner of each legion, by marker; markers are reused by
+        // the slayers, but only for legions split off from their own.
+        Map<String, Player> owners = new HashMap<String, Player>();
+        // What was revealed about a legion since it last changed, by
+        // marker and viewers ("*" for all).
+        Map<String, List<String>> revealed = new HashMap<String, List<String>>();
+
+        List<Element> summary = new ArrayList<Element>();
+        for (int i = 0; i < events.size(); i++)
+        {
+            Element el = events.get(i);
+            String eventName = el.getName();
+            String markerId = el.getAttributeValue("markerId");
+
+            if (eventName.equals("MovementRoll"))
+            {
+                if (i == lastRoll)
+                {
+                    summary.add(el);
+                }
+                continue;
+            }
+            else if (eventName.equals("RelocateLegion"))
+            {
+                continue;
+            }
+            else if (eventName.equals("Reveal"))
+            {
+                if (!owners.containsKey(markerId))
+                {
+                    // the startup legions, see fireEventFromElement()
+                    owners.put(markerId, colorOwners.get(markerId.substring(
+                        0, 2)));
+                }
+                if (eliminated.contains(owners.get(markerId)))
+                {
+                    continue;
+                }
+                List<String> creatures = new ArrayList<String>();
+                for (Element creature : (List<Element>)el.getChild(
+                    "creatures").getChildren())
+                {
+                    creatures.add(creature.getTextNormalize());
+                }
+                String viewers = "*";
+                if (!"true".equals(el.getAttributeValue("allPlayers")))
+                {
+                    List<String> names = new ArrayList<String>();
+                    Element viewEl = el.getChild("viewers");
+                    if (viewEl != null)
+                    {
+                        for (Element viewer : (List<Element>)viewEl
+                            .getChildren())
+                        {
+                            names.add(viewer.getTextNormalize());
+                        }
+                    }
+                    Collections.sort(names);
+                    viewers = Glob.glob(",", names);
+                }
+                if (containsAll(revealed.get(markerId + "~*"), creatures)
+                    || containsAll(revealed.get(markerId + "~" + viewers),
+                        creatures))
+                {
+                    continue;
+                }
+                revealed.put(markerId + "~" + viewers, creatures);
+            }
+            else if (eventName.equals("Split"))
+            {
+                String parentId = el.getAttributeValue("parentId");
+                String childId = el.getAttributeValue("childId");
+                owners.put(childId, owners.get(parentId));
+                if (eliminated.contains(owners.get(parentId)))
+                {
+                    continue;
+                }
+                forgetRevealed(revealed, parentId);
+                forgetRevealed(revealed, childId);
+            }
+            else if (eventName.equals("Merge"))
+            {
+                String splitoffId = el.getAttributeValue("splitoffId");
+                String survivorId = el.getAttributeValue("survivorId");
+                if (eliminated.contains(owners.get(survivorId)))
+                {
+                    continue;
+                }
+                forgetRevealed(revealed, splitoffId);
+                forgetRevealed(revealed, survivorId);
+            }
+            else if (eventName.equals("AddCreature")
+                || eventName.equals("RemoveCreature"))
+            {
+                if (eliminated.contains(owners.get(markerId)))
+                {
+                    continue;
+                }
+                forgetRevealed(revealed, markerId);
+            }
+            summary.add(el);
+        }
+        return summary;
+    }
+
+    private static boolean containsAll(List<String> known,
+        List<String> creatures)
+    {
+        if (known == null)
+        {
+            return false;
+        }
+        List<String> rest = new ArrayList<String>(known);
+        for (String creature : creatures)
+        {
+            if (!rest.remove(creature))
+            {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static void forgetRevealed(Map<String, List<String>> revealed,
+        String markerId)
+    {
+        Iterator<String> it = revealed.keySet().iterator();
+        while (it.hasNext())
+        {
+            if (it.next().startsWith(markerId + "~"))
+            {
+                it.remove();
+            }
+        }
+    }
+
     // unchecked conversions from JDOM
     @SuppressWarnings("unchecked")
     void fireEventFromElement(Server server, Element el)
@@ -0,0 +1,216 @@
+package net.sf.colossus.server;
+
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.RandomAccessFile;
+import java.io.SequenceInputStream;
+import java.io.Writer;
+import java.nio.charset.Charset;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import javax.xml.stream.XMLStreamException;
+
+import org.jdom.Element;
+import org.jdom.output.Format;
+import org.jdom.output.XMLOutputter;
+
+
+/**
+ * The History events, appended to a file as they are committed (see
+ * History.flushRecentToRoot()), one element per line.
+ *
+ * An autosave then does not need to contain the whole history any more:
+ * it refers to the journal and to its length at that commit point (see
+ * GameSaving), and the loader reads that much of the journal back as the
+ * contents of the History element (see GameLoading). Since the journal
+ * is only ever appended to, later events do not disturb earlier saves.
+ *
+ * If writing fails, the journal is given up (hasFailed()), and saves
+ * contain the whole history again.
+ */
+final class HistoryJournal
+{
+    private static final Logger LOGGER = Logger.getLogger(HistoryJournal.class
+        .getName());
+
+    /** Attributes of the History element in saves referring to a journal */
+    static final String JOURNAL_ATTR = "journal";
+    static final String LENGTH_ATTR = "journalLength";
+
+    private static final Charset CHARSET = Charset.forName("UTF-8");
+
+    private static final byte[] HISTORY_START = "<History>".getBytes(CHARSET);
+    private static final byte[] HISTORY_END = "</History>".getBytes(CHARSET);
+
+    private final File file;
+
+    private final CountingOutputStream counter;
+    private final Writer out;
+
+    private final XMLOutputter putter = new XMLOutputter(
+        Format.getCompactFormat());
+
+    private boolean failed = false;
+
+    HistoryJournal(File file) throws IOException
+    {
+        this(file, new FileOutputStream(file));
+    }
+
+    /** Write to the given stream instead of the file itself, for tests */
+    HistoryJournal(File file, OutputStream stream)
+    {
+        this.file = file;
+        this.counter = new CountingOutputStream(new BufferedOutputStream(
+            stream));
+        this.out = new OutputStreamWriter(counter, CHARSET);
+    }
+
+    String getName()
+    {
+        return file.getName();
+    }
+
+    boolean hasFailed()
+    {
+        return failed;
+    }
+
+    void append(Element event)
+    {
+        if (failed)
+        {
+            return;
+        }
+        try
+        {
+            putter.output(event, out);
+            out.write('\n');
+        }
+        catch (IOException e)
+        {
+            giveUp(e);
+        }
+    }
+
+    /**
+     * Write out everything appended so far.
+     * @return The length of the journal, to be stored in a save
+     */
+    long flush()
+    {
+        if (!failed)
+        {
+            try
+            {
+                out.flush();
+            }
+            catch (IOException e)
+            {
+                giveUp(e);
+            }
+        }
+        return counter.count;
+    }
+
+    void close()
+    {
+        try
+        {
+            out.close();
+        }
+        catch (IOException e)
+        {
+            LOGGER.log(Level.WARNING, "Closing history journal " + file, e);
+        }
+    }
+
+    private void giveUp(IOException e)
+    {
+        LOGGER.log(Level.SEVERE, "Writing history journal " + file
+            + " failed, saving whole history from now on", e);
+        failed = true;
+        close();
+    }
+
+    /**
+     * Read the first length bytes of a journal as History element.
+     */
+    static Element readHistory(File file, long length) throws IOException,
+        XMLStreamException
+    {
+        return readEvents(file, 0, length);
+    }
+
+    /**
+     * Read the events between two lengths of a journal, e.g. those
+     * committed between two autosaves (see ReplayIndex); without reading
+     * the part before.
+     *
+     * @return A History element with those events
+     */
+    static Element readEvents(File file, long start, long end)
+        throws IOException, XMLStreamException
+    {
+        if (file.length() < end)
+        {
+            throw new IOException("History journal " + file
+                + " is shorter than " + end + " bytes");
+        }
+        byte[] bytes = new byte[(int)(end - start)];
+        RandomAccessFile in = new RandomAccessFile(file, "r");
+        try
+        {
+            in.seek(start);
+            in.readFully(bytes);
+        }
+        catch (EOFException e)
+        {
+            throw new IOException("History journal " + file + " ends early",
+                e);
+        }
+        finally
+        {
+            in.close();
+        }
+        InputStream history = new SequenceInputStream(new SequenceInputStream(
+            new ByteArrayInputStream(HISTORY_START), new ByteArrayInputStream(
+                bytes)), new ByteArrayInputStream(HISTORY_END));
+        return SaveGameReader.read(history);
+    }
+
+    private static final class CountingOutputStream extends
+        FilterOutputStream
+    {
+        long count = 0;
+
+        CountingOutputStream(OutputStream out)
+        {
+            super(out);
+        }
+
+        @Override
+        public void write(int b) throws IOException
+        {
+            out.write(b);
+            count++;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException
+        {
+            out.write(b, off, len);
+            count += len;
+        }
+    }
+}
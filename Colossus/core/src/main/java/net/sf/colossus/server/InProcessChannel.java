@@ -0,0 +1,156 @@
+package net.sf.colossus.server;
+
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.net.SocketTimeoutException;
+import java.nio.channels.Channel;
+import java.util.Queue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+
+/**
+ * Connection between the server and a client running in the same JVM
+ * (local AIs and hotseat players), used instead of a socket to the
+ * loopback address.
+ *
+ * It carries the same protocol lines as a socket connection would, so
+ * that sign on, commit points, pings and the redo queues of the
+ * ClientHandler work exactly the same way; but nothing is encoded, no
+ * system call is needed to pass a line and there is no reading of
+ * partial lines on the server side.
+ *
+ * The server side is handled by the server thread, from within its
+ * selector loop (see Server.handleInProcessInput()), the client side by
+ * the SocketClientThread of the client.
+ */
+public final class InProcessChannel implements Channel
+{
+    /** Marks the end of the lines from the server */
+    private static final Object END_OF_STREAM = new Object();
+
+    /** Tells the server thread that there is something to process */
+    private final Runnable wakeup;
+
+    /** The lines from the server, and END_OF_STREAM after the last one */
+    private final BlockingQueue<Object> toClient = new LinkedBlockingQueue<Object>();
+
+    private final Queue<String> toServer = new ConcurrentLinkedQueue<String>();
+
+    private volatile boolean open = true;
+
+    /**
+     * @param wakeup Called (in the thread of the client) whenever the
+     *   client sent a line or closed the channel
+     */
+    InProcessChannel(Runnable wakeup)
+    {
+        this.wakeup = wakeup;
+    }
+
+    public boolean isOpen()
+    {
+        return open;
+    }
+
+    /**
+     * Close the channel, from either side. The other side still gets
+     * what was sent before, then end of stream.
+     */
+    public void close()
+    {
+        if (!open)
+        {
+            return;
+        }
+        open = false;
+        toClient.offer(END_OF_STREAM);
+        wakeup.run();
+    }
+
+    // Client side
+
+    /**
+     * Send one line to the server; silently dropped when the channel is
+     * closed, like the PrintWriter of a socket would do.
+     */
+    public void writeLine(String line)
+    {
+        if (open)
+        {
+            toServer.offer(line);
+            wakeup.run();
+        }
+    }
+
+    /**
+     * Wait for the next line from the server.
+     *
+     * @param timeout Milliseconds to wait at most, 0 for forever
+     * @return The line, or null at end of stream
+     * @throws SocketTimeoutException If no line came within the timeout
+     * @throws InterruptedIOException If the waiting thread got interrupted
+     */
+    public String readLine(int timeout) throws IOException
+    {
+        Object line;
+        try
+        {
+            if (timeout > 0)
+            {
+                line = toClient.poll(timeout, TimeUnit.MILLISECONDS);
+                if (line == null)
+                {
+                    throw new SocketTimeoutException("No line from server "
+                        + "within " + timeout + " ms");
+                }
+            }
+            else
+            {
+                line = toClient.take();
+            }
+        }
+        catch (InterruptedException e)
+        {
+            if (!open)
+            {
+                // interrupted to go down
+                return null;
+            }
+            throw new InterruptedIOException("Waiting for line from server "
+                + "interrupted");
+        }
+        if (line == END_OF_STREAM)
+        {
+            // let all further reads end, too
+            toClient.offer(END_OF_STREAM);
+            return null;
+        }
+        return (String)line;
+    }
+
+    // Server side
+
+    void sendToClient(String line)
+    {
+        if (open)
+        {
+            toClient.offer(line);
+        }
+    }
+
+    /** The next line from the client, or null if there is none (yet) */
+    String pollFromClient()
+    {
+        return toServer.poll();
+    }
+
+    /** Whether the client has closed its end and all lines were read */
+    boolean isAtEndOfStream()
+    {
+        return !open && toServer.isEmpty();
+    }
+}
@@ -1,6 +1,9 @@
 package net.sf.colossus.server;
 
 
+import java.util.ArrayList;
+import java.util.List;
+
 import net.sf.colossus.common.Constants;
 
 
@@ -17,11 +20,21 @@ class MessageForClient
     private final String message;
     private final String method;
 
+    /** What replaces the message in the history; null: itself */
+    private final List<String> historySubstitute;
+
     public MessageForClient(int messageNr, int commitNr, String message)
+    {
+        this(messageNr, commitNr, message, null);
+    }
+
+    public MessageForClient(int messageNr, int commitNr, String message,
+        List<String> historySubstitute)
     {
         this.messageNumber = messageNr;
         this.commitNumber = commitNr;
         this.message = message;
+        this.historySubstitute = historySubstitute;
         int i = message.indexOf(Constants.protocolTermSeparator);
         if (i == -1)
         {
@@ -44,6 +57,7 @@ class MessageForClient
         this.commitNumber = original.commitNumber;
         this.message = original.message;
         this.method = original.method;
+        this.historySubstitute = original.historySubstitute;
     }
 
     public int getMessageNr()
@@ -79,4 +93,63 @@ class MessageForClient
     {
         return method;
     }
+
+    /**
+     * Add this message to the history, the messages before the last
+     * (confirmed) commit point: as it is, or not at all if it has no
+     * lasting effect on the client (see Constants.isDroppedFromHistory()).
+     * The messages of a battle are kept until its cleanupBattle comes,
+     * then they are removed and those with a substitute replaced by it
+     * (see Constants.isBattleMessage()).
+     * @param history The history queue to add to
+     */
+    void addToHistory(List<MessageForClient> history)
+    {
+        if (method.equals(Constants.cleanupBattle))
+        {
+            compactBattle(history);
+        }
+        else if (!Constants.isDroppedFromHistory(method))
+        {
+            history.add(this);
+        }
+    }
+
+    /**
+     * Replace the messages of the battle that just ended, from its
+     * initBattle on, with what remains of them.
+     */
+    private static void compactBattle(List<MessageForClient> history)
+    {
+        int start = history.size();
+        while (start > 0
+            && !history.get(start - 1).method.equals(Constants.initBattle))
+        {
+            start--;
+        }
+        if (start > 0)
+        {
+            start--;
+        }
+        List<MessageForClient> battle = history.subList(start, history
+            .size());
+        List<MessageForClient> remaining = new ArrayList<MessageForClient>();
+        for (MessageForClient mfc : battle)
+        {
+            if (!Constants.isBattleMessage(mfc.method))
+            {
+                remaining.add(mfc);
+            }
+            else if (mfc.historySubstitute != null)
+            {
+                for (String line : mfc.historySubstitute)
+                {
+                    remaining.add(new MessageForClient(mfc.messageNumber, 0,
+                        line));
+                }
+            }
+        }
+        battle.clear();
+        history.addAll(remaining);
+    }
 }
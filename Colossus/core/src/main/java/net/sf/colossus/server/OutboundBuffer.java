@@ -0,0 +1,363 @@
+package net.sf.colossus.server;
+
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.GatheringByteChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CodingErrorAction;
+import java.util.ArrayDeque;
+import java.util.zip.Deflater;
+
+
+/**
+ * The messages encoded for one client, but not written to its socket yet.
+ *
+ * Messages are encoded right into direct buffers, which are written out
+ * together with one gathering write, and reused once they are empty.
+ * So sending many small messages at once (as e.g. at each phase change)
+ * needs neither an allocation nor a system call per message.
+ *
+ * After startCompression(), all that is appended is compressed when it
+ * is written, with a sync flush at the end of each write, so that the
+ * client can read every message as soon as it arrives.
+ *
+ * Not thread safe; ClientHandler synchronizes on it.
+ */
+final class OutboundBuffer
+{
+    static final int BUFFER_SIZE = 16 * 1024;
+
+    /** Number of filled buffers from which on the owner should write
+     *  right away, instead of waiting for the end of the selector round */
+    private static final int MANY_BUFFERS = 4;
+
+    /** Shared lines shorter than this are copied rather than referenced */
+    private static final int MIN_SHARED_SIZE = 1024;
+
+    /** Empty buffers kept for reuse at most */
+    private static final int MAX_FREE_BUFFERS = 4;
+
+    private static final String NEWLINE = "\n";
+
+    private static final byte[] NO_INPUT = new byte[0];
+
+    private final CharsetEncoder encoder;
+
+    /** Filled buffers, flipped for writing */
+    private final ArrayDeque<ByteBuffer> filled = new ArrayDeque<ByteBuffer>();
+
+    private final ArrayDeque<ByteBuffer> free = new ArrayDeque<ByteBuffer>();
+
+    /** The buffer the next message goes into; null if none yet */
+    private ByteBuffer filling = null;
+
+    /** Reused for the gathering writes */
+    private ByteBuffer[] writeArray = new ByteBuffer[MANY_BUFFERS + 1];
+
+    /** Compresses what was appended after startCompression(); or null */
+    private Deflater deflater = null;
+
+    /** Number of filled buffers at the head still to be sent as they are */
+    private int uncompressedCount = 0;
+
+    /** Compressed bytes not written yet, flipped for writing */
+    private ByteBuffer compressed = null;
+
+    /** Whether the last flush did not fit into the compressed buffer */
+    private boolean flushPending = false;
+
+    /** Set by release(); nothing is appended any more after that */
+    private boolean released = false;
+
+    OutboundBuffer(Charset charset)
+    {
+        // Replacing is better than leaving a partially encoded message
+        // in the stream.
+        this.encoder = charset.newEncoder()
+            .onMalformedInput(CodingErrorAction.REPLACE)
+            .onUnmappableCharacter(CodingErrorAction.REPLACE);
+    }
+
+    /** Append the message, terminated by a newline */
+    void append(String message)
+    {
+        if (released)
+        {
+            return;
+        }
+        encode(CharBuffer.wrap(message), false);
+        encode(CharBuffer.wrap(NEWLINE), true);
+        while (encoder.flush(getFillingBuffer()).isOverflow())
+        {
+            sealFillingBuffer();
+        }
+        encoder.reset();
+    }
+
+    /**
+     * Append an already encoded line (see encodeLine()), or a frame of the
+     * compact protocol. Long ones are not even copied, the buffer is
+     * written out from where it is.
+     */
+    void append(ByteBuffer encodedLine)
+    {
+        if (released)
+        {
+            return;
+        }
+        // read only, to keep it out of the pool of free buffers
+        ByteBuffer line = encodedLine.asReadOnlyBuffer();
+        if (line.remaining() < MIN_SHARED_SIZE)
+        {
+            ByteBuffer target = getFillingBuffer();
+            if (target.remaining() < line.remaining())
+            {
+                sealFillingBuffer();
+                target = getFillingBuffer();
+            }
+            target.put(line);
+        }
+        else
+        {
+            sealFillingBuffer();
+            filled.add(line);
+        }
+    }
+
+    /**
+     * Encode a message including the terminating newline, for appending
+     * it to several OutboundBuffers.
+     * @return A read only buffer, ready for reading
+     */
+    static ByteBuffer encodeLine(Charset charset, String message)
+    {
+        // Charset.encode() replaces what can not be encoded, as append()
+        return charset.encode(message + NEWLINE).asReadOnlyBuffer();
+    }
+
+    private void encode(CharBuffer chars, boolean endOfInput)
+    {
+        // With replacing, the only other result is underflow, i.e. done.
+        while (encoder.encode(chars, getFillingBuffer(), endOfInput)
+            .isOverflow())
+        {
+            sealFillingBuffer();
+        }
+    }
+
+    private ByteBuffer getFillingBuffer()
+    {
+        if (filling == null)
+        {
+            filling = free.isEmpty() ? ByteBuffer.allocateDirect(BUFFER_SIZE)
+                : free.poll();
+        }
+        return filling;
+    }
+
+    private void sealFillingBuffer()
+    {
+        if (filling != null && filling.position() > 0)
+        {
+            filling.flip();
+            filled.add(filling);
+            filling = null;
+        }
+    }
+
+    boolean isEmpty()
+    {
+        return filled.isEmpty()
+            && (filling == null || filling.position() == 0)
+            && (compressed == null || !compressed.hasRemaining());
+    }
+
+    /** How many bytes are waiting (compressed ones as they are now) */
+    int getPendingBytes()
+    {
+        int pending = (filling == null ? 0 : filling.position());
+        for (ByteBuffer buffer : filled)
+        {
+            pending += buffer.remaining();
+        }
+        return pending + (compressed == null ? 0 : compressed.remaining());
+    }
+
+    /** Whether so much is waiting that it should be written right away */
+    boolean isLarge()
+    {
+        return filled.size() >= MANY_BUFFERS;
+    }
+
+    /**
+     * Write as much as the channel takes, with as few gathering writes as
+     * possible.
+     *
+     * @return Whether everything was written
+     * @throws IOException If writing fails
+     */
+    boolean writeTo(GatheringByteChannel channel) throws IOException
+    {
+        sealFillingBuffer();
+        if (deflater == null)
+        {
+            return writeFilled(channel, Integer.MAX_VALUE);
+        }
+        if (uncompressedCount > 0 && !writeFilled(channel, uncompressedCount))
+        {
+            return false;
+        }
+        while (compressed.hasRemaining() || !filled.isEmpty() || flushPending)
+        {
+            if (!compressed.hasRemaining())
+            {
+                compressSome();
+            }
+            channel.write(compressed);
+            if (compressed.hasRemaining())
+            {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Write the first count filled buffers (at most), as they are.
+     * @return Whether all of them were written
+     */
+    private boolean writeFilled(GatheringByteChannel channel, int count)
+        throws IOException
+    {
+        int left = Math.min(count, filled.size());
+        while (left > 0)
+        {
+            writeArray = filled.toArray(writeArray);
+            long written = channel.write(writeArray, 0, left);
+            while (left > 0 && !filled.peek().hasRemaining())
+            {
+                recycle(filled.poll());
+                left--;
+                if (uncompressedCount > 0)
+                {
+                    uncompressedCount--;
+                }
+            }
+            if (written <= 0)
+            {
+                break;
+            }
+        }
+        return left == 0;
+    }
+
+    /**
+     * Compress everything appended so far, from now on. What is in the
+     * buffer already still goes out uncompressed, first.
+     */
+    void startCompression(Deflater newDeflater)
+    {
+        sealFillingBuffer();
+        uncompressedCount = filled.size();
+        deflater = newDeflater;
+        compressed = ByteBuffer.allocateDirect(BUFFER_SIZE);
+        compressed.flip();
+    }
+
+    /**
+     * Compress filled buffers until the compressed buffer is full; when
+     * all are done, flush the compressor so the client gets everything.
+     */
+    private void compressSome()
+    {
+        compressed.clear();
+        while (compressed.hasRemaining() && !filled.isEmpty())
+        {
+            ByteBuffer input = filled.peek();
+            deflater.setInput(input);
+            deflater.deflate(compressed, Deflater.NO_FLUSH);
+            if (!input.hasRemaining())
+            {
+                // The deflater must not keep the buffer, which is reused
+                deflater.setInput(NO_INPUT);
+                recycle(filled.poll());
+            }
+        }
+        if (filled.isEmpty() && compressed.hasRemaining())
+        {
+            deflater.deflate(compressed, Deflater.SYNC_FLUSH);
+            // If it filled the buffer, there may be more; the next call
+            // continues the flush then.
+            flushPending = !compressed.hasRemaining();
+        }
+        compressed.flip();
+    }
+
+    /** Bytes compressed so far, or 0 if not compressing */
+    long getBytesCompressed()
+    {
+        return deflater == null ? 0 : deflater.getBytesRead();
+    }
+
+    /** Bytes the compression has given so far, or 0 if not compressing */
+    long getCompressedSize()
+    {
+        return deflater == null ? 0 : deflater.getBytesWritten();
+    }
+
+    /** Drop everything not written yet */
+    void clear()
+    {
+        while (!filled.isEmpty())
+        {
+            recycle(filled.poll());
+        }
+        if (filling != null)
+        {
+            recycle(filling);
+            filling = null;
+        }
+        uncompressedCount = 0;
+        flushPending = false;
+        if (compressed != null)
+        {
+            compressed.clear();
+            compressed.flip();
+        }
+        encoder.reset();
+    }
+
+    /**
+     * Drop everything not written yet and free the native memory of the
+     * compression, when the connection is closed. Anything appended after
+     * that is ignored.
+     */
+    void release()
+    {
+        released = true;
+        clear();
+        if (deflater != null)
+        {
+            deflater.end();
+            deflater = null;
+            compressed = null;
+        }
+    }
+
+    private void recycle(ByteBuffer buffer)
+    {
+        if (buffer.isReadOnly())
+        {
+            // a shared line, not ours
+            return;
+        }
+        buffer.clear();
+        if (free.size() < MAX_FREE_BUFFERS)
+        {
+            free.add(buffer);
+        }
+    }
+}
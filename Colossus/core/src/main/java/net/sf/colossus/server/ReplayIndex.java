@@ -0,0 +1,295 @@
+package net.sf.colossus.server;
+
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import javax.xml.stream.XMLStreamException;
+
+import net.sf.colossus.common.Constants;
+import net.sf.colossus.util.Split;
+
+import org.jdom.Element;
+import org.jdom.output.Format;
+import org.jdom.output.XMLOutputter;
+
+
+/**
+ * The index of a game's autosaves, written next to the history journal
+ * (same name, other extension): one line per autosave, with turn, phase
+ * and active player, the length of the journal at that commit point, and
+ * the name of the save file.
+ *
+ * So one can get to any turn directly, without replaying from the start:
+ * load the save of that turn (GameLoading accepts "index#turn"), or look
+ * at the events committed between two saves, which are just a part of
+ * the journal (HistoryJournal.readEvents()); e.g. with
+ *   java -cp Colossus.jar net.sf.colossus.server.ReplayIndex index [turn]
+ *
+ * Saves deleted because of autosaveMaxKeep stay in the index; their
+ * events can still be read.
+ */
+final class ReplayIndex
+{
+    private static final Logger LOGGER = Logger.getLogger(ReplayIndex.class
+        .getName());
+
+    private static final String SEP = "\t";
+
+    /** Like the journal; the player names are in the index, too */
+    private static final Charset CHARSET = Charset.forName("UTF-8");
+
+    private final File file;
+
+    private final PrintWriter out;
+
+    private boolean failed = false;
+
+    ReplayIndex(File file) throws IOException
+    {
+        this.file = file;
+        this.out = new PrintWriter(new OutputStreamWriter(
+            new FileOutputStream(file), CHARSET));
+    }
+
+    void append(Entry entry)
+    {
+        if (failed)
+        {
+            return;
+        }
+        out.println(entry.toLine());
+        out.flush();
+        if (out.checkError())
+        {
+            LOGGER.log(Level.WARNING, "Writing replay index " + file
+                + " failed, giving up");
+            failed = true;
+            out.close();
+        }
+    }
+
+    void close()
+    {
+        out.close();
+    }
+
+    /**
+     * One autosave.
+     */
+    static final class Entry
+    {
+        private final int turn;
+        private final String phase;
+        private final String player;
+        private final long journalLength;
+        private final String saveName;
+
+        Entry(int turn, String phase, String player, long journalLength,
+            String saveName)
+        {
+            this.turn = turn;
+            this.phase = phase;
+            this.player = player;
+            this.journalLength = journalLength;
+            this.saveName = saveName;
+        }
+
+        int getTurn()
+        {
+            return turn;
+        }
+
+        String getPhase()
+        {
+            return phase;
+        }
+
+        String getPlayer()
+        {
+            return player;
+        }
+
+        long getJournalLength()
+        {
+            return journalLength;
+        }
+
+        String getSaveName()
+        {
+            return saveName;
+        }
+
+        private String toLine()
+        {
+            return turn + SEP + phase + SEP + player + SEP + journalLength
+                + SEP + saveName;
+        }
+
+        @Override
+        public String toString()
+        {
+            return "Turn " + turn + " " + player + " " + phase + " ("
+                + saveName + ")";
+        }
+    }
+
+    /**
+     * The entries of an index, in order, with the first entry of each
+     * turn.
+     */
+    static final class Entries
+    {
+        private final List<Entry> entries;
+
+        private final Map<Integer, Integer> firstOfTurn = new HashMap<Integer, Integer>();
+
+        private Entries(List<Entry> entries)
+        {
+            this.entries = Collections.unmodifiableList(entries);
+            for (int i = entries.size() - 1; i >= 0; i--)
+            {
+                firstOfTurn.put(Integer.valueOf(entries.get(i).getTurn()),
+                    Integer.valueOf(i));
+            }
+        }
+
+        List<Entry> getEntries()
+        {
+            return entries;
+        }
+
+        /** @return The index of the first entry of that turn, or -1 */
+        int getFirstOfTurn(int turn)
+        {
+            Integer i = firstOfTurn.get(Integer.valueOf(turn));
+            return i == null ? -1 : i.intValue();
+        }
+
+        /**
+         * The save to load for that turn: of the first entry of that turn
+         * whose save still exists in dir, or if they were all deleted
+         * meanwhile (autosaveMaxKeep), of the first later one.
+         *
+         * @return The save file, or null if there is none left
+         */
+        File findSave(File dir, int turn)
+        {
+            for (Entry entry : entries)
+            {
+                File file = new File(dir, entry.getSaveName());
+                if (entry.getTurn() >= turn && file.exists())
+                {
+                    return file;
+                }
+            }
+            return null;
+        }
+
+        /**
+         * The events committed after entry i, up to the next entry; for
+         * the last one up to the end of the journal.
+         */
+        Element readEvents(File journal, int i) throws IOException,
+            XMLStreamException
+        {
+            long start = entries.get(i).getJournalLength();
+            long end = i + 1 < entries.size() ? entries.get(i + 1)
+                .getJournalLength() : journal.length();
+            return HistoryJournal.readEvents(journal, start, end);
+        }
+    }
+
+    static Entries read(File file) throws IOException
+    {
+        List<Entry> entries = new ArrayList<Entry>();
+        BufferedReader in = new BufferedReader(new InputStreamReader(
+            new FileInputStream(file), CHARSET));
+        try
+        {
+            String line;
+            while ((line = in.readLine()) != null)
+            {
+                List<String> fields = Split.split(SEP, line);
+                if (fields.size() != 5)
+                {
+                    // e.g. the last line, when the server crashed
+                    LOGGER.warning("Skipping line '" + line + "' in "
+                        + file);
+                    continue;
+                }
+                entries.add(new Entry(Integer.parseInt(fields.get(0)),
+                    fields.get(1), fields.get(2), Long.parseLong(fields
+                        .get(3)), fields.get(4)));
+            }
+        }
+        finally
+        {
+            in.close();
+        }
+        return new Entries(entries);
+    }
+
+    /** The history journal belonging to an index */
+    static File getJournal(File index)
+    {
+        String name = index.getName();
+        int dot = name.lastIndexOf('.');
+        return new File(index.getAbsoluteFile().getParentFile(), name
+            .substring(0, dot) + Constants.HISTORY_JOURNAL_EXTENSION);
+    }
+
+    /**
+     * List the autosaves of a game; or, with a turn number, the events
+     * of each phase of that turn.
+     */
+    public static void main(String[] args) throws Exception
+    {
+        if (args.length < 1)
+        {
+            System.err.println("Usage: ReplayIndex <index file> [turn]");
+            System.exit(1);
+        }
+        File indexFile = new File(args[0]);
+        Entries entries = read(indexFile);
+        if (args.length == 1)
+        {
+            for (Entry entry : entries.getEntries())
+            {
+                System.out.println(entry);
+            }
+            return;
+        }
+
+        int turn = Integer.parseInt(args[1]);
+        int i = entries.getFirstOfTurn(turn);
+        if (i == -1)
+        {
+            System.err.println("No autosave of turn " + turn);
+            System.exit(1);
+        }
+        File journal = getJournal(indexFile);
+        XMLOutputter putter = new XMLOutputter(Format.getPrettyFormat());
+        for (; i < entries.getEntries().size()
+            && entries.getEntries().get(i).getTurn() == turn; i++)
+        {
+            System.out.println(entries.getEntries().get(i));
+            putter.output(entries.readEvents(journal, i), System.out);
+            System.out.println();
+        }
+    }
+}
@@ -0,0 +1,131 @@
+package net.sf.colossus.server;
+
+
+import java.io.BufferedInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.zip.GZIPInputStream;
+
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+
+import org.jdom.Element;
+
+
+/**
+ * Reads a save game with a StAX stream reader, directly into the JDOM
+ * elements the loading code works on (see GameLoading); without the SAX
+ * and Document layers in between, and without the whitespace text the
+ * pretty printed files are full of.
+ *
+ * The save games use neither namespaces nor a DTD, so only elements,
+ * attributes and text are taken over; comments and processing
+ * instructions are skipped.
+ */
+final class SaveGameReader
+{
+    private static final XMLInputFactory FACTORY = createFactory();
+
+    private SaveGameReader()
+    {
+        // only static methods
+    }
+
+    private static XMLInputFactory createFactory()
+    {
+        XMLInputFactory factory = XMLInputFactory.newInstance();
+        factory.setProperty(XMLInputFactory.IS_COALESCING, Boolean.TRUE);
+        factory.setProperty(XMLInputFactory.SUPPORT_DTD, Boolean.FALSE);
+        factory.setProperty(XMLInputFactory.IS_NAMESPACE_AWARE, Boolean.FALSE);
+        return factory;
+    }
+
+    /**
+     * Read the whole file; a compressed one (gzip, see SaveGameWriter) is
+     * recognized by its first bytes, whatever its name is.
+     * @return The root element, detached (no Document)
+     */
+    static Element read(File file) throws IOException, XMLStreamException
+    {
+        InputStream in = new BufferedInputStream(new FileInputStream(file));
+        try
+        {
+            in.mark(2);
+            int magic = in.read() | (in.read() << 8);
+            in.reset();
+            if (magic == GZIPInputStream.GZIP_MAGIC)
+            {
+                in = new BufferedInputStream(new GZIPInputStream(in));
+            }
+            return read(in);
+        }
+        finally
+        {
+            in.close();
+        }
+    }
+
+    static Element read(InputStream in) throws XMLStreamException
+    {
+        XMLStreamReader reader = FACTORY.createXMLStreamReader(in);
+        try
+        {
+            Deque<Element> open = new ArrayDeque<Element>();
+            Element root = null;
+            while (reader.hasNext())
+            {
+                switch (reader.next())
+                {
+                    case XMLStreamConstants.START_ELEMENT:
+                        Element element = new Element(reader.getLocalName());
+                        for (int i = 0; i < reader.getAttributeCount(); i++)
+                        {
+                            element.setAttribute(reader
+                                .getAttributeLocalName(i), reader
+                                .getAttributeValue(i));
+                        }
+                        if (open.isEmpty())
+                        {
+                            root = element;
+                        }
+                        else
+                        {
+                            open.peek().addContent(element);
+                        }
+                        open.push(element);
+                        break;
+
+                    case XMLStreamConstants.END_ELEMENT:
+                        open.pop();
+                        break;
+
+                    case XMLStreamConstants.CHARACTERS:
+                    case XMLStreamConstants.CDATA:
+                        if (!open.isEmpty() && !reader.isWhiteSpace())
+                        {
+                            open.peek().addContent(reader.getText());
+                        }
+                        break;
+
+                    default:
+                        break;
+                }
+            }
+            if (root == null)
+            {
+                throw new XMLStreamException("No root element");
+            }
+            return root;
+        }
+        finally
+        {
+            reader.close();
+        }
+    }
+}
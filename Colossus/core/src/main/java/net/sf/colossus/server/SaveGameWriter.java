@@ -0,0 +1,186 @@
+package net.sf.colossus.server;
+
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.logging.Logger;
+import java.util.zip.GZIPOutputStream;
+
+import net.sf.colossus.common.Constants;
+
+import org.jdom.Document;
+import org.jdom.output.Format;
+import org.jdom.output.XMLOutputter;
+
+
+/**
+ * Writes the autosave files in the background, so that the game thread
+ * does not wait for the disk between the phases.
+ *
+ * GameSaving prepares the whole document at the commit point; from then
+ * on nothing else refers to it, so serializing it here is safe. The jobs
+ * are written one after another, in the order they were enqueued.
+ */
+final class SaveGameWriter extends Thread
+{
+    private static final Logger LOGGER = Logger.getLogger(SaveGameWriter.class
+        .getName());
+
+    /** How long to wait at the end of the game for pending saves */
+    private static final long FINISH_TIMEOUT = 60000;
+
+    private final GameSaving gameSaving;
+
+    private final BlockingQueue<Job> queue = new LinkedBlockingQueue<Job>();
+
+    // this is enqueued to get the thread out of the "take()"-waiting
+    private static final Job END_JOB = new Job(null, null, false);
+
+    SaveGameWriter(GameSaving gameSaving)
+    {
+        super("SaveGameWriter");
+        setDaemon(true);
+        this.gameSaving = gameSaving;
+    }
+
+    void enqueue(Job job)
+    {
+        queue.offer(job);
+    }
+
+    /** Write what is still pending, then end the thread */
+    void finish()
+    {
+        queue.offer(END_JOB);
+        try
+        {
+            join(FINISH_TIMEOUT);
+        }
+        catch (InterruptedException e)
+        {
+            LOGGER.warning("Interrupted while waiting for pending saves");
+        }
+        if (isAlive())
+        {
+            LOGGER.warning("Pending saves not written after "
+                + FINISH_TIMEOUT + " ms");
+        }
+    }
+
+    @Override
+    public void run()
+    {
+        while (true)
+        {
+            Job job;
+            try
+            {
+                job = queue.take();
+            }
+            catch (InterruptedException e)
+            {
+                LOGGER.severe("queue.take() interrupted?!?!");
+                continue;
+            }
+            if (job == END_JOB)
+            {
+                break;
+            }
+            try
+            {
+                job.write();
+                if (job.autoSave)
+                {
+                    gameSaving.autosaveWritten(job.filename);
+                }
+            }
+            catch (Exception e)
+            {
+                gameSaving.handleSaveException(job.filename, job.autoSave, e);
+            }
+        }
+        LOGGER.fine("SaveGameWriter ends.");
+    }
+
+    /**
+     * One save game: the document and where to write it. Older autosave
+     * files are removed by GameSaving.autosaveWritten() once it is
+     * written.
+     */
+    static final class Job
+    {
+        private final Document doc;
+        private final String filename;
+        private final boolean autoSave;
+
+        Job(Document doc, String filename, boolean autoSave)
+        {
+            this.doc = doc;
+            this.filename = filename;
+            this.autoSave = autoSave;
+        }
+
+        /**
+         * Write to a temporary file first, and rename that then; so there
+         * is never a partly written save game under the real name, e.g.
+         * for --latest when the server crashed while writing.
+         *
+         * A name ending with Constants.COMPRESSED_EXTENSION gets a gzip
+         * compressed file, without the indentation.
+         *
+         * @throws IOException If writing fails; then there is no file
+         *         under the real name (or the old one is still there)
+         */
+        void write() throws IOException
+        {
+            File file = new File(filename);
+            File temp = new File(filename + ".tmp");
+            boolean compressed = filename
+                .endsWith(Constants.COMPRESSED_EXTENSION);
+            boolean written = false;
+            try
+            {
+                OutputStream out = new FileOutputStream(temp);
+                try
+                {
+                    if (compressed)
+                    {
+                        out = new GZIPOutputStream(out, 8192);
+                    }
+                    out = new BufferedOutputStream(out);
+                    XMLOutputter putter = new XMLOutputter(
+                        compressed ? Format.getCompactFormat() : Format
+                            .getPrettyFormat());
+                    putter.output(doc, out);
+                }
+                finally
+                {
+                    out.close();
+                }
+                if (!temp.renameTo(file))
+                {
+                    // Windows does not replace existing files
+                    file.delete();
+                    if (!temp.renameTo(file))
+                    {
+                        throw new IOException("Could not rename " + temp
+                            + " to " + file);
+                    }
+                }
+                written = true;
+            }
+            finally
+            {
+                if (!written)
+                {
+                    temp.delete();
+                }
+            }
+        }
+    }
+}
@@ -3,10 +3,14 @@ package net.sf.colossus.server;
 
 import java.awt.GraphicsEnvironment;
 import java.io.IOException;
+import java.io.StreamCorruptedException;
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
 import java.net.InetAddress;
 import java.net.InetSocketAddress;
 import java.net.ServerSocket;
 import java.nio.ByteBuffer;
+import java.nio.channels.Channel;
 import java.nio.channels.ClosedChannelException;
 import java.nio.channels.SelectionKey;
 import java.nio.channels.Selector;
@@ -18,20 +22,27 @@ import java.util.Date;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.SortedSet;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
 import javax.swing.JOptionPane;
 
 import net.sf.colossus.client.IClient;
+import net.sf.colossus.common.CommandStatistics;
+import net.sf.colossus.common.CompactProtocol;
 import net.sf.colossus.common.Constants;
 import net.sf.colossus.common.Options;
 import net.sf.colossus.common.WhatNextManager;
 import net.sf.colossus.common.WhatNextManager.WhatToDoNext;
+import net.sf.colossus.game.Creature;
 import net.sf.colossus.game.EntrySide;
 import net.sf.colossus.game.Legion;
 import net.sf.colossus.game.Phase;
@@ -48,6 +59,7 @@ import net.sf.colossus.util.InstanceTracker;
 import net.sf.colossus.variant.BattleHex;
 import net.sf.colossus.variant.CreatureType;
 import net.sf.colossus.variant.MasterHex;
+import net.sf.colossus.variant.Variant;
 import net.sf.colossus.xmlparser.TerrainRecruitLoader;
 
 
@@ -77,6 +89,9 @@ public final class Server extends Thread implements IServer
     // to "all clients" => can clone from here for spectators
     private ClientHandlerStub clientStub;
 
+    /** See getCompactProtocol() */
+    private CompactProtocol compactProtocol = null;
+
     /**
      *  Maybe also save things like the originating IP, in case a
      *  connection breaks and we need to authenticate reconnects.
@@ -85,6 +100,16 @@ public final class Server extends Thread implements IServer
     /** Recipients for everything send to "each client" - including the stub */
     private final List<IClient> iClients = new ArrayList<IClient>();
 
+    /** Sends to all iClients, serializing each message only once */
+    private final Broadcaster broadcaster;
+
+    /** The commands received from all clients; logged when run() ends */
+    private final CommandStatistics commandStatistics = new CommandStatistics(
+        "server");
+
+    /** How the event loop is doing; see ServerMetrics */
+    private final ServerMetrics metrics = new ServerMetrics(commandStatistics);
+
     /** Only real ClientHandlers (excluding the stub/internal spectator) */
     private final List<ClientHandler> realClients = new ArrayList<ClientHandler>();
 
@@ -94,8 +119,23 @@ public final class Server extends Thread implements IServer
     /** Map of players to their clients. */
     private final Map<Player, IClient> playerToClientMap = new HashMap<Player, IClient>();
 
-    /** List of SocketChannels that are currently active */
-    private final List<SocketChannel> activeSocketChannelList = new ArrayList<SocketChannel>();
+    /** List of channels (sockets or in-process) that are currently active */
+    private final List<Channel> activeChannelList = new ArrayList<Channel>();
+
+    /** ClientHandlers of the clients connected via an InProcessChannel;
+     *  only accessed by the server thread */
+    private final List<ClientHandler> inProcessClients = new ArrayList<ClientHandler>();
+
+    /** InProcessChannels created, but not yet handled by the server thread */
+    private final ConcurrentLinkedQueue<InProcessChannel> newInProcessChannels = new ConcurrentLinkedQueue<InProcessChannel>();
+
+    /** Whether the selector was woken up for in-process input already */
+    private final AtomicBoolean inProcessInputPending = new AtomicBoolean();
+
+    /** ClientHandlers with messages to be written at the end of the
+     *  current round of the selector loop; only accessed by the server
+     *  thread */
+    private final Set<ClientHandler> scheduledWrites = new LinkedHashSet<ClientHandler>();
 
     /** ClientHandlers to be withdrawn, together with some related (timing)
      *  data; selector thread will do it then when it's the right time for it
@@ -220,6 +260,7 @@ public final class Server extends Thread implements IServer
         this.port = port;
         this.whatNextManager = whatNextMgr;
         this.recorder = new MessageRecorder();
+        this.broadcaster = new Broadcaster(this, iClients);
         this.extraRollRequest = new ExtraRollRequest(this);
         this.suspendGameRequest = new SuspendGameRequest(this);
 
@@ -252,6 +293,7 @@ public final class Server extends Thread implements IServer
     public void run()
     {
         startInititatedTime = new Date().getTime();
+        metrics.register(port);
         if (game.getNotifyWebServer().isActive())
         {
             gameStartupTimeoutSecs = WEBGAMES_STARTUP_TIMEOUT_SECS;
@@ -310,6 +352,8 @@ public final class Server extends Thread implements IServer
             game.dispose();
         }
 
+        writeScheduledClients();
+
         if (shuttingDown)
         {
             LOGGER.fine("shuttingDown set, before closeSocketAndSelector()");
@@ -322,6 +366,9 @@ public final class Server extends Thread implements IServer
         }
 
         notifyThatGameFinished();
+        LOGGER.info(commandStatistics.getSummary());
+        LOGGER.info(metrics.getSummary());
+        metrics.unregister();
         LOGGER.fine("Server.run() ends.");
     }
 
@@ -355,14 +402,18 @@ public final class Server extends Thread implements IServer
     public boolean isKnownClient(InetAddress requester)
     {
         boolean knownIP = false;
-        synchronized (activeSocketChannelList)
+        synchronized (activeChannelList)
         {
-            Iterator<SocketChannel> it = activeSocketChannelList.iterator();
+            Iterator<Channel> it = activeChannelList.iterator();
             while (it.hasNext() && !knownIP)
             {
-                SocketChannel sc = it.next();
-                InetAddress cIP = sc.socket().getInetAddress();
-                knownIP = requester.equals(cIP);
+                Channel channel = it.next();
+                if (channel instanceof SocketChannel)
+                {
+                    InetAddress cIP = ((SocketChannel)channel).socket()
+                        .getInetAddress();
+                    knownIP = requester.equals(cIP);
+                }
             }
         }
         return knownIP;
@@ -523,6 +574,9 @@ public final class Server extends Thread implements IServer
 
     public void waitOnSelector(int timeout, boolean stillWaitingForClients)
     {
+        // whatever the server thread sent since the last round
+        writeScheduledClients();
+        long processingStarts = 0;
         try
         {
             if (stopAcceptingFlag)
@@ -532,7 +586,13 @@ public final class Server extends Thread implements IServer
                 stopAcceptingFlag = false;
             }
             // LOGGER.log(Level.FINEST, "before select()");
-            int num = selector.select(timeout);
+            // Something might have arrived before there was a selector
+            // to wake up.
+            long selectStarts = System.nanoTime();
+            int num = inProcessInputPending.get() ? selector.selectNow()
+                : selector.select(timeout);
+            processingStarts = System.nanoTime();
+            metrics.selectReturned(processingStarts - selectStarts);
             //LOGGER.log(Level.FINEST, "select returned, " + num
             //    + " channels are ready to be processed.");
             handleForcedWithdraws();
@@ -546,6 +606,7 @@ public final class Server extends Thread implements IServer
                 stopServerRunning();
             }
             handleSelectedKeys();
+            handleInProcessInput();
             handleChannelChanges();
             repeatTellOneHasNetworkTrouble();
             allRequestPingIfNeeded();
@@ -569,6 +630,15 @@ public final class Server extends Thread implements IServer
             ErrorUtils.showExceptionDialog(null, message, "Exception caught!",
                 false);
         }
+        finally
+        {
+            writeScheduledClients();
+            if (processingStarts != 0)
+            {
+                metrics.loopIterationDone(System.nanoTime()
+                    - processingStarts);
+            }
+        }
     }
 
     private void handleForcedWithdraws()
@@ -664,9 +734,9 @@ public final class Server extends Thread implements IServer
                 // This is sent only for the reason that the client gets
                 // an initial response quickly.
                 ch.sendToClient("SignOn: processing");
-                synchronized (activeSocketChannelList)
+                synchronized (activeChannelList)
                 {
-                    activeSocketChannelList.add(sc);
+                    activeChannelList.add(sc);
                 }
             }
             else
@@ -691,11 +761,8 @@ public final class Server extends Thread implements IServer
                         LOGGER.info("Channel for " + ch.getClientName()
                             + " got writable again.");
 
-                        // unregister write. If next time fails, it will register again.
-                        key.interestOps(SelectionKey.OP_READ);
-
-                        // just call it to flush out what is still there
-                        ch.clearTemporarilyInTrouble();
+                        // Write what is still there; this unregisters
+                        // OP_WRITE if it all got written.
                         ch.flushQueuedContent();
 
                         anythingDone = true;
@@ -742,13 +809,19 @@ public final class Server extends Thread implements IServer
                         + nextCH.getClientName());
                     SocketChannel sc = nextCH.getSocketChannel();
                     SelectionKey key = nextCH.getSelectorKey();
-                    if (key == null)
+                    if (nextCH.getInProcessChannel() != null)
+                    {
+                        disconnectInProcess(nextCH);
+                    }
+                    else if (key == null)
                     {
                         LOGGER.warning("key for to-be-closed-channel is "
                             + "null for CH: " + nextCH.getClientName());
                     }
                     else if (sc.isOpen())
                     {
+                        // e.g. the dispose message
+                        nextCH.flushQueuedContent();
                         LOGGER.info("calling disconnectChannel()");
                         // sending dispose and setIsGone is done by ClientHandler
                         disconnectChannel(sc, key);
@@ -880,7 +953,10 @@ public final class Server extends Thread implements IServer
                             LOGGER.info("Before EOF processing, calling "
                                 + "processByteBuffer to handle the " + read
                                 + " bytes that were read before.");
-                            processByteBuffer();
+                            if (!processByteBuffer(key, sc))
+                            {
+                                return 0;
+                            }
                             read = 0;
                         }
                         withdrawFromGameIfRelevant(null,
@@ -916,7 +992,10 @@ public final class Server extends Thread implements IServer
                     LOGGER.warning("Before IOException handling processing, "
                         + "calling processByteBuffer to handle the " + read
                         + " bytes that were read before.");
-                    processByteBuffer();
+                    if (!processByteBuffer(key, sc))
+                    {
+                        return 0;
+                    }
                     read = 0;
                 }
 
@@ -933,7 +1012,7 @@ public final class Server extends Thread implements IServer
         {
             LOGGER.finest("Calling processByteBuffer to process the " + read
                 + " bytes received from channel" + sc);
-            processByteBuffer();
+            processByteBuffer(key, sc);
         }
         else
         {
@@ -943,7 +1022,15 @@ public final class Server extends Thread implements IServer
         return read;
     }
 
-    private void processByteBuffer()
+    /**
+     * Let processingCH process what was read. If its input turns out to be
+     * corrupted, it is disconnected (and withdrawn, if relevant) just like
+     * on an IOException while reading.
+     *
+     * @return False if the client was disconnected
+     */
+    private boolean processByteBuffer(SelectionKey key, SocketChannel sc)
+        throws IOException
     {
         byteBuffer.flip();
         // NOTE that the following might cause trouble
@@ -953,8 +1040,23 @@ public final class Server extends Thread implements IServer
         // No problem any more as currently "send log
         // stuff to remote clients" is removed.
         LOGGER.finest("* before ch.processInput()");
-        processingCH.processInput(byteBuffer);
+        try
+        {
+            processingCH.processInput(byteBuffer);
+        }
+        catch (StreamCorruptedException e)
+        {
+            LOGGER.log(Level.SEVERE, "Corrupted input from client "
+                + processingCH.getClientName() + ", disconnecting: "
+                + e.getMessage());
+            processingCH.setIsGone("Corrupted input");
+            withdrawFromGameIfRelevant(e, processingCH
+                .didExplicitDisconnect());
+            disconnectChannel(sc, key);
+            return false;
+        }
         LOGGER.finest("* after  ch.processInput()");
+        return true;
     }
 
     /**
@@ -1218,7 +1320,7 @@ public final class Server extends Thread implements IServer
 
     /**
      * Close the SocketChannel, cancel the selection key and unregister
-     * the SocketChannel from list of active SocketChannels.
+     * the SocketChannel from list of active channels.
      *
      * @param sc SocketChannel of the client
      * @param key Key for that SocketChannel
@@ -1229,28 +1331,158 @@ public final class Server extends Thread implements IServer
     {
         sc.close();
         key.cancel();
-        unregisterSocketChannel(sc);
+        unregisterChannel(sc);
+        ClientHandler ch = (ClientHandler)key.attachment();
+        if (ch != null)
+        {
+            ch.connectionClosed();
+        }
+    }
+
+    boolean isServerThread()
+    {
+        return currentThread() == this;
+    }
+
+    /**
+     * Called by a ClientHandler (in the server thread) which has something
+     * to write; all of them are written at the end of the current round
+     * of the selector loop, so that all messages caused by one input go
+     * out with one write.
+     */
+    void scheduleWrite(ClientHandler ch)
+    {
+        scheduledWrites.add(ch);
+    }
+
+    private void writeScheduledClients()
+    {
+        while (!scheduledWrites.isEmpty())
+        {
+            Iterator<ClientHandler> it = scheduledWrites.iterator();
+            ClientHandler ch = it.next();
+            it.remove();
+            // Writing might cause messages to others, which schedule
+            // themselves again.
+            ch.flushQueuedContent();
+        }
+    }
+
+    /**
+     * Create a connection for a client in the same JVM. The server thread
+     * will create the ClientHandler for it and prompt for the sign on.
+     */
+    public InProcessChannel createInProcessChannel()
+    {
+        InProcessChannel channel = new InProcessChannel(new Runnable()
+        {
+            public void run()
+            {
+                inProcessInputArrived();
+            }
+        });
+        newInProcessChannels.offer(channel);
+        inProcessInputArrived();
+        return channel;
+    }
+
+    /**
+     * Called by an InProcessChannel (in the thread of its client) when
+     * there is something to process for the server thread.
+     */
+    private void inProcessInputArrived()
+    {
+        // One wakeup is enough until the server thread got to it.
+        if (inProcessInputPending.compareAndSet(false, true)
+            && selector != null)
+        {
+            selector.wakeup();
+        }
+    }
+
+    /**
+     * The counterpart of handleSelectedKeys() for the clients connected
+     * via an InProcessChannel: accept new ones, process what they sent,
+     * and handle those which closed their end like an EOF on a socket.
+     */
+    private void handleInProcessInput()
+    {
+        if (!inProcessInputPending.getAndSet(false))
+        {
+            return;
+        }
+
+        InProcessChannel newChannel;
+        while ((newChannel = newInProcessChannels.poll()) != null)
+        {
+            LOGGER.info("Another in-process client accepted.");
+            ClientHandler ch = new ClientHandler(this, newChannel);
+            ch.sendToClient("SignOn: processing");
+            inProcessClients.add(ch);
+            synchronized (activeChannelList)
+            {
+                activeChannelList.add(newChannel);
+            }
+        }
+
+        // processing might connect or disconnect others
+        for (ClientHandler ch : new ArrayList<ClientHandler>(
+            inProcessClients))
+        {
+            if (shuttingDown)
+            {
+                break;
+            }
+            InProcessChannel channel = ch.getInProcessChannel();
+            processingCH = ch;
+            String line;
+            while ((line = channel.pollFromClient()) != null)
+            {
+                ch.processLine(line);
+            }
+            if (channel.isAtEndOfStream() && inProcessClients.contains(ch))
+            {
+                ch.setIsGone("EOF on channel");
+                withdrawFromGameIfRelevant(null, ch.didExplicitDisconnect());
+                disconnectInProcess(ch);
+            }
+            processingCH = null;
+        }
     }
 
-    public void unregisterSocketChannel(SocketChannel socketChannel)
+    /**
+     * Close the in-process channel of the client and unregister it, like
+     * disconnectChannel() does for a socket.
+     */
+    private void disconnectInProcess(ClientHandler ch)
     {
-        if (activeSocketChannelList == null)
+        if (inProcessClients.remove(ch))
         {
-            LOGGER.finest("activeSocketChannelList null");
+            InProcessChannel channel = ch.getInProcessChannel();
+            channel.close();
+            unregisterChannel(channel);
+        }
+    }
+
+    public void unregisterChannel(Channel channel)
+    {
+        if (activeChannelList == null)
+        {
+            LOGGER.finest("activeChannelList null");
             return;
         }
 
-        LOGGER.finest("activeSocketChannelList before synch ");
-        synchronized (activeSocketChannelList)
+        LOGGER.finest("activeChannelList before synch ");
+        synchronized (activeChannelList)
         {
-            LOGGER.finest("activeSocketChannelList   IN   synch ");
-            int index = activeSocketChannelList.indexOf(socketChannel);
-            LOGGER.finest("activeSocketChannelList index = " + index);
+            LOGGER.finest("activeChannelList   IN   synch ");
+            int index = activeChannelList.indexOf(channel);
+            LOGGER.finest("activeChannelList index = " + index);
             if (index == -1)
             {
                 return;
             }
-            activeSocketChannelList.remove(index);
+            activeChannelList.remove(index);
 
             if (!serverRunning)
             {
@@ -1261,10 +1493,10 @@ public final class Server extends Thread implements IServer
             // no client whatsoever left => end the game and close server stuff
             // Even if socket list is empty, client list may not be empty yet,
             // and need to empty it and close all loggers.
-            if (activeSocketChannelList.isEmpty())
+            if (activeChannelList.isEmpty())
             {
-                LOGGER.finest("Server.unregisterSocketChannel(): "
-                    + "activeSocketChannelList empty - stopping server...");
+                LOGGER.finest("Server.unregisterChannel(): "
+                    + "activeChannelList empty - stopping server...");
                 stopServerRunning();
             }
 
@@ -1289,7 +1521,7 @@ public final class Server extends Thread implements IServer
                     + "(i.e. someone is left, so it makes sense to go on)");
             }
         }
-        LOGGER.finest("activeSocketChannelList after synch ");
+        LOGGER.finest("activeChannelList after synch ");
     }
 
     public void setBoardVisibility(Player player, boolean val)
@@ -1946,18 +2178,12 @@ public final class Server extends Thread implements IServer
 
     void allUpdateCreatureCount(CreatureType type, int count, int deadCount)
     {
-        for (IClient client : iClients)
-        {
-            client.updateCreatureCount(type, count, deadCount);
-        }
+        broadcaster.updateCreatureCount(type, count, deadCount);
     }
 
     void allTellMovementRoll(int roll, String reason)
     {
-        for (IClient client : iClients)
-        {
-            client.tellMovementRoll(roll, reason);
-        }
+        broadcaster.tellMovementRoll(roll, reason);
     }
 
     public void leaveCarryMode()
@@ -2074,18 +2300,12 @@ public final class Server extends Thread implements IServer
 
     void allTellReplay(boolean val, int maxTurn)
     {
-        for (IClient client : iClients)
-        {
-            client.tellReplay(val, maxTurn);
-        }
+        broadcaster.tellReplay(val, maxTurn);
     }
 
     void allTellRedo(boolean val)
     {
-        for (IClient client : iClients)
-        {
-            client.tellRedo(val);
-        }
+        broadcaster.tellRedo(val);
     }
 
     void allRequestConfirmCatchup(String action, boolean skipInTrouble)
@@ -2158,27 +2378,18 @@ public final class Server extends Thread implements IServer
 
     void allTellLegionLocation(Legion legion)
     {
-        for (IClient client : iClients)
-        {
-            client.tellLegionLocation(legion, legion.getCurrentHex());
-        }
+        broadcaster.tellLegionLocation(legion, legion.getCurrentHex());
     }
 
     void allRemoveLegion(Legion legion)
     {
-        for (IClient client : iClients)
-        {
-            client.removeLegion(legion);
-        }
+        broadcaster.removeLegion(legion);
     }
 
     void allTellPlayerElim(Player eliminatedPlayer, Player slayer,
         boolean updateHistory)
     {
-        for (IClient client : iClients)
-        {
-            client.tellPlayerElim(eliminatedPlayer, slayer);
-        }
+        broadcaster.tellPlayerElim(eliminatedPlayer, slayer);
 
         if (updateHistory)
         {
@@ -2374,40 +2585,28 @@ public final class Server extends Thread implements IServer
     void kickPhase()
     {
         // XXX TODO Should do only for the active Client!
-        for (IClient client : iClients)
-        {
-            client.kickPhase();
-        }
+        broadcaster.kickPhase();
     }
 
     void allSetupBattleSummon()
     {
         BattleServerSide battle = game.getBattleSS();
-        for (IClient client : iClients)
-        {
-            client.setupBattleSummon(battle.getBattleActivePlayer(),
-                battle.getBattleTurnNumber());
-        }
+        broadcaster.setupBattleSummon(battle.getBattleActivePlayer(),
+            battle.getBattleTurnNumber());
     }
 
     void allSetupBattleRecruit()
     {
         BattleServerSide battle = game.getBattleSS();
-        for (IClient client : iClients)
-        {
-            client.setupBattleRecruit(battle.getBattleActivePlayer(),
-                battle.getBattleTurnNumber());
-        }
+        broadcaster.setupBattleRecruit(battle.getBattleActivePlayer(),
+            battle.getBattleTurnNumber());
     }
 
     void allSetupBattleMove()
     {
         BattleServerSide battle = game.getBattleSS();
-        for (IClient client : iClients)
-        {
-            client.setupBattleMove(battle.getBattleActivePlayer(),
-                battle.getBattleTurnNumber());
-        }
+        broadcaster.setupBattleMove(battle.getBattleActivePlayer(),
+            battle.getBattleTurnNumber());
     }
 
     void allSetupBattleFight()
@@ -2427,19 +2626,13 @@ public final class Server extends Thread implements IServer
     {
         boolean inverted = critter.getLegion().equals(
             game.getBattleSS().getDefendingLegion());
-        for (IClient client : iClients)
-        {
-            client.placeNewChit(critter.getName(), inverted, critter.getTag(),
-                critter.getCurrentHex());
-        }
+        broadcaster.placeNewChit(critter.getName(), inverted, critter.getTag(),
+            critter.getCurrentHex());
     }
 
-    void allRemoveDeadBattleChits()
+    void allRemoveDeadBattleChits(List<? extends Creature> deadCritters)
     {
-        for (IClient client : iClients)
-        {
-            client.removeDeadBattleChits();
-        }
+        broadcaster.removeDeadBattleChits(deadCritters);
     }
 
     void allTellEngagementResults(Legion winner, String method, int points,
@@ -2611,14 +2804,9 @@ public final class Server extends Thread implements IServer
             .numberOfRecruiterNeeded(recruiter, event.getAddedCreatureType(),
                 event.getLegion().getCurrentHex().getTerrain(), event
                     .getLegion().getCurrentHex()));
-        Iterator<IClient> it = iClients.iterator();
-        while (it.hasNext())
-        {
-            IClient client = it.next();
-            // TODO pass event around
-            client.didRecruit(event.getLegion(), event.getAddedCreatureType(),
-                recruiter, numRecruiters);
-        }
+        // TODO pass event around
+        broadcaster.didRecruit(event.getLegion(), event.getAddedCreatureType(),
+            recruiter, numRecruiters);
 
         // reveal only if there is something to tell
         if (recruiter != null)
@@ -2637,12 +2825,7 @@ public final class Server extends Thread implements IServer
     void undidRecruit(Legion legion, CreatureType recruit, boolean reinforced)
     {
         allUpdatePlayerInfo("UndidRecruit");
-        Iterator<IClient> it = iClients.iterator();
-        while (it.hasNext())
-        {
-            IClient client = it.next();
-            client.undidRecruit(legion, recruit);
-        }
+        broadcaster.undidRecruit(legion, recruit);
         game.undoRecruitEvent(legion);
         String reason = reinforced ? Constants.reasonReinforced
             : Constants.reasonRecruited;
@@ -2663,12 +2846,7 @@ public final class Server extends Thread implements IServer
     void allTellEngagement(MasterHex hex, Legion attacker, Legion defender)
     {
         LOGGER.finest("allTellEngagement() " + hex);
-        Iterator<IClient> it = iClients.iterator();
-        while (it.hasNext())
-        {
-            IClient client = it.next();
-            client.tellEngagement(hex, attacker, defender);
-        }
+        broadcaster.tellEngagement(hex, attacker, defender);
     }
 
     /** Ask ally's player whether he wants to concede with ally. */
@@ -2819,12 +2997,7 @@ public final class Server extends Thread implements IServer
     void allTellBattleMove(int tag, BattleHex startingHex,
         BattleHex endingHex, boolean undo)
     {
-        Iterator<IClient> it = iClients.iterator();
-        while (it.hasNext())
-        {
-            IClient client = it.next();
-            client.tellBattleMove(tag, startingHex, endingHex, undo);
-        }
+        broadcaster.tellBattleMove(tag, startingHex, endingHex, undo);
     }
 
     public void strike(int tag, BattleHex hex)
@@ -2919,14 +3092,9 @@ public final class Server extends Thread implements IServer
         this.strikeNumber = strikeNumber;
         this.rolls = rolls;
 
-        Iterator<IClient> it = iClients.iterator();
-        while (it.hasNext())
-        {
-            IClient client = it.next();
-            client.tellStrikeResults(striker.getTag(), target.getTag(),
-                strikeNumber, rolls, damage, target.isDead(), false,
-                carryDamageLeft, carryTargetDescriptions);
-        }
+        broadcaster.tellStrikeResults(striker.getTag(), target.getTag(),
+            strikeNumber, rolls, damage, target.isDead(), false,
+            carryDamageLeft, carryTargetDescriptions);
 
         if (game.getDiceStatCollector() != null)
         {
@@ -2960,38 +3128,23 @@ public final class Server extends Thread implements IServer
             }
             return;
         }
-        Iterator<IClient> it = iClients.iterator();
-        while (it.hasNext())
-        {
-            IClient client = it.next();
-            client.tellStrikeResults(striker.getTag(), carryTarget.getTag(),
-                strikeNumber, rolls, carryDamageDone, carryTarget.isDead(),
-                true, carryDamageLeft, carryTargetDescriptions);
-        }
+        broadcaster.tellStrikeResults(striker.getTag(), carryTarget.getTag(),
+            strikeNumber, rolls, carryDamageDone, carryTarget.isDead(),
+            true, carryDamageLeft, carryTargetDescriptions);
     }
 
     void allTellHexSlowResults(CreatureServerSide target, int slowValue)
     {
         this.target = target;
-        Iterator<IClient> it = iClients.iterator();
-        while (it.hasNext())
-        {
-            IClient client = it.next();
-            client.tellSlowResults(target.getTag(), slowValue);
-        }
+        broadcaster.tellSlowResults(target.getTag(), slowValue);
     }
 
     void allTellHexDamageResults(CreatureServerSide target, int damage)
     {
         this.target = target;
 
-        Iterator<IClient> it = iClients.iterator();
-        while (it.hasNext())
-        {
-            IClient client = it.next();
-            client.tellStrikeResults(Constants.HEX_DAMAGE, target.getTag(), 0,
-                null, damage, target.isDead(), false, 0, null);
-        }
+        broadcaster.tellStrikeResults(Constants.HEX_DAMAGE, target.getTag(), 0,
+            null, damage, target.isDead(), false, 0, null);
     }
 
     /** Takes a Set of PenaltyOptions. */
@@ -3037,24 +3190,14 @@ public final class Server extends Thread implements IServer
     void allInitBattle(MasterHex masterHex)
     {
         BattleServerSide battle = game.getBattleSS();
-        Iterator<IClient> it = iClients.iterator();
-        while (it.hasNext())
-        {
-            IClient client = it.next();
-            client.initBattle(masterHex, battle.getBattleTurnNumber(),
-                battle.getBattleActivePlayer(), battle.getBattlePhase(),
-                battle.getAttackingLegion(), battle.getDefendingLegion());
-        }
+        broadcaster.initBattle(masterHex, battle.getBattleTurnNumber(),
+            battle.getBattleActivePlayer(), battle.getBattlePhase(),
+            battle.getAttackingLegion(), battle.getDefendingLegion());
     }
 
     void allCleanupBattle()
     {
-        Iterator<IClient> it = iClients.iterator();
-        while (it.hasNext())
-        {
-            IClient client = it.next();
-            client.cleanupBattle();
-        }
+        broadcaster.cleanupBattle();
     }
 
     public void mulligan()
@@ -3124,12 +3267,7 @@ public final class Server extends Thread implements IServer
     void undidSplit(Legion splitoff, Legion survivor, boolean updateHistory,
         int turn)
     {
-        Iterator<IClient> it = iClients.iterator();
-        while (it.hasNext())
-        {
-            IClient client = it.next();
-            client.undidSplit(splitoff, survivor, turn);
-        }
+        broadcaster.undidSplit(splitoff, survivor, turn);
         if (updateHistory)
         {
             game.mergeEvent(splitoff.getMarkerId(), survivor.getMarkerId());
@@ -3148,13 +3286,8 @@ public final class Server extends Thread implements IServer
     public void allTellUndidMove(Legion legion, MasterHex formerHex,
         MasterHex currentHex, boolean splitLegionHasForcedMove)
     {
-        Iterator<IClient> it = iClients.iterator();
-        while (it.hasNext())
-        {
-            IClient client = it.next();
-            client.undidMove(legion, formerHex, currentHex,
-                splitLegionHasForcedMove);
-        }
+        broadcaster.undidMove(legion, formerHex, currentHex,
+            splitLegionHasForcedMove);
     }
 
     public void undoRecruit(Legion legion)
@@ -3503,37 +3636,22 @@ public final class Server extends Thread implements IServer
         // needed in didMove to decide whether to dis/enable button
         boolean splitLegionHasForcedMove = player.splitLegionHasForcedMove();
 
-        Iterator<IClient> it = iClients.iterator();
-        while (it.hasNext())
-        {
-            IClient client = it.next();
-            client.didMove(legion, startingHex, hex, entrySide, teleport,
-                teleportingLord, splitLegionHasForcedMove);
-        }
+        broadcaster.didMove(legion, startingHex, hex, entrySide, teleport,
+            teleportingLord, splitLegionHasForcedMove);
     }
 
     void allTellDidSummon(Legion receivingLegion, Legion donorLegion,
         CreatureType summon)
     {
-        Iterator<IClient> it = iClients.iterator();
-        while (it.hasNext())
-        {
-            IClient client = it.next();
-            client.didSummon(receivingLegion, donorLegion, summon);
-        }
+        broadcaster.didSummon(receivingLegion, donorLegion, summon);
     }
 
     void allTellAddCreature(AddCreatureAction event, boolean updateHistory,
         String reason)
     {
-        Iterator<IClient> it = iClients.iterator();
-        while (it.hasNext())
-        {
-            IClient client = it.next();
-            // TODO pass event into client (requires adding the reason as property of the event)
-            client.addCreature(event.getLegion(),
-                event.getAddedCreatureType(), event.getReason());
-        }
+        // TODO pass event into client (requires adding the reason as property of the event)
+        broadcaster.addCreature(event.getLegion(),
+            event.getAddedCreatureType(), event.getReason());
         if (updateHistory)
         {
             game.addCreatureEvent(event, reason);
@@ -3543,12 +3661,7 @@ public final class Server extends Thread implements IServer
     void allTellRemoveCreature(Legion legion, CreatureType creature,
         boolean updateHistory, String reason)
     {
-        Iterator<IClient> it = iClients.iterator();
-        while (it.hasNext())
-        {
-            IClient client = it.next();
-            client.removeCreature(legion, creature, reason);
-        }
+        broadcaster.removeCreature(legion, creature, reason);
         if (updateHistory)
         {
             game.removeCreatureEvent(legion, creature, reason);
@@ -3557,12 +3670,7 @@ public final class Server extends Thread implements IServer
 
     void allRevealLegion(Legion legion, String reason)
     {
-        Iterator<IClient> it = iClients.iterator();
-        while (it.hasNext())
-        {
-            IClient client = it.next();
-            client.revealCreatures(legion, legion.getCreatureTypes(), reason);
-        }
+        broadcaster.revealCreatures(legion, legion.getCreatureTypes(), reason);
         game.revealEvent(true, null, legion, legion.getCreatureTypes(), reason);
     }
 
@@ -3576,13 +3684,8 @@ public final class Server extends Thread implements IServer
     void allRevealEngagedLegion(final Legion legion, final boolean isAttacker,
         String reason)
     {
-        Iterator<IClient> it = iClients.iterator();
-        while (it.hasNext())
-        {
-            IClient client = it.next();
-            client.revealEngagedCreatures(legion, legion.getCreatureTypes(),
-                isAttacker, reason);
-        }
+        broadcaster.revealEngagedCreatures(legion, legion.getCreatureTypes(),
+            isAttacker, reason);
         game.revealEvent(true, null, legion, legion.getCreatureTypes(), reason);
     }
 
@@ -3590,12 +3693,7 @@ public final class Server extends Thread implements IServer
     void allRevealLegion(Legion legion, List<CreatureType> creatures,
         String reason)
     {
-        Iterator<IClient> it = iClients.iterator();
-        while (it.hasNext())
-        {
-            IClient client = it.next();
-            client.revealCreatures(legion, creatures, reason);
-        }
+        broadcaster.revealCreatures(legion, creatures, reason);
     }
 
     void oneRevealLegion(Legion legion, Player player, String reason)
@@ -3655,12 +3753,7 @@ public final class Server extends Thread implements IServer
     void allRevealCreatures(Legion legion, List<CreatureType> creatureNames,
         String reason)
     {
-        Iterator<IClient> it = iClients.iterator();
-        while (it.hasNext())
-        {
-            IClient client = it.next();
-            client.revealCreatures(legion, creatureNames, reason);
-        }
+        broadcaster.revealCreatures(legion, creatureNames, reason);
         game.revealEvent(true, null, legion, creatureNames, reason);
     }
 
@@ -4182,6 +4275,78 @@ public final class Server extends Thread implements IServer
         return recorder;
     }
 
+    CommandStatistics getCommandStatistics()
+    {
+        return commandStatistics;
+    }
+
+    ServerMetrics getMetrics()
+    {
+        return metrics;
+    }
+
+    /**
+     * The compact protocol offered to clients that can handle it, with a
+     * dictionary for the variant of this game. Null if the text protocol
+     * was asked for by setting the property "text.protocol" to true.
+     */
+    synchronized CompactProtocol getCompactProtocol()
+    {
+        if (compactProtocol == null
+            && !"true".equals(System.getProperty("text.protocol")))
+        {
+            compactProtocol = new CompactProtocol(createProtocolDictionary());
+        }
+        return compactProtocol;
+    }
+
+    /**
+     * The terms making up most of the traffic: the protocol commands and
+     * other plain words from Constants, creature names, hex labels and
+     * legion markers.
+     */
+    private List<String> createProtocolDictionary()
+    {
+        Set<String> terms = new LinkedHashSet<String>();
+        terms.add("true");
+        terms.add("false");
+        terms.add("null");
+        for (Field field : Constants.class.getFields())
+        {
+            if (Modifier.isStatic(field.getModifiers())
+                && field.getType() == String.class)
+            {
+                try
+                {
+                    String value = (String)field.get(null);
+                    if (value != null && value.matches("[A-Za-z]\\w{0,31}"))
+                    {
+                        terms.add(value);
+                    }
+                }
+                catch (IllegalAccessException e)
+                {
+                    LOGGER.warning("Can't read Constants." + field.getName());
+                }
+            }
+        }
+        Variant variant = game.getVariant();
+        for (CreatureType type : variant.getCreatureTypes())
+        {
+            terms.add(type.getName());
+        }
+        terms.addAll(new TreeSet<String>(variant.getMasterBoard()
+            .getAllHexLabels()));
+        for (PlayerColor color : PlayerColor.values())
+        {
+            for (int i = 1; i <= 12; i++)
+            {
+                terms.add(color.getShortName() + (i < 10 ? "0" : "") + i);
+            }
+        }
+        return new ArrayList<String>(terms);
+    }
+
     public void replyToRequestGameInfo()
     {
         processingCH.tellInitialGameInfo(game.getVariant().getName(),
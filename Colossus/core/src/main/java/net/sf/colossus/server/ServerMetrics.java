@@ -0,0 +1,241 @@
+package net.sf.colossus.server;
+
+
+import java.lang.management.ManagementFactory;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import net.sf.colossus.common.CommandStatistics;
+import net.sf.colossus.common.Histogram;
+
+
+/**
+ * How the server's event loop is doing: how long each selector loop
+ * iteration takes and how long it waits in select(), how much is waiting
+ * in the outbound buffer of each client when it gets written, and how
+ * long (wall time) the game phases and battle phases take; together with
+ * the CommandStatistics for the commands from the clients.
+ *
+ * A one line summary of the last interval is logged every
+ * server.metrics.interval seconds (default 60, 0 for never); with
+ * server.metrics.jmx=true the values since the start of the game are
+ * also available as an MBean (see ServerMetricsMBean). The full summary
+ * is logged when the server ends.
+ *
+ * Recorded only by the server thread, but read from JMX threads, too.
+ */
+public final class ServerMetrics implements ServerMetricsMBean
+{
+    private static final Logger LOGGER = Logger.getLogger(ServerMetrics.class
+        .getName());
+
+    private static final String INTERVAL_PROPNAME = "server.metrics.interval";
+    private static final String JMX_PROPNAME = "server.metrics.jmx";
+
+    private final long intervalNanos = Integer.getInteger(INTERVAL_PROPNAME,
+        60).intValue() * 1000000000L;
+
+    private final CommandStatistics commandStatistics;
+
+    private final Histogram loopTime = new Histogram("us");
+    private final Histogram selectWait = new Histogram("us");
+
+    private final Histogram intervalLoopTime = new Histogram("us");
+    private final Histogram intervalSelectWait = new Histogram("us");
+
+    /**
+     * Bytes pending when a client's outbound buffer is written, by client
+     * name; so a reconnect continues the same entry, and the handlers of
+     * disconnected clients are not kept.
+     */
+    private final Map<String, Histogram> outboundBytes = new LinkedHashMap<String, Histogram>();
+
+    /** Wall time of each game phase and battle phase, by phase */
+    private final Map<String, Histogram> phaseTimes = new LinkedHashMap<String, Histogram>();
+
+    private String phase = null;
+    private long phaseStarted;
+
+    private String battlePhase = null;
+    private long battlePhaseStarted;
+
+    private long nextLog = System.nanoTime() + intervalNanos;
+
+    private ObjectName objectName = null;
+
+    ServerMetrics(CommandStatistics commandStatistics)
+    {
+        this.commandStatistics = commandStatistics;
+    }
+
+    /** Register as MBean, if wanted; the port tells the games apart */
+    void register(int port)
+    {
+        if (!Boolean.getBoolean(JMX_PROPNAME))
+        {
+            return;
+        }
+        try
+        {
+            MBeanServer mbs = ManagementFactory.getPlatformMBeanServer();
+            objectName = new ObjectName(
+                "net.sf.colossus:type=ServerMetrics,port=" + port);
+            mbs.registerMBean(this, objectName);
+            LOGGER.info("Registered MBean " + objectName);
+        }
+        catch (Exception e)
+        {
+            LOGGER.log(Level.WARNING, "Could not register server metrics", e);
+            objectName = null;
+        }
+    }
+
+    void unregister()
+    {
+        if (objectName == null)
+        {
+            return;
+        }
+        try
+        {
+            ManagementFactory.getPlatformMBeanServer().unregisterMBean(
+                objectName);
+        }
+        catch (Exception e)
+        {
+            LOGGER.log(Level.WARNING, "Could not unregister server metrics",
+                e);
+        }
+        objectName = null;
+    }
+
+    void selectReturned(long waitedNanos)
+    {
+        selectWait.record(waitedNanos / 1000);
+        intervalSelectWait.record(waitedNanos / 1000);
+    }
+
+    /** One iteration done; logs the interval summary when it is time */
+    void loopIterationDone(long tookNanos)
+    {
+        loopTime.record(tookNanos / 1000);
+        intervalLoopTime.record(tookNanos / 1000);
+
+        long now = System.nanoTime();
+        if (intervalNanos > 0 && now - nextLog >= 0)
+        {
+            nextLog = now + intervalNanos;
+            LOGGER.info("Event loop: iterations " + intervalLoopTime
+                + "; select waits " + intervalSelectWait + "; outbound "
+                + getOutboundBytes());
+            intervalLoopTime.reset();
+            intervalSelectWait.reset();
+        }
+    }
+
+    void recordOutboundBytes(String clientName, int bytes)
+    {
+        Histogram histogram;
+        synchronized (outboundBytes)
+        {
+            histogram = outboundBytes.get(clientName);
+            if (histogram == null)
+            {
+                histogram = new Histogram("bytes");
+                outboundBytes.put(clientName, histogram);
+            }
+        }
+        histogram.record(bytes);
+    }
+
+    /** The game advances to that phase (null: the game ends) */
+    synchronized void enterPhase(String newPhase)
+    {
+        long now = System.nanoTime();
+        if (phase != null)
+        {
+            recordPhase("phase " + phase, now - phaseStarted);
+        }
+        phase = newPhase;
+        phaseStarted = now;
+    }
+
+    /** The battle advances to that phase (null: the battle ends) */
+    synchronized void enterBattlePhase(String newPhase)
+    {
+        long now = System.nanoTime();
+        if (battlePhase != null)
+        {
+            recordPhase("battle " + battlePhase, now - battlePhaseStarted);
+        }
+        battlePhase = newPhase;
+        battlePhaseStarted = now;
+    }
+
+    private void recordPhase(String name, long nanos)
+    {
+        Histogram histogram = phaseTimes.get(name);
+        if (histogram == null)
+        {
+            histogram = new Histogram("ms");
+            phaseTimes.put(name, histogram);
+        }
+        histogram.record(nanos / 1000000);
+    }
+
+    /** Everything since the start, several lines */
+    String getSummary()
+    {
+        return "Event loop metrics:\n  iterations " + loopTime
+            + "\n  select waits " + selectWait + "\n  outbound "
+            + getOutboundBytes() + "\n  phases " + getPhaseTimes();
+    }
+
+    public long getLoopIterations()
+    {
+        return loopTime.getCount();
+    }
+
+    public long getLoopMeanMicros()
+    {
+        return loopTime.getMean();
+    }
+
+    public long getLoopP99Micros()
+    {
+        return loopTime.getPercentile(0.99);
+    }
+
+    public long getLoopMaxMicros()
+    {
+        return loopTime.getMax();
+    }
+
+    public long getSelectWaitMeanMicros()
+    {
+        return selectWait.getMean();
+    }
+
+    public String getOutboundBytes()
+    {
+        synchronized (outboundBytes)
+        {
+            return outboundBytes.toString();
+        }
+    }
+
+    public synchronized String getPhaseTimes()
+    {
+        return phaseTimes.toString();
+    }
+
+    public String getCommandSummary()
+    {
+        return commandStatistics.getSummary();
+    }
+}
@@ -0,0 +1,27 @@
+package net.sf.colossus.server;
+
+
+/**
+ * What ServerMetrics shows via JMX, when the property
+ * server.metrics.jmx is set to true.
+ *
+ * All values are since the start of the game.
+ */
+public interface ServerMetricsMBean
+{
+    public long getLoopIterations();
+
+    public long getLoopMeanMicros();
+
+    public long getLoopP99Micros();
+
+    public long getLoopMaxMicros();
+
+    public long getSelectWaitMeanMicros();
+
+    public String getOutboundBytes();
+
+    public String getPhaseTimes();
+
+    public String getCommandSummary();
+}
@@ -8,7 +8,8 @@ import net.sf.colossus.common.Constants;
 
 
 /**
- * Class XMLSnapshotFilter implements a FilenameFilter for savegames.
+ * Class XMLSnapshotFilter implements a FilenameFilter for savegames,
+ * plain and compressed ones.
  *
  * @author David Ripton
  */
@@ -19,7 +20,9 @@ public final class XMLSnapshotFilter extends
 
     public boolean accept(File dir, String name)
     {
-        if (name.endsWith(Constants.XML_EXTENSION))
+        if (name.endsWith(Constants.XML_EXTENSION)
+            || name.endsWith(Constants.XML_EXTENSION
+                + Constants.COMPRESSED_EXTENSION))
         {
             return true;
         }
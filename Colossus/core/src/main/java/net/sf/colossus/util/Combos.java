@@ -4,49 +4,156 @@ package net.sf.colossus.util;
 import java.util.ArrayList;
 import java.util.Iterator;
 import java.util.List;
+import java.util.NoSuchElementException;
 
 
 /**
  * Returns all possible combinations of n elements of a List.
- * 
+ *
+ * The combinations are generated one at a time while iterating, so a
+ * caller that stops early does not pay for the rest. They come in
+ * lexicographic order of the element indexes, each one as a new list.
+ *
+ * For callers that rather work with bitmasks there are firstMask() and
+ * nextMask(), which enumerate the same combinations without creating any
+ * objects at all.
+ *
  * @author David Ripton
  */
-public final class Combos<T>
+public final class Combos<T> implements Iterable<List<T>>
 {
-    private final List<List<T>> retlist;
+    private final List<T> list;
+    private final int n;
 
     public Combos(List<T> list, int n)
     {
-        retlist = new ArrayList<List<T>>();
-        findCombinations(list, n, new ArrayList<T>());
+        this.list = new ArrayList<T>(list);
+        this.n = n;
     }
 
-    private void findCombinations(List<T> alist, int n, List<T> blist)
+    public Iterator<List<T>> iterator()
+    {
+        return new ComboIterator();
+    }
+
+    /**
+     * The first combination of n out of size elements as bitmask, i.e.
+     * the n lowest bits set.
+     *
+     * @throws IllegalArgumentException if n is negative or larger than
+     *         size, or size does not fit into a mask
+     */
+    public static long firstMask(int n, int size)
+    {
+        if (size < 0 || size >= 64 || n < 0 || n > size)
+        {
+            throw new IllegalArgumentException("Can't choose " + n
+                + " out of " + size + " elements");
+        }
+        return (1L << n) - 1;
+    }
+
+    /**
+     * The combination after mask with the same number of bits set, in
+     * increasing numerical order, or 0 if there is none left within the
+     * lowest size bits.
+     *
+     * Note that the combination without any bits set is the only one
+     * with n == 0, so the caller has to handle that case on its own.
+     */
+    public static long nextMask(long mask, int size)
     {
-        if (n < 0 || n > alist.size())
+        assert size < 64 : "Too many elements " + size;
+        if (mask == 0)
         {
-            return;
+            return 0;
         }
-        if (n == 0)
+        // Gosper's hack
+        long lowest = mask & -mask;
+        long ripple = mask + lowest;
+        long next = (((ripple ^ mask) >>> 2) / lowest) | ripple;
+        if ((next >>> size) != 0)
         {
-            List<T> copy = new ArrayList<T>();
-            copy.addAll(blist);
-            retlist.add(copy);
-            return;
+            return 0;
         }
-        for (int i = 0; i < alist.size(); i++)
+        return next;
+    }
+
+    /** The elements of list whose bits are set in mask. */
+    public static <T> List<T> select(List<T> list, long mask)
+    {
+        List<T> result = new ArrayList<T>(Long.bitCount(mask));
+        for (int i = 0; i < list.size(); i++)
         {
-            blist.add(alist.get(i));
-            List<T> sub = alist.subList(i + 1, alist.size());
-            List<T> subclone = new ArrayList<T>();
-            subclone.addAll(sub);
-            findCombinations(subclone, n - 1, blist);
-            blist.remove(blist.size() - 1);
+            if ((mask & (1L << i)) != 0)
+            {
+                result.add(list.get(i));
+            }
         }
+        return result;
     }
 
-    public Iterator<List<T>> iterator()
+    private class ComboIterator implements Iterator<List<T>>
     {
-        return retlist.iterator();
+        /** Indexes of the elements of the next combination; null when
+         *  there is none left. */
+        private int[] indexes;
+
+        ComboIterator()
+        {
+            if (n >= 0 && n <= list.size())
+            {
+                indexes = new int[n];
+                for (int i = 0; i < n; i++)
+                {
+                    indexes[i] = i;
+                }
+            }
+        }
+
+        public boolean hasNext()
+        {
+            return indexes != null;
+        }
+
+        public List<T> next()
+        {
+            if (indexes == null)
+            {
+                throw new NoSuchElementException();
+            }
+            List<T> combo = new ArrayList<T>(n);
+            for (int index : indexes)
+            {
+                combo.add(list.get(index));
+            }
+            advance();
+            return combo;
+        }
+
+        private void advance()
+        {
+            int size = list.size();
+            int i = n - 1;
+            while (i >= 0 && indexes[i] == size - n + i)
+            {
+                i--;
+            }
+            if (i < 0)
+            {
+                indexes = null;
+                return;
+            }
+            indexes[i]++;
+            for (int j = i + 1; j < n; j++)
+            {
+                indexes[j] = indexes[j - 1] + 1;
+            }
+        }
+
+        public void remove()
+        {
+            throw new UnsupportedOperationException();
+        }
     }
 }
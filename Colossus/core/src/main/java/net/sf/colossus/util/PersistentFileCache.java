@@ -0,0 +1,309 @@
+package net.sf.colossus.util;
+
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+
+/**
+ * Files fetched from a file server, kept on disk so that the next game
+ * (with the same variant) only needs to revalidate them with the server
+ * instead of fetching them again.
+ *
+ * The contents are stored by their hash (files/hash), so that files which
+ * are the same in several variants are kept only once; for each request
+ * key (see StaticResourceLoader.getMapKey()) there is a small file with the
+ * hash of the contents last received for it (keys/hash of the key).
+ *
+ * When the contents grow above MAX_TOTAL_SIZE, those used least recently
+ * are removed.
+ */
+public final class PersistentFileCache
+{
+    private static final Logger LOGGER = Logger
+        .getLogger(PersistentFileCache.class.getName());
+
+    private static final long MAX_TOTAL_SIZE = 64L * 1024 * 1024;
+
+    private static final String ENCODING = "UTF-8";
+
+    private final File keysDir;
+    private final File filesDir;
+
+    private boolean trimmed = false;
+
+    public PersistentFileCache(File directory)
+    {
+        this.keysDir = new File(directory, "keys");
+        this.filesDir = new File(directory, "files");
+    }
+
+    /** Hex SHA-1 of the data; what files are revalidated by */
+    public static String getContentHash(byte[] data)
+    {
+        try
+        {
+            byte[] digest = MessageDigest.getInstance("SHA-1").digest(data);
+            StringBuilder sb = new StringBuilder(digest.length * 2);
+            for (byte b : digest)
+            {
+                sb.append(Character.forDigit((b >> 4) & 0xF, 16));
+                sb.append(Character.forDigit(b & 0xF, 16));
+            }
+            return sb.toString();
+        }
+        catch (NoSuchAlgorithmException e)
+        {
+            // every Java platform has to support SHA-1
+            throw new IllegalStateException("No SHA-1 available", e);
+        }
+    }
+
+    /**
+     * Whether the hash has the form getContentHash() gives, i.e. exactly
+     * 40 lowercase hex digits; anything else (e.g. a path from a broken
+     * or malicious server) must never become a file name.
+     */
+    public static boolean isContentHash(String hash)
+    {
+        if (hash == null || hash.length() != 40)
+        {
+            return false;
+        }
+        for (int i = 0; i < hash.length(); i++)
+        {
+            char c = hash.charAt(i);
+            if (!((c >= '0' && c <= '9') || (c >= 'a' && c <= 'f')))
+            {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /** Whether the hash is well-formed and the one of the data */
+    public static boolean isHashOf(String hash, byte[] data)
+    {
+        return isContentHash(hash) && getContentHash(data).equals(hash);
+    }
+
+    /**
+     * The hash of the contents last stored for that key.
+     * @return The hash, or null if nothing is stored
+     */
+    public String getHash(String key)
+    {
+        byte[] hash = read(getKeyFile(key));
+        try
+        {
+            return hash == null ? null : new String(hash, ENCODING).trim();
+        }
+        catch (IOException e)
+        {
+            return null;
+        }
+    }
+
+    /**
+     * The stored contents with that hash.
+     * @return The contents, or null if they are not stored (or were
+     *         damaged; then they are removed)
+     */
+    public byte[] getContents(String hash)
+    {
+        if (!isContentHash(hash))
+        {
+            return null;
+        }
+        File file = new File(filesDir, hash);
+        byte[] data = read(file);
+        if (data != null && !getContentHash(data).equals(hash))
+        {
+            LOGGER.warning("Removing damaged cached file " + file);
+            file.delete();
+            return null;
+        }
+        if (data != null)
+        {
+            // for the trimming, see trim()
+            file.setLastModified(System.currentTimeMillis());
+        }
+        return data;
+    }
+
+    /**
+     * Store the contents received for that key.
+     * @return false if the hash is not the one of the data; then nothing
+     *         is stored
+     */
+    public boolean put(String key, String hash, byte[] data)
+    {
+        if (!isHashOf(hash, data))
+        {
+            LOGGER.warning("Not caching " + key + ", hash " + hash
+                + " does not match the contents");
+            return false;
+        }
+        if (!trimmed)
+        {
+            trim();
+            trimmed = true;
+        }
+        File file = new File(filesDir, hash);
+        if (!file.exists())
+        {
+            write(file, data);
+        }
+        try
+        {
+            write(getKeyFile(key), hash.getBytes(ENCODING));
+        }
+        catch (IOException e)
+        {
+            LOGGER.log(Level.WARNING, "Could not store hash for " + key, e);
+        }
+        return true;
+    }
+
+    private File getKeyFile(String key)
+    {
+        try
+        {
+            return new File(keysDir, getContentHash(key.getBytes(ENCODING)));
+        }
+        catch (IOException e)
+        {
+            // UTF-8 is always there
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /** Remove the contents used least recently while there are too many */
+    void trim()
+    {
+        File[] files = filesDir.listFiles();
+        if (files == null)
+        {
+            return;
+        }
+        long total = 0;
+        for (File file : files)
+        {
+            total += file.length();
+        }
+        if (total <= MAX_TOTAL_SIZE)
+        {
+            return;
+        }
+        Arrays.sort(files, new Comparator<File>()
+        {
+            public int compare(File f1, File f2)
+            {
+                return Long.valueOf(f1.lastModified()).compareTo(
+                    Long.valueOf(f2.lastModified()));
+            }
+        });
+        for (int i = 0; i < files.length && total > MAX_TOTAL_SIZE / 2; i++)
+        {
+            total -= files[i].length();
+            files[i].delete();
+        }
+        // Keys pointing to removed contents just give a miss
+        LOGGER.info("Trimmed file cache " + filesDir + " to " + total
+            + " bytes");
+    }
+
+    private static byte[] read(File file)
+    {
+        if (!file.isFile())
+        {
+            return null;
+        }
+        try
+        {
+            InputStream in = new FileInputStream(file);
+            try
+            {
+                byte[] data = new byte[(int)file.length()];
+                int read = 0;
+                while (read < data.length)
+                {
+                    int count = in.read(data, read, data.length - read);
+                    if (count == -1)
+                    {
+                        return null;
+                    }
+                    read += count;
+                }
+                return data;
+            }
+            finally
+            {
+                in.close();
+            }
+        }
+        catch (IOException e)
+        {
+            LOGGER.log(Level.WARNING, "Could not read cached file " + file, e);
+            return null;
+        }
+    }
+
+    /**
+     * Write to a temporary file first and rename it then, so that there
+     * are never partly written files (e.g. when two clients on the same
+     * machine store the same file).
+     */
+    private static void write(File file, byte[] data)
+    {
+        File dir = file.getParentFile();
+        if (!dir.isDirectory() && !dir.mkdirs())
+        {
+            LOGGER.warning("Could not create file cache directory " + dir);
+            return;
+        }
+        File temp = null;
+        try
+        {
+            temp = File.createTempFile(file.getName(), ".tmp", dir);
+            OutputStream out = new FileOutputStream(temp);
+            try
+            {
+                out.write(data);
+            }
+            finally
+            {
+                out.close();
+            }
+            if (!temp.renameTo(file))
+            {
+                // Windows does not replace existing files
+                file.delete();
+                if (!temp.renameTo(file))
+                {
+                    LOGGER.warning("Could not store cached file " + file);
+                    temp.delete();
+                }
+            }
+        }
+        catch (IOException e)
+        {
+            LOGGER.log(Level.WARNING, "Could not store cached file " + file,
+                e);
+            if (temp != null)
+            {
+                temp.delete();
+            }
+        }
+    }
+}
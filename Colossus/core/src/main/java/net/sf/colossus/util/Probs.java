@@ -17,10 +17,10 @@ public final class Probs
 
     static int lastFakeDie = 5;
 
-    /** Compute n! */
-    public static int factorial(int n)
+    /** Compute n!, up to 20 */
+    public static long factorial(int n)
     {
-        int answer = 1;
+        long answer = 1;
         for (int i = n; i >= 2; i--)
         {
             answer *= i;
@@ -31,37 +31,162 @@ public final class Probs
     /** Compute a choose b. */
     public static int choose(int a, int b)
     {
-        return factorial(a) / (factorial(b) * factorial(a - b));
+        // Not via factorial(), which overflows for more than 12 dice.
+        long answer = 1;
+        for (int i = 1; i <= b; i++)
+        {
+            answer = answer * (a - b + i) / i;
+        }
+        return (int)answer;
     }
 
-    /** Return the probability of getting exactly this number of hits. */
+    /**
+     * Return the probability of getting exactly this number of hits.
+     *
+     * A table lookup unless there are more than MAX_TABLE_DICE dice.
+     */
     public static double probHits(int dice, int strikeNumber, int hits)
     {
-        double p = (7.0 - strikeNumber) / 6.0;
-        return Math.pow(p, hits) * Math.pow(1 - p, dice - hits)
-            * choose(dice, hits);
+        if (hits < 0 || hits > dice)
+        {
+            return 0.0;
+        }
+        return getHitDistribution(dice, strikeNumber)[hits];
     }
 
     /** Return the probability of getting this number of hits or more. */
     public static double probHitsOrMore(int dice, int strikeNumber, int hits)
     {
-        double total = 0.0;
-        for (int i = hits; i <= dice; i++)
+        if (hits <= 0)
         {
-            total += probHits(dice, strikeNumber, i);
+            return 1.0;
         }
-        return total;
+        if (hits > dice)
+        {
+            return 0.0;
+        }
+        return getHitsOrMoreDistribution(dice, strikeNumber)[hits];
     }
 
     /** Return the probability of getting this number of hits or less. */
     public static double probHitsOrLess(int dice, int strikeNumber, int hits)
     {
+        if (hits < 0)
+        {
+            return 0.0;
+        }
+        if (hits >= dice)
+        {
+            return 1.0;
+        }
+        return 1.0 - getHitsOrMoreDistribution(dice, strikeNumber)[hits + 1];
+    }
+
+    /**
+     * Return the distribution of the number of hits: element h of the
+     * array is the probability of getting exactly h hits, for h from 0 to
+     * dice.
+     *
+     * For up to MAX_TABLE_DICE dice this is a shared, precomputed array,
+     * so callers must not modify it. A strike number above 6 never hits,
+     * one below 1 is treated as 1.
+     */
+    public static double[] getHitDistribution(int dice, int strikeNumber)
+    {
+        assert dice >= 0 : "Negative number of dice " + dice;
+        int strike = clampStrikeNumber(strikeNumber);
+        if (dice <= MAX_TABLE_DICE)
+        {
+            return HITS[strike][dice];
+        }
+        return computeHitDistribution(dice, strike);
+    }
+
+    /**
+     * Return the cumulative distribution of the number of hits: element h
+     * of the array is the probability of getting h hits or more, for h
+     * from 0 to dice.
+     *
+     * Shared like the array from getHitDistribution().
+     */
+    public static double[] getHitsOrMoreDistribution(int dice,
+        int strikeNumber)
+    {
+        assert dice >= 0 : "Negative number of dice " + dice;
+        int strike = clampStrikeNumber(strikeNumber);
+        if (dice <= MAX_TABLE_DICE)
+        {
+            return HITS_OR_MORE[strike][dice];
+        }
+        return accumulate(computeHitDistribution(dice, strike));
+    }
+
+    /**
+     * Number of dice up to which the hit distributions are precomputed.
+     * That is well above the power of any creature plus bonuses; for more
+     * they are computed on each call.
+     */
+    public static final int MAX_TABLE_DICE = 48;
+
+    /** Strike numbers 1 to 7; 7 is for all the ones that never hit */
+    private static final int MAX_STRIKE_NUMBER = 7;
+
+    /** HITS[strikeNumber][dice][hits], index 0 of strikeNumber unused */
+    private static final double[][][] HITS = new double[MAX_STRIKE_NUMBER + 1][][];
+
+    /** Same for the probability of that many hits or more */
+    private static final double[][][] HITS_OR_MORE = new double[MAX_STRIKE_NUMBER + 1][][];
+
+    static
+    {
+        for (int strike = 1; strike <= MAX_STRIKE_NUMBER; strike++)
+        {
+            HITS[strike] = new double[MAX_TABLE_DICE + 1][];
+            HITS_OR_MORE[strike] = new double[MAX_TABLE_DICE + 1][];
+            for (int dice = 0; dice <= MAX_TABLE_DICE; dice++)
+            {
+                HITS[strike][dice] = computeHitDistribution(dice, strike);
+                HITS_OR_MORE[strike][dice] = accumulate(HITS[strike][dice]);
+            }
+        }
+    }
+
+    private static int clampStrikeNumber(int strikeNumber)
+    {
+        return Math.max(1, Math.min(strikeNumber, MAX_STRIKE_NUMBER));
+    }
+
+    /**
+     * The binomial distribution, built up one die at a time; unlike
+     * powers times binomial coefficients this neither overflows nor loses
+     * precision for many dice.
+     */
+    private static double[] computeHitDistribution(int dice, int strikeNumber)
+    {
+        double p = (7.0 - strikeNumber) / 6.0;
+        double[] dist = new double[dice + 1];
+        dist[0] = 1.0;
+        for (int n = 1; n <= dice; n++)
+        {
+            for (int h = n; h >= 1; h--)
+            {
+                dist[h] = dist[h] * (1 - p) + dist[h - 1] * p;
+            }
+            dist[0] *= 1 - p;
+        }
+        return dist;
+    }
+
+    private static double[] accumulate(double[] dist)
+    {
+        double[] result = new double[dist.length];
         double total = 0.0;
-        for (int i = 0; i <= hits; i++)
+        for (int h = dist.length - 1; h >= 0; h--)
         {
-            total += probHits(dice, strikeNumber, i);
+            total += dist[h];
+            result[h] = Math.min(total, 1.0);
         }
-        return total;
+        return result;
     }
 
     /** Return the unrounded mean number of hits. */
@@ -45,4 +45,48 @@ public final class Split
         while (pos < len);
         return list;
     }
+
+    /**
+     * Like split(sep, s), but into an array of exactly the right size,
+     * without any list in between.
+     */
+    public static String[] splitToArray(final String sep, final String s)
+    {
+        String[] terms = new String[countTerms(sep, s)];
+        int pos = 0;
+        int len = s.length();
+        int i = 0;
+        do
+        {
+            int splitAt = s.indexOf(sep, pos);
+            if (splitAt == -1)
+            {
+                terms[i] = s.substring(pos);
+                return terms;
+            }
+            terms[i++] = s.substring(pos, splitAt);
+            pos = splitAt + sep.length();
+        }
+        while (pos < len);
+        return terms;
+    }
+
+    private static int countTerms(final String sep, final String s)
+    {
+        int count = 0;
+        int pos = 0;
+        int len = s.length();
+        do
+        {
+            int splitAt = s.indexOf(sep, pos);
+            count++;
+            if (splitAt == -1)
+            {
+                return count;
+            }
+            pos = splitAt + sep.length();
+        }
+        while (pos < len);
+        return count;
+    }
 }
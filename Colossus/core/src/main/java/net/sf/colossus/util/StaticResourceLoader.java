@@ -11,7 +11,10 @@ import java.awt.Toolkit;
 import java.awt.geom.Rectangle2D;
 import java.awt.image.BufferedImage;
 import java.awt.image.WritableRaster;
+import java.io.BufferedInputStream;
 import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileNotFoundException;
@@ -21,6 +24,7 @@ import java.io.InputStream;
 import java.io.InputStreamReader;
 import java.io.OutputStream;
 import java.io.PrintWriter;
+import java.lang.ref.SoftReference;
 import java.lang.reflect.Constructor;
 import java.net.MalformedURLException;
 import java.net.Socket;
@@ -59,6 +63,21 @@ public final class StaticResourceLoader
 
     public static final String FILESERVER_IGNOREFAIL_SIGNAL = "~/~Ignore-Fail~/~";
 
+    /**
+     * Starts a request which is answered with a header line, the length
+     * and hash of the contents, and keeps the connection open; followed by
+     * the hash of the copy the client has, or FILESERVER_NO_HASH. Only
+     * sent if the game server announced it (Constants.fileServerHash),
+     * since an older file server would take it for the name of a file.
+     * @see net.sf.colossus.server.FileServerThread
+     */
+    public static final String FILESERVER_HASH_SIGNAL = "~/~Hash~/~";
+
+    public static final String FILESERVER_NO_HASH = "-";
+
+    /** Length in the header when the client's copy is still current */
+    public static final int FILESERVER_NOT_MODIFIED = -1;
+
     /**
      * Class ColossusClassLoader allows for class loading outside the
      * CLASSPATH, i.e. from the various variant directories.
@@ -142,19 +161,88 @@ public final class StaticResourceLoader
     // to server.Constants.
     public final static String REQUEST_TOKEN_SEPARATOR = " ~ ";
 
+    /** Incremented by each purgeFileCache() */
+    private static int fileCacheGeneration = 0;
+
+    /**
+     * The hash the file server gave for the files it sent; together with
+     * purgedFiles, to ask it whether the copy is still current instead of
+     * fetching the file again.
+     */
+    private static final Map<String, String> fileHashes = Collections
+        .synchronizedMap(new HashMap<String, String>());
+
+    /**
+     * Files from the file server dropped by purgeFileCache(); kept as long
+     * as memory allows, for the revalidation.
+     */
+    private static final Map<String, SoftReference<byte[]>> purgedFiles = Collections
+        .synchronizedMap(new HashMap<String, SoftReference<byte[]>>());
+
+    /** Copies of the files from the file server on disk, if any */
+    private static PersistentFileCache persistentFileCache = null;
+
     private static String server = null;
     private static int serverPort = 0;
 
+    /** The connection to the file server, kept open for further requests */
+    private static Socket fileSocket = null;
+    private static InputStream fileIn = null;
+    private static OutputStream fileOut = null;
+
+    /**
+     * Whether the file server understands FILESERVER_HASH_SIGNAL; the game
+     * server tells that its clients at sign on.
+     */
+    private static boolean hashFileServer = false;
+
     public static void setDataServer(String server, int port)
     {
-        StaticResourceLoader.server = server;
-        StaticResourceLoader.serverPort = port;
+        synchronized (fileCache)
+        {
+            closeFileConnection();
+            hashFileServer = false;
+            StaticResourceLoader.server = server;
+            StaticResourceLoader.serverPort = port;
+        }
+    }
+
+    /**
+     * The file server of the current data server understands requests
+     * with FILESERVER_HASH_SIGNAL; until this is called, each file is
+     * fetched over its own connection with the old request, which any
+     * file server understands.
+     */
+    public static void setFileServerUnderstandsHash()
+    {
+        synchronized (fileCache)
+        {
+            hashFileServer = true;
+        }
+    }
+
+    /**
+     * Keep the files fetched from the file server also on disk, so that
+     * they only need to be revalidated in later games.
+     * @param directory The directory for them, or null for no such cache
+     */
+    public static void setPersistentFileCache(File directory)
+    {
+        synchronized (fileCache)
+        {
+            persistentFileCache = (directory == null ? null
+                : new PersistentFileCache(directory));
+        }
     }
 
     public static void resetDataServer()
     {
-        StaticResourceLoader.server = null;
-        StaticResourceLoader.serverPort = 0;
+        synchronized (fileCache)
+        {
+            closeFileConnection();
+            StaticResourceLoader.server = null;
+            StaticResourceLoader.serverPort = 0;
+        }
     }
 
     /**
@@ -173,11 +261,38 @@ public final class StaticResourceLoader
         imageCache.clear();
     }
 
-    /** empty the cache so that all files have to be reloaded */
+    /**
+     * empty the cache so that all files have to be reloaded; those from the
+     * file server are only revalidated, if possible.
+     */
     public synchronized static void purgeFileCache()
     {
         LOGGER.log(Level.FINEST, "Purging File Cache.");
-        fileCache.clear();
+        synchronized (fileCache)
+        {
+            for (Map.Entry<String, byte[]> entry : fileCache.entrySet())
+            {
+                if (fileHashes.containsKey(entry.getKey()))
+                {
+                    purgedFiles.put(entry.getKey(), new SoftReference<byte[]>(
+                        entry.getValue()));
+                }
+            }
+            fileCache.clear();
+            fileCacheGeneration++;
+        }
+    }
+
+    /**
+     * Changes with each purgeFileCache(), so that those who keep something
+     * derived from the cached files know that it might be outdated.
+     */
+    public static int getFileCacheGeneration()
+    {
+        synchronized (fileCache)
+        {
+            return fileCacheGeneration;
+        }
     }
 
     /**
@@ -486,63 +601,231 @@ public final class StaticResourceLoader
                 }
                 else
                 {
-                    try
+                    if (hashFileServer)
                     {
-                        Socket fileSocket = new Socket(server, serverPort);
-                        InputStream is = fileSocket.getInputStream();
-
-                        if (is == null)
-                        {
-                            LOGGER.log(Level.WARNING, "getInputStream:: "
-                                + " Couldn't get InputStream from socket"
-                                + " for file " + filename + " in "
-                                + directories
-                                + (cachedOnly ? " (cached only)" : ""));
-                            // TODO this sounds more serious than just a warning in the logs
-                        }
-                        else
-                        {
-                            PrintWriter out = new PrintWriter(
-                                fileSocket.getOutputStream(), true);
-
-                            if (ignoreFail)
-                            {
-                                out.print(FILESERVER_IGNOREFAIL_SIGNAL
-                                    + REQUEST_TOKEN_SEPARATOR);
-                            }
-                            out.print(filename);
-                            Iterator<String> it = directories.iterator();
-                            while (it.hasNext())
-                            {
-                                out.print(REQUEST_TOKEN_SEPARATOR + it.next());
-                            }
-                            out.println();
-                            data = getBytesFromInputStream(is);
-                            if (data != null && data.length == 0
-                                && !ignoreFail)
-                            {
-                                LOGGER.log(
-                                    Level.WARNING,
-                                    "Got empty contents for file " + filename
-                                        + " directories "
-                                        + directories.toString());
-                            }
-                            fileSocket.close();
-                            fileCache.put(mapKey, data);
-                        }
+                        data = requestFromFileServer(mapKey, filename,
+                            directories, ignoreFail);
                     }
-                    catch (Exception e)
+                    else
+                    {
+                        data = requestFromLegacyFileServer(filename,
+                            directories, ignoreFail);
+                    }
+                    if (data != null && data.length == 0 && !ignoreFail)
+                    {
+                        LOGGER.log(Level.WARNING, "Got empty contents for file "
+                            + filename + " directories "
+                            + directories.toString());
+                    }
+                    if (data != null)
                     {
-                        LOGGER.log(Level.SEVERE, "Failed to read from stream",
-                            e);
+                        fileCache.put(mapKey, data);
                     }
                 }
-
             }
         }
         return (data == null ? null : getInputStreamFromBytes(data));
     }
 
+    /**
+     * Fetch a file over the connection to the file server (opened if
+     * needed), or just revalidate the copy purgeFileCache() left over or
+     * the one in the persistent file cache.
+     * Caller has to hold the fileCache lock.
+     * @return The contents, or null if it fails
+     */
+    private static byte[] requestFromFileServer(String mapKey,
+        String filename, List<String> directories, boolean ignoreFail)
+    {
+        SoftReference<byte[]> purgedRef = purgedFiles.get(mapKey);
+        byte[] ownCopy = (purgedRef == null ? null : purgedRef.get());
+        String knownHash = (ownCopy == null ? null : fileHashes.get(mapKey));
+        if (ownCopy == null && persistentFileCache != null)
+        {
+            String hash = persistentFileCache.getHash(mapKey);
+            ownCopy = (hash == null ? null : persistentFileCache
+                .getContents(hash));
+            knownHash = (ownCopy == null ? null : hash);
+        }
+
+        StringBuilder request = new StringBuilder(FILESERVER_HASH_SIGNAL);
+        request.append(REQUEST_TOKEN_SEPARATOR);
+        request.append(knownHash == null ? FILESERVER_NO_HASH : knownHash);
+        if (ignoreFail)
+        {
+            request.append(REQUEST_TOKEN_SEPARATOR);
+            request.append(FILESERVER_IGNOREFAIL_SIGNAL);
+        }
+        request.append(REQUEST_TOKEN_SEPARATOR);
+        request.append(filename);
+        for (String directory : directories)
+        {
+            request.append(REQUEST_TOKEN_SEPARATOR);
+            request.append(directory);
+        }
+        request.append('\n');
+        byte[] requestBytes = request.toString().getBytes();
+
+        // The server might have closed a connection kept from earlier;
+        // then try once more with a new one.
+        for (int attempt = 0; attempt < 2; attempt++)
+        {
+            boolean newConnection = (fileSocket == null);
+            try
+            {
+                if (newConnection)
+                {
+                    fileSocket = new Socket(server, serverPort);
+                    fileSocket.setTcpNoDelay(true);
+                    fileIn = new BufferedInputStream(
+                        fileSocket.getInputStream());
+                    fileOut = fileSocket.getOutputStream();
+                }
+                fileOut.write(requestBytes);
+                fileOut.flush();
+
+                String header = readHeaderLine(fileIn);
+                if (header == null)
+                {
+                    throw new EOFException("No answer for " + filename);
+                }
+                List<String> li = Split.split(REQUEST_TOKEN_SEPARATOR, header);
+                int length = Integer.parseInt(li.get(0));
+                String hash = li.get(1);
+                if (length == FILESERVER_NOT_MODIFIED)
+                {
+                    LOGGER.log(Level.FINEST, "Copy of " + filename
+                        + " is still current");
+                    // our own hash; that one was checked against the copy
+                    if (knownHash != null)
+                    {
+                        fileHashes.put(mapKey, knownHash);
+                    }
+                    purgedFiles.remove(mapKey);
+                    return ownCopy;
+                }
+                byte[] data = new byte[length];
+                int read = 0;
+                while (read < length)
+                {
+                    int count = fileIn.read(data, read, length - read);
+                    if (count == -1)
+                    {
+                        throw new EOFException("End of stream within "
+                            + filename);
+                    }
+                    read += count;
+                }
+                purgedFiles.remove(mapKey);
+                if (!PersistentFileCache.isHashOf(hash, data))
+                {
+                    if (!hash.equals(FILESERVER_NO_HASH))
+                    {
+                        LOGGER.warning("File server sent hash " + hash
+                            + " not matching the contents of " + filename);
+                    }
+                    fileHashes.remove(mapKey);
+                }
+                else
+                {
+                    fileHashes.put(mapKey, hash);
+                    if (persistentFileCache != null)
+                    {
+                        persistentFileCache.put(mapKey, hash, data);
+                    }
+                }
+                return data;
+            }
+            catch (Exception e)
+            {
+                closeFileConnection();
+                if (newConnection)
+                {
+                    LOGGER.log(Level.SEVERE, "Failed to read from stream", e);
+                    return null;
+                }
+            }
+        }
+        return null;
+    }
+
+    /** The header line of an answer, or null at end of stream */
+    private static String readHeaderLine(InputStream in) throws IOException
+    {
+        StringBuilder line = new StringBuilder();
+        int c;
+        while ((c = in.read()) != '\n')
+        {
+            if (c == -1)
+            {
+                if (line.length() == 0)
+                {
+                    return null;
+                }
+                throw new EOFException("End of stream within header");
+            }
+            line.append((char)c);
+        }
+        return line.toString();
+    }
+
+    private static void closeFileConnection()
+    {
+        if (fileSocket != null)
+        {
+            try
+            {
+                fileSocket.close();
+            }
+            catch (IOException e)
+            {
+                LOGGER.log(Level.FINEST, "Closing file server connection: "
+                    + e);
+            }
+        }
+        fileSocket = null;
+        fileIn = null;
+        fileOut = null;
+    }
+
+    /**
+     * Fetch a file from a file server which only understands the request
+     * without FILESERVER_HASH_SIGNAL: one connection, closed after the
+     * contents are sent.
+     * @return The contents, or null if it fails
+     */
+    private static byte[] requestFromLegacyFileServer(String filename,
+        List<String> directories, boolean ignoreFail)
+    {
+        byte[] data = null;
+        try
+        {
+            Socket socket = new Socket(server, serverPort);
+            InputStream is = socket.getInputStream();
+            PrintWriter out = new PrintWriter(socket.getOutputStream(), true);
+
+            if (ignoreFail)
+            {
+                out.print(FILESERVER_IGNOREFAIL_SIGNAL
+                    + REQUEST_TOKEN_SEPARATOR);
+            }
+            out.print(filename);
+            Iterator<String> it = directories.iterator();
+            while (it.hasNext())
+            {
+                out.print(REQUEST_TOKEN_SEPARATOR + it.next());
+            }
+            out.println();
+            data = getBytesFromInputStream(is);
+            socket.close();
+        }
+        catch (Exception e)
+        {
+            LOGGER.log(Level.SEVERE, "Failed to read from stream", e);
+        }
+        return data;
+    }
+
     /**
      * Return the content of the specified file as an array of byte.
      * @param filename Name of the file to load.
@@ -580,7 +863,7 @@ public final class StaticResourceLoader
      */
     private static byte[] getBytesFromInputStream(InputStream is)
     {
-        byte[] all = new byte[0];
+        ByteArrayOutputStream all = new ByteArrayOutputStream();
 
         try
         {
@@ -588,16 +871,7 @@ public final class StaticResourceLoader
             int r = is.read(data);
             while (r > 0)
             {
-                byte[] temp = new byte[all.length + r];
-                for (int i = 0; i < all.length; i++)
-                {
-                    temp[i] = all[i];
-                }
-                for (int i = 0; i < r; i++)
-                {
-                    temp[i + all.length] = data[i];
-                }
-                all = temp;
+                all.write(data, 0, r);
                 r = is.read(data);
             }
         }
@@ -605,7 +879,7 @@ public final class StaticResourceLoader
         {
             LOGGER.log(Level.SEVERE, "Can't Stringify stream " + is + ".", e);
         }
-        return all;
+        return all.toByteArray();
     }
 
     /**
@@ -0,0 +1,81 @@
+package net.sf.colossus.util;
+
+
+import java.util.AbstractList;
+import java.util.List;
+
+
+/**
+ * The arguments of a protocol command, as a List view of the terms the
+ * line was split into (see Split.splitToArray()).
+ *
+ * The command handlers take the arguments one after the other with
+ * remove(0); here that just moves the start of the view, instead of
+ * shifting all the rest like an ArrayList or allocating nodes like a
+ * LinkedList. Removing at any other index is not supported.
+ *
+ * The array is never modified, so copies share it.
+ */
+public final class TermList extends AbstractList<String>
+{
+    private final String[] terms;
+    private int start;
+
+    public TermList(String[] terms, int start)
+    {
+        if (start < 0 || start > terms.length)
+        {
+            throw new IndexOutOfBoundsException("Start " + start
+                + " for a list of " + terms.length + " terms");
+        }
+        this.terms = terms;
+        this.start = start;
+    }
+
+    /** A TermList with the same elements as list; shares if possible */
+    public static TermList copyOf(List<String> list)
+    {
+        if (list instanceof TermList)
+        {
+            return ((TermList)list).copy();
+        }
+        return new TermList(list.toArray(new String[list.size()]), 0);
+    }
+
+    /** An independent list of the remaining terms */
+    public TermList copy()
+    {
+        return new TermList(terms, start);
+    }
+
+    @Override
+    public String get(int index)
+    {
+        if (index < 0 || index >= size())
+        {
+            throw new IndexOutOfBoundsException("Index " + index + ", size "
+                + size());
+        }
+        return terms[start + index];
+    }
+
+    @Override
+    public int size()
+    {
+        return terms.length - start;
+    }
+
+    @Override
+    public String remove(int index)
+    {
+        if (index != 0)
+        {
+            throw new UnsupportedOperationException(
+                "TermList supports only remove(0)");
+        }
+        String first = get(0);
+        start++;
+        modCount++;
+        return first;
+    }
+}
@@ -16,17 +16,35 @@ public class ValueRecorder implements IValueRecorderItem
     private int value = 0;
     private float scale = 1;
     private final String desc;
+    /** Whether the explanations are kept, or only the value */
+    private final boolean recordReasons;
     /** All the explanations and value changes */
     private final List<IValueRecorderItem> items = new ArrayList<IValueRecorderItem>();
 
     public ValueRecorder()
     {
-        desc = null;
+        this(null, true);
     }
 
     public ValueRecorder(String desc)
+    {
+        this(desc, true);
+    }
+
+    /**
+     * @param recordReasons If false, only the value is computed and the
+     *   reasons are dropped; for the AI's inner loops, where nobody is
+     *   going to read them anyway.
+     */
+    public ValueRecorder(boolean recordReasons)
+    {
+        this(null, recordReasons);
+    }
+
+    private ValueRecorder(String desc, boolean recordReasons)
     {
         this.desc = desc;
+        this.recordReasons = recordReasons;
     }
 
     public boolean isReset()
@@ -87,7 +105,10 @@ public class ValueRecorder implements IValueRecorderItem
      */
     public void add(int v, String r)
     {
-        items.add(new TrivialValueRecorderItem(v, r, false));
+        if (recordReasons)
+        {
+            items.add(new TrivialValueRecorderItem(v, r, false));
+        }
 
         value += v;
     }
@@ -98,7 +119,10 @@ public class ValueRecorder implements IValueRecorderItem
      */
     public void add(ValueRecorder v)
     {
-        items.add(v);
+        if (recordReasons)
+        {
+            items.add(v);
+        }
 
         value += v.getValue();
     }
@@ -110,7 +134,10 @@ public class ValueRecorder implements IValueRecorderItem
      */
     public void resetTo(int v, String r)
     {
-        items.add(new TrivialValueRecorderItem(v, r, true));
+        if (recordReasons)
+        {
+            items.add(new TrivialValueRecorderItem(v, r, true));
+        }
 
         value = v;
     }
@@ -63,6 +63,11 @@ public class MasterBoard
      */
     private final Map<String, MasterHex> hexByLabelCache = new HashMap<String, MasterHex>();
 
+    /**
+     * The paths legions can take on this board, filled as needed.
+     */
+    private final MasterBoardReachability reachability = new MasterBoardReachability();
+
     public MasterBoard(int horizSize, int vertSize, boolean show[][],
         MasterHex[][] plainHexArray)
     {
@@ -82,6 +87,11 @@ public class MasterBoard
         setupNeighbors(plainHexArray);
     }
 
+    public MasterBoardReachability getReachability()
+    {
+        return reachability;
+    }
+
     public int getBoardParity()
     {
         return boardParity;
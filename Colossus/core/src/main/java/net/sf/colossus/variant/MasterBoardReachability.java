@@ -0,0 +1,256 @@
+package net.sf.colossus.variant;
+
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import net.sf.colossus.common.Constants;
+import net.sf.colossus.game.EntrySide;
+
+
+/**
+ * Where a legion can get to on the master board with a given roll, as far
+ * as the board itself is concerned.
+ *
+ * For each combination of starting hex, roll, block and the direction the
+ * legion came from this has a tree of all the paths along arches and
+ * arrows, computed when first asked for and kept for the lifetime of the
+ * board, since its topology never changes. Which of the paths a legion
+ * may really take depends on where the other legions are; that is for
+ * game.Movement to find out when walking the tree.
+ *
+ * Safe to be used from several threads.
+ */
+public class MasterBoardReachability
+{
+    private final ConcurrentMap<Key, Step> roots = new ConcurrentHashMap<Key, Step>();
+
+    private final ConcurrentMap<Destination, Destination> destinations = new ConcurrentHashMap<Destination, Destination>();
+
+    MasterBoardReachability()
+    {
+        // only created by MasterBoard
+    }
+
+    /**
+     * Get the tree of all paths from the given hex.
+     *
+     * @param hex The hex to start from
+     * @param roll The number of hexes to move, must be greater than 0
+     * @param block Which exit to take, or Constants.ARCHES_AND_ARROWS or
+     *   Constants.ARROWS_ONLY
+     * @param cameFrom The direction of the hex we came from, or
+     *   Constants.NOWHERE
+     * @return The step into the starting hex
+     */
+    public Step getPaths(MasterHex hex, int roll, int block, int cameFrom)
+    {
+        assert roll > 0 : "Roll must be positive";
+        Key key = new Key(hex, roll, block, cameFrom);
+        Step root = roots.get(key);
+        if (root == null)
+        {
+            root = createStep(hex, roll, block, cameFrom);
+            Step other = roots.putIfAbsent(key, root);
+            if (other != null)
+            {
+                root = other;
+            }
+        }
+        return root;
+    }
+
+    private Step createStep(MasterHex hex, int roll, int block, int cameFrom)
+    {
+        List<Step> next = new ArrayList<Step>();
+        if (roll > 0)
+        {
+            for (int i = 0; i < 6; i++)
+            {
+                boolean canExit;
+                if (block >= 0)
+                {
+                    canExit = i == block;
+                }
+                else if (block == Constants.ARCHES_AND_ARROWS)
+                {
+                    canExit = hex.getExitType(i).ordinal() >= Constants.HexsideGates.ARCH
+                        .ordinal()
+                        && i != cameFrom;
+                }
+                else
+                {
+                    canExit = hex.getExitType(i).ordinal() >= Constants.HexsideGates.ARROW
+                        .ordinal()
+                        && i != cameFrom;
+                }
+                if (canExit)
+                {
+                    next.add(createStep(hex.getNeighbor(i), roll - 1,
+                        Constants.ARROWS_ONLY, (i + 3) % 6));
+                }
+            }
+        }
+        Destination destination = null;
+        if (cameFrom != Constants.NOWHERE)
+        {
+            destination = getDestination(hex, findEntrySide(hex, cameFrom));
+        }
+        return new Step(hex, roll, destination, next.toArray(new Step[next
+            .size()]));
+    }
+
+    private Destination getDestination(MasterHex hex, EntrySide entrySide)
+    {
+        Destination destination = new Destination(hex, entrySide);
+        Destination other = destinations.putIfAbsent(destination,
+            destination);
+        return other == null ? destination : other;
+    }
+
+    /** Get the entry side into hex when coming from direction cameFrom */
+    public static EntrySide findEntrySide(MasterHex hex, int cameFrom)
+    {
+        int entrySide = -1;
+        if (cameFrom != -1)
+        {
+            if (hex.getTerrain().hasStartList())
+            {
+                entrySide = 3;
+            }
+            else
+            {
+                entrySide = (6 + cameFrom - hex.getLabelSide()) % 6;
+            }
+        }
+        return EntrySide.values()[entrySide];
+    }
+
+    /**
+     * Entering one hex on a path.
+     */
+    public static class Step
+    {
+        private final MasterHex hex;
+        private final int roll;
+        private final Destination destination;
+        private final Step[] next;
+
+        Step(MasterHex hex, int roll, Destination destination, Step[] next)
+        {
+            this.hex = hex;
+            this.roll = roll;
+            this.destination = destination;
+            this.next = next;
+        }
+
+        public MasterHex getHex()
+        {
+            return hex;
+        }
+
+        /** The part of the roll that is left after entering this hex */
+        public int getRoll()
+        {
+            return roll;
+        }
+
+        /** The hex with the side it was entered from; null for the
+         *  starting hex */
+        public Destination getDestination()
+        {
+            return destination;
+        }
+
+        /** The possible next steps; empty when the roll is used up */
+        public Step[] getNext()
+        {
+            return next;
+        }
+    }
+
+    /**
+     * A hex and the side from which a legion enters it.
+     */
+    public static class Destination
+    {
+        private final MasterHex hex;
+        private final EntrySide entrySide;
+
+        Destination(MasterHex hex, EntrySide entrySide)
+        {
+            this.hex = hex;
+            this.entrySide = entrySide;
+        }
+
+        public MasterHex getHex()
+        {
+            return hex;
+        }
+
+        public EntrySide getEntrySide()
+        {
+            return entrySide;
+        }
+
+        @Override
+        public int hashCode()
+        {
+            return 31 * hex.hashCode() + entrySide.hashCode();
+        }
+
+        @Override
+        public boolean equals(Object obj)
+        {
+            if (!(obj instanceof Destination))
+            {
+                return false;
+            }
+            Destination other = (Destination)obj;
+            return hex.equals(other.hex) && entrySide == other.entrySide;
+        }
+
+        @Override
+        public String toString()
+        {
+            return hex.getLabel() + ":" + entrySide.getLabel();
+        }
+    }
+
+    private static class Key
+    {
+        private final MasterHex hex;
+        private final int roll;
+        private final int block;
+        private final int cameFrom;
+
+        Key(MasterHex hex, int roll, int block, int cameFrom)
+        {
+            this.hex = hex;
+            this.roll = roll;
+            this.block = block;
+            this.cameFrom = cameFrom;
+        }
+
+        @Override
+        public int hashCode()
+        {
+            return ((hex.hashCode() * 31 + roll) * 31 + block) * 31
+                + cameFrom;
+        }
+
+        @Override
+        public boolean equals(Object obj)
+        {
+            if (!(obj instanceof Key))
+            {
+                return false;
+            }
+            Key other = (Key)obj;
+            return hex.equals(other.hex) && roll == other.roll
+                && block == other.block && cameFrom == other.cameFrom;
+        }
+    }
+}
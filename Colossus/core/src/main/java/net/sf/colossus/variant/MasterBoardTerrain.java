@@ -15,6 +15,7 @@ import java.util.logging.Logger;
 
 import net.sf.colossus.client.HexMap;
 import net.sf.colossus.game.EntrySide;
+import net.sf.colossus.game.LineOfSightTable;
 import net.sf.colossus.server.VariantSupport;
 import net.sf.colossus.util.StaticResourceLoader;
 import net.sf.colossus.xmlparser.BattlelandLoader;
@@ -79,6 +80,8 @@ public class MasterBoardTerrain implements Comparable<MasterBoardTerrain>
     // TODO it might be worthwhile moving the battle land into a separate class
     private final BattleHex[][] battleHexes = new BattleHex[6][6];
     private final BattleHex[] entrances = new BattleHex[6];
+    /** Line of sight between all hexes of the battle land */
+    private LineOfSightTable lineOfSightTable;
 
     /** The recruiting tree of this terrain */
     IRecruiting recruitingSubTree;
@@ -112,6 +115,7 @@ public class MasterBoardTerrain implements Comparable<MasterBoardTerrain>
         setupHexesGameState();
         setupNeighbors();
         setupEntrances();
+        lineOfSightTable = new LineOfSightTable(battleHexes);
     }
 
     private void setupEntrances()
@@ -201,6 +205,11 @@ public class MasterBoardTerrain implements Comparable<MasterBoardTerrain>
         }
     }
 
+    public LineOfSightTable getLineOfSightTable()
+    {
+        return lineOfSightTable;
+    }
+
     public BattleHex getEntrance(EntrySide entrySide)
     {
         return getHexByLabel("X" + entrySide.ordinal());
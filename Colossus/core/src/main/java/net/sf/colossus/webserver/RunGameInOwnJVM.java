@@ -255,6 +255,8 @@ public class RunGameInOwnJVM extends Thread implements IGameRunner
 
         gameOptions.setOption(Options.autoQuit, true);
         gameOptions.setOption(Options.keepAccepting, true);
+        // all autosaves of all games are kept, see workFilesBaseDir
+        gameOptions.setOption(Options.autosaveCompressed, true);
         String statFileName = diceStatisticsFile.toString();
         LOGGER.finest("Statisticsfilename: " + statFileName);
         gameOptions.setOption(Options.diceStatisticsFile, statFileName);
@@ -0,0 +1,191 @@
+package net.sf.colossus.ai;
+
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ForkJoinPool;
+
+import junit.framework.TestCase;
+import net.sf.colossus.ai.helper.CritterMove;
+import net.sf.colossus.ai.helper.LegionMove;
+import net.sf.colossus.client.BattleClientSide;
+import net.sf.colossus.client.LegionClientSide;
+import net.sf.colossus.game.Game;
+import net.sf.colossus.game.Legion;
+import net.sf.colossus.game.Player;
+import net.sf.colossus.server.VariantSupport;
+import net.sf.colossus.variant.MasterHex;
+import net.sf.colossus.variant.Variant;
+
+
+/**
+ * JUnit test that LegionMoveSearch gives the same move as the sequential
+ * search, whatever the number of threads.
+ */
+public class LegionMoveSearchTest extends TestCase
+{
+    /** More than one batch (1024 moves) of 16-move chunks */
+    private static final int NUM_MOVES = 3000;
+
+    /** Where the best score is first, and where it comes again */
+    private static final int FIRST_BEST = 1030;
+    private static final int[] TIED = { 1031, 1047, 1100, 2048, 2999 };
+
+    private BattleClientSide battle;
+    private List<LegionMove> moves;
+    private Map<LegionMove, Integer> scores;
+
+    public LegionMoveSearchTest(String name)
+    {
+        super(name);
+    }
+
+    @Override
+    protected void setUp() throws Exception
+    {
+        super.setUp();
+
+        Variant variant = VariantSupport.loadVariantByName("Default", true);
+        Game game = new Game(variant, new String[0]);
+        MasterHex hex = variant.getMasterBoard().getHexByLabel("35");
+        Player red = new Player(game, "Red", 0);
+        Player blue = new Player(game, "Blue", 1);
+        game.addPlayer(red);
+        game.addPlayer(blue);
+        Legion attacker = new LegionClientSide(red, "Rd03", hex);
+        Legion defender = new LegionClientSide(blue, "Bu09", hex);
+        red.addLegion(attacker);
+        blue.addLegion(defender);
+        battle = new BattleClientSide(game, attacker, defender, hex);
+
+        moves = new ArrayList<LegionMove>(NUM_MOVES);
+        scores = new IdentityHashMap<LegionMove, Integer>();
+        for (int i = 0; i < NUM_MOVES; i++)
+        {
+            LegionMove lm = new LegionMove(
+                Collections.<List<CritterMove>> emptyList(), new int[0]);
+            moves.add(lm);
+            scores.put(lm, Integer.valueOf(i % 7));
+        }
+        scores.put(moves.get(FIRST_BEST), Integer.valueOf(100));
+        for (int i : TIED)
+        {
+            scores.put(moves.get(i), Integer.valueOf(100));
+        }
+    }
+
+    /** Scores by the table; remembers the snapshots it was given */
+    private class StubEvaluator implements LegionMoveSearch.Evaluator
+    {
+        private final ThreadLocal<BattleClientSide> current = new ThreadLocal<BattleClientSide>();
+        private final Set<BattleClientSide> snapshots = Collections
+            .synchronizedSet(Collections
+                .newSetFromMap(new IdentityHashMap<BattleClientSide, Boolean>()));
+
+        public int evaluateLegionBattleMove(LegionMove lm)
+        {
+            assertNotNull("Evaluated without snapshot", current.get());
+            return scores.get(lm).intValue();
+        }
+
+        public boolean isTimeUp()
+        {
+            return false;
+        }
+
+        public void setBattleSnapshot(BattleClientSide snapshot)
+        {
+            if (snapshot == null)
+            {
+                current.remove();
+            }
+            else
+            {
+                assertNotSame(battle, snapshot);
+                current.set(snapshot);
+                snapshots.add(snapshot);
+            }
+        }
+    }
+
+    private LegionMove findSequentially()
+    {
+        LegionMove best = null;
+        int bestScore = Integer.MIN_VALUE;
+        for (LegionMove lm : moves)
+        {
+            int score = scores.get(lm).intValue();
+            if (score > bestScore)
+            {
+                bestScore = score;
+                best = lm;
+            }
+        }
+        return best;
+    }
+
+    private void checkWithThreads(int threads)
+    {
+        ForkJoinPool pool = new ForkJoinPool(threads);
+        try
+        {
+            StubEvaluator evaluator = new StubEvaluator();
+            LegionMoveSearch search = new LegionMoveSearch(battle, evaluator,
+                0, pool);
+            LegionMove best = search.findBest(moves);
+
+            assertSame(moves.get(FIRST_BEST), findSequentially());
+            assertSame("Not the first of the tied moves with " + threads
+                + " threads", moves.get(FIRST_BEST), best);
+            assertEquals(100, search.getBestScore());
+            assertEquals(NUM_MOVES, search.getCount());
+            // one per worker thread, plus maybe the caller helping out
+            assertTrue(evaluator.snapshots.size() + " snapshots for "
+                + threads + " threads",
+                evaluator.snapshots.size() <= threads + 1);
+        }
+        finally
+        {
+            pool.shutdown();
+        }
+    }
+
+    public void testOneThread()
+    {
+        checkWithThreads(1);
+    }
+
+    public void testSeveralThreads()
+    {
+        checkWithThreads(4);
+    }
+
+    public void testRepeatedly()
+    {
+        for (int i = 0; i < 20; i++)
+        {
+            checkWithThreads(Math.max(2, Runtime.getRuntime()
+                .availableProcessors()));
+        }
+    }
+
+    public void testNoMoves()
+    {
+        ForkJoinPool pool = new ForkJoinPool(2);
+        try
+        {
+            LegionMoveSearch search = new LegionMoveSearch(battle,
+                new StubEvaluator(), 0, pool);
+            assertNull(search.findBest(new ArrayList<LegionMove>()));
+            assertEquals(Integer.MIN_VALUE, search.getBestScore());
+        }
+        finally
+        {
+            pool.shutdown();
+        }
+    }
+}
@@ -0,0 +1,95 @@
+package net.sf.colossus.ai.helper;
+
+
+import java.util.ArrayList;
+import java.util.List;
+
+import junit.framework.TestCase;
+import net.sf.colossus.variant.PowerSkill;
+
+
+/**
+ * JUnit test for the battle odds of the AIs.
+ */
+public class BattleOddsTest extends TestCase
+{
+    private static List<PowerSkill> legion(int count, int power, int skill)
+    {
+        List<PowerSkill> list = new ArrayList<PowerSkill>();
+        for (int i = 0; i < count; i++)
+        {
+            list.add(new PowerSkill("Creature" + power + skill, power, skill));
+        }
+        return list;
+    }
+
+    private static void assertConsistent(BattleOdds odds, int attackers,
+        int defenders)
+    {
+        double total = odds.getAttackerWins() + odds.getDefenderWins()
+            + odds.getTimeLoss();
+        assertEquals(1.0, total, 1e-6);
+        assertEquals(1.0, odds.getAttackerSurvivorsAtLeast(0), 1e-6);
+        assertEquals(1.0, odds.getDefenderSurvivorsAtLeast(0), 1e-6);
+        assertEquals(odds.getAttackerWins(), odds.getDefenderSurvivors(0),
+            1e-6);
+        assertTrue(odds.getExpectedAttackerSurvivors() <= attackers + 1e-6);
+        assertTrue(odds.getExpectedDefenderSurvivors() <= defenders + 1e-6);
+        assertTrue(odds.getAttackerDeadValue() <= odds.getAttackerValue()
+            + 1e-6);
+        assertTrue(odds.getDefenderDeadValue() <= odds.getDefenderValue()
+            + 1e-6);
+    }
+
+    public void testOverwhelmingAttacker()
+    {
+        BattleOdds odds = BattleOdds.get(legion(7, 10, 4), legion(1, 3, 3),
+            null);
+        assertConsistent(odds, 7, 1);
+        assertTrue(odds.getAttackerWins() > 0.999);
+        assertEquals(7.0, odds.getExpectedAttackerSurvivors(), 0.01);
+    }
+
+    public void testOverwhelmingDefender()
+    {
+        BattleOdds odds = BattleOdds.get(legion(1, 3, 3), legion(7, 10, 4),
+            null);
+        assertConsistent(odds, 1, 7);
+        assertTrue(odds.getDefenderWins() > 0.999);
+    }
+
+    public void testEvenBattle()
+    {
+        BattleOdds odds = BattleOdds.get(legion(5, 6, 3), legion(5, 6, 3),
+            null);
+        assertConsistent(odds, 5, 5);
+        // The defender strikes first, so it has the edge.
+        assertTrue(odds.getAttackerWins() < odds.getDefenderWins());
+        assertTrue(odds.getAttackerWins() > 0.1);
+    }
+
+    public void testAngelHelps()
+    {
+        PowerSkill angel = new PowerSkill("Angel", 6, 4);
+        BattleOdds without = BattleOdds.get(legion(4, 6, 3), legion(4, 6, 3),
+            null);
+        BattleOdds with = BattleOdds.get(legion(4, 6, 3), legion(4, 6, 3),
+            angel);
+        assertConsistent(with, 5, 4);
+        assertTrue(with.getAttackerWins() > without.getAttackerWins());
+    }
+
+    public void testCachedRegardlessOfOrder()
+    {
+        List<PowerSkill> attackers = legion(2, 4, 4);
+        attackers.addAll(legion(2, 7, 2));
+        List<PowerSkill> reversed = new ArrayList<PowerSkill>();
+        for (int i = attackers.size() - 1; i >= 0; i--)
+        {
+            reversed.add(attackers.get(i));
+        }
+        BattleOdds odds1 = BattleOdds.get(attackers, legion(3, 5, 3), null);
+        BattleOdds odds2 = BattleOdds.get(reversed, legion(3, 5, 3), null);
+        assertSame(odds1, odds2);
+    }
+}
@@ -6313,4 +6313,61 @@ public class PredictSplitsTest extends TestCase
 
         LOGGER.log(Level.FINEST, "\ntest %s ends");
     }
+
+    public void testPruneResolvedNodes()
+    {
+        LOGGER.log(Level.FINEST, "testPruneResolvedNodes()");
+        ps = new PredictSplits("Rd01", cnl, variant);
+
+        turn = 1;
+        ps.getLeaf("Rd01").split(4, new TestLegion(player, "Rd02"), turn);
+        // The split of this turn might still be undone.
+        ps.pruneResolvedNodes(turn);
+        assertEquals(1, ps.getRoots().size());
+        cnl.clear();
+        cnl.add(variant.getCreatureByName("Titan"));
+        cnl.add(variant.getCreatureByName("Gargoyle"));
+        cnl.add(variant.getCreatureByName("Ogre"));
+        cnl.add(variant.getCreatureByName("Ogre"));
+        ps.getLeaf("Rd01").revealCreatures(cnl);
+        assertTrue(ps.getLeaf("Rd01").allCertain());
+        assertTrue(ps.getLeaf("Rd02").allCertain());
+
+        turn = 2;
+        ps.getLeaf("Rd02").split(2, new TestLegion(player, "Rd03"), turn);
+        ps.pruneResolvedNodes(turn);
+        List<PredictSplitNode> roots = ps.getRoots();
+        assertEquals(2, roots.size());
+        assertEquals("Rd01", roots.get(0).getMarkerId());
+        assertEquals("Rd02", roots.get(1).getMarkerId());
+        assertNull(roots.get(1).getParent());
+        assertEquals(3, ps.getLeaves().size());
+        assertEquals(2, ps.getLeaf("Rd02").numUncertainCreatures());
+        assertEquals(2, ps.getLeaf("Rd03").numUncertainCreatures());
+
+        // Reveals below a pruned root still refine the prediction.
+        cnl.clear();
+        cnl.add(variant.getCreatureByName("Angel"));
+        ps.getLeaf("Rd03").revealCreatures(cnl);
+        cnl.clear();
+        cnl.add(variant.getCreatureByName("Centaur"));
+        ps.getLeaf("Rd03").revealCreatures(cnl);
+        assertTrue(ps.getLeaf("Rd02").allCertain());
+        assertTrue(ps.getLeaf("Rd03").allCertain());
+        List<String> names = ps.getLeaf("Rd02").getCreatures()
+            .getCreatureNames();
+        assertEquals(2, names.size());
+        assertTrue(names.contains("Centaur"));
+        assertTrue(names.contains("Gargoyle"));
+
+        // An eliminated legion is dropped once it is a root.
+        turn = 3;
+        ps.getLeaf("Rd01").removeCreatures(
+            ps.getLeaf("Rd01").getCreatures().getCreatureTypes());
+        ps.pruneResolvedNodes(turn);
+        assertEquals(2, ps.getRoots().size());
+        assertNull(ps.getLeaf("Rd01"));
+        assertNotNull(ps.getLeaf("Rd03"));
+        ps.printNodes();
+    }
 }
@@ -0,0 +1,113 @@
+package net.sf.colossus.common;
+
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.StreamCorruptedException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+import junit.framework.TestCase;
+
+
+/**
+ * JUnit test for CompactProtocol.
+ */
+public class CompactProtocolTest extends TestCase
+{
+    private static final String SEP = Constants.protocolTermSeparator;
+
+    private static final String[] LINES = {
+        "",
+        Constants.setupMove,
+        Constants.didMove + SEP + "Rd03" + SEP + "100" + SEP + "6" + SEP
+            + "Left" + SEP + "false" + SEP + "null" + SEP + "false",
+        Constants.revealCreatures + SEP + "Bu12" + SEP
+            + "Titan %@% Angel %@% Ogre %@% Ogre" + SEP + "Initial",
+        "numbers" + SEP + "0" + SEP + "-1" + SEP + "007" + SEP + "-0" + SEP
+            + "2147483647" + SEP + "-2147483648" + SEP + "2147483648" + SEP
+            + "-" + SEP + "12a",
+        "empty" + SEP + SEP + " %@% " + SEP,
+        "unicode" + SEP + "Gr\u00fc\u00dfe \u263a",
+        " ~  ~ ",
+    };
+
+    private final CompactProtocol protocol = new CompactProtocol(Arrays
+        .asList(Constants.setupMove, Constants.didMove,
+            Constants.revealCreatures, "Titan", "Angel", "Rd03", "Left",
+            "true", "false", "null"));
+
+    public CompactProtocolTest(String name)
+    {
+        super(name);
+    }
+
+    public void testRoundTrip() throws IOException
+    {
+        for (String line : LINES)
+        {
+            ByteBuffer frame = protocol.encode(line);
+            assertEquals(line, protocol.decodeFrame(frame));
+            assertFalse(frame.hasRemaining());
+        }
+    }
+
+    public void testDictionaryMakesItShort()
+    {
+        String line = Constants.didMove + SEP + "Rd03" + SEP + "100" + SEP
+            + "6" + SEP + "Left" + SEP + "false" + SEP + "null" + SEP
+            + "false";
+        // length, one byte per dictionary term, two or three per number
+        assertEquals(12, protocol.encode(line).remaining());
+    }
+
+    public void testPartialFrames() throws IOException
+    {
+        ByteArrayOutputStream all = new ByteArrayOutputStream();
+        for (String line : LINES)
+        {
+            ByteBuffer frame = protocol.encode(line);
+            all.write(frame.array(), frame.arrayOffset(), frame.remaining());
+        }
+        byte[] bytes = all.toByteArray();
+
+        // Feed it byte by byte, like a slow network would
+        ByteBuffer input = ByteBuffer.allocate(bytes.length);
+        int next = 0;
+        for (byte b : bytes)
+        {
+            input.put(b);
+            input.flip();
+            String line;
+            while ((line = protocol.decodeFrame(input)) != null)
+            {
+                assertEquals(LINES[next++], line);
+            }
+            input.compact();
+        }
+        assertEquals(LINES.length, next);
+
+        // And the same from a stream
+        ByteArrayInputStream in = new ByteArrayInputStream(bytes);
+        for (String line : LINES)
+        {
+            assertEquals(line, protocol.readFrame(in));
+        }
+        assertNull(protocol.readFrame(in));
+    }
+
+    public void testCorrupted()
+    {
+        try
+        {
+            // length 2, then a header for a dictionary entry not there
+            protocol.decodeFrame(ByteBuffer.wrap(new byte[] { 2, 100, 0 }));
+            fail("Bad id not detected");
+        }
+        catch (StreamCorruptedException e)
+        {
+            // expected
+        }
+    }
+}
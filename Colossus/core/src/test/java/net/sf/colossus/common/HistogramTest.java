@@ -0,0 +1,62 @@
+package net.sf.colossus.common;
+
+
+import junit.framework.TestCase;
+
+
+/**
+ * JUnit test for Histogram.
+ */
+public class HistogramTest extends TestCase
+{
+    public HistogramTest(String name)
+    {
+        super(name);
+    }
+
+    public void testEmpty()
+    {
+        Histogram histogram = new Histogram("us");
+        assertEquals(0, histogram.getCount());
+        assertEquals(0, histogram.getMean());
+        assertEquals(0, histogram.getPercentile(0.99));
+    }
+
+    public void testCountsAndPercentiles()
+    {
+        Histogram histogram = new Histogram("us");
+        for (int i = 0; i < 98; i++)
+        {
+            histogram.record(10);
+        }
+        histogram.record(1000);
+        histogram.record(5000);
+
+        assertEquals(100, histogram.getCount());
+        assertEquals(98 * 10 + 1000 + 5000, histogram.getTotal());
+        assertEquals(5000, histogram.getMax());
+        // 10 is in the bucket 8..15
+        assertEquals(15, histogram.getPercentile(0.5));
+        // 1000 is in the bucket 512..1023
+        assertEquals(1023, histogram.getPercentile(0.99));
+        // never above the maximum
+        assertEquals(5000, histogram.getPercentile(1.0));
+    }
+
+    public void testZeroNegativeAndReset()
+    {
+        Histogram histogram = new Histogram("ms");
+        histogram.record(0);
+        histogram.record(-5);
+        assertEquals(2, histogram.getCount());
+        assertEquals(0, histogram.getMax());
+        assertEquals(0, histogram.getPercentile(0.5));
+
+        histogram.record(Long.MAX_VALUE);
+        assertEquals(Long.MAX_VALUE, histogram.getPercentile(1.0));
+
+        histogram.reset();
+        assertEquals(0, histogram.getCount());
+        assertEquals(0, histogram.getMax());
+    }
+}
@@ -0,0 +1,202 @@
+package net.sf.colossus.game;
+
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+
+import junit.framework.TestCase;
+import net.sf.colossus.server.VariantSupport;
+import net.sf.colossus.variant.CreatureType;
+import net.sf.colossus.variant.MasterHex;
+import net.sf.colossus.variant.Variant;
+
+
+/**
+ * JUnit test that the hex index of Game (LegionOccupancy) gives the same
+ * answers as scanning all legions, after each way legions can change.
+ */
+public class LegionOccupancyTest extends TestCase
+{
+    private Game game;
+    private Player red;
+    private Player blue;
+    private MasterHex desert;
+    private MasterHex plains;
+    private MasterHex tower;
+    private Legion red1;
+    private Legion red2;
+    private Legion blue1;
+
+    private static class TestLegion extends Legion
+    {
+        public TestLegion(Player player, String markerId, MasterHex hex)
+        {
+            super(player, markerId, hex);
+        }
+
+        @Override
+        public int getPointValue()
+        {
+            return 0;
+        }
+
+        @Override
+        public void addCreature(CreatureType type)
+        {
+            assert false : "Not implemented";
+        }
+
+        @Override
+        public void removeCreature(CreatureType type)
+        {
+            assert false : "Not implemented";
+        }
+    }
+
+    public LegionOccupancyTest(String name)
+    {
+        super(name);
+    }
+
+    @Override
+    protected void setUp() throws Exception
+    {
+        super.setUp();
+
+        Variant variant = VariantSupport.loadVariantByName("Default", true);
+        game = new Game(variant, new String[0]);
+
+        desert = variant.getMasterBoard().getHexByLabel("35");
+        plains = variant.getMasterBoard().getHexByLabel("1");
+        tower = variant.getMasterBoard().getHexByLabel("100");
+
+        red = new Player(game, "Red", 0);
+        blue = new Player(game, "Blue", 1);
+        game.addPlayer(red);
+        game.addPlayer(blue);
+
+        red1 = new TestLegion(red, "Rd01", tower);
+        red2 = new TestLegion(red, "Rd02", desert);
+        blue1 = new TestLegion(blue, "Bu01", plains);
+        red.addLegion(red1);
+        red.addLegion(red2);
+        blue.addLegion(blue1);
+
+        // builds the index, so that the changes below have to update it
+        assertConsistent();
+    }
+
+    public void testMove()
+    {
+        red2.setCurrentHex(plains);
+        assertConsistent();
+        assertEquals(1, game.getNumEnemyLegions(plains, blue));
+        assertFalse(game.isOccupied(desert));
+
+        blue1.setCurrentHex(desert);
+        assertConsistent();
+        assertEquals(0, game.getNumEnemyLegions(plains, red));
+    }
+
+    public void testSplit()
+    {
+        Legion child = new TestLegion(red, "Rd03", tower);
+        red.addLegion(child);
+        assertConsistent();
+        assertEquals(2, game.getNumFriendlyLegions(tower, red));
+
+        child.setCurrentHex(plains);
+        assertConsistent();
+        assertEquals(1, game.getNumFriendlyLegions(tower, red));
+    }
+
+    public void testMerge()
+    {
+        red2.setCurrentHex(tower);
+        assertConsistent();
+        assertEquals(2, game.getNumFriendlyLegions(tower, red));
+
+        red.removeLegion(red2);
+        assertConsistent();
+        assertEquals(1, game.getNumFriendlyLegions(tower, red));
+    }
+
+    public void testEliminate()
+    {
+        red2.setCurrentHex(plains);
+        assertConsistent();
+
+        blue.removeLegion(blue1);
+        assertConsistent();
+        assertEquals(0, game.getNumEnemyLegions(plains, red));
+
+        red.removeAllLegions();
+        assertConsistent();
+        assertFalse(game.isOccupied(plains));
+    }
+
+    public void testIteratorRemove()
+    {
+        Iterator<? extends Legion> it = red.getLegions().iterator();
+        while (it.hasNext())
+        {
+            if (it.next() == red2)
+            {
+                it.remove();
+            }
+        }
+        assertConsistent();
+        assertFalse(game.isOccupied(desert));
+    }
+
+    public void testLegionsByHexCanNotBeModified()
+    {
+        try
+        {
+            game.getLegionsByHex(tower).clear();
+            fail("List of the index could be modified");
+        }
+        catch (UnsupportedOperationException e)
+        {
+            // expected
+        }
+        assertConsistent();
+    }
+
+    /** Compare the answers of the index with a scan of all legions */
+    private void assertConsistent()
+    {
+        for (MasterHex hex : new MasterHex[] { desert, plains, tower })
+        {
+            List<Legion> expected = new ArrayList<Legion>();
+            for (Player player : game.getPlayers())
+            {
+                for (Legion legion : player.getLegions())
+                {
+                    if (legion.getCurrentHex().equals(hex))
+                    {
+                        expected.add(legion);
+                    }
+                }
+            }
+            assertEquals(expected, game.getLegionsByHex(hex));
+            assertEquals(!expected.isEmpty(), game.isOccupied(hex));
+            for (Player player : game.getPlayers())
+            {
+                int friendly = 0;
+                for (Legion legion : expected)
+                {
+                    if (legion.getPlayer().equals(player))
+                    {
+                        friendly++;
+                    }
+                }
+                assertEquals(friendly, game.getNumFriendlyLegions(hex,
+                    player));
+                assertEquals(expected.size() - friendly, game
+                    .getNumEnemyLegions(hex, player));
+            }
+        }
+    }
+}
@@ -0,0 +1,234 @@
+package net.sf.colossus.server;
+
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import junit.framework.TestCase;
+import net.sf.colossus.util.PersistentFileCache;
+import net.sf.colossus.util.Split;
+import net.sf.colossus.util.StaticResourceLoader;
+
+
+/**
+ * JUnit test for FileServerThread, talking to it over a loopback socket.
+ */
+public class FileServerThreadTest extends TestCase
+{
+    private static final String sep = StaticResourceLoader.REQUEST_TOKEN_SEPARATOR;
+
+    private static final String NO_HASH = StaticResourceLoader.FILESERVER_NO_HASH;
+
+    private static final byte[] RULES = "<rules name=\"J\u00f6rg\"/>\n"
+        .getBytes();
+    private static final byte[] README = "Nothing to see here\n".getBytes();
+
+    private File dir;
+    private List<String> directories;
+    private FileServerThread fileServer;
+    private Socket socket;
+    private InputStream in;
+    private OutputStream out;
+
+    public FileServerThreadTest(String name)
+    {
+        super(name);
+    }
+
+    @Override
+    protected void setUp() throws IOException
+    {
+        dir = File.createTempFile("fileserver", "");
+        dir.delete();
+        dir.mkdir();
+        directories = Collections.singletonList(dir.getPath());
+        writeFile("rules.xml", RULES);
+        writeFile("README", README);
+
+        // the file server only serves what is in the file cache already
+        StaticResourceLoader.resetDataServer();
+        StaticResourceLoader.purgeFileCache();
+        StaticResourceLoader.getInputStream("rules.xml", directories).close();
+        StaticResourceLoader.getInputStream("README", directories).close();
+
+        fileServer = new FileServerThread(null, 0)
+        {
+            @Override
+            boolean isKnownClient(InetAddress requester)
+            {
+                return requester.isLoopbackAddress();
+            }
+        };
+        fileServer.start();
+        socket = connect();
+        in = socket.getInputStream();
+        out = socket.getOutputStream();
+    }
+
+    @Override
+    protected void tearDown() throws Exception
+    {
+        socket.close();
+        fileServer.stopGoingOn();
+        fileServer.join(5000);
+        StaticResourceLoader.purgeFileCache();
+        for (File file : dir.listFiles())
+        {
+            file.delete();
+        }
+        dir.delete();
+    }
+
+    private void writeFile(String name, byte[] contents) throws IOException
+    {
+        OutputStream os = new FileOutputStream(new File(dir, name));
+        os.write(contents);
+        os.close();
+    }
+
+    private Socket connect() throws IOException
+    {
+        Socket s = new Socket(InetAddress.getLoopbackAddress(), fileServer
+            .getLocalPort());
+        s.setSoTimeout(5000);
+        return s;
+    }
+
+    private String hashRequest(String knownHash, String filename)
+    {
+        return StaticResourceLoader.FILESERVER_HASH_SIGNAL + sep + knownHash
+            + sep + filename + sep + dir.getPath() + "\n";
+    }
+
+    private void send(String requests) throws IOException
+    {
+        out.write(requests.getBytes());
+        out.flush();
+    }
+
+    /** The header of the next answer: length and hash */
+    private List<String> readHeader() throws IOException
+    {
+        ByteArrayOutputStream line = new ByteArrayOutputStream();
+        int c;
+        while ((c = in.read()) != '\n')
+        {
+            assertTrue("End of stream within header", c != -1);
+            line.write(c);
+        }
+        return Split.split(sep, line.toString());
+    }
+
+    private byte[] readContents(int length) throws IOException
+    {
+        byte[] contents = new byte[length];
+        int read = 0;
+        while (read < length)
+        {
+            int count = in.read(contents, read, length - read);
+            assertTrue("End of stream within contents", count != -1);
+            read += count;
+        }
+        return contents;
+    }
+
+    private void assertFullAnswer(byte[] expected) throws IOException
+    {
+        List<String> header = readHeader();
+        assertEquals(Arrays.asList("" + expected.length, PersistentFileCache
+            .getContentHash(expected)), header);
+        assertTrue(Arrays.equals(expected, readContents(expected.length)));
+    }
+
+    public void testFullFetch() throws IOException
+    {
+        send(hashRequest(NO_HASH, "rules.xml"));
+        assertFullAnswer(RULES);
+
+        // the client's copy is not the current one
+        send(hashRequest(PersistentFileCache.getContentHash(README),
+            "rules.xml"));
+        assertFullAnswer(RULES);
+    }
+
+    public void testNotModified() throws IOException
+    {
+        String hash = PersistentFileCache.getContentHash(RULES);
+        send(hashRequest(hash, "rules.xml"));
+        assertEquals(Arrays.asList(""
+            + StaticResourceLoader.FILESERVER_NOT_MODIFIED, hash),
+            readHeader());
+
+        // nothing follows the header
+        send(hashRequest(NO_HASH, "README"));
+        assertFullAnswer(README);
+    }
+
+    public void testRequestsOnOneConnection() throws IOException
+    {
+        // sent all at once, without waiting for the answers
+        send(hashRequest(NO_HASH, "README")
+            + hashRequest(NO_HASH, "rules.xml")
+            + hashRequest(PersistentFileCache.getContentHash(README),
+                "README"));
+        assertFullAnswer(README);
+        assertFullAnswer(RULES);
+        assertEquals(StaticResourceLoader.FILESERVER_NOT_MODIFIED, Integer
+            .parseInt(readHeader().get(0)));
+
+        // and one by one
+        for (int i = 0; i < 3; i++)
+        {
+            send(hashRequest(NO_HASH, "rules.xml"));
+            assertFullAnswer(RULES);
+        }
+    }
+
+    public void testMissingFile() throws IOException
+    {
+        send(StaticResourceLoader.FILESERVER_HASH_SIGNAL + sep
+            + NO_HASH + sep
+            + StaticResourceLoader.FILESERVER_IGNOREFAIL_SIGNAL + sep
+            + "missing.xml" + sep + dir.getPath() + "\n");
+        assertEquals(Arrays.asList("0", NO_HASH), readHeader());
+
+        // the connection is still good
+        send(hashRequest(NO_HASH, "README"));
+        assertFullAnswer(README);
+    }
+
+    public void testLegacyRequest() throws IOException
+    {
+        send("rules.xml" + sep + dir.getPath() + "\n");
+        ByteArrayOutputStream all = new ByteArrayOutputStream();
+        int c;
+        while ((c = in.read()) != -1)
+        {
+            all.write(c);
+        }
+        // the contents only, then the server closes the connection
+        assertTrue(Arrays.equals(RULES, all.toByteArray()));
+
+        Socket other = connect();
+        try
+        {
+            other.getOutputStream().write(
+                (StaticResourceLoader.FILESERVER_IGNOREFAIL_SIGNAL + sep
+                    + "missing.xml" + sep + dir.getPath() + "\n").getBytes());
+            assertEquals(-1, other.getInputStream().read());
+        }
+        finally
+        {
+            other.close();
+        }
+    }
+}
@@ -0,0 +1,153 @@
+package net.sf.colossus.server;
+
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.List;
+
+import javax.xml.stream.XMLStreamException;
+
+import junit.framework.TestCase;
+
+import org.jdom.Element;
+
+
+/**
+ * JUnit test for HistoryJournal.
+ */
+public class HistoryJournalTest extends TestCase
+{
+    private File file;
+
+    public HistoryJournalTest(String name)
+    {
+        super(name);
+    }
+
+    @Override
+    protected void setUp() throws IOException
+    {
+        file = File.createTempFile("history", ".journal");
+    }
+
+    @Override
+    protected void tearDown()
+    {
+        file.delete();
+    }
+
+    private static Element split(String parent, String child, String turn)
+    {
+        Element event = new Element("Split");
+        event.setAttribute("parentId", parent);
+        event.setAttribute("childId", child);
+        event.setAttribute("turn", turn);
+        Element creatures = new Element("splitoffs");
+        Element creature = new Element("creature");
+        creature.addContent("Ogre");
+        creatures.addContent(creature);
+        event.addContent(creatures);
+        return event;
+    }
+
+    @SuppressWarnings("unchecked")
+    public void testReadBackUpToLength() throws IOException,
+        XMLStreamException
+    {
+        HistoryJournal journal = new HistoryJournal(file);
+        journal.append(split("Bk01", "Bk02", "1"));
+        journal.append(split("Rd01", "Rd03", "1"));
+        long firstCommit = journal.flush();
+
+        // a later commit point, not in the save referring to the first
+        journal.append(split("Bk02", "Bk04", "2 < 3 & \"quoted\""));
+        long secondCommit = journal.flush();
+        journal.close();
+
+        Element history = HistoryJournal.readHistory(file, firstCommit);
+        assertEquals("History", history.getName());
+        List<Element> events = history.getChildren();
+        assertEquals(2, events.size());
+        assertEquals("Rd03", events.get(1).getAttributeValue("childId"));
+        assertEquals("Ogre", events.get(1).getChild("splitoffs").getChild(
+            "creature").getText());
+
+        events = HistoryJournal.readHistory(file, secondCommit).getChildren();
+        assertEquals(3, events.size());
+        assertEquals("2 < 3 & \"quoted\"", events.get(2).getAttributeValue(
+            "turn"));
+    }
+
+    public void testTooShortJournal() throws IOException,
+        XMLStreamException
+    {
+        HistoryJournal journal = new HistoryJournal(file);
+        journal.append(split("Bk01", "Bk02", "1"));
+        long length = journal.flush();
+        journal.close();
+
+        try
+        {
+            HistoryJournal.readHistory(file, length + 1);
+            fail("Reading beyond the journal should fail");
+        }
+        catch (IOException e)
+        {
+            // expected
+        }
+    }
+
+    /**
+     * A save must not refer to a journal length that never reached the
+     * disk: when the flush fails, GameSaving has to save the whole
+     * history instead.
+     */
+    public void testFailedWriteGivesNoJournalLength()
+    {
+        BreakingStream stream = new BreakingStream();
+        HistoryJournal journal = new HistoryJournal(file, stream);
+        journal.append(split("Bk01", "Bk02", "1"));
+        assertFalse(journal.hasFailed());
+
+        // e.g. the disk got full since
+        stream.broken = true;
+        assertEquals(-1, GameSaving.getJournalLength(journal));
+        assertTrue(journal.hasFailed());
+
+        // and it stays so, even if the disk has space again
+        stream.broken = false;
+        journal.append(split("Rd01", "Rd03", "1"));
+        assertEquals(-1, GameSaving.getJournalLength(journal));
+    }
+
+    /** Fails on flush while broken is set */
+    private static class BreakingStream extends OutputStream
+    {
+        boolean broken = false;
+
+        @Override
+        public void write(int b)
+        {
+            // discarded
+        }
+
+        @Override
+        public void flush() throws IOException
+        {
+            if (broken)
+            {
+                throw new IOException("disk full");
+            }
+        }
+    }
+
+    public void testJournalLength() throws IOException
+    {
+        HistoryJournal journal = new HistoryJournal(file);
+        journal.append(split("Bk01", "Bk02", "1"));
+        long length = GameSaving.getJournalLength(journal);
+        journal.close();
+        assertEquals(file.length(), length);
+    }
+}
@@ -0,0 +1,221 @@
+package net.sf.colossus.server;
+
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import junit.framework.TestCase;
+import net.sf.colossus.game.Game;
+import net.sf.colossus.game.Player;
+import net.sf.colossus.game.PlayerColor;
+import net.sf.colossus.variant.Variant;
+
+import org.jdom.Element;
+
+
+/**
+ * JUnit test for which events History.summarizeForReplay() keeps.
+ */
+public class HistoryTest extends TestCase
+{
+    private static final Variant variant = VariantSupport.loadVariantByName(
+        "Default", true);
+
+    private Player black;
+    private Player red;
+    private List<Player> players;
+
+    public HistoryTest(String name)
+    {
+        super(name);
+    }
+
+    @Override
+    protected void setUp()
+    {
+        Game game = new Game(variant, new String[] {});
+        black = new Player(game, "Bob", 0);
+        black.setColor(PlayerColor.BLACK);
+        red = new Player(game, "Rita", 1);
+        red.setColor(PlayerColor.RED);
+        players = Arrays.asList(black, red);
+    }
+
+    private static Element reveal(String markerId, String[] viewers,
+        String... creatures)
+    {
+        Element event = new Element("Reveal");
+        event.setAttribute("markerId", markerId);
+        event.setAttribute("allPlayers", "" + (viewers == null));
+        event.setAttribute("turn", "1");
+        event.setAttribute("reason", "test");
+        if (viewers != null)
+        {
+            Element viewersEl = new Element("viewers");
+            for (String name : viewers)
+            {
+                Element viewer = new Element("viewer");
+                viewer.addContent(name);
+                viewersEl.addContent(viewer);
+            }
+            event.addContent(viewersEl);
+        }
+        Element creaturesEl = new Element("creatures");
+        for (String name : creatures)
+        {
+            Element creature = new Element("creature");
+            creature.addContent(name);
+            creaturesEl.addContent(creature);
+        }
+        event.addContent(creaturesEl);
+        return event;
+    }
+
+    private static Element revealToAll(String markerId, String... creatures)
+    {
+        return reveal(markerId, null, creatures);
+    }
+
+    private static Element split(String parentId, String childId,
+        String... splitoffs)
+    {
+        Element event = new Element("Split");
+        event.setAttribute("parentId", parentId);
+        event.setAttribute("childId", childId);
+        event.setAttribute("turn", "1");
+        Element creatures = new Element("splitoffs");
+        for (String name : splitoffs)
+        {
+            Element creature = new Element("creature");
+            creature.addContent(name);
+            creatures.addContent(creature);
+        }
+        event.addContent(creatures);
+        return event;
+    }
+
+    private static Element merge(String splitoffId, String survivorId)
+    {
+        Element event = new Element("Merge");
+        event.setAttribute("splitoffId", splitoffId);
+        event.setAttribute("survivorId", survivorId);
+        event.setAttribute("turn", "1");
+        return event;
+    }
+
+    private static Element creatureEvent(String name, String markerId,
+        String creatureName)
+    {
+        Element event = new Element(name);
+        event.setAttribute("markerId", markerId);
+        event.setAttribute("creatureName", creatureName);
+        event.setAttribute("turn", "1");
+        event.setAttribute("reason", "test");
+        return event;
+    }
+
+    private static Element movementRoll(String playerName, int roll)
+    {
+        Element event = new Element("MovementRoll");
+        event.setAttribute("playerName", playerName);
+        event.setAttribute("roll", "" + roll);
+        return event;
+    }
+
+    private static Element relocate(String markerId)
+    {
+        Element event = new Element("RelocateLegion");
+        event.setAttribute("markerId", markerId);
+        event.setAttribute("destination", "1");
+        return event;
+    }
+
+    private List<Element> summarize(List<Element> events)
+    {
+        return History.summarizeForReplay(events, players);
+    }
+
+    public void testOnlyLastMovementRollKept()
+    {
+        Element lastRoll = movementRoll("Rita", 6);
+        Element add = creatureEvent("AddCreature", "Rd01", "Ogre");
+        List<Element> events = Arrays.asList(movementRoll("Bob", 3),
+            relocate("Bk01"), movementRoll("Rita", 5), add, lastRoll,
+            relocate("Rd01"));
+        assertEquals(Arrays.asList(add, lastRoll), summarize(events));
+    }
+
+    public void testEliminatedPlayerWithReusedMarker()
+    {
+        black.setDeadBeforeSave(true);
+        List<Element> events = new ArrayList<Element>();
+        // Black's own legions, up to its elimination
+        events.add(revealToAll("Bk01", "Titan", "Angel", "Ogre", "Ogre"));
+        events.add(split("Bk01", "Bk02", "Ogre", "Ogre"));
+        events.add(reveal("Bk02", new String[] { "Bob" }, "Ogre", "Ogre"));
+        events.add(creatureEvent("AddCreature", "Bk02", "Troll"));
+        events.add(creatureEvent("RemoveCreature", "Bk01", "Angel"));
+        events.add(merge("Bk02", "Bk01"));
+
+        // Red, who got Black's markers, splits into one of them
+        List<Element> expected = new ArrayList<Element>();
+        expected.add(revealToAll("Rd01", "Titan", "Angel", "Gargoyle",
+            "Gargoyle"));
+        expected.add(split("Rd01", "Bk02", "Gargoyle", "Gargoyle"));
+        expected.add(reveal("Bk02", new String[] { "Rita" }, "Gargoyle",
+            "Gargoyle"));
+        expected.add(creatureEvent("AddCreature", "Bk02", "Cyclops"));
+        expected.add(revealToAll("Bk02", "Gargoyle", "Gargoyle", "Cyclops"));
+        events.addAll(expected);
+
+        assertEquals(expected, summarize(events));
+    }
+
+    public void testSplitAndMergeInvalidateReveals()
+    {
+        Element first = revealToAll("Rd01", "Titan", "Ogre", "Ogre");
+        Element split = split("Rd01", "Rd02", "Ogre");
+        Element afterSplit = revealToAll("Rd01", "Titan", "Ogre");
+        Element splitoff = revealToAll("Rd02", "Ogre");
+        Element merge = merge("Rd02", "Rd01");
+        Element afterMerge = revealToAll("Rd01", "Titan", "Ogre", "Ogre");
+        Element add = creatureEvent("AddCreature", "Rd01", "Troll");
+        Element afterAdd = revealToAll("Rd01", "Titan", "Ogre");
+
+        List<Element> events = Arrays.asList(first, split, afterSplit,
+            splitoff, merge, afterMerge, add, afterAdd);
+        // every reveal follows a change, so none of them is redundant,
+        // even though each tells a subset of what was revealed before
+        assertEquals(events, summarize(events));
+    }
+
+    public void testPartialRevealAfterFullOne()
+    {
+        Element full = revealToAll("Rd01", "Titan", "Ogre", "Ogre",
+            "Centaur");
+        Element something = revealToAll("Rd01", "Gargoyle");
+        List<Element> events = Arrays.asList(full, revealToAll("Rd01",
+            "Ogre"), reveal("Rd01", new String[] { "Bob" }, "Ogre",
+            "Centaur"), revealToAll("Rd01", "Titan", "Centaur", "Ogre",
+            "Ogre"), something);
+        assertEquals(Arrays.asList(full, something), summarize(events));
+    }
+
+    public void testPerViewerReveals()
+    {
+        Element toBob = reveal("Rd01", new String[] { "Bob" }, "Titan",
+            "Ogre");
+        Element toBobAndCarl = reveal("Rd01", new String[] { "Carl", "Bob" },
+            "Titan", "Ogre");
+        Element toAll = revealToAll("Rd01", "Titan", "Ogre");
+        List<Element> events = Arrays.asList(toBob, reveal("Rd01",
+            new String[] { "Bob" }, "Ogre"), toBobAndCarl, reveal("Rd01",
+            new String[] { "Bob", "Carl" }, "Titan", "Ogre"), toAll, reveal(
+            "Rd01", new String[] { "Dan" }, "Titan"));
+        // the same viewers in another order are the same; once all know,
+        // nobody learns anything more
+        assertEquals(Arrays.asList(toBob, toBobAndCarl, toAll),
+            summarize(events));
+    }
+}
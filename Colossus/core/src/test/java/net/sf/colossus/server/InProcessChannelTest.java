@@ -0,0 +1,131 @@
+package net.sf.colossus.server;
+
+
+import java.io.IOException;
+import java.net.SocketTimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import junit.framework.TestCase;
+
+
+/**
+ * JUnit test for InProcessChannel.
+ */
+public class InProcessChannelTest extends TestCase
+{
+    private final AtomicInteger wakeups = new AtomicInteger();
+
+    private InProcessChannel channel;
+
+    public InProcessChannelTest(String name)
+    {
+        super(name);
+    }
+
+    @Override
+    protected void setUp()
+    {
+        channel = new InProcessChannel(new Runnable()
+        {
+            public void run()
+            {
+                wakeups.incrementAndGet();
+            }
+        });
+    }
+
+    public void testLinesKeepTheirOrder() throws IOException
+    {
+        for (int i = 0; i < 100; i++)
+        {
+            channel.writeLine("toServer " + i);
+            channel.sendToClient("toClient " + i);
+        }
+        for (int i = 0; i < 100; i++)
+        {
+            assertEquals("toServer " + i, channel.pollFromClient());
+            assertEquals("toClient " + i, channel.readLine(1000));
+        }
+        assertNull(channel.pollFromClient());
+    }
+
+    public void testWakeupForEachLineToServer()
+    {
+        channel.sendToClient("not for the server");
+        assertEquals(0, wakeups.get());
+
+        channel.writeLine("one");
+        channel.writeLine("two");
+        assertEquals(2, wakeups.get());
+
+        channel.close();
+        assertEquals(3, wakeups.get());
+
+        // dropped, and nothing to wake up for
+        channel.writeLine("three");
+        assertEquals(3, wakeups.get());
+        channel.close();
+        assertEquals(3, wakeups.get());
+    }
+
+    public void testEndOfStreamAfterClose() throws IOException
+    {
+        channel.sendToClient("last");
+        channel.writeLine("bye");
+        channel.close();
+        assertFalse(channel.isOpen());
+
+        // what was sent before still arrives
+        assertEquals("last", channel.readLine(1000));
+        assertNull(channel.readLine(1000));
+        assertNull(channel.readLine(0));
+
+        assertFalse(channel.isAtEndOfStream());
+        assertEquals("bye", channel.pollFromClient());
+        assertTrue(channel.isAtEndOfStream());
+
+        channel.sendToClient("too late");
+        assertNull(channel.readLine(1000));
+    }
+
+    public void testTimeout() throws IOException
+    {
+        try
+        {
+            channel.readLine(10);
+            fail("Reading without a line should time out");
+        }
+        catch (SocketTimeoutException e)
+        {
+            // expected
+        }
+        channel.sendToClient("later");
+        assertEquals("later", channel.readLine(10));
+    }
+
+    public void testCloseEndsBlockedRead() throws InterruptedException
+    {
+        final String[] result = { "nothing" };
+        Thread reader = new Thread("reader")
+        {
+            @Override
+            public void run()
+            {
+                try
+                {
+                    result[0] = channel.readLine(0);
+                }
+                catch (IOException e)
+                {
+                    result[0] = e.toString();
+                }
+            }
+        };
+        reader.start();
+        Thread.sleep(50);
+        channel.close();
+        reader.join(5000);
+        assertFalse(reader.isAlive());
+        assertNull(result[0]);
+    }
+}
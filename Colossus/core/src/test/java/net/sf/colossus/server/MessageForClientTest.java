@@ -0,0 +1,118 @@
+package net.sf.colossus.server;
+
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import junit.framework.TestCase;
+import net.sf.colossus.common.Constants;
+
+
+/**
+ * JUnit test for the history compaction of MessageForClient.
+ */
+public class MessageForClientTest extends TestCase
+{
+    private static final String SEP = Constants.protocolTermSeparator;
+
+    public MessageForClientTest(String name)
+    {
+        super(name);
+    }
+
+    public void testAddToHistory()
+    {
+        String removal = Constants.removeCreature + SEP + "Rd01" + SEP
+            + "Ogre" + SEP + Constants.reasonKilled;
+        List<MessageForClient> queue = new ArrayList<MessageForClient>();
+        queue.add(new MessageForClient(1, 0, Constants.didSplit + SEP + "A1"
+            + SEP + "Rd01" + SEP + "Rd02"));
+        queue.add(new MessageForClient(2, 0, Constants.updateCreatureCount
+            + SEP + "Ogre" + SEP + "20" + SEP + "0"));
+        queue.add(new MessageForClient(3, 0, Constants.initBattle + SEP
+            + "1" + SEP + "Rd01" + SEP + "Bu01"));
+        queue.add(new MessageForClient(3, 0, Constants.tellStrikeResults
+            + SEP + "1" + SEP + "2"));
+        queue.add(new MessageForClient(4, 0, Constants.removeDeadBattleChits,
+            Arrays.asList(removal)));
+        queue.add(new MessageForClient(5, 0, Constants.cleanupBattle));
+
+        List<MessageForClient> history = new ArrayList<MessageForClient>();
+        for (MessageForClient mfc : queue)
+        {
+            mfc.addToHistory(history);
+        }
+
+        assertEquals(2, history.size());
+        assertSame(queue.get(0), history.get(0));
+        assertEquals(removal, history.get(1).getMessage());
+        assertEquals(Constants.removeCreature, history.get(1).getMethod());
+        assertEquals(4, history.get(1).getMessageNr());
+    }
+
+    /**
+     * The commit point after a reconnect can come in the middle of a
+     * battle; a client which rejoins from scratch later in that battle
+     * must still get the battle from the history.
+     */
+    public void testCommitPointDuringBattle()
+    {
+        String removal = Constants.removeCreature + SEP + "Bu01" + SEP
+            + "Troll" + SEP + Constants.reasonKilled;
+        String split = Constants.didSplit + SEP + "A1" + SEP + "Rd01" + SEP
+            + "Rd02";
+        String init = Constants.initBattle + SEP + "35" + SEP + "1" + SEP
+            + "Rd01" + SEP + "Bu01";
+        String chit = Constants.placeNewChit + SEP + "Troll" + SEP + "true"
+            + SEP + "1" + SEP + "A1";
+        String move = Constants.tellBattleMove + SEP + "1" + SEP + "A1" + SEP
+            + "B2" + SEP + "false";
+        String dead = Constants.removeDeadBattleChits;
+        String summary = Constants.revealCreatures + SEP + "Rd01" + SEP
+            + "Ogre";
+
+        List<MessageForClient> history = new ArrayList<MessageForClient>();
+
+        // up to the commit point of the reconnect, in the battle
+        new MessageForClient(1, 0, split).addToHistory(history);
+        new MessageForClient(2, 0, init).addToHistory(history);
+        new MessageForClient(3, 0, chit).addToHistory(history);
+        new MessageForClient(4, 0, Constants.tellWhatsHappening + SEP
+            + "note").addToHistory(history);
+        new MessageForClient(5, 0, move).addToHistory(history);
+        new MessageForClient(6, 0, dead, Arrays.asList(removal))
+            .addToHistory(history);
+
+        // what a client rejoining from scratch now gets
+        assertEquals(Arrays.asList(split, init, chit, move, dead),
+            getMessages(history));
+
+        // the rest of the battle, up to the next commit point
+        new MessageForClient(7, 0, move).addToHistory(history);
+        new MessageForClient(8, 0, summary).addToHistory(history);
+        new MessageForClient(9, 0, Constants.cleanupBattle)
+            .addToHistory(history);
+
+        assertEquals(Arrays.asList(split, removal, summary),
+            getMessages(history));
+        assertEquals(6, history.get(1).getMessageNr());
+
+        // a later battle does not touch what is left of this one
+        new MessageForClient(10, 0, init).addToHistory(history);
+        new MessageForClient(11, 0, Constants.cleanupBattle)
+            .addToHistory(history);
+        assertEquals(Arrays.asList(split, removal, summary),
+            getMessages(history));
+    }
+
+    private static List<String> getMessages(List<MessageForClient> history)
+    {
+        List<String> messages = new ArrayList<String>();
+        for (MessageForClient mfc : history)
+        {
+            messages.add(mfc.getMessage());
+        }
+        return messages;
+    }
+}
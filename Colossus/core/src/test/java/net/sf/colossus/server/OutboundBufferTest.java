@@ -0,0 +1,234 @@
+package net.sf.colossus.server;
+
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.GatheringByteChannel;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+import junit.framework.TestCase;
+
+
+/**
+ * JUnit test for OutboundBuffer.
+ */
+public class OutboundBufferTest extends TestCase
+{
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    public OutboundBufferTest(String name)
+    {
+        super(name);
+    }
+
+    /** Takes at most chunk bytes per write, like a congested socket */
+    private static class SlowChannel implements GatheringByteChannel
+    {
+        private final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        private final int chunk;
+
+        SlowChannel(int chunk)
+        {
+            this.chunk = chunk;
+        }
+
+        public int write(ByteBuffer src)
+        {
+            int count = Math.min(chunk, src.remaining());
+            for (int i = 0; i < count; i++)
+            {
+                out.write(src.get());
+            }
+            return count;
+        }
+
+        public long write(ByteBuffer[] srcs, int offset, int length)
+        {
+            long written = 0;
+            for (int i = offset; i < offset + length && written < chunk; i++)
+            {
+                ByteBuffer src = srcs[i];
+                while (src.hasRemaining() && written < chunk)
+                {
+                    out.write(src.get());
+                    written++;
+                }
+            }
+            return written;
+        }
+
+        public long write(ByteBuffer[] srcs)
+        {
+            return write(srcs, 0, srcs.length);
+        }
+
+        public boolean isOpen()
+        {
+            return true;
+        }
+
+        public void close()
+        {
+            // nothing to do
+        }
+
+        String getWritten()
+        {
+            return new String(out.toByteArray(), UTF8);
+        }
+
+        byte[] getWrittenBytes()
+        {
+            return out.toByteArray();
+        }
+    }
+
+    private static String repeat(char c, int count)
+    {
+        StringBuilder sb = new StringBuilder(count);
+        for (int i = 0; i < count; i++)
+        {
+            sb.append(c);
+        }
+        return sb.toString();
+    }
+
+    public void testOrderWithSharedLines() throws IOException
+    {
+        String longLine = repeat('x', 3000);
+        ByteBuffer shared = OutboundBuffer.encodeLine(UTF8, longLine);
+
+        OutboundBuffer buffer = new OutboundBuffer(UTF8);
+        buffer.append("first");
+        buffer.append(OutboundBuffer.encodeLine(UTF8, "short ~ \u00e4"));
+        buffer.append(shared);
+        buffer.append("last");
+        assertFalse(buffer.isEmpty());
+
+        SlowChannel channel = new SlowChannel(100000);
+        assertTrue(buffer.writeTo(channel));
+        assertTrue(buffer.isEmpty());
+        assertEquals("first\nshort ~ \u00e4\n" + longLine + "\nlast\n",
+            channel.getWritten());
+
+        // The shared buffer must be untouched, for the next recipient
+        assertEquals(longLine.length() + 1, shared.remaining());
+    }
+
+    public void testPartialWrites() throws IOException
+    {
+        OutboundBuffer buffer = new OutboundBuffer(UTF8);
+        StringBuilder expected = new StringBuilder();
+        for (int i = 0; i < 5000; i++)
+        {
+            String message = "message number " + i;
+            buffer.append(message);
+            expected.append(message).append('\n');
+        }
+        assertTrue(buffer.isLarge());
+
+        SlowChannel channel = new SlowChannel(7777);
+        int writes = 0;
+        while (!buffer.writeTo(channel))
+        {
+            writes++;
+            assertTrue("endless writing", writes < 1000);
+        }
+        assertTrue(buffer.isEmpty());
+        assertEquals(expected.toString(), channel.getWritten());
+    }
+
+    private static void writeAll(OutboundBuffer buffer, SlowChannel channel)
+        throws IOException
+    {
+        int writes = 0;
+        while (!buffer.writeTo(channel))
+        {
+            writes++;
+            assertTrue("endless writing", writes < 1000);
+        }
+        assertTrue(buffer.isEmpty());
+    }
+
+    public void testCompression() throws IOException, DataFormatException
+    {
+        Random random = new Random(4711);
+        StringBuilder noise = new StringBuilder();
+        for (int i = 0; i < 40000; i++)
+        {
+            noise.append((char)('!' + random.nextInt(90)));
+        }
+
+        OutboundBuffer buffer = new OutboundBuffer(UTF8);
+        SlowChannel channel = new SlowChannel(1000);
+        buffer.append("plain");
+        buffer.startCompression(new Deflater(Deflater.BEST_SPEED));
+        StringBuilder expected = new StringBuilder();
+        for (int i = 0; i < 1000; i++)
+        {
+            String message = "didMove ~ Rd01 ~ 1" + (i % 40) + " ~ true";
+            buffer.append(message);
+            expected.append(message).append('\n');
+            if (i % 300 == 0)
+            {
+                // appending to buffers again which were compressed before
+                writeAll(buffer, channel);
+            }
+        }
+        buffer.append(OutboundBuffer.encodeLine(UTF8, noise.toString()));
+        expected.append(noise).append('\n');
+        writeAll(buffer, channel);
+
+        byte[] written = channel.getWrittenBytes();
+        assertEquals("plain\n", new String(written, 0, 6, UTF8));
+        assertTrue(buffer.getCompressedSize() < buffer.getBytesCompressed());
+
+        // everything is readable without the end of the stream
+        Inflater inflater = new Inflater();
+        inflater.setInput(Arrays.copyOfRange(written, 6, written.length));
+        byte[] inflated = new byte[expected.length() * 2];
+        int length = 0;
+        int count;
+        while ((count = inflater.inflate(inflated, length, inflated.length
+            - length)) > 0)
+        {
+            length += count;
+        }
+        assertEquals(expected.toString(), new String(inflated, 0, length,
+            UTF8));
+    }
+
+    public void testReleaseEndsCompression() throws IOException
+    {
+        OutboundBuffer buffer = new OutboundBuffer(UTF8);
+        Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+        buffer.startCompression(deflater);
+        buffer.append("not written any more");
+        buffer.release();
+        assertTrue(buffer.isEmpty());
+        assertEquals(0, buffer.getBytesCompressed());
+        try
+        {
+            deflater.deflate(new byte[16]);
+            fail("The deflater should have been ended");
+        }
+        catch (NullPointerException e)
+        {
+            // expected, that's how an ended Deflater reacts
+        }
+
+        // appending afterwards is ignored, not an error
+        SlowChannel channel = new SlowChannel(1000);
+        buffer.append("too late");
+        buffer.append(OutboundBuffer.encodeLine(UTF8, "shared, too late"));
+        assertTrue(buffer.isEmpty());
+        writeAll(buffer, channel);
+        assertEquals(0, channel.getWrittenBytes().length);
+    }
+}
@@ -0,0 +1,126 @@
+package net.sf.colossus.server;
+
+
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
+
+import javax.xml.stream.XMLStreamException;
+
+import junit.framework.TestCase;
+
+import org.jdom.Element;
+
+
+/**
+ * JUnit test for ReplayIndex.
+ */
+public class ReplayIndexTest extends TestCase
+{
+    private File indexFile;
+    private File journalFile;
+
+    public ReplayIndexTest(String name)
+    {
+        super(name);
+    }
+
+    @Override
+    protected void setUp() throws IOException
+    {
+        indexFile = File.createTempFile("history", ".index");
+        journalFile = ReplayIndex.getJournal(indexFile);
+    }
+
+    @Override
+    protected void tearDown()
+    {
+        indexFile.delete();
+        journalFile.delete();
+    }
+
+    private static Element event(String markerId)
+    {
+        Element event = new Element("RemoveLegion");
+        event.setAttribute("markerId", markerId);
+        return event;
+    }
+
+    @SuppressWarnings("unchecked")
+    public void testEventsBetweenAutosaves() throws IOException,
+        XMLStreamException
+    {
+        HistoryJournal journal = new HistoryJournal(journalFile);
+        ReplayIndex index = new ReplayIndex(indexFile);
+        index.append(new ReplayIndex.Entry(1, "Split", "Black", journal
+            .flush(), "snap1.xml"));
+        journal.append(event("Bk01"));
+        index.append(new ReplayIndex.Entry(1, "Move", "Black", journal
+            .flush(), "snap2.xml"));
+        journal.append(event("Bk02"));
+        journal.append(event("Bk03"));
+        index.append(new ReplayIndex.Entry(2, "Split", "Black", journal
+            .flush(), "snap3.xml"));
+        journal.append(event("Bk04"));
+        journal.flush();
+        journal.close();
+        index.close();
+
+        ReplayIndex.Entries entries = ReplayIndex.read(indexFile);
+        assertEquals(3, entries.getEntries().size());
+        assertEquals(0, entries.getFirstOfTurn(1));
+        assertEquals(2, entries.getFirstOfTurn(2));
+        assertEquals(-1, entries.getFirstOfTurn(3));
+        assertEquals("snap2.xml", entries.getEntries().get(1).getSaveName());
+
+        List<Element> events = entries.readEvents(journalFile, 1)
+            .getChildren();
+        assertEquals(2, events.size());
+        assertEquals("Bk03", events.get(1).getAttributeValue("markerId"));
+
+        events = entries.readEvents(journalFile, 2).getChildren();
+        assertEquals(1, events.size());
+        assertEquals("Bk04", events.get(0).getAttributeValue("markerId"));
+    }
+
+    public void testFindSaveFallsThroughToLaterTurn() throws IOException
+    {
+        File dir = indexFile.getParentFile();
+        String prefix = indexFile.getName() + "-";
+        File[] saves = new File[4];
+        ReplayIndex index = new ReplayIndex(indexFile);
+        // player names are not necessarily ASCII
+        String[] names = { "J\u00f6rg", "J\u00f6rg", "Zo\u00eb",
+            "J\u00f6rg" };
+        int[] turns = { 1, 1, 2, 3 };
+        for (int i = 0; i < saves.length; i++)
+        {
+            saves[i] = new File(dir, prefix + i + ".xml");
+            index.append(new ReplayIndex.Entry(turns[i], "Split", names[i],
+                0, saves[i].getName()));
+        }
+        index.close();
+        try
+        {
+            // the first save of turn 1 and the one of turn 2 are gone
+            // (autosaveMaxKeep)
+            assertTrue(saves[1].createNewFile());
+            assertTrue(saves[3].createNewFile());
+
+            ReplayIndex.Entries entries = ReplayIndex.read(indexFile);
+            assertEquals("Zo\u00eb", entries.getEntries().get(2)
+                .getPlayer());
+            assertEquals(saves[1], entries.findSave(dir, 1));
+            assertEquals(saves[3], entries.findSave(dir, 2));
+            assertEquals(saves[3], entries.findSave(dir, 3));
+            assertNull(entries.findSave(dir, 4));
+        }
+        finally
+        {
+            for (File save : saves)
+            {
+                save.delete();
+            }
+        }
+    }
+}
@@ -0,0 +1,76 @@
+package net.sf.colossus.server;
+
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.List;
+
+import javax.xml.stream.XMLStreamException;
+
+import junit.framework.TestCase;
+
+import org.jdom.Document;
+import org.jdom.Element;
+import org.jdom.output.Format;
+import org.jdom.output.XMLOutputter;
+
+
+/**
+ * JUnit test for SaveGameReader.
+ */
+public class SaveGameReaderTest extends TestCase
+{
+    public SaveGameReaderTest(String name)
+    {
+        super(name);
+    }
+
+    @SuppressWarnings("unchecked")
+    public void testReadsWhatGameSavingWrites() throws IOException,
+        XMLStreamException
+    {
+        Element root = new Element("ColossusSnapshot");
+        root.setAttribute("version", "14");
+        Element turn = new Element("TurnNumber");
+        turn.addContent("12");
+        root.addContent(turn);
+        Element history = new Element("History");
+        Element reveal = new Element("Reveal");
+        reveal.setAttribute("markerId", "Rd01");
+        reveal.setAttribute("reason", "<undefinedReason> & \"more\"");
+        Element creatures = new Element("creatures");
+        for (String name : new String[] { "Titan", "Angel" })
+        {
+            Element creature = new Element("creature");
+            creature.addContent(name);
+            creatures.addContent(creature);
+        }
+        reveal.addContent(creatures);
+        history.addContent(reveal);
+        root.addContent(history);
+        root.addContent(new Element("Redo"));
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        new XMLOutputter(Format.getPrettyFormat()).output(new Document(root),
+            out);
+        Element read = SaveGameReader.read(new ByteArrayInputStream(out
+            .toByteArray()));
+
+        assertEquals("ColossusSnapshot", read.getName());
+        assertEquals("14", read.getAttributeValue("version"));
+        assertEquals(3, read.getChildren().size());
+        // no whitespace from the pretty printing
+        assertEquals(3, read.getContent().size());
+        assertEquals("12", read.getChild("TurnNumber").getText());
+
+        Element readReveal = read.getChild("History").getChild("Reveal");
+        assertEquals("<undefinedReason> & \"more\"", readReveal
+            .getAttributeValue("reason"));
+        List<Element> readCreatures = readReveal.getChild("creatures")
+            .getChildren();
+        assertEquals(2, readCreatures.size());
+        assertEquals("Angel", readCreatures.get(1).getText());
+        assertTrue(read.getChild("Redo").getChildren().isEmpty());
+    }
+}
@@ -0,0 +1,129 @@
+package net.sf.colossus.server;
+
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+
+import javax.xml.stream.XMLStreamException;
+
+import junit.framework.TestCase;
+
+import org.jdom.Document;
+import org.jdom.Element;
+import org.jdom.JDOMException;
+import org.jdom.input.SAXBuilder;
+
+
+/**
+ * JUnit test for SaveGameWriter.Job.
+ */
+public class SaveGameWriterTest extends TestCase
+{
+    private File dir;
+
+    public SaveGameWriterTest(String name)
+    {
+        super(name);
+    }
+
+    @Override
+    protected void setUp() throws IOException
+    {
+        dir = File.createTempFile("saves", "");
+        dir.delete();
+        dir.mkdir();
+    }
+
+    @Override
+    protected void tearDown()
+    {
+        for (File file : dir.listFiles())
+        {
+            file.delete();
+        }
+        dir.delete();
+    }
+
+    public void testWriteReplaces() throws IOException, JDOMException
+    {
+        File save = new File(dir, "snap2.xml");
+        assertTrue(save.createNewFile());
+
+        Element root = new Element("ColossusSnapshot");
+        root.setAttribute("version", "15");
+        new SaveGameWriter.Job(new Document(root), save.getPath(), true)
+            .write();
+
+        assertFalse(new File(dir, "snap2.xml.tmp").exists());
+        Document doc = new SAXBuilder().build(save);
+        assertEquals("15", doc.getRootElement().getAttributeValue("version"));
+    }
+
+    public void testCompressed() throws IOException, XMLStreamException
+    {
+        File save = new File(dir, "snap3.xml.gz");
+        Element root = new Element("ColossusSnapshot");
+        root.setAttribute("version", "14");
+        for (int i = 0; i < 100; i++)
+        {
+            Element creature = new Element("Creature");
+            creature.setAttribute("name", "Ogre");
+            root.addContent(creature);
+        }
+        new SaveGameWriter.Job(new Document(root), save.getPath(), true)
+            .write();
+
+        InputStream in = new FileInputStream(save);
+        try
+        {
+            assertEquals(0x1f, in.read());
+            assertEquals(0x8b, in.read());
+        }
+        finally
+        {
+            in.close();
+        }
+        Element read = SaveGameReader.read(save);
+        assertEquals("14", read.getAttributeValue("version"));
+        assertEquals(100, read.getChildren("Creature").size());
+    }
+
+    public void testFailedWriteThrows()
+    {
+        File save = new File(new File(dir, "missing"), "snap4.xml");
+        try
+        {
+            new SaveGameWriter.Job(new Document(new Element(
+                "ColossusSnapshot")), save.getPath(), true).write();
+            fail("Writing into a missing directory should fail");
+        }
+        catch (IOException e)
+        {
+            // expected
+        }
+        assertFalse(save.exists());
+        assertEquals(0, dir.listFiles().length);
+    }
+
+    public void testTrimAutosaves() throws IOException
+    {
+        List<String> files = new ArrayList<String>();
+        for (int i = 0; i < 4; i++)
+        {
+            File file = new File(dir, "snap" + i + ".xml");
+            assertTrue(file.createNewFile());
+            files.add(file.getPath());
+        }
+        GameSaving.trimAutosaves(files, 2);
+
+        assertEquals(2, files.size());
+        assertFalse(new File(dir, "snap0.xml").exists());
+        assertFalse(new File(dir, "snap1.xml").exists());
+        assertTrue(new File(dir, "snap2.xml").exists());
+        assertTrue(new File(dir, "snap3.xml").exists());
+    }
+}
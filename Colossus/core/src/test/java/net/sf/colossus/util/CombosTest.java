@@ -2,8 +2,10 @@ package net.sf.colossus.util;
 
 
 import java.util.ArrayList;
+import java.util.HashSet;
 import java.util.Iterator;
 import java.util.List;
+import java.util.Set;
 
 import junit.framework.TestCase;
 
@@ -41,4 +43,101 @@ public class CombosTest extends TestCase
 
         assertEquals(results.size(), 4);
     }
+
+    /** The combinations as the old, eager version of Combos found them. */
+    private static <T> void findCombinations(List<T> alist, int n,
+        List<T> blist, List<List<T>> retlist)
+    {
+        if (n < 0 || n > alist.size())
+        {
+            return;
+        }
+        if (n == 0)
+        {
+            retlist.add(new ArrayList<T>(blist));
+            return;
+        }
+        for (int i = 0; i < alist.size(); i++)
+        {
+            blist.add(alist.get(i));
+            findCombinations(new ArrayList<T>(alist.subList(i + 1, alist
+                .size())), n - 1, blist, retlist);
+            blist.remove(blist.size() - 1);
+        }
+    }
+
+    public void testSameAsEagerVersion()
+    {
+        List<String> startlist = new ArrayList<String>();
+        for (int size = 0; size <= 8; size++)
+        {
+            for (int n = -1; n <= size + 1; n++)
+            {
+                List<List<String>> expected = new ArrayList<List<String>>();
+                findCombinations(startlist, n, new ArrayList<String>(),
+                    expected);
+                List<List<String>> results = new ArrayList<List<String>>();
+                for (List<String> combo : new Combos<String>(startlist, n))
+                {
+                    results.add(combo);
+                }
+                assertEquals(expected, results);
+            }
+            // duplicates are treated as distinct elements
+            startlist.add(size % 3 == 0 ? "x" : "e" + size);
+        }
+    }
+
+    public void testMasks()
+    {
+        List<String> startlist = new ArrayList<String>();
+        for (int i = 0; i < 7; i++)
+        {
+            startlist.add("e" + i);
+        }
+        for (int n = 1; n <= 7; n++)
+        {
+            Set<List<String>> expected = new HashSet<List<String>>();
+            for (List<String> combo : new Combos<String>(startlist, n))
+            {
+                expected.add(combo);
+            }
+            Set<List<String>> results = new HashSet<List<String>>();
+            int count = 0;
+            int size = startlist.size();
+            for (long mask = Combos.firstMask(n, size); mask != 0; mask = Combos
+                .nextMask(mask, size))
+            {
+                assertEquals(n, Long.bitCount(mask));
+                results.add(Combos.select(startlist, mask));
+                count++;
+            }
+            assertEquals(expected.size(), count);
+            assertEquals(expected, results);
+        }
+    }
+
+    public void testFirstMaskOutOfRange()
+    {
+        assertEquals(7L, Combos.firstMask(3, 3));
+        assertEquals(0L, Combos.firstMask(0, 5));
+        try
+        {
+            Combos.firstMask(4, 3);
+            fail("More elements than there are should be rejected");
+        }
+        catch (IllegalArgumentException e)
+        {
+            // expected
+        }
+        try
+        {
+            Combos.firstMask(-1, 3);
+            fail("A negative number of elements should be rejected");
+        }
+        catch (IllegalArgumentException e)
+        {
+            // expected
+        }
+    }
 }
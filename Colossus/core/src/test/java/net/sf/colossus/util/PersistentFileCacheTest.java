@@ -0,0 +1,136 @@
+package net.sf.colossus.util;
+
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+
+import junit.framework.TestCase;
+
+
+/**
+ * JUnit test for PersistentFileCache.
+ */
+public class PersistentFileCacheTest extends TestCase
+{
+    private File directory;
+
+    public PersistentFileCacheTest(String name)
+    {
+        super(name);
+    }
+
+    @Override
+    protected void setUp() throws IOException
+    {
+        directory = File.createTempFile("filecache", "");
+        directory.delete();
+    }
+
+    @Override
+    protected void tearDown()
+    {
+        delete(directory);
+    }
+
+    private static void delete(File file)
+    {
+        File[] children = file.listFiles();
+        if (children != null)
+        {
+            for (File child : children)
+            {
+                delete(child);
+            }
+        }
+        file.delete();
+    }
+
+    public void testStoreAndGetBack()
+    {
+        byte[] data = "<variant name=\"Default\"/>".getBytes();
+        String hash = PersistentFileCache.getContentHash(data);
+        String key = "DefaultVar.xml,variants/Default,Default";
+
+        PersistentFileCache cache = new PersistentFileCache(directory);
+        assertNull(cache.getHash(key));
+        assertNull(cache.getContents(hash));
+        cache.put(key, hash, data);
+
+        // as in the next game
+        PersistentFileCache again = new PersistentFileCache(directory);
+        assertEquals(hash, again.getHash(key));
+        assertTrue(Arrays.equals(data, again.getContents(hash)));
+        assertNull(again.getHash("DefaultVar.xml,variants/Other"));
+    }
+
+    public void testSameContentsStoredOnce()
+    {
+        byte[] data = "shared".getBytes();
+        String hash = PersistentFileCache.getContentHash(data);
+
+        PersistentFileCache cache = new PersistentFileCache(directory);
+        cache.put("a.png,variants/A", hash, data);
+        cache.put("a.png,variants/B", hash, data);
+
+        assertEquals(1, new File(directory, "files").list().length);
+        assertEquals(2, new File(directory, "keys").list().length);
+    }
+
+    public void testDamagedContentsAreDropped() throws IOException
+    {
+        byte[] data = "original".getBytes();
+        String hash = PersistentFileCache.getContentHash(data);
+        PersistentFileCache cache = new PersistentFileCache(directory);
+        cache.put("key", hash, data);
+
+        File file = new File(new File(directory, "files"), hash);
+        FileOutputStream out = new FileOutputStream(file);
+        out.write("damaged".getBytes());
+        out.close();
+
+        assertNull(cache.getContents(hash));
+        assertFalse(file.exists());
+    }
+
+    public void testTraversalHashIsRejected()
+    {
+        byte[] data = "evil".getBytes();
+        String hash = "../../escaped";
+
+        PersistentFileCache cache = new PersistentFileCache(directory);
+        assertFalse(cache.put("key", hash, data));
+
+        assertFalse(new File(directory.getParentFile(), "escaped").exists());
+        assertFalse(new File(directory, "files").exists());
+        assertNull(cache.getHash("key"));
+        assertNull(cache.getContents(hash));
+    }
+
+    public void testWrongHashIsNotCached()
+    {
+        byte[] data = "poisoned".getBytes();
+        String hash = PersistentFileCache.getContentHash("genuine"
+            .getBytes());
+
+        PersistentFileCache cache = new PersistentFileCache(directory);
+        assertFalse(cache.put("key", hash, data));
+
+        PersistentFileCache again = new PersistentFileCache(directory);
+        assertNull(again.getHash("key"));
+        assertNull(again.getContents(hash));
+    }
+
+    public void testIsContentHash()
+    {
+        assertTrue(PersistentFileCache.isContentHash(PersistentFileCache
+            .getContentHash("x".getBytes())));
+        assertFalse(PersistentFileCache.isContentHash(null));
+        assertFalse(PersistentFileCache.isContentHash("-"));
+        assertFalse(PersistentFileCache
+            .isContentHash("0123456789ABCDEF0123456789abcdef01234567"));
+        assertFalse(PersistentFileCache
+            .isContentHash("0123456789abcdef0123456789abcdef0123456"));
+    }
+}
@@ -0,0 +1,80 @@
+package net.sf.colossus.util;
+
+
+import junit.framework.TestCase;
+
+
+/**
+ * JUnit test for Probs.
+ */
+public class ProbsTest extends TestCase
+{
+    private static final double EPSILON = 1e-12;
+
+    public ProbsTest(String name)
+    {
+        super(name);
+    }
+
+    public void testChoose()
+    {
+        assertEquals(1, Probs.choose(0, 0));
+        assertEquals(10, Probs.choose(5, 2));
+        assertEquals(1, Probs.choose(13, 13));
+        assertEquals(1716, Probs.choose(13, 6));
+        assertEquals(3432, Probs.choose(14, 7));
+    }
+
+    public void testSameAsFormula()
+    {
+        for (int dice = 0; dice <= 12; dice++)
+        {
+            for (int strike = 1; strike <= 6; strike++)
+            {
+                double p = (7.0 - strike) / 6.0;
+                double[] dist = Probs.getHitDistribution(dice, strike);
+                assertEquals(dice + 1, dist.length);
+                for (int hits = 0; hits <= dice; hits++)
+                {
+                    double expected = Math.pow(p, hits)
+                        * Math.pow(1 - p, dice - hits)
+                        * Probs.choose(dice, hits);
+                    assertEquals(expected, dist[hits], EPSILON);
+                    assertEquals(expected, Probs.probHits(dice, strike,
+                        hits), EPSILON);
+                }
+            }
+        }
+    }
+
+    public void testCumulative()
+    {
+        for (int dice = 0; dice <= Probs.MAX_TABLE_DICE + 2; dice++)
+        {
+            for (int strike = 1; strike <= 6; strike++)
+            {
+                double sum = 0.0;
+                for (int hits = 0; hits <= dice; hits++)
+                {
+                    sum += Probs.probHits(dice, strike, hits);
+                    assertEquals(sum, Probs.probHitsOrLess(dice, strike,
+                        hits), 1e-9);
+                    assertEquals(1.0 - sum, Probs.probHitsOrMore(dice,
+                        strike, hits + 1), 1e-9);
+                }
+                assertEquals(1.0, sum, 1e-9);
+                assertEquals(1.0, Probs.probHitsOrMore(dice, strike, 0),
+                    EPSILON);
+            }
+        }
+    }
+
+    public void testOutOfRange()
+    {
+        assertEquals(0.0, Probs.probHits(3, 4, -1), EPSILON);
+        assertEquals(0.0, Probs.probHits(3, 4, 4), EPSILON);
+        assertEquals(1.0, Probs.probHits(3, 7, 0), EPSILON);
+        assertEquals(0.0, Probs.probHitsOrMore(3, 7, 1), EPSILON);
+        assertEquals(1.0, Probs.probHitsOrMore(3, 1, 3), EPSILON);
+    }
+}
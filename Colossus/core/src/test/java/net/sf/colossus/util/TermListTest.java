@@ -0,0 +1,74 @@
+package net.sf.colossus.util;
+
+
+import java.util.Arrays;
+import java.util.List;
+
+import junit.framework.TestCase;
+
+
+/**
+ * JUnit test for TermList and Split.splitToArray().
+ */
+public class TermListTest extends TestCase
+{
+    public TermListTest(String name)
+    {
+        super(name);
+    }
+
+    public void testSplitToArrayLikeSplit()
+    {
+        String[] lines = { "", "a", "a ~ b", "a ~ ", " ~ a", "a ~  ~ b",
+            "signOn ~ name ~ true ~ 11" };
+        for (String line : lines)
+        {
+            assertEquals(line, Split.split(" ~ ", line), Arrays
+                .asList(Split.splitToArray(" ~ ", line)));
+        }
+    }
+
+    public void testRemoveFirst()
+    {
+        String[] terms = Split.splitToArray(" ~ ", "cmd ~ a ~ b ~ c");
+        List<String> args = new TermList(terms, 1);
+        List<String> copy = TermList.copyOf(args);
+
+        assertEquals(3, args.size());
+        assertEquals("a", args.remove(0));
+        assertEquals("b", args.get(0));
+        assertEquals(Arrays.asList("b", "c"), args);
+        assertEquals("b", args.remove(0));
+        assertEquals("c", args.remove(0));
+        assertTrue(args.isEmpty());
+
+        // the copy and the array are unaffected
+        assertEquals(Arrays.asList("a", "b", "c"), copy);
+        assertEquals("cmd", terms[0]);
+        assertEquals("a", terms[1]);
+    }
+
+    public void testBounds()
+    {
+        List<String> args = new TermList(new String[] { "x" }, 1);
+        assertTrue(args.isEmpty());
+        try
+        {
+            args.remove(0);
+            fail("remove from empty list");
+        }
+        catch (IndexOutOfBoundsException e)
+        {
+            // expected
+        }
+        try
+        {
+            new TermList(new String[] { "x", "y" }, 1).remove(1);
+            fail("remove(1) is not supported");
+        }
+        catch (UnsupportedOperationException e)
+        {
+            // expected
+        }
+    }
+}